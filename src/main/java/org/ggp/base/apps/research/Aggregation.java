@@ -32,7 +32,10 @@ public abstract class Aggregation<T extends Comparable<T>>
 	private final class EntryComparator implements Comparator<Map.Entry<String,T>> {
 		@Override
 		public int compare(Map.Entry<String,T> a, Map.Entry<String,T> b) {
-			return a.getValue().compareTo(b.getValue());
+			// Break ties by key, so that entries with equal data aren't
+			// dropped from the sorted set.
+			int comparison = a.getValue().compareTo(b.getValue());
+			return (comparison != 0) ? comparison : a.getKey().compareTo(b.getKey());
 		}
 
 	}
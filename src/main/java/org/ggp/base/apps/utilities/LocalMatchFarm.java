@@ -0,0 +1,477 @@
+package org.ggp.base.apps.utilities;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.apps.research.FrequencyTable;
+import org.ggp.base.apps.research.Histogram;
+import org.ggp.base.apps.research.WeightedAverage;
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.IIGamer;
+import org.ggp.base.player.request.grammar.PlayRequest;
+import org.ggp.base.player.request.grammar.Request;
+import org.ggp.base.player.request.grammar.SeesRequest;
+import org.ggp.base.player.request.grammar.StartRequest;
+import org.ggp.base.player.request.grammar.StopRequest;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.match.IIMatch;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.reflection.ProjectSearcher;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.See;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * LocalMatchFarm is a utility program that plays many matches between gamers
+ * inside this process, without any players or sockets, so that a new gamer
+ * can be compared against baselines in minutes rather than days. It takes
+ * the following arguments:
+ *
+ * args[0] = game key, or the path of a .kif file, for loading the game
+ * args[1] = number of matches to play
+ * args[2] = start clock, in seconds
+ * args[3] = play clock, in seconds
+ * args[4] = number of matches to play at once
+ * args[5] = file to append the matches to, one Match.toJSON per line
+ * args[6...] = gamer classes, by full or simple name
+ *
+ * Gamers take turns in every role: in match i, role r is played by gamer
+ * (i + r) mod n. Each match gets new gamer instances, which are sent the
+ * same start, play (or sees, for GDL-II gamers) and stop requests that a
+ * GameServer would send. As in a GameServer, the start and play requests go
+ * to every role at once, and moves are scored the same way: a move that is
+ * illegal, malformed or late is replaced by a random legal move and recorded
+ * as an error in the match. Gamers are trusted to return in time, though, since
+ * nothing here can interrupt a gamer that does not.
+ */
+public final class LocalMatchFarm
+{
+	// How far past the clock a response may arrive before it counts as a
+	// timeout, like the extra second GameServer allows for the network.
+	private static final long GRACE_PERIOD = 1000;
+
+	/**
+	 * The data aggregated over all of the matches. Update it only while
+	 * holding its lock.
+	 */
+	public static final class AggregateData {
+		public final FrequencyTable averageScore = new FrequencyTable();
+		public final FrequencyTable averageScoreByRole = new FrequencyTable();
+		public final Histogram wins = new Histogram();
+		public final Histogram errors = new Histogram();
+		public final WeightedAverage matchLength = new WeightedAverage();
+		public int completedMatches;
+		public int failedMatches;
+
+		@Override
+		public synchronized String toString() {
+			return "Average score:\n" + averageScore
+					+ "\nAverage score by role:\n" + averageScoreByRole
+					+ "\nWins:\n" + wins
+					+ "\nErrors:\n" + errors
+					+ "\nAverage match length: " + matchLength
+					+ "\nCompleted matches: " + completedMatches
+					+ "\nFailed matches: " + failedMatches;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 7) {
+			throw new RuntimeException("Expected a game, match count, start clock, play clock, thread count, output file and at least one gamer.");
+		}
+		Game game = loadGame(args[0]);
+		int matchCount = Integer.valueOf(args[1]);
+		int startClock = Integer.valueOf(args[2]);
+		int playClock = Integer.valueOf(args[3]);
+		int threadCount = Integer.valueOf(args[4]);
+		List<Class<? extends Gamer>> gamers = new ArrayList<Class<? extends Gamer>>();
+		for (int i = 6; i < args.length; i++) {
+			gamers.add(findGamer(args[i]));
+		}
+
+		Writer output = new BufferedWriter(new FileWriter(args[5], true));
+		try {
+			LocalMatchFarm farm = new LocalMatchFarm(game, args[0], gamers, startClock, playClock, output);
+			long start = System.currentTimeMillis();
+			AggregateData data = farm.run(matchCount, threadCount);
+			System.out.println(data);
+			System.out.println("Played " + matchCount + " matches in " + (System.currentTimeMillis() - start) / 1000 + " seconds.");
+		} finally {
+			output.close();
+		}
+	}
+
+	private static Game loadGame(String key)
+	{
+		File file = new File(key);
+		if (file.isFile()) {
+			return Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(file)));
+		}
+		return GameRepository.getDefaultRepository().getGame(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Gamer> findGamer(String name)
+	{
+		for (Class<? extends Gamer> gamer : ProjectSearcher.GAMERS.getConcreteClasses()) {
+			if (gamer.getSimpleName().equals(name)) {
+				return gamer;
+			}
+		}
+		try {
+			return (Class<? extends Gamer>) Class.forName(name).asSubclass(Gamer.class);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException("Could not find gamer " + name, e);
+		}
+	}
+
+	private final Game game;
+	private final String gameName;
+	private final List<Class<? extends Gamer>> gamers;
+	private final int startClock;
+	private final int playClock;
+	private final Writer output;
+	private final boolean incompleteInformation;
+	private final AggregateData data = new AggregateData();
+
+	/**
+	 * Creates a farm for the given game and gamers. The output may be null,
+	 * in which case only the aggregate data is kept.
+	 */
+	public LocalMatchFarm(Game game, String gameName, List<Class<? extends Gamer>> gamers, int startClock, int playClock, Writer output)
+	{
+		this.game = game;
+		this.gameName = gameName;
+		this.gamers = gamers;
+		this.startClock = startClock;
+		this.playClock = playClock;
+		this.output = output;
+
+		boolean anyII = false, allII = true;
+		for (Class<? extends Gamer> gamer : gamers) {
+			boolean isII = IIGamer.class.isAssignableFrom(gamer);
+			anyII |= isII;
+			allII &= isII;
+		}
+		if (anyII && !allII) {
+			throw new IllegalArgumentException("Gamers for complete and incomplete information games cannot play each other.");
+		}
+		this.incompleteInformation = anyII;
+	}
+
+	/**
+	 * Plays the given number of matches, the given number at a time, and
+	 * returns the aggregate data once they have all finished.
+	 */
+	public AggregateData run(int matchCount, int threadCount) throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		// Runs the requests of every match, so that all roles can think at once.
+		final ExecutorService requestExecutor = Executors.newCachedThreadPool();
+		// Each worker keeps its own state machines, and reuses them for every match it plays.
+		final ThreadLocal<Referee> referees = new ThreadLocal<Referee>() {
+			@Override
+			protected Referee initialValue() {
+				return new Referee(game.getRules(), requestExecutor);
+			}
+		};
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>(matchCount);
+			for (int i = 0; i < matchCount; i++) {
+				final int matchIndex = i;
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						referees.get().play(matchIndex);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					synchronized (data) {
+						data.failedMatches++;
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			requestExecutor.shutdownNow();
+		}
+		return data;
+	}
+
+	public AggregateData getData()
+	{
+		return data;
+	}
+
+	/** A gamer's response to a request, and when it was sent and received. */
+	private static final class Response
+	{
+		private final String text;
+		private final long sent;
+		private final long received;
+
+		private Response(String text, long sent, long received)
+		{
+			this.text = text;
+			this.sent = sent;
+			this.received = received;
+		}
+	}
+
+	/** Runs matches on one worker thread, playing the part of the game server. */
+	private final class Referee
+	{
+		private final StateMachine stateMachine;
+		private final IIStateMachine iistateMachine;
+		private final List<Role> roles;
+		private final ExecutorService requestExecutor;
+		private final Random random = new Random();
+
+		private Referee(List<Gdl> rules, ExecutorService requestExecutor)
+		{
+			this.requestExecutor = requestExecutor;
+			stateMachine = new ProverStateMachine();
+			stateMachine.initialize(rules);
+			roles = stateMachine.getRoles();
+			if (incompleteInformation) {
+				iistateMachine = new IISamplePropNetStateMachine();
+				try {
+					iistateMachine.initialize(stateMachine, rules);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while building the propnet", e);
+				}
+			} else {
+				iistateMachine = null;
+			}
+		}
+
+		private void play(int matchIndex) throws Exception
+		{
+			String matchId = "farm." + gameName.replaceAll("[^A-Za-z0-9]", "") + "." + matchIndex + "." + Match.getRandomString(5);
+			List<Gamer> players = new ArrayList<Gamer>(roles.size());
+			List<String> playerNames = new ArrayList<String>(roles.size());
+			for (int r = 0; r < roles.size(); r++) {
+				Class<? extends Gamer> gamer = gamers.get((matchIndex + r) % gamers.size());
+				players.add(gamer.newInstance());
+				playerNames.add(gamer.getSimpleName());
+			}
+			Match match = incompleteInformation ? new IIMatch(matchId, -1, startClock, playClock, game, "") : new Match(matchId, -1, startClock, playClock, game, "");
+			match.setPlayerNamesFromHost(playerNames);
+
+			MachineState state = stateMachine.getInitialState();
+			match.appendState(state.getContents());
+
+			List<Request> requests = new ArrayList<Request>(roles.size());
+			for (int r = 0; r < roles.size(); r++) {
+				requests.add(new StartRequest(players.get(r), matchId, roles.get(r).getName(), game, startClock, playClock));
+			}
+			List<String> errors = new ArrayList<String>(roles.size());
+			for (Response response : sendAll(requests)) {
+				errors.add(getError(response, startClock, false));
+			}
+			appendErrors(match, errors, playerNames);
+
+			List<GdlTerm> previousMoves = null;
+			List<Set<GdlTerm>> currentSees = new ArrayList<Set<GdlTerm>>(roles.size());
+			for (int r = 0; r < roles.size(); r++) {
+				currentSees.add(new HashSet<GdlTerm>());
+			}
+			while (!stateMachine.isTerminal(state)) {
+				requests.clear();
+				for (int r = 0; r < roles.size(); r++) {
+					if (incompleteInformation) {
+						requests.add(new SeesRequest((IIGamer) players.get(r), matchId, currentSees.get(r)));
+					} else {
+						requests.add(new PlayRequest(players.get(r), matchId, previousMoves));
+					}
+				}
+				List<Response> responses = sendAll(requests);
+
+				List<Move> moves = new ArrayList<Move>(roles.size());
+				errors.clear();
+				for (int r = 0; r < roles.size(); r++) {
+					Response response = responses.get(r);
+					List<Move> legalMoves = stateMachine.getLegalMoves(state, roles.get(r));
+					Move move = parseMove(response.text);
+					String error = getError(response, playClock, true);
+					if (error.isEmpty() && !legalMoves.contains(move)) {
+						error = "IL " + move;
+					}
+					if (!error.isEmpty()) {
+						move = legalMoves.get(random.nextInt(legalMoves.size()));
+					}
+					moves.add(move);
+					errors.add(error);
+				}
+				state = stateMachine.getNextState(state, moves);
+				match.appendMoves2(moves);
+				match.appendState(state.getContents());
+				appendErrors(match, errors, playerNames);
+
+				previousMoves = new ArrayList<GdlTerm>(moves.size());
+				for (Move move : moves) {
+					previousMoves.add(move.getContents());
+				}
+				if (incompleteInformation) {
+					List<SeesState> seesStates = iistateMachine.getSeesStates(state);
+					for (int r = 0; r < roles.size(); r++) {
+						Set<GdlTerm> terms = new HashSet<GdlTerm>();
+						if (seesStates.get(r).getSees() != null) {
+							for (See see : seesStates.get(r).getSees()) {
+								terms.add(see.getContents());
+							}
+						}
+						currentSees.set(r, terms);
+					}
+				}
+			}
+			List<Integer> goals = stateMachine.getGoals(state);
+			match.markCompleted(goals);
+
+			for (int r = 0; r < roles.size(); r++) {
+				// GDL-II players get their last sees in place of the last moves.
+				List<GdlTerm> lastInfo = incompleteInformation ? new ArrayList<GdlTerm>(currentSees.get(r)) : previousMoves;
+				try {
+					new StopRequest(players.get(r), matchId, lastInfo).process(System.currentTimeMillis());
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			record(match, goals, roles, playerNames);
+		}
+
+		/**
+		 * Sends the requests to every role at once and waits for all of the
+		 * responses. A request that throws gets a null response.
+		 */
+		private List<Response> sendAll(List<Request> requests) throws InterruptedException, ExecutionException
+		{
+			List<Callable<Response>> calls = new ArrayList<Callable<Response>>(requests.size());
+			for (final Request request : requests) {
+				calls.add(new Callable<Response>() {
+					@Override
+					public Response call() {
+						long sent = System.currentTimeMillis();
+						String text;
+						try {
+							text = request.process(sent);
+						} catch (RuntimeException e) {
+							text = null;
+						}
+						return new Response(text, sent, System.currentTimeMillis());
+					}
+				});
+			}
+			List<Response> responses = new ArrayList<Response>(requests.size());
+			for (Future<Response> future : requestExecutor.invokeAll(calls)) {
+				responses.add(future.get());
+			}
+			return responses;
+		}
+
+		private Move parseMove(String response)
+		{
+			if (response == null) {
+				return null;
+			}
+			try {
+				return stateMachine.getMoveFromTerm(GdlFactory.createTerm(response));
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Returns the error code that a game server would record for the
+		 * given response, or the empty string if there was no error.
+		 */
+		private String getError(Response response, int clock, boolean isMove)
+		{
+			if (response.text == null) {
+				return "CE";
+			}
+			if (response.received - response.sent > clock * 1000L + GRACE_PERIOD) {
+				return "TO";
+			}
+			if (isMove && parseMove(response.text) == null) {
+				return "IL null";
+			}
+			return "";
+		}
+	}
+
+	private void appendErrors(Match match, List<String> errors, List<String> playerNames)
+	{
+		match.appendErrors(new ArrayList<String>(errors));
+		synchronized (data) {
+			for (int r = 0; r < errors.size(); r++) {
+				if (!errors.get(r).isEmpty()) {
+					data.errors.add(playerNames.get(r) + " " + errors.get(r).split(" ")[0]);
+				}
+			}
+		}
+	}
+
+	private void record(Match match, List<Integer> goals, List<Role> roles, List<String> playerNames) throws IOException
+	{
+		int best = -1;
+		String winner = null;
+		for (int r = 0; r < goals.size(); r++) {
+			if (goals.get(r) > best) {
+				best = goals.get(r);
+				winner = playerNames.get(r);
+			} else if (goals.get(r) == best) {
+				winner = null;
+			}
+		}
+		synchronized (data) {
+			for (int r = 0; r < goals.size(); r++) {
+				data.averageScore.add(playerNames.get(r), goals.get(r));
+				data.averageScoreByRole.add(playerNames.get(r) + " as " + roles.get(r), goals.get(r));
+			}
+			data.wins.add(winner == null ? "(tie)" : winner);
+			data.matchLength.addValue(match.getMoveHistory().size());
+			data.completedMatches++;
+		}
+		if (output != null) {
+			String json = match.toJSON();
+			synchronized (output) {
+				output.write(json);
+				output.write("\n");
+				output.flush();
+			}
+		}
+	}
+}
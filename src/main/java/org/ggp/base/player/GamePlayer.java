@@ -1,10 +1,14 @@
 package org.ggp.base.player;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import org.ggp.base.player.event.PlayerDroppedPacketEvent;
 import org.ggp.base.player.event.PlayerReceivedMessageEvent;
@@ -12,30 +16,47 @@ import org.ggp.base.player.event.PlayerSentMessageEvent;
 import org.ggp.base.player.gamer.Gamer;
 import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
 import org.ggp.base.player.request.factory.RequestFactory;
+import org.ggp.base.player.request.grammar.InfoRequest;
 import org.ggp.base.player.request.grammar.Request;
-import org.ggp.base.util.http.HttpReader;
-import org.ggp.base.util.http.HttpWriter;
+import org.ggp.base.util.http.AsyncHttpServer;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
 
 
+/**
+ * GamePlayer answers a game server's requests on behalf of a {@link Gamer}.
+ * Requests are read by an {@link AsyncHttpServer}, parsed in the order they
+ * arrive on a reader thread, and processed one at a time, in that order, on
+ * a worker thread. INFO requests are answered by the reader thread instead,
+ * so that the player still shows up as alive while it is working out a move.
+ */
 public final class GamePlayer extends AbstractGamePlayer
 {
+    // How long a connection may go without progress before it is closed.
+    private static final int CONNECTION_TIMEOUT = 30000;
+
     private final int port;
     private final Gamer gamer;
-    private ServerSocket listener;
+    private final ServerSocketChannel listener;
+    private final AsyncHttpServer server;
+    private final ExecutorService reader;
+    private final ExecutorService worker;
     private final List<Observer> observers;
 
     public GamePlayer(int port, Gamer gamer) throws IOException
     {
         observers = new ArrayList<Observer>();
-        listener = null;
 
+        ServerSocketChannel listener = null;
         while(listener == null) {
             try {
-                listener = new ServerSocket(port);
+                listener = ServerSocketChannel.open();
+                listener.socket().bind(new InetSocketAddress(port));
             } catch (IOException ex) {
+                if (listener != null) {
+                    listener.close();
+                }
                 listener = null;
                 port++;
                 System.err.println("Failed to start gamer on port: " + (port-1) + " trying port " + port);
@@ -44,6 +65,27 @@ public final class GamePlayer extends AbstractGamePlayer
 
         this.port = port;
         this.gamer = gamer;
+        this.listener = listener;
+        this.server = new AsyncHttpServer(listener, new AsyncHttpServer.Handler() {
+            @Override
+            public void handle(AsyncHttpServer.Exchange exchange) {
+                receive(exchange);
+            }
+        }, CONNECTION_TIMEOUT);
+        this.reader = newDaemonExecutor("GamePlayer reader");
+        this.worker = newDaemonExecutor("GamePlayer worker");
+    }
+
+    private static ExecutorService newDaemonExecutor(final String name)
+    {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
 	@Override
@@ -70,9 +112,11 @@ public final class GamePlayer extends AbstractGamePlayer
 	}
 
 	public void shutdown() {
+		server.close();
+		reader.shutdown();
+		worker.shutdown();
 		try {
 			listener.close();
-			listener = null;
 		} catch (IOException e) {
 			;
 		}
@@ -81,31 +125,71 @@ public final class GamePlayer extends AbstractGamePlayer
 	@Override
 	public void run()
 	{
-		while (listener != null) {
-			try {
-				Socket connection = listener.accept();
-				String in = HttpReader.readAsServer(connection);
-				if (in.length() == 0) {
-				    throw new IOException("Empty message received.");
-				}
+		server.run();
+	}
 
-				notifyObservers(new PlayerReceivedMessageEvent(in));
-				GamerLogger.log("GamePlayer", "[Received at " + System.currentTimeMillis() + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
+	// Called on the server's selector thread, which this must not hold up.
+	private void receive(final AsyncHttpServer.Exchange exchange)
+	{
+		try {
+			reader.execute(new Runnable() {
+				@Override
+				public void run() {
+					read(exchange);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			exchange.drop();
+		}
+	}
 
-				Request request = new RequestFactory().create(gamer, in);
-				String out = request.process(System.currentTimeMillis());
+	private void read(final AsyncHttpServer.Exchange exchange)
+	{
+		try {
+			String in = exchange.getContent();
+			if (in.length() == 0) {
+			    throw new IOException("Empty message received.");
+			}
 
-				HttpWriter.writeAsServer(connection, out);
-				connection.close();
-				notifyObservers(new PlayerSentMessageEvent(out));
-				GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + out, GamerLogger.LOG_LEVEL_DATA_DUMP);
-			} catch (Exception e) {
-				GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to " + e, GamerLogger.LOG_LEVEL_DATA_DUMP);
-				notifyObservers(new PlayerDroppedPacketEvent());
+			notifyObservers(new PlayerReceivedMessageEvent(in));
+			GamerLogger.log("GamePlayer", "[Received at " + exchange.getReceptionTime() + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
+
+			final Request request = new RequestFactory().create(gamer, in);
+			if (request instanceof InfoRequest) {
+				respond(exchange, request);
+			} else {
+				worker.execute(new Runnable() {
+					@Override
+					public void run() {
+						respond(exchange, request);
+					}
+				});
 			}
+		} catch (Exception e) {
+			drop(exchange, e);
+		}
+	}
+
+	private void respond(AsyncHttpServer.Exchange exchange, Request request)
+	{
+		try {
+			String out = request.process(exchange.getReceptionTime());
+
+			exchange.respond(out);
+			notifyObservers(new PlayerSentMessageEvent(out));
+			GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + out, GamerLogger.LOG_LEVEL_DATA_DUMP);
+		} catch (Exception e) {
+			drop(exchange, e);
 		}
 	}
 
+	private void drop(AsyncHttpServer.Exchange exchange, Exception e)
+	{
+		exchange.drop();
+		GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to " + e, GamerLogger.LOG_LEVEL_DATA_DUMP);
+		notifyObservers(new PlayerDroppedPacketEvent());
+	}
+
 	// Simple main function that starts a RandomGamer on a specified port.
 	// It might make sense to factor this out into a separate app sometime,
 	// so that the GamePlayer class doesn't have to import RandomGamer.
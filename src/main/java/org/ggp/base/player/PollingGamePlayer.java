@@ -1,11 +1,13 @@
 package org.ggp.base.player;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,13 +18,12 @@ import org.ggp.base.player.gamer.Gamer;
 import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
 import org.ggp.base.player.request.factory.RequestFactory;
 import org.ggp.base.player.request.grammar.Request;
+import org.ggp.base.util.gdl.factory.GdlParser;
 import org.ggp.base.util.gdl.grammar.DataFormat;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
-import org.ggp.base.util.symbol.factory.HRFSymbolFactory;
-import org.ggp.base.util.symbol.grammar.SymbolList;
 
 import com.google.common.collect.Lists;
 
@@ -38,6 +39,13 @@ import com.google.common.collect.Lists;
  * between manager and player.
  * Players can also bounce back into games when connection hangs for a brief period of time.
  *
+ * Each poll asks the manager to hold it open for up to {@link #LONG_POLL_WAIT}
+ * seconds until it has a message, and the player polls again as soon as it
+ * has answered one, so a message is picked up as soon as it is sent. A
+ * manager that answers empty polls right away is polled once every
+ * {@link #POLL_INTERVAL} ms instead. Responses are read to the end so that
+ * HttpURLConnection can reuse the keep-alive connection for the next poll.
+ *
  * Assumes HRF message format, but can be configured otherwise.
  *
  * @author robertchuchro
@@ -45,6 +53,12 @@ import com.google.common.collect.Lists;
  */
 public final class PollingGamePlayer extends AbstractGamePlayer
 {
+    // How many seconds the manager may hold a poll open without a message.
+    static final int LONG_POLL_WAIT = 30;
+    // How many ms to wait between polls when the manager doesn't hold them open.
+    static final long POLL_INTERVAL = 1000;
+
+    private volatile boolean running = true;
     private final String getUrl;
     private final String putUrl;
     private final Gamer gamer;
@@ -87,7 +101,7 @@ public final class PollingGamePlayer extends AbstractGamePlayer
 	}
 
 	public void shutdown() {
-		//meow
+		running = false;
 	}
 
 	@Override
@@ -95,18 +109,23 @@ public final class PollingGamePlayer extends AbstractGamePlayer
 	{
 		//flush the message queue in case there are ghost messages from previous instances
 		try {
-			String flushed = sendGet();
+			String flushed = sendGet(0);
 			while (flushed != null && flushed.length() > 0) {
-				flushed = sendGet();
+				flushed = sendGet(0);
 			}
 		} catch (IOException e1) {/*noop*/}
 
-		while (true) {
+		while (running) {
 			try {
-				String in = sendGet();
+				long polledAt = System.currentTimeMillis();
+				String in = sendGet(LONG_POLL_WAIT);
 
 				if (in == null || in.length() == 0) {
-					sleep(1000L);
+					// A manager that held the poll open can be polled again
+					// straight away; one that didn't is polled at intervals.
+					if (System.currentTimeMillis() - polledAt < LONG_POLL_WAIT * 1000L / 2) {
+						pause();
+					}
 					continue;
 				}
 
@@ -115,7 +134,6 @@ public final class PollingGamePlayer extends AbstractGamePlayer
 
 				Request request = new RequestFactory().create(gamer, in);
 				String out = request.process(System.currentTimeMillis());
-				//System.out.println(out);
 
 				sendPost(out, parseMessageId(in));
 				notifyObservers(new PlayerSentMessageEvent(out));
@@ -124,13 +142,16 @@ public final class PollingGamePlayer extends AbstractGamePlayer
 				System.out.println("[Dropped data at " + System.currentTimeMillis() + "] Due to " + e);
 				GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to " + e, GamerLogger.LOG_LEVEL_DATA_DUMP);
 				notifyObservers(new PlayerDroppedPacketEvent());
+				pause();
 			}
-			try {
-				sleep(1000L);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		}
+	}
+
+	private void pause() {
+		try {
+			sleep(POLL_INTERVAL);
+		} catch (InterruptedException e) {
+			running = false;
 		}
 	}
 
@@ -139,52 +160,53 @@ public final class PollingGamePlayer extends AbstractGamePlayer
 	 * out of the received message
 	 */
 	private List<String> parseMessageId(String in) {
-		SymbolList sym;
 		try {
-			sym = (SymbolList) HRFSymbolFactory.create(in);
+			GdlParser parser = new GdlParser(in, DataFormat.HRF);
+			parser.beginCompound();
+			parser.hasNextArgument();
+			String id = parser.nextAtom();
+			parser.hasNextArgument();
+			String sender = parser.nextAtom();
+			return Lists.newArrayList(id, sender);
 		} catch (Exception e) {
 			return Lists.newArrayList("", "");
 		}
-		return Lists.newArrayList(sym.get(1).toString(), sym.get(2).toString());
 
 	}
 
-	// HTTP GET request
-	private String sendGet() throws IOException {
+	// HTTP GET request, which the manager may hold open for up to the given number of seconds
+	private String sendGet(int wait) throws IOException {
 
 		String params = "?";
-		params += "recipient=" + gamer.getName();
+		params += "recipient=" + URLEncoder.encode(gamer.getName(), "UTF-8");
+		params += "&wait=" + wait;
 		URL url = new URL(this.getUrl + params);
 		HttpURLConnection con = (HttpURLConnection) url.openConnection();
 
 		// optional default is GET
 		con.setRequestMethod("GET");
-
-		//System.out.println("\nSending 'GET' request to URL : " + url);
-		//System.out.println("Response Code : " + con.getResponseCode();
+		con.setReadTimeout((wait + LONG_POLL_WAIT) * 1000);
 
 		BufferedReader in = new BufferedReader(
-		        new InputStreamReader(con.getInputStream()));
+		        new InputStreamReader(con.getInputStream(), "UTF-8"));
 		String inputLine;
-		StringBuffer response = new StringBuffer();
+		StringBuilder response = new StringBuilder();
 
 		while ((inputLine = in.readLine()) != null) {
 			response.append(inputLine);
 		}
 		in.close();
 
-		//System.out.println("response: " + response.toString());
-
 		return response.toString();
 	}
 
 	// HTTP POST request
-	private void sendPost(String message, List<String> msgId) throws Exception {
+	private void sendPost(String message, List<String> msgId) throws IOException {
 
 		String params = "?";
-		params += "sender=" + gamer.getName();
-		params += "&recipient=" + msgId.get(1);
-		params += "&msgid=" + msgId.get(0);
+		params += "sender=" + URLEncoder.encode(gamer.getName(), "UTF-8");
+		params += "&recipient=" + URLEncoder.encode(msgId.get(1), "UTF-8");
+		params += "&msgid=" + URLEncoder.encode(msgId.get(0), "UTF-8");
 
 		URL url = new URL(putUrl + params);
 		HttpURLConnection con = (HttpURLConnection) url.openConnection();
@@ -194,18 +216,22 @@ public final class PollingGamePlayer extends AbstractGamePlayer
 		con.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
 
 		// Send post request
+		byte[] content = message.getBytes("UTF-8");
 		con.setDoOutput(true);
-		DataOutputStream wr = new DataOutputStream(con.getOutputStream());
-		//message = "ready";
-		wr.writeBytes(message);
-		wr.flush();
+		con.setFixedLengthStreamingMode(content.length);
+		OutputStream wr = con.getOutputStream();
+		wr.write(content);
 		wr.close();
 
-		int responseCode = con.getResponseCode();
-		//System.out.println("\nSending 'POST' request to URL : " + putUrl);
-		//System.out.println("Post parameters : " + params);
-		//System.out.println("Message : " + message);
-		//System.out.println("Response Code : " + responseCode);
+		// Read the response to the end, so that the connection can be reused.
+		InputStream in = (con.getResponseCode() >= 400) ? con.getErrorStream() : con.getInputStream();
+		if (in != null) {
+			byte[] discard = new byte[1024];
+			while (in.read(discard) >= 0) {
+				;
+			}
+			in.close();
+		}
 	}
 
 
@@ -28,8 +28,10 @@ import org.ggp.base.util.observer.Subject;
  */
 public abstract class Gamer implements Subject
 {
-	private Match match;
-	private GdlConstant roleName;
+	// Set by the thread that processes requests, but read by others, such
+	// as the one answering INFO requests.
+	private volatile Match match;
+	private volatile GdlConstant roleName;
 
 	public Gamer()
 	{
@@ -22,7 +22,6 @@ import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
 import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
 
 public abstract class IIGamer extends Gamer implements Subject {
@@ -31,7 +30,7 @@ public abstract class IIGamer extends Gamer implements Subject {
 	protected Role role;
 	protected SeesState currentSees;
 	protected MachineState currentState;
-	protected IISamplePropNetStateMachine iistateMachine;
+	protected IIStateMachine iistateMachine;
 	protected StateMachine normalStateMachine;
 
 	/* Not necessary for now */
@@ -70,6 +69,8 @@ public abstract class IIGamer extends Gamer implements Subject {
 				}
 				currentSees = new SeesState(role, sees);
 			}
+			List<GdlTerm> lastMoves = iimatch.getMostRecentMoves();
+			iistateMachine.beginTurn(currentSees, (lastMoves == null) ? null : new Move(lastMoves.get(getRoleIndex())));
 
 			GdlTerm move = iiselectMove(timeout).getContents();
 			List<GdlTerm> moveSet = new ArrayList<GdlTerm>();
@@ -1,37 +1,69 @@
 package org.ggp.base.player.gamer;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.ggp.base.player.gamer.exception.GamePreviewException;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.match.IIMatch;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIKleenePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 
 public abstract class IISampleGamer extends IIGamer {
 
 	// time at which computation must stop
-	private static long timeout;
+	private long timeout;
 	// time left that computation of a move or metagame must stop
 	private static final long TIME_CUSHION = 1000;
 	//protected NotABotIIPropNetStateMachine iistateMachine;
 	private int turnNumber = 1;
+	// states consistent with what has been seen, if the subclass asks for them
+	private ParticleFilter beliefs;
 
 	public IISampleGamer() {
-		iistateMachine = new IISamplePropNetStateMachine();
+		iistateMachine = new IIKleenePropNetStateMachine();
 		normalStateMachine = new ProverStateMachine();
 	}
 
 	protected abstract void runMetaGame() throws GoalDefinitionException, MoveDefinitionException, TransitionDefinitionException;
 
+	/**
+	 * Returns a factory for copies of this gamer's state machines, for use by
+	 * worker threads.
+	 */
+	protected ParticleFilter.ReplicaFactory getReplicaFactory() {
+		return new ParticleFilter.ReplicaFactory() {
+			@Override
+			public IIStateMachine createReplica(List<Gdl> description) throws Exception {
+				StateMachine replica = new ProverStateMachine();
+				replica.initialize(description);
+				IIStateMachine iireplica = new IIKleenePropNetStateMachine();
+				iireplica.initialize(replica, description);
+				return iireplica;
+			}
+		};
+	}
+
+	/**
+	 * Subclasses that want to reason about the states consistent with their sees
+	 * should return the number of such states to track. The default of 0 turns
+	 * belief tracking off.
+	 */
+	protected int getParticleCount() {
+		return 0;
+	}
+
 	/**
 	 * @return the best move for the current state
 	 */
@@ -57,6 +89,14 @@ public abstract class IISampleGamer extends IIGamer {
 		// update time at which timeout will occur
 		this.timeout = timeout - TIME_CUSHION;
 
+		if (beliefs != null) {
+			beliefs.shutdown();
+			beliefs = null;
+		}
+		if (getParticleCount() > 0) {
+			beliefs = new ParticleFilter(iistateMachine, role, getParticleCount(), getReplicaFactory(), iimatch.getGame().getRules());
+		}
+
 		// inheriting subclass will run metagame
 		runMetaGame();
 	}
@@ -67,6 +107,14 @@ public abstract class IISampleGamer extends IIGamer {
 
 		// update time at which timeout will occur
 		this.timeout = timeout - TIME_CUSHION;
+		// bring the belief state up to date, leaving at least half the time for the move
+		if (beliefs != null && turnNumber > 1) {
+			try {
+				beliefs.update(getMostRecentMove(), getCurrentSees(), System.currentTimeMillis() + timeLeft() / 2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		// get best possible move
 		Move move = getBestMove(turnNumber);
 		turnNumber++;
@@ -77,12 +125,23 @@ public abstract class IISampleGamer extends IIGamer {
 	/**
 	 * @return true if the timer has sufficiently run out
 	 */
-	public static boolean hasTimedOut(){
-		return IISampleGamer.timeout < System.currentTimeMillis();
+	public boolean hasTimedOut(){
+		return timeout < System.currentTimeMillis();
 	}
 
-	public static long timeLeft(){
-		return Math.max(0, IISampleGamer.timeout-System.currentTimeMillis());
+	public long timeLeft(){
+		return Math.max(0, timeout-System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns n states drawn at random from those consistent with everything
+	 * this player has seen, or an empty list if belief tracking is off.
+	 */
+	protected List<MachineState> sampleConsistentStates(int n) {
+		if (beliefs == null) {
+			return new ArrayList<MachineState>();
+		}
+		return beliefs.sampleConsistentStates(n);
 	}
 
 	protected Move getMostRecentMove() {
@@ -138,11 +197,18 @@ public abstract class IISampleGamer extends IIGamer {
 	@Override
 	public void iistop() {
 		turnNumber = 1;
+		if (beliefs != null) {
+			beliefs.shutdown();
+			beliefs = null;
+		}
 	}
 
 	@Override
 	public void iiabort() {
-		// TODO Auto-generated method stub
+		if (beliefs != null) {
+			beliefs.shutdown();
+			beliefs = null;
+		}
 	}
 
 	@Override
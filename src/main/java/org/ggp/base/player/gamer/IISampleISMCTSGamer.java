@@ -0,0 +1,81 @@
+package org.ggp.base.player.gamer;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * Plays by information set Monte Carlo tree search on every core, using the
+ * states consistent with its sees as determinizations.
+ */
+public class IISampleISMCTSGamer extends IISampleGamer {
+
+	private static final int PARTICLE_COUNT = 256;
+
+	private InformationSetSearch search;
+
+	@Override
+	protected int getParticleCount() {
+		return PARTICLE_COUNT;
+	}
+
+	@Override
+	protected void runMetaGame() {
+		shutdownSearch();
+		try {
+			search = new InformationSetSearch(getIIStateMachine(), getRole(), getReplicaFactory(), getIIMatch().getGame().getRules());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	protected Move getBestMove(int turnNumber) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		List<Move> moves;
+		List<MachineState> determinizations;
+		if (turnNumber == 1) {
+			MachineState initialState = getIIStateMachine().getInitialState();
+			moves = getMoves(initialState);
+			determinizations = Collections.singletonList(initialState);
+		} else {
+			moves = getMoves();
+			determinizations = sampleConsistentStates(PARTICLE_COUNT);
+		}
+		if (search == null)
+			return moves.get(0);
+
+		try {
+			Move move = search.search(determinizations, moves, System.currentTimeMillis() + timeLeft());
+			GamerLogger.log("GamePlayer", "ISMCTS: " + search.getIterations() + " iterations on " + search.getThreadCount() + " threads from " + determinizations.size() + " determinizations.");
+			return move;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return moves.get(0);
+		}
+	}
+
+	@Override
+	public void iistop() {
+		super.iistop();
+		shutdownSearch();
+	}
+
+	@Override
+	public void iiabort() {
+		super.iiabort();
+		shutdownSearch();
+	}
+
+	private void shutdownSearch() {
+		if (search != null) {
+			search.shutdown();
+			search = null;
+		}
+	}
+}
@@ -17,7 +17,6 @@ public class IISampleLegalGamer extends IISampleGamer {
 	@Override
 	protected Move getBestMove(int turnNumber) throws MoveDefinitionException,
 			TransitionDefinitionException, GoalDefinitionException {
-		while (!IISampleGamer.hasTimedOut()) {}
 		List<Move> moves;
 		if (turnNumber == 1){
 			moves = getMoves(getIIStateMachine().getInitialState());
@@ -22,7 +22,6 @@ public class IISampleRandomGamer extends IISampleGamer {
 
 	@Override
 	protected Move getBestMove(int turnNumber) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
-		while (!IISampleGamer.hasTimedOut()) {}
 		List<Move> moves;
 		if (turnNumber == 1) {
 			moves = getMoves(getIIStateMachine().getInitialState());
@@ -0,0 +1,291 @@
+package org.ggp.base.player.gamer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
+
+/**
+ * Information set Monte Carlo tree search, from the point of view of a single
+ * role. Each node of the tree stands for everything the role knows at some
+ * point of the game: its own moves so far, and what it saw after each of them.
+ * A node's children are therefore keyed on the role's move and the sees that
+ * followed it, so states that the role cannot tell apart share a node.
+ *
+ * Every iteration picks one of the given determinizations (states consistent
+ * with what the role has seen) and plays it down the tree, choosing the role's
+ * moves by UCT among the moves legal in that state and the other roles' moves
+ * at random, then finishes the game with a random playout. A move's
+ * exploration term counts how often it was available rather than how often
+ * its node was visited, as moves are not legal in every determinization.
+ *
+ * All the workers share one tree. Each worker has its own state machine
+ * replica, built by a {@link ParticleFilter.ReplicaFactory}. A worker adds a
+ * virtual loss to every move it picks, by counting the visit before the
+ * playout's result is known, which steers the other workers elsewhere in the
+ * meantime.
+ *
+ * Call {@link #shutdown()} when the match is over to stop the worker threads.
+ */
+public final class InformationSetSearch {
+
+	private static final double EXPLORATION = 1.4;
+
+	/** A node's record of one of the role's moves. */
+	private static final class MoveStatistics {
+		private int visits;
+		private int availability;
+		private long totalScore;
+	}
+
+	/** The key of a child node: the role's move and what it saw after it. */
+	private static final class Outcome {
+		private final Move move;
+		private final SeesState sees;
+
+		private Outcome(Move move, SeesState sees) {
+			this.move = move;
+			this.sees = sees;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Outcome))
+				return false;
+			Outcome other = (Outcome) o;
+			return move.equals(other.move) && sees.equals(other.sees);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * move.hashCode() + sees.hashCode();
+		}
+	}
+
+	/** An information set of the role. Guarded by its own lock. */
+	private static final class Node {
+		private final Map<Move, MoveStatistics> moves = new HashMap<Move, MoveStatistics>();
+		private final Map<Outcome, Node> children = new HashMap<Outcome, Node>();
+	}
+
+	private final Role role;
+	private final int roleIndex;
+	private final List<IIStateMachine> replicas;
+	private final ExecutorService executor;
+	private final Random random = new Random();
+
+	private long iterations;
+
+	public InformationSetSearch(IIStateMachine stateMachine, Role role, ParticleFilter.ReplicaFactory factory, List<Gdl> description) throws InterruptedException {
+		this(stateMachine, role, factory, description, Runtime.getRuntime().availableProcessors());
+	}
+
+	public InformationSetSearch(IIStateMachine stateMachine, Role role, final ParticleFilter.ReplicaFactory factory, final List<Gdl> description, int threadCount) throws InterruptedException {
+		this.role = role;
+		this.roleIndex = stateMachine.getRoles().indexOf(role);
+		this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "InformationSetSearch worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		List<Callable<IIStateMachine>> builders = new ArrayList<Callable<IIStateMachine>>();
+		for (int i = 0; i < threadCount; i++) {
+			builders.add(new Callable<IIStateMachine>() {
+				@Override
+				public IIStateMachine call() throws Exception {
+					return factory.createReplica(description);
+				}
+			});
+		}
+		this.replicas = new ArrayList<IIStateMachine>(threadCount);
+		try {
+			for (Future<IIStateMachine> future : executor.invokeAll(builders)) {
+				replicas.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			throw new RuntimeException("Could not build state machine replicas", e.getCause());
+		}
+	}
+
+	public int getThreadCount() {
+		return replicas.size();
+	}
+
+	/** Returns the number of iterations completed by the last search. */
+	public long getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Searches from the given determinizations until the given time (in
+	 * milliseconds since the epoch), and returns the most visited of the
+	 * given moves, which should be the moves known to be legal for the role.
+	 */
+	public Move search(final List<MachineState> determinizations, List<Move> legalMoves, final long finishBy) throws InterruptedException {
+		if (legalMoves.size() == 1 || determinizations.isEmpty())
+			return legalMoves.get(0);
+
+		final Node root = new Node();
+		final long[] counts = new long[replicas.size()];
+		List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < replicas.size(); i++) {
+			final IIStateMachine replica = replicas.get(i);
+			final Random workerRandom = new Random(random.nextLong());
+			final int worker = i;
+			workers.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					counts[worker] = runWorker(replica, workerRandom, root, determinizations, finishBy);
+					return null;
+				}
+			});
+		}
+		executor.invokeAll(workers);
+
+		iterations = 0;
+		for (long count : counts) {
+			iterations += count;
+		}
+		Move best = legalMoves.get(0);
+		int bestVisits = -1;
+		synchronized (root) {
+			for (Move move : legalMoves) {
+				MoveStatistics statistics = root.moves.get(move);
+				int visits = (statistics == null) ? 0 : statistics.visits;
+				if (visits > bestVisits) {
+					best = move;
+					bestVisits = visits;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Stops the worker threads. The search cannot be used afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private long runWorker(IIStateMachine replica, Random random, Node root, List<MachineState> determinizations, long finishBy) {
+		long count = 0;
+		List<Node> path = new ArrayList<Node>();
+		List<MoveStatistics> chosen = new ArrayList<MoveStatistics>();
+		try {
+			List<Role> roles = replica.getRoles();
+			while (System.currentTimeMillis() < finishBy && !Thread.currentThread().isInterrupted()) {
+				MachineState state = determinizations.get(random.nextInt(determinizations.size()));
+				Node node = root;
+				path.clear();
+				chosen.clear();
+
+				// Selection and expansion
+				boolean expanded = false;
+				while (!expanded && !replica.isTerminal(state)) {
+					List<Move> legal = replica.getLegalMoves(state, role);
+					Move move;
+					synchronized (node) {
+						move = select(node, legal, random);
+						MoveStatistics statistics = node.moves.get(move);
+						// The virtual loss: the visit counts now, the score once the playout is done.
+						statistics.visits++;
+						path.add(node);
+						chosen.add(statistics);
+					}
+					List<Move> jointMove = randomJointMove(replica, roles, state, random);
+					jointMove.set(roleIndex, move);
+					state = replica.getNextState(state, jointMove);
+					Outcome outcome = new Outcome(move, replica.getSeesState(state, role));
+					synchronized (node) {
+						Node child = node.children.get(outcome);
+						if (child == null) {
+							child = new Node();
+							node.children.put(outcome, child);
+							expanded = true;
+						}
+						node = child;
+					}
+				}
+
+				// Playout
+				while (!replica.isTerminal(state)) {
+					state = replica.getNextState(state, randomJointMove(replica, roles, state, random));
+				}
+				int score = replica.getGoal(state, role);
+
+				// Backpropagation
+				for (int i = 0; i < path.size(); i++) {
+					synchronized (path.get(i)) {
+						chosen.get(i).totalScore += score;
+					}
+				}
+				count++;
+			}
+		} catch (Exception e) {
+			GamerLogger.logStackTrace("GamePlayer", e);
+		}
+		return count;
+	}
+
+	/**
+	 * Picks the role's move at a node among the moves legal in the current
+	 * determinization, marking them all as available. Moves that have never
+	 * been tried come first.
+	 */
+	private static Move select(Node node, List<Move> legal, Random random) {
+		Move best = null;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		int offset = random.nextInt(legal.size());
+		for (int i = 0; i < legal.size(); i++) {
+			Move move = legal.get((i + offset) % legal.size());
+			MoveStatistics statistics = node.moves.get(move);
+			if (statistics == null) {
+				statistics = new MoveStatistics();
+				node.moves.put(move, statistics);
+			}
+			statistics.availability++;
+			double value;
+			if (statistics.visits == 0) {
+				value = Double.POSITIVE_INFINITY;
+			} else {
+				value = statistics.totalScore / (100.0 * statistics.visits)
+						+ EXPLORATION * Math.sqrt(Math.log(statistics.availability) / statistics.visits);
+			}
+			if (value > bestValue) {
+				best = move;
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+
+	private static List<Move> randomJointMove(IIStateMachine replica, List<Role> roles, MachineState state, Random random) throws Exception {
+		List<Move> jointMove = new ArrayList<Move>(roles.size());
+		for (Role r : roles) {
+			List<Move> legal = replica.getLegalMoves(state, r);
+			jointMove.add(legal.get(random.nextInt(legal.size())));
+		}
+		return jointMove;
+	}
+}
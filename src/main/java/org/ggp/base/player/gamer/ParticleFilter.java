@@ -0,0 +1,270 @@
+package org.ggp.base.player.gamer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
+
+/**
+ * A particle filter over the states of an incomplete information game. The
+ * filter keeps a bounded pool of candidate states (particles), each of which
+ * is consistent with everything this player has seen so far.
+ *
+ * Each turn, {@link #update(Move, SeesState, long)} advances particles drawn
+ * at random from the pool by this player's own move and randomly chosen moves
+ * for the other roles, and keeps those whose sees match the sees that were
+ * received, until the pool is full again. The other roles' moves are limited
+ * to the ones that {@link IIStateMachine#refineLegalMoves} left open for the
+ * previous turn. The pool is refilled on every core at once; as the state
+ * machines are not thread-safe, each worker has its own replica, built by a
+ * {@link ReplicaFactory}.
+ *
+ * If no particle survives, the pool is rebuilt by replaying the whole match
+ * from the initial state with random moves for the other roles.
+ *
+ * Call {@link #shutdown()} when the match is over to stop the worker threads.
+ */
+public final class ParticleFilter {
+
+	/**
+	 * Creates the state machine replicas used by the workers. Each call must
+	 * return a new, initialized state machine for the given game.
+	 */
+	public interface ReplicaFactory {
+		IIStateMachine createReplica(List<Gdl> description) throws Exception;
+	}
+
+	/** How many times over the pool size to try advancing particles before giving up on a turn. */
+	private static final int ATTEMPTS_PER_PARTICLE = 20;
+
+	private final IIStateMachine stateMachine;
+	private final Role role;
+	private final int roleIndex;
+	private final int particleCount;
+	private final List<IIStateMachine> replicas;
+	private final ExecutorService executor;
+	private final Random random = new Random();
+
+	private List<MachineState> particles;
+	/** The moves that each role could have made on the current turn, given what this player has seen. */
+	private List<Set<Move>> possibleMoves;
+	/** This player's moves and sees on every turn so far, for when the pool has to be rebuilt. */
+	private final List<Move> moveHistory = new ArrayList<Move>();
+	private final List<SeesState> seesHistory = new ArrayList<SeesState>();
+
+	/**
+	 * Creates a filter for the given role with one worker per available
+	 * processor. The state machine is used to refine the other roles' moves
+	 * with the same sees states that the gamer itself uses.
+	 */
+	public ParticleFilter(IIStateMachine stateMachine, Role role, int particleCount, ReplicaFactory factory, List<Gdl> description) throws InterruptedException {
+		this(stateMachine, role, particleCount, factory, description, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParticleFilter(IIStateMachine stateMachine, Role role, int particleCount, final ReplicaFactory factory, final List<Gdl> description, int threadCount) throws InterruptedException {
+		this.stateMachine = stateMachine;
+		this.role = role;
+		this.roleIndex = stateMachine.getRoles().indexOf(role);
+		this.particleCount = particleCount;
+		this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ParticleFilter worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		List<Callable<IIStateMachine>> builders = new ArrayList<Callable<IIStateMachine>>();
+		for (int i = 0; i < threadCount; i++) {
+			builders.add(new Callable<IIStateMachine>() {
+				@Override
+				public IIStateMachine call() throws Exception {
+					return factory.createReplica(description);
+				}
+			});
+		}
+		this.replicas = new ArrayList<IIStateMachine>(threadCount);
+		try {
+			for (Future<IIStateMachine> future : executor.invokeAll(builders)) {
+				replicas.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			throw new RuntimeException("Could not build state machine replicas", e.getCause());
+		}
+
+		particles = Collections.singletonList(stateMachine.getInitialState());
+		possibleMoves = null;
+	}
+
+	/**
+	 * Returns the number of particles currently in the pool. This is at most
+	 * the particle count the filter was created with, and is zero only if no
+	 * state consistent with the sees could be found in time.
+	 */
+	public int size() {
+		return particles.size();
+	}
+
+	public Role getRole() {
+		return role;
+	}
+
+	/**
+	 * Advances the filter by one turn: this player made the given move, and
+	 * then received the given sees. Gives up refilling the pool at the given
+	 * time (in milliseconds since the epoch).
+	 */
+	public void update(Move move, SeesState seesState, long finishBy) throws InterruptedException {
+		moveHistory.add(move);
+		seesHistory.add((seesState == null) ? new SeesState(role, null) : seesState);
+
+		List<MachineState> survivors = refill(particles, possibleMoves, finishBy);
+		if (survivors.isEmpty()) {
+			GamerLogger.log("GamePlayer", "ParticleFilter: no particles survived, replaying the match.");
+			survivors = refill(null, null, finishBy);
+		}
+		particles = survivors;
+
+		if (seesState == null) {
+			possibleMoves = null;
+			return;
+		}
+		List<List<Move>> refined = stateMachine.refineLegalMovesForAllRoles(seesState, move);
+		possibleMoves = new ArrayList<Set<Move>>(refined.size());
+		for (List<Move> moves : refined) {
+			possibleMoves.add(new HashSet<Move>(moves));
+		}
+	}
+
+	/**
+	 * Returns n states drawn at random, with replacement, from the states
+	 * consistent with what this player has seen. Returns an empty list if
+	 * the pool is empty.
+	 */
+	public List<MachineState> sampleConsistentStates(int n) {
+		List<MachineState> pool = particles;
+		List<MachineState> sample = new ArrayList<MachineState>(n);
+		if (pool.isEmpty())
+			return sample;
+		for (int i = 0; i < n; i++) {
+			sample.add(pool.get(random.nextInt(pool.size())));
+		}
+		return sample;
+	}
+
+	/**
+	 * Stops the worker threads. The filter cannot be updated afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Fills a new pool with the successors of the given particles that are
+	 * consistent with the latest sees, or, if there are no particles, with
+	 * states reached by replaying the whole match.
+	 */
+	private List<MachineState> refill(final List<MachineState> parents, final List<Set<Move>> possibleMoves, final long finishBy) throws InterruptedException {
+		final int perWorker = (particleCount + replicas.size() - 1) / replicas.size();
+		List<Callable<List<MachineState>>> workers = new ArrayList<Callable<List<MachineState>>>();
+		for (final IIStateMachine replica : replicas) {
+			final long seed = random.nextLong();
+			workers.add(new Callable<List<MachineState>>() {
+				@Override
+				public List<MachineState> call() {
+					return runWorker(replica, new Random(seed), parents, possibleMoves, perWorker, finishBy);
+				}
+			});
+		}
+		List<MachineState> pool = new ArrayList<MachineState>(particleCount);
+		for (Future<List<MachineState>> future : executor.invokeAll(workers)) {
+			try {
+				pool.addAll(future.get());
+			} catch (ExecutionException e) {
+				GamerLogger.logStackTrace("GamePlayer", e);
+			}
+		}
+		return (pool.size() > particleCount) ? new ArrayList<MachineState>(pool.subList(0, particleCount)) : pool;
+	}
+
+	private List<MachineState> runWorker(IIStateMachine replica, Random random, List<MachineState> parents, List<Set<Move>> possibleMoves, int target, long finishBy) {
+		List<MachineState> found = new ArrayList<MachineState>(target);
+		try {
+			int turn = seesHistory.size() - 1;
+			for (int attempt = 0; found.size() < target && attempt < ATTEMPTS_PER_PARTICLE * target; attempt++) {
+				if (System.currentTimeMillis() > finishBy || Thread.currentThread().isInterrupted())
+					break;
+				MachineState state;
+				if (parents != null) {
+					MachineState parent = parents.get(random.nextInt(parents.size()));
+					state = advance(replica, random, parent, turn, possibleMoves);
+				} else {
+					state = replica.getInitialState();
+					for (int t = 0; state != null && t <= turn; t++) {
+						state = advance(replica, random, state, t, null);
+					}
+				}
+				if (state != null) {
+					found.add(state);
+				}
+			}
+		} catch (Exception e) {
+			GamerLogger.logStackTrace("GamePlayer", e);
+		}
+		return found;
+	}
+
+	/**
+	 * Plays the given turn from the given state, with this player's own move
+	 * from the history and random moves for everyone else. Returns null if
+	 * the resulting state does not match the sees received after that turn.
+	 */
+	private MachineState advance(IIStateMachine replica, Random random, MachineState state, int turn, List<Set<Move>> possibleMoves) throws Exception {
+		List<Role> roles = replica.getRoles();
+		List<Move> jointMove = new ArrayList<Move>(roles.size());
+		for (int i = 0; i < roles.size(); i++) {
+			List<Move> legal = replica.getLegalMoves(state, roles.get(i));
+			if (i == roleIndex) {
+				Move move = moveHistory.get(turn);
+				if (!legal.contains(move))
+					return null;
+				jointMove.add(move);
+				continue;
+			}
+			if (possibleMoves != null) {
+				List<Move> candidates = new ArrayList<Move>(legal.size());
+				for (Move move : legal) {
+					if (possibleMoves.get(i).contains(move)) {
+						candidates.add(move);
+					}
+				}
+				legal = candidates;
+			}
+			if (legal.isEmpty())
+				return null;
+			jointMove.add(legal.get(random.nextInt(legal.size())));
+		}
+		MachineState next = replica.getNextState(state, jointMove);
+		if (!replica.getSeesState(next, role).equals(seesHistory.get(turn)))
+			return null;
+		return next;
+	}
+}
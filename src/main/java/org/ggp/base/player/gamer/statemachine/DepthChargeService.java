@@ -0,0 +1,234 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+
+/**
+ * DepthChargeService runs depth charges on every core at once. State
+ * machines are not thread-safe, so the service keeps one replica of the
+ * state machine per worker thread, each built from the same game description
+ * by a {@link ReplicaFactory}, along with that worker's
+ * {@link DepthChargeContext}.
+ * <p>
+ * {@link #evaluateMoves(MachineState, Role, List, long)} has every worker
+ * play depth charges after each of the candidate moves until the deadline.
+ * Workers keep their statistics to themselves while they run, and add them
+ * into the shared totals once they are done, so workers never contend with
+ * each other during the search.
+ * <p>
+ * Call {@link #shutdown()} when the match is over to stop the worker threads.
+ */
+public final class DepthChargeService
+{
+    /**
+     * Creates the state machine replicas used by the workers. Each call must
+     * return a new, initialized state machine for the given game; replicas
+     * may share immutable data, such as a compiled propnet, but nothing that
+     * is modified during queries.
+     */
+    public interface ReplicaFactory
+    {
+        StateMachine createReplica(List<Gdl> description) throws Exception;
+    }
+
+    /**
+     * The results of a call to {@link DepthChargeService#evaluateMoves}:
+     * the total goal value and the number of depth charges for each move.
+     */
+    public static final class MoveStatistics
+    {
+        private final List<Move> moves;
+        private final AtomicLongArray totalScores;
+        private final AtomicLongArray attempts;
+
+        private MoveStatistics(List<Move> moves)
+        {
+            this.moves = moves;
+            this.totalScores = new AtomicLongArray(moves.size());
+            this.attempts = new AtomicLongArray(moves.size());
+        }
+
+        public List<Move> getMoves()
+        {
+            return moves;
+        }
+
+        public long getTotalScore(int moveIndex)
+        {
+            return totalScores.get(moveIndex);
+        }
+
+        public long getAttempts(int moveIndex)
+        {
+            return attempts.get(moveIndex);
+        }
+
+        public long getTotalAttempts()
+        {
+            long total = 0;
+            for (int i = 0; i < moves.size(); i++) {
+                total += attempts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * Returns the average goal value after the given move, or 0 if no
+         * depth charges were completed for it.
+         */
+        public double getAverageScore(int moveIndex)
+        {
+            long n = attempts.get(moveIndex);
+            return (n == 0) ? 0 : (double) totalScores.get(moveIndex) / n;
+        }
+
+        /**
+         * Returns the move with the highest average goal value. Ties go to
+         * the move that comes first.
+         */
+        public Move getBestMove()
+        {
+            int best = 0;
+            for (int i = 1; i < moves.size(); i++) {
+                if (getAverageScore(i) > getAverageScore(best))
+                    best = i;
+            }
+            return moves.get(best);
+        }
+    }
+
+    private final List<StateMachine> replicas;
+    private final List<DepthChargeContext> contexts;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a service with one worker per available processor.
+     */
+    public DepthChargeService(ReplicaFactory factory, List<Gdl> description) throws InterruptedException
+    {
+        this(factory, description, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a service with the given number of workers, building their
+     * replicas in parallel.
+     */
+    public DepthChargeService(final ReplicaFactory factory, final List<Gdl> description, int threadCount) throws InterruptedException
+    {
+        this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DepthChargeService worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        List<Callable<StateMachine>> builders = new ArrayList<Callable<StateMachine>>();
+        for (int i = 0; i < threadCount; i++) {
+            builders.add(new Callable<StateMachine>() {
+                @Override
+                public StateMachine call() throws Exception {
+                    return factory.createReplica(description);
+                }
+            });
+        }
+        this.replicas = new ArrayList<StateMachine>(threadCount);
+        this.contexts = new ArrayList<DepthChargeContext>(threadCount);
+        Random seeds = new Random();
+        try {
+            for (Future<StateMachine> future : executor.invokeAll(builders)) {
+                StateMachine replica = future.get();
+                replicas.add(replica);
+                contexts.add(replica.createDepthChargeContext(new Random(seeds.nextLong())));
+            }
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            throw new RuntimeException("Could not build state machine replicas", e.getCause());
+        }
+    }
+
+    public int getThreadCount()
+    {
+        return replicas.size();
+    }
+
+    /**
+     * Plays depth charges after each of the given moves for the given role,
+     * with the other roles moving randomly, on every worker until the given
+     * time (in milliseconds since the epoch). The moves are tried in turn, so
+     * they get roughly equal numbers of depth charges.
+     * <p>
+     * The state may come from any state machine for the same game; each
+     * worker translates it into its own replica's representation.
+     */
+    public MoveStatistics evaluateMoves(final MachineState state, final Role role, final List<Move> moves, final long finishBy) throws InterruptedException
+    {
+        final MoveStatistics statistics = new MoveStatistics(moves);
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < replicas.size(); i++) {
+            final StateMachine replica = replicas.get(i);
+            final DepthChargeContext context = contexts.get(i);
+            // Start each worker on a different move, so that short searches
+            // still cover every move.
+            final int firstMove = i % moves.size();
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    runWorker(replica, context, state, role, moves, firstMove, finishBy, statistics);
+                    return null;
+                }
+            });
+        }
+        executor.invokeAll(workers);
+        return statistics;
+    }
+
+    private static void runWorker(StateMachine replica, DepthChargeContext context, MachineState state, Role role, List<Move> moves, int firstMove, long finishBy, MoveStatistics statistics)
+    {
+        long[] totalScores = new long[moves.size()];
+        long[] attempts = new long[moves.size()];
+        try {
+            MachineState localState = replica.getMachineStateFromSentenceList(state.getContents());
+            int roleIndex = replica.getRoleIndices().get(role);
+            int[] goals = new int[replica.getRoles().size()];
+            for (int i = firstMove; System.currentTimeMillis() < finishBy && !Thread.currentThread().isInterrupted(); i = (i + 1) % moves.size()) {
+                MachineState next = replica.getRandomNextState(localState, role, moves.get(i));
+                replica.performDepthCharge(next, context, goals);
+                totalScores[i] += goals[roleIndex];
+                attempts[i]++;
+            }
+        } catch (Exception e) {
+            GamerLogger.logStackTrace("GamePlayer", e);
+        } finally {
+            for (int i = 0; i < moves.size(); i++) {
+                statistics.totalScores.addAndGet(i, totalScores[i]);
+                statistics.attempts.addAndGet(i, attempts[i]);
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads. The service cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,428 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+
+/**
+ * MonteCarloTreeSearch runs UCT on every core at once, over a tree that is
+ * kept from one move to the next. Nodes are stored in a concurrent hash table
+ * keyed on their state, so every path that reaches a state (a transposition)
+ * shares the same node and statistics, and the tree is really a graph.
+ * <p>
+ * Simultaneous moves are handled by decoupled UCT: each node keeps separate
+ * visit and score counts for every role's moves, and each role's move is
+ * chosen independently, with the joint move determining the child. The
+ * counts are atomic, so workers never lock anything while they search. A
+ * worker adds a virtual loss to every move it picks, by counting the visit
+ * before the depth charge's result is known, which steers the other workers
+ * elsewhere in the meantime.
+ * <p>
+ * Like the {@link DepthChargeService}, the search keeps one replica of the
+ * state machine per worker thread. Call {@link #updateRoot(MachineState)}
+ * with the current state before each search, which throws away the parts of
+ * the tree that can no longer be reached, and call {@link #shutdown()} when
+ * the match is over to stop the worker threads.
+ * <p>
+ * The tree holds at most a given number of nodes. Once it is full, searches
+ * stop adding nodes and play depth charges from the edge of the tree, and
+ * the next {@link #updateRoot(MachineState)} prunes the least visited
+ * subtrees until the tree is back down to three quarters of the limit.
+ */
+public final class MonteCarloTreeSearch
+{
+    private static final double EXPLORATION = 1.4;
+
+    /**
+     * The statistics for one state of the game. A node's moves and goals are
+     * fixed when it is created; its counts are updated by every worker.
+     */
+    private static final class Node
+    {
+        // The legal moves of each role, or null in a terminal state.
+        private final List<List<Move>> legalMoves;
+        // The goal of each role, or null in a non-terminal state.
+        private final int[] goals;
+        private final AtomicInteger visits = new AtomicInteger();
+        private final AtomicIntegerArray[] moveVisits;
+        private final AtomicLongArray[] moveScores;
+        // The states reached from this one so far. These are only keys into
+        // the table, so that pruned nodes can be collected.
+        private final Set<MachineState> children = Collections.newSetFromMap(new ConcurrentHashMap<MachineState, Boolean>());
+
+        private Node(List<List<Move>> legalMoves, int[] goals)
+        {
+            this.legalMoves = legalMoves;
+            this.goals = goals;
+            int roleCount = (legalMoves == null) ? 0 : legalMoves.size();
+            this.moveVisits = new AtomicIntegerArray[roleCount];
+            this.moveScores = new AtomicLongArray[roleCount];
+            for (int i = 0; i < roleCount; i++) {
+                moveVisits[i] = new AtomicIntegerArray(legalMoves.get(i).size());
+                moveScores[i] = new AtomicLongArray(legalMoves.get(i).size());
+            }
+        }
+
+        private boolean isTerminal()
+        {
+            return legalMoves == null;
+        }
+    }
+
+    private final ConcurrentHashMap<MachineState, Node> nodes = new ConcurrentHashMap<MachineState, Node>();
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final int maxNodes;
+    private final List<StateMachine> replicas;
+    private final List<DepthChargeContext> contexts;
+    private final ExecutorService executor;
+    private final Random random = new Random();
+
+    private MachineState rootState;
+    private long iterations;
+
+    /**
+     * Creates a search with one worker per available processor.
+     */
+    public MonteCarloTreeSearch(DepthChargeService.ReplicaFactory factory, List<Gdl> description, int maxNodes) throws InterruptedException
+    {
+        this(factory, description, maxNodes, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a search with the given number of workers, building their
+     * replicas in parallel, whose tree holds at most the given number of
+     * nodes.
+     */
+    public MonteCarloTreeSearch(final DepthChargeService.ReplicaFactory factory, final List<Gdl> description, int maxNodes, int threadCount) throws InterruptedException
+    {
+        this.maxNodes = maxNodes;
+        this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MonteCarloTreeSearch worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        List<Callable<StateMachine>> builders = new ArrayList<Callable<StateMachine>>();
+        for (int i = 0; i < threadCount; i++) {
+            builders.add(new Callable<StateMachine>() {
+                @Override
+                public StateMachine call() throws Exception {
+                    return factory.createReplica(description);
+                }
+            });
+        }
+        this.replicas = new ArrayList<StateMachine>(threadCount);
+        this.contexts = new ArrayList<DepthChargeContext>(threadCount);
+        try {
+            for (Future<StateMachine> future : executor.invokeAll(builders)) {
+                StateMachine replica = future.get();
+                replicas.add(replica);
+                contexts.add(replica.createDepthChargeContext(new Random(random.nextLong())));
+            }
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            throw new RuntimeException("Could not build state machine replicas", e.getCause());
+        }
+    }
+
+    public int getThreadCount()
+    {
+        return replicas.size();
+    }
+
+    /** Returns the number of nodes in the tree. */
+    public int getNodeCount()
+    {
+        return nodeCount.get();
+    }
+
+    /** Returns the number of iterations completed by the last search. */
+    public long getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * Makes the given state the root of the tree, keeping the statistics of
+     * every node that can still be reached from it and dropping the rest.
+     * The replicas are rerooted as well, so the state must be reachable from
+     * the previous root. Must not be called during a search.
+     * <p>
+     * The state may come from any state machine for the same game.
+     */
+    public void updateRoot(MachineState state) throws Exception
+    {
+        StateMachine replica = replicas.get(0);
+        rootState = replica.getMachineStateFromSentenceList(state.getContents());
+        if (!nodes.containsKey(rootState)) {
+            nodes.put(rootState, createNode(replica, rootState));
+            nodeCount.incrementAndGet();
+        }
+        for (StateMachine r : replicas) {
+            r.updateRoot(r.getMachineStateFromSentenceList(state.getContents()));
+        }
+
+        sweep(0, 0);
+        int target = maxNodes / 4 * 3;
+        if (nodeCount.get() > target) {
+            // Find the fewest visits a node can have and stay in the tree,
+            // and how many of the nodes with exactly that many must go.
+            int[] visits = new int[nodeCount.get()];
+            int i = 0;
+            for (Node node : nodes.values()) {
+                if (i == visits.length)
+                    break;
+                visits[i++] = node.visits.get();
+            }
+            Arrays.sort(visits, 0, i);
+            int excess = i - target;
+            if (excess > 0) {
+                int minVisits = visits[excess];
+                int below = 0;
+                while (visits[below] < minVisits)
+                    below++;
+                sweep(minVisits, excess - below);
+            }
+        }
+    }
+
+    /**
+     * Drops every node that can't be reached from the root through nodes
+     * with at least the given number of visits, along with the links to them.
+     * Of the nodes with exactly that many visits, the first few reached are
+     * dropped as well, up to the given number.
+     */
+    private void sweep(int minVisits, int tiesToDrop)
+    {
+        Set<MachineState> reached = new HashSet<MachineState>();
+        Set<MachineState> dropped = new HashSet<MachineState>();
+        Deque<MachineState> frontier = new ArrayDeque<MachineState>();
+        reached.add(rootState);
+        frontier.add(rootState);
+        while (!frontier.isEmpty()) {
+            Node node = nodes.get(frontier.poll());
+            for (MachineState child : node.children) {
+                Node childNode = nodes.get(child);
+                if (childNode == null || reached.contains(child) || dropped.contains(child))
+                    continue;
+                int visits = childNode.visits.get();
+                if (visits < minVisits || (visits == minVisits && tiesToDrop > 0)) {
+                    if (visits == minVisits)
+                        tiesToDrop--;
+                    dropped.add(child);
+                } else {
+                    reached.add(child);
+                    frontier.add(child);
+                }
+            }
+        }
+        for (Iterator<MachineState> it = nodes.keySet().iterator(); it.hasNext(); ) {
+            if (!reached.contains(it.next())) {
+                it.remove();
+            }
+        }
+        for (Node node : nodes.values()) {
+            node.children.retainAll(reached);
+        }
+        nodeCount.set(reached.size());
+    }
+
+    /**
+     * Searches from the root until the given time (in milliseconds since the
+     * epoch), and returns the given role's most visited move at the root.
+     * The search runs even when the role has only one legal move, so that
+     * the tree keeps growing while the other roles decide.
+     */
+    public Move search(final Role role, final long finishBy) throws InterruptedException
+    {
+        final Node root = nodes.get(rootState);
+        final int roleIndex = replicas.get(0).getRoleIndices().get(role);
+        List<Move> legalMoves = root.legalMoves.get(roleIndex);
+
+        final AtomicLong count = new AtomicLong();
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < replicas.size(); i++) {
+            final StateMachine replica = replicas.get(i);
+            final DepthChargeContext context = contexts.get(i);
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    count.addAndGet(runWorker(replica, context, root, finishBy));
+                    return null;
+                }
+            });
+        }
+        executor.invokeAll(workers);
+        iterations = count.get();
+
+        int best = 0;
+        for (int i = 1; i < legalMoves.size(); i++) {
+            if (root.moveVisits[roleIndex].get(i) > root.moveVisits[roleIndex].get(best))
+                best = i;
+        }
+        return legalMoves.get(best);
+    }
+
+    /**
+     * Stops the worker threads. The search cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    private long runWorker(StateMachine replica, DepthChargeContext context, Node root, long finishBy)
+    {
+        long count = 0;
+        List<Node> path = new ArrayList<Node>();
+        List<int[]> chosen = new ArrayList<int[]>();
+        Random random = context.getRandom();
+        try {
+            int roleCount = replica.getRoles().size();
+            int[] goals = new int[roleCount];
+            MachineState localRoot = replica.getMachineStateFromSentenceList(rootState.getContents());
+            while (System.currentTimeMillis() < finishBy && !Thread.currentThread().isInterrupted()) {
+                MachineState state = localRoot;
+                Node node = root;
+                path.clear();
+                chosen.clear();
+
+                // Selection and expansion
+                boolean expanded = false;
+                while (node != null && !node.isTerminal() && !expanded) {
+                    int[] moveIndices = new int[roleCount];
+                    List<Move> jointMove = new ArrayList<Move>(roleCount);
+                    int parentVisits = node.visits.incrementAndGet();
+                    for (int i = 0; i < roleCount; i++) {
+                        moveIndices[i] = select(node, i, parentVisits, random);
+                        // The virtual loss: the visit counts now, the score once the depth charge is done.
+                        node.moveVisits[i].incrementAndGet(moveIndices[i]);
+                        jointMove.add(node.legalMoves.get(i).get(moveIndices[i]));
+                    }
+                    path.add(node);
+                    chosen.add(moveIndices);
+
+                    state = replica.getNextState(state, jointMove);
+                    Node child = nodes.get(state);
+                    // Reserve room for the new node first, so the limit holds
+                    // even when several workers expand at once.
+                    if (child == null && nodeCount.incrementAndGet() <= maxNodes) {
+                        Node created = createNode(replica, state);
+                        child = nodes.putIfAbsent(state, created);
+                        if (child == null) {
+                            child = created;
+                            expanded = true;
+                        } else {
+                            nodeCount.decrementAndGet();
+                        }
+                    } else if (child == null) {
+                        nodeCount.decrementAndGet();
+                    }
+                    // Only link children that are in the table, so a full
+                    // tree stops growing and plays out from its edge.
+                    if (child != null) {
+                        node.children.add(state);
+                    }
+                    node = child;
+                }
+
+                // Depth charge
+                if (node != null && node.isTerminal()) {
+                    node.visits.incrementAndGet();
+                    System.arraycopy(node.goals, 0, goals, 0, roleCount);
+                } else {
+                    if (node != null) {
+                        node.visits.incrementAndGet();
+                    }
+                    replica.performDepthCharge(state, context, goals);
+                }
+
+                // Backpropagation
+                for (int i = 0; i < path.size(); i++) {
+                    Node n = path.get(i);
+                    int[] moveIndices = chosen.get(i);
+                    for (int r = 0; r < roleCount; r++) {
+                        n.moveScores[r].addAndGet(moveIndices[r], goals[r]);
+                    }
+                }
+                count++;
+            }
+        } catch (Exception e) {
+            GamerLogger.logStackTrace("GamePlayer", e);
+        }
+        return count;
+    }
+
+    private static Node createNode(StateMachine replica, MachineState state) throws Exception
+    {
+        List<Role> roles = replica.getRoles();
+        if (replica.isTerminal(state)) {
+            int[] goals = new int[roles.size()];
+            for (int i = 0; i < roles.size(); i++) {
+                goals[i] = replica.getGoal(state, roles.get(i));
+            }
+            return new Node(null, goals);
+        }
+        List<List<Move>> legalMoves = new ArrayList<List<Move>>(roles.size());
+        for (Role role : roles) {
+            legalMoves.add(new ArrayList<Move>(replica.getLegalMoves(state, role)));
+        }
+        return new Node(legalMoves, null);
+    }
+
+    /**
+     * Picks a role's move at a node by UCT. Moves that have never been
+     * tried come first.
+     */
+    private static int select(Node node, int roleIndex, int parentVisits, Random random)
+    {
+        AtomicIntegerArray visits = node.moveVisits[roleIndex];
+        AtomicLongArray scores = node.moveScores[roleIndex];
+        int moveCount = visits.length();
+        int offset = random.nextInt(moveCount);
+        int best = offset;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        double logParentVisits = Math.log(parentVisits);
+        for (int i = 0; i < moveCount; i++) {
+            int move = (i + offset) % moveCount;
+            int n = visits.get(move);
+            if (n == 0)
+                return move;
+            double value = scores.get(move) / (100.0 * n) + EXPLORATION * Math.sqrt(logParentVisits / n);
+            if (value > bestValue) {
+                best = move;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+}
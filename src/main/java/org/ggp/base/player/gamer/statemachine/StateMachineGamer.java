@@ -74,6 +74,21 @@ public abstract class StateMachineGamer extends Gamer
      */
     public abstract void stateMachineAbort();
 
+    /**
+     * Defines a state machine to race against the initial state machine, such
+     * as a propnet that may take longer to build than the start clock allows.
+     * If this returns a machine, the gamer starts playing with the initial
+     * state machine right away, while a {@link StateMachineRace} builds this
+     * one in the background, checks it against the initial one and benchmarks
+     * them both. If it turns out to be faster, it is swapped in with
+     * {@link #switchStateMachine(StateMachine)} at the start of the next move.
+     * @return an uninitialized state machine, or null to skip the race
+     */
+    public StateMachine getChallengerStateMachine()
+    {
+        return null;
+    }
+
     // =====================================================================
     // Next, methods which can be used by subclasses to get information about
     // the current state of the game, and tweak the state machine on the fly.
@@ -110,6 +125,7 @@ public abstract class StateMachineGamer extends Gamer
      * only used in the Proxy, for players designed to run 24/7.
      */
     protected final void cleanupAfterMatch() {
+        cancelRace();
         role = null;
         currentState = null;
         stateMachine = null;
@@ -187,6 +203,12 @@ public abstract class StateMachineGamer extends Gamer
 			role = stateMachine.getRoleFromConstant(getRoleName());
 			getMatch().appendState(currentState.getContents());
 
+			StateMachine challenger = getChallengerStateMachine();
+			if (challenger != null) {
+				race = new StateMachineRace(getInitialStateMachine(), challenger, getMatch().getGame().getRules(), RACE_BENCHMARK_TIME);
+				race.start();
+			}
+
 			stateMachineMetaGame(timeout);
 		}
 		catch (Exception e)
@@ -221,6 +243,9 @@ public abstract class StateMachineGamer extends Gamer
 				currentState = stateMachine.getNextState(currentState, moves);
 				getMatch().appendState(currentState.getContents());
 			}
+			// The current state now matches the move history, which is what
+			// switchStateMachine replays.
+			finishRace();
 
 			return stateMachineSelectMove(timeout).getContents();
 		}
@@ -250,6 +275,7 @@ public abstract class StateMachineGamer extends Gamer
 				getMatch().markCompleted(stateMachine.getGoals(currentState));
 			}
 
+			cancelRace();
 			stateMachineStop();
 		}
 		catch (Exception e)
@@ -262,6 +288,7 @@ public abstract class StateMachineGamer extends Gamer
 	@Override
 	public void abort() throws AbortingException {
 		try {
+			cancelRace();
 			stateMachineAbort();
 		}
 		catch (Exception e)
@@ -271,8 +298,33 @@ public abstract class StateMachineGamer extends Gamer
 		}
 	}
 
+    /**
+     * Swaps in the winner of the state machine race, if the race is over.
+     */
+    private void finishRace() {
+        if (race != null && race.isFinished()) {
+            StateMachine winner = race.getWinner();
+            race = null;
+            if (winner != null) {
+                GamerLogger.log("GamePlayer", "Switching to " + winner.getName() + ", which won the state machine race.");
+                switchStateMachine(winner);
+            }
+        }
+    }
+
+    private void cancelRace() {
+        if (race != null) {
+            race.cancel();
+            race = null;
+        }
+    }
+
+    // How long the state machine race spends on each of its checks, in milliseconds.
+    private static final long RACE_BENCHMARK_TIME = 300;
+
     // Internal state about the current state of the state machine.
     private Role role;
     private MachineState currentState;
     private StateMachine stateMachine;
+    private StateMachineRace race;
 }
\ No newline at end of file
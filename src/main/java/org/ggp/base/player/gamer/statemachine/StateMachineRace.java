@@ -0,0 +1,132 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+
+/**
+ * StateMachineRace builds a challenger state machine on a background thread,
+ * such as a propnet that may take longer to build than the start clock
+ * allows, while the gamer plays on with the machine it already has. Once the
+ * challenger is built, it is checked against a fresh copy of the gamer's
+ * machine with the {@link StateMachineVerifier}, and then both are
+ * benchmarked by running depth charges for a while. The challenger wins if it
+ * is consistent with the reference and faster than it.
+ * <p>
+ * The race never touches the gamer's own machine, so it is safe to run
+ * alongside the gamer. The gamer polls {@link #isFinished()} and, if there
+ * is a {@link #getWinner() winner}, swaps it in on its own thread; see
+ * {@link StateMachineGamer#getChallengerStateMachine()}.
+ */
+public final class StateMachineRace
+{
+    private final StateMachine reference;
+    private final StateMachine challenger;
+    private final List<Gdl> description;
+    private final long benchmarkTime;
+    private final Thread thread;
+
+    private volatile boolean finished;
+    private volatile StateMachine winner;
+
+    /**
+     * Creates a race between two uninitialized state machines for the given
+     * game, which will spend about the given number of milliseconds each on
+     * consistency checking and on benchmarking each machine.
+     */
+    public StateMachineRace(StateMachine reference, StateMachine challenger, List<Gdl> description, long benchmarkTime)
+    {
+        this.reference = reference;
+        this.challenger = challenger;
+        this.description = description;
+        this.benchmarkTime = benchmarkTime;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runRace();
+            }
+        }, "StateMachineRace");
+        thread.setDaemon(true);
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    /**
+     * Abandons the race. A challenger that is still being built carries on
+     * until it is done, but is then thrown away.
+     */
+    public void cancel()
+    {
+        thread.interrupt();
+    }
+
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    /**
+     * Returns the challenger if it won the race, or null if it lost, failed
+     * or the race isn't finished yet.
+     */
+    public StateMachine getWinner()
+    {
+        return winner;
+    }
+
+    private void runRace()
+    {
+        try {
+            long start = System.currentTimeMillis();
+            challenger.initialize(description);
+            GamerLogger.log("StateMachine", "Built " + challenger.getName() + " in " + (System.currentTimeMillis() - start) + " ms.");
+            reference.initialize(description);
+            if (Thread.currentThread().isInterrupted())
+                return;
+
+            if (!StateMachineVerifier.checkMachineConsistency(reference, challenger, benchmarkTime)) {
+                GamerLogger.log("StateMachine", challenger.getName() + " is inconsistent with " + reference.getName() + "; keeping " + reference.getName() + ".");
+                return;
+            }
+            double referenceRate = measureDepthChargeRate(reference);
+            double challengerRate = measureDepthChargeRate(challenger);
+            GamerLogger.log("StateMachine", reference.getName() + ": " + referenceRate + " depth charges/s; " + challenger.getName() + ": " + challengerRate + " depth charges/s.");
+            if (challengerRate > referenceRate && !Thread.currentThread().isInterrupted()) {
+                winner = challenger;
+            }
+        } catch (Exception e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+        } catch (Error e) {
+            // Running out of memory or stack while building the challenger
+            // must not take the gamer down with it.
+            GamerLogger.logStackTrace("StateMachine", e);
+        } finally {
+            finished = true;
+        }
+    }
+
+    private double measureDepthChargeRate(StateMachine machine) throws Exception
+    {
+        DepthChargeContext context = machine.createDepthChargeContext(new Random());
+        int[] goals = new int[machine.getRoles().size()];
+        MachineState initialState = machine.getInitialState();
+        long start = System.currentTimeMillis();
+        long count = 0;
+        long elapsed;
+        do {
+            machine.performDepthCharge(initialState, context, goals);
+            count++;
+            elapsed = System.currentTimeMillis() - start;
+        } while (elapsed < benchmarkTime && !Thread.currentThread().isInterrupted());
+        return count * 1000.0 / Math.max(1, elapsed);
+    }
+}
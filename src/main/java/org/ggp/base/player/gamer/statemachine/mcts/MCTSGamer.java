@@ -0,0 +1,141 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.List;
+
+import org.ggp.base.apps.player.detail.DetailPanel;
+import org.ggp.base.apps.player.detail.SimpleDetailPanel;
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.exception.GamePreviewException;
+import org.ggp.base.player.gamer.statemachine.DepthChargeService;
+import org.ggp.base.player.gamer.statemachine.MonteCarloTreeSearch;
+import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * MCTSGamer plays by Monte Carlo tree search, with every core working on a
+ * single {@link MonteCarloTreeSearch}. The tree is built during the metagame
+ * and kept for the whole match: before each move it is rerooted at the
+ * current state, so the work done on earlier turns below that state is not
+ * lost.
+ *
+ * The tree's size is capped at {@link #getMaxNodes()} nodes, and the worker
+ * replicas come from {@link #createReplica(List)}; override either to tune
+ * the gamer.
+ */
+public class MCTSGamer extends StateMachineGamer
+{
+	private static final int DEFAULT_MAX_NODES = 1000000;
+
+	private MonteCarloTreeSearch search;
+
+	@Override
+	public String getName() {
+		return getClass().getSimpleName();
+	}
+
+	@Override
+	public StateMachine getInitialStateMachine() {
+		return new CachedStateMachine(new ProverStateMachine());
+	}
+
+	/**
+	 * Returns a new state machine for one of the search's workers.
+	 */
+	protected StateMachine createReplica(List<Gdl> description) {
+		StateMachine replica = getInitialStateMachine();
+		replica.initialize(description);
+		return replica;
+	}
+
+	/**
+	 * Returns the most nodes the search tree may hold.
+	 */
+	protected int getMaxNodes() {
+		return DEFAULT_MAX_NODES;
+	}
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		try {
+			search = new MonteCarloTreeSearch(new DepthChargeService.ReplicaFactory() {
+				@Override
+				public StateMachine createReplica(List<Gdl> description) {
+					return MCTSGamer.this.createReplica(description);
+				}
+			}, getMatch().getGame().getRules(), getMaxNodes());
+			search.updateRoot(getCurrentState());
+			// Put the rest of the start clock towards the first move.
+			search.search(getRole(), timeout - 1000);
+			GamerLogger.log("GamePlayer", "Metagame: completed " + search.getIterations() + " iterations; the tree has " + search.getNodeCount() + " nodes.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			GamerLogger.logStackTrace("GamePlayer", e);
+			shutdownSearch();
+		}
+	}
+
+	@Override
+	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		long start = System.currentTimeMillis();
+		long finishBy = timeout - 1000;
+
+		List<Move> moves = getStateMachine().getLegalMoves(getCurrentState(), getRole());
+		Move selection = moves.get(0);
+		// Search even when the move is forced, to grow the tree for later turns.
+		if (search != null) {
+			try {
+				search.updateRoot(getCurrentState());
+				selection = search.search(getRole(), finishBy);
+				GamerLogger.log("GamePlayer", "Completed " + search.getIterations() + " iterations on " + search.getThreadCount() + " threads; the tree has " + search.getNodeCount() + " nodes.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				GamerLogger.logStackTrace("GamePlayer", e);
+			}
+		}
+
+		long stop = System.currentTimeMillis();
+
+		notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+		return selection;
+	}
+
+	@Override
+	public void stateMachineStop() {
+		shutdownSearch();
+	}
+
+	@Override
+	public void stateMachineAbort() {
+		shutdownSearch();
+	}
+
+	private void shutdownSearch() {
+		if (search != null) {
+			search.shutdown();
+			search = null;
+		}
+	}
+
+	@Override
+	public void preview(Game g, long timeout) throws GamePreviewException {
+		// MCTS gamer does no game previewing.
+	}
+
+	@Override
+	public DetailPanel getDetailPanel() {
+		return new SimpleDetailPanel();
+	}
+}
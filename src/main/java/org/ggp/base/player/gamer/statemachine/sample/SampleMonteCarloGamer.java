@@ -1,8 +1,10 @@
 package org.ggp.base.player.gamer.statemachine.sample;
 
 import java.util.List;
+import java.util.Random;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.util.statemachine.DepthChargeContext;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.StateMachine;
@@ -76,12 +78,22 @@ public final class SampleMonteCarloGamer extends SampleGamer
 		return selection;
 	}
 
-	private int[] depth = new int[1];
+	// Scratch space for depth charges, reused across calls. It belongs to
+	// the state machine it was created by, so it's recreated if the state
+	// machine is switched.
+	private StateMachine depthChargeMachine;
+	private DepthChargeContext depthChargeContext;
+	private int[] goals;
 	int performDepthChargeFromMove(MachineState theState, Move myMove) {
 	    StateMachine theMachine = getStateMachine();
+	    if (theMachine != depthChargeMachine) {
+	        depthChargeContext = theMachine.createDepthChargeContext(new Random());
+	        goals = new int[theMachine.getRoles().size()];
+	        depthChargeMachine = theMachine;
+	    }
 	    try {
-            MachineState finalState = theMachine.performDepthCharge(theMachine.getRandomNextState(theState, getRole(), myMove), depth);
-            return theMachine.getGoal(finalState, getRole());
+            theMachine.performDepthCharge(theMachine.getRandomNextState(theState, getRole(), myMove), depthChargeContext, goals);
+            return goals[theMachine.getRoleIndices().get(getRole())];
         } catch (Exception e) {
             e.printStackTrace();
             return 0;
@@ -0,0 +1,87 @@
+package org.ggp.base.player.gamer.statemachine.sample;
+
+import java.util.List;
+
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.DepthChargeService;
+import org.ggp.base.player.gamer.statemachine.DepthChargeService.MoveStatistics;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * SampleParallelMonteCarloGamer plays like the {@link SampleMonteCarloGamer},
+ * but runs its depth charges on every available core through a
+ * {@link DepthChargeService}. Each worker thread has its own copy of the
+ * state machine, built during the metagame.
+ */
+public final class SampleParallelMonteCarloGamer extends SampleGamer
+{
+	private DepthChargeService service;
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		try {
+			service = new DepthChargeService(new DepthChargeService.ReplicaFactory() {
+				@Override
+				public StateMachine createReplica(List<Gdl> description) {
+					StateMachine replica = getInitialStateMachine();
+					replica.initialize(description);
+					return replica;
+				}
+			}, getMatch().getGame().getRules());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Employs the sample "Monte Carlo" algorithm, in parallel.
+	 */
+	@Override
+	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		StateMachine theMachine = getStateMachine();
+		long start = System.currentTimeMillis();
+		long finishBy = timeout - 1000;
+
+		List<Move> moves = theMachine.getLegalMoves(getCurrentState(), getRole());
+		Move selection = moves.get(0);
+		if (moves.size() > 1 && service != null) {
+			try {
+				MoveStatistics statistics = service.evaluateMoves(getCurrentState(), getRole(), moves, finishBy);
+				selection = statistics.getBestMove();
+				GamerLogger.log("GamePlayer", "Completed " + statistics.getTotalAttempts() + " depth charges on " + service.getThreadCount() + " threads.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		long stop = System.currentTimeMillis();
+
+		notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+		return selection;
+	}
+
+	@Override
+	public void stateMachineStop() {
+		shutdownService();
+	}
+
+	@Override
+	public void stateMachineAbort() {
+		shutdownService();
+	}
+
+	private void shutdownService() {
+		if (service != null) {
+			service.shutdown();
+			service = null;
+		}
+	}
+}
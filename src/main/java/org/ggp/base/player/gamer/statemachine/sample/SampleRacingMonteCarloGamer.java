@@ -0,0 +1,94 @@
+package org.ggp.base.player.gamer.statemachine.sample;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.StateMachineRace;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+
+/**
+ * SampleRacingMonteCarloGamer plays like the {@link SampleMonteCarloGamer},
+ * but races a compiled propnet against the default state machine through a
+ * {@link StateMachineRace}. It starts playing on the default state machine
+ * right away, and switches over to the propnet once it has been built, if
+ * the propnet turns out to be faster.
+ */
+public final class SampleRacingMonteCarloGamer extends SampleGamer
+{
+	@Override
+	public StateMachine getChallengerStateMachine() {
+		return new CompiledPropNetStateMachine();
+	}
+
+	/**
+	 * Employs the sample "Monte Carlo" algorithm, on whichever state machine
+	 * is currently winning the race.
+	 */
+	@Override
+	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		StateMachine theMachine = getStateMachine();
+		long start = System.currentTimeMillis();
+		long finishBy = timeout - 1000;
+
+		List<Move> moves = theMachine.getLegalMoves(getCurrentState(), getRole());
+		Move selection = moves.get(0);
+		if (moves.size() > 1) {
+			int[] moveTotalPoints = new int[moves.size()];
+			int[] moveTotalAttempts = new int[moves.size()];
+
+			// Perform depth charges for each candidate move, and keep track
+			// of the total score and total attempts accumulated for each move.
+			for (int i = 0; System.currentTimeMillis() <= finishBy; i = (i+1) % moves.size()) {
+				moveTotalPoints[i] += performDepthChargeFromMove(getCurrentState(), moves.get(i));
+				moveTotalAttempts[i] += 1;
+			}
+
+			// Find the move with the best expected score.
+			int bestMove = 0;
+			double bestMoveScore = -1;
+			for (int i = 0; i < moves.size(); i++) {
+				double expectedPoints = (double)moveTotalPoints[i] / moveTotalAttempts[i];
+				if (expectedPoints > bestMoveScore) {
+					bestMoveScore = expectedPoints;
+					bestMove = i;
+				}
+			}
+			selection = moves.get(bestMove);
+		}
+
+		long stop = System.currentTimeMillis();
+
+		notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+		return selection;
+	}
+
+	// Scratch space for depth charges, recreated whenever the race switches
+	// the state machine, since it belongs to the machine that created it.
+	private StateMachine depthChargeMachine;
+	private DepthChargeContext depthChargeContext;
+	private int[] goals;
+	private int performDepthChargeFromMove(MachineState theState, Move myMove) {
+		StateMachine theMachine = getStateMachine();
+		if (theMachine != depthChargeMachine) {
+			depthChargeContext = theMachine.createDepthChargeContext(new Random());
+			goals = new int[theMachine.getRoles().size()];
+			depthChargeMachine = theMachine;
+		}
+		try {
+			theMachine.performDepthCharge(theMachine.getRandomNextState(theState, getRole(), myMove), depthChargeContext, goals);
+			return goals[theMachine.getRoleIndices().get(getRole())];
+		} catch (Exception e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package org.ggp.base.player.request.factory;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -17,89 +16,64 @@ import org.ggp.base.player.request.grammar.SeesRequest;
 import org.ggp.base.player.request.grammar.StartRequest;
 import org.ggp.base.player.request.grammar.StopRequest;
 import org.ggp.base.util.game.Game;
-import org.ggp.base.util.gdl.factory.GdlFactory;
-import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.factory.GdlParser;
 import org.ggp.base.util.gdl.grammar.DataFormat;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
-import org.ggp.base.util.symbol.factory.HRFSymbolFactory;
-import org.ggp.base.util.symbol.factory.SymbolFactory;
-import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
-import org.ggp.base.util.symbol.grammar.Symbol;
-import org.ggp.base.util.symbol.grammar.SymbolAtom;
-import org.ggp.base.util.symbol.grammar.SymbolList;
 
 public final class RequestFactory
 {
-	private SymbolList parseSource(String source) throws RequestFormatException {
-		try {
-			SymbolList list = null;
-	        switch (GdlPool.format) {
-		        case HRF:
-		        	Symbol sym = HRFSymbolFactory.create(source);
-					if (sym.toString().length() == 1 && sym.toString().charAt(0) == 26) {
-						return null;
-					}
-					SymbolList message = (SymbolList) sym;
-					list = (SymbolList) message.get(message.size()-1);
-		        	break;
-		        case KIF:
-		        	list = (SymbolList) SymbolFactory.create(source);
-		        	break;
-		        default:
-		        	throw new SymbolFormatException("Data Format is not defined.");
-		    }
-
-			return list;
-		} catch (SymbolFormatException e) {
-			throw new RequestFormatException(source, e);
-		}
-	}
+	/**
+	 * Parses a request straight from the message, in the format of the
+	 * GdlPool. HRF requests come wrapped in a message whose last argument is
+	 * the request itself; for those, an empty message means there is nothing
+	 * to do, and null is returned.
+	 */
 	public Request create(Gamer gamer, String source) throws RequestFormatException
 	{
 		try
 		{
-			SymbolList list = parseSource(source);
-			if (list == null) {
-				return null;
-			}
-			SymbolAtom request = (SymbolAtom) list.get(0);
-
-
-			String type = request.getValue().toLowerCase();
-			if (type.equals("play"))
-			{
-				return createPlay(gamer, list);
-			}
-			else if (type.equals("start"))
-			{
-				return createStart(gamer, list);
-			}
-			else if (type.equals("sees"))
-			{
-				return createSees((IIGamer) gamer, list);
-			}
-			else if (type.equals("stop"))
+			GdlParser parser = new GdlParser(source, GdlPool.format);
+			if (GdlPool.format != DataFormat.HRF)
 			{
-				return createStop(gamer, list);
+				String type = parser.beginCompound();
+				Request request = create(gamer, type, parser);
+				parser.endCompound();
+				return request;
 			}
-			else if (type.equals("abort"))
+
+			if (!parser.hasNext())
 			{
-			    return createAbort(gamer, list);
+				return null;
 			}
-			else if (type.equals("info"))
+			parser.beginCompound();
+			if (!parser.hasNextArgument())
 			{
-				return createInfo(gamer, list);
+				throw new IllegalArgumentException("Expected a request!");
 			}
-			else if (type.equals("preview"))
+			// Skip past the message's fields to the request.
+			String type = parser.beginCompound();
+			while (!parser.hasArguments())
 			{
-				return createPreview(gamer, list);
+				parser.endCompound();
+				if (!parser.hasNextArgument())
+				{
+					// The last argument is a request without arguments, like info.
+					Request request = create(gamer, type, parser);
+					parser.endCompound();
+					return request;
+				}
+				type = parser.beginCompound();
 			}
-			else
+			Request request = create(gamer, type, parser);
+			parser.endCompound();
+			if (parser.hasNextArgument())
 			{
-				throw new IllegalArgumentException("Unrecognized request type!");
+				throw new IllegalArgumentException("Expected the request to be the last argument!");
 			}
+			parser.endCompound();
+			return request;
 		}
 		catch (Exception e)
 		{
@@ -107,162 +81,150 @@ public final class RequestFactory
 		}
 	}
 
-	private PlayRequest createPlay(Gamer gamer, SymbolList list) throws GdlFormatException
+	private Request create(Gamer gamer, String type, GdlParser parser) throws Exception
 	{
-		if (list.size() != 3)
+		type = type.toLowerCase();
+		if (type.equals("play"))
 		{
-			throw new IllegalArgumentException("Expected exactly 2 arguments!");
+			return createPlay(gamer, parser);
 		}
-
-		SymbolAtom arg1 = (SymbolAtom) list.get(1);
-		Symbol arg2 = list.get(2);
-
-		String matchId = arg1.getValue();
-		List<GdlTerm> moves = parseMoves(arg2);
-
-		//remove head from HRF messages
-		if (moves != null && GdlPool.format == DataFormat.HRF) {
-			moves.remove(0);
+		else if (type.equals("start"))
+		{
+			return createStart(gamer, parser);
+		}
+		else if (type.equals("sees"))
+		{
+			return createSees((IIGamer) gamer, parser);
+		}
+		else if (type.equals("stop"))
+		{
+			return createStop(gamer, parser);
+		}
+		else if (type.equals("abort"))
+		{
+		    return createAbort(gamer, parser);
+		}
+		else if (type.equals("info"))
+		{
+			return createInfo(gamer, parser);
+		}
+		else if (type.equals("preview"))
+		{
+			return createPreview(gamer, parser);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unrecognized request type!");
 		}
-
-		return new PlayRequest(gamer, matchId, moves);
 	}
 
-	private SeesRequest createSees(IIGamer gamer, SymbolList list) throws GdlFormatException
+	private PlayRequest createPlay(Gamer gamer, GdlParser parser) throws Exception
 	{
-		if (list.size() != 3)
-		{
-			throw new IllegalArgumentException("Unexpected sees argument format!");
-		}
+		String message = "Expected exactly 2 arguments!";
+		String matchId = nextAtom(parser, message);
+		List<GdlTerm> moves = nextTermList(parser, message);
+		expectNoMoreArguments(parser, message);
 
-		SymbolAtom arg1 = (SymbolAtom) list.get(1);
-		Symbol arg2 = list.get(2);
+		return new PlayRequest(gamer, matchId, moves);
+	}
 
-		String matchId = arg1.getValue();
-		Set<GdlTerm> sees = parseSees(arg2);
+	private SeesRequest createSees(IIGamer gamer, GdlParser parser) throws Exception
+	{
+		String message = "Unexpected sees argument format!";
+		String matchId = nextAtom(parser, message);
+		List<GdlTerm> seesList = nextTermList(parser, message);
+		expectNoMoreArguments(parser, message);
 
+		Set<GdlTerm> sees = (seesList == null) ? null : new HashSet<GdlTerm>(seesList);
 		return new SeesRequest(gamer, matchId, sees);
 	}
 
-	private StartRequest createStart(Gamer gamer, SymbolList list) throws GdlFormatException
+	private StartRequest createStart(Gamer gamer, GdlParser parser) throws Exception
 	{
-		if (list.size() < 6)
-		{
-			throw new IllegalArgumentException("Expected at least 5 arguments!");
-		}
-
-		SymbolAtom arg1 = (SymbolAtom) list.get(1);
-		SymbolAtom arg2 = (SymbolAtom) list.get(2);
-		Symbol arg3 = list.get(3);
-		SymbolAtom arg4 = (SymbolAtom) list.get(4);
-		SymbolAtom arg5 = (SymbolAtom) list.get(5);
-
-		String matchId = arg1.getValue();
-		GdlConstant roleName = (GdlConstant) GdlFactory.createTerm(arg2);
-		String theRulesheet = arg3.toString();
-		int startClock = Integer.valueOf(arg4.getValue());
-		int playClock = Integer.valueOf(arg5.getValue());
+		String message = "Expected at least 5 arguments!";
+		String matchId = nextAtom(parser, message);
+		expectArgument(parser, message);
+		GdlConstant roleName = (GdlConstant) parser.nextTerm();
+		expectArgument(parser, message);
+		String theRulesheet = parser.nextExpressionText();
+		int startClock = Integer.valueOf(nextAtom(parser, message));
+		int playClock = Integer.valueOf(nextAtom(parser, message));
 
 		// For now, there are only five standard arguments. If there are any
 		// new standard arguments added to START, they should be added here.
+		while (parser.hasNextArgument())
+		{
+			parser.nextExpressionText();
+		}
 
 		Game theReceivedGame = Game.createEphemeralGame(theRulesheet);
 		return new StartRequest(gamer, matchId, roleName, theReceivedGame, startClock, playClock);
 	}
 
-	private StopRequest createStop(Gamer gamer, SymbolList list) throws GdlFormatException
+	private StopRequest createStop(Gamer gamer, GdlParser parser) throws Exception
 	{
-		if (list.size() != 3)
-		{
-			throw new IllegalArgumentException("Expected exactly 2 arguments!");
-		}
-
-		SymbolAtom arg1 = (SymbolAtom) list.get(1);
-		Symbol arg2 = list.get(2);
-
-		String matchId = arg1.getValue();
-		List<GdlTerm> moves = parseMoves(arg2);
+		String message = "Expected exactly 2 arguments!";
+		String matchId = nextAtom(parser, message);
+		List<GdlTerm> moves = nextTermList(parser, message);
+		expectNoMoreArguments(parser, message);
 
 		return new StopRequest(gamer, matchId, moves);
 	}
 
-    private AbortRequest createAbort(Gamer gamer, SymbolList list) throws GdlFormatException
+    private AbortRequest createAbort(Gamer gamer, GdlParser parser) throws Exception
     {
-        if (list.size() != 2)
-        {
-            throw new IllegalArgumentException("Expected exactly 1 argument!");
-        }
-
-        SymbolAtom arg1 = (SymbolAtom) list.get(1);
-        String matchId = arg1.getValue();
+        String message = "Expected exactly 1 argument!";
+        String matchId = nextAtom(parser, message);
+        expectNoMoreArguments(parser, message);
 
         return new AbortRequest(gamer, matchId);
     }
 
-    private InfoRequest createInfo(Gamer gamer, SymbolList list) throws GdlFormatException
+    private InfoRequest createInfo(Gamer gamer, GdlParser parser) throws Exception
     {
-        if (list.size() != 1)
-        {
-            throw new IllegalArgumentException("Expected no arguments!");
-        }
+        expectNoMoreArguments(parser, "Expected no arguments!");
 
         return new InfoRequest(gamer);
     }
 
-    private PreviewRequest createPreview(Gamer gamer, SymbolList list) throws GdlFormatException
+    private PreviewRequest createPreview(Gamer gamer, GdlParser parser) throws Exception
     {
-		if (list.size() != 3)
-		{
-			throw new IllegalArgumentException("Expected exactly 2 arguments!");
-		}
-
-		SymbolAtom arg1 = (SymbolAtom) list.get(1);
-		SymbolAtom arg2 = (SymbolAtom) list.get(2);
-
-		String theRulesheet = arg1.toString();
-		int previewClock = Integer.valueOf(arg2.getValue());
+		String message = "Expected exactly 2 arguments!";
+		expectArgument(parser, message);
+		String theRulesheet = parser.nextExpressionText();
+		int previewClock = Integer.valueOf(nextAtom(parser, message));
+		expectNoMoreArguments(parser, message);
 
 		Game theReceivedGame = Game.createEphemeralGame(theRulesheet);
 		return new PreviewRequest(gamer, theReceivedGame, previewClock);
     }
 
-	private List<GdlTerm> parseMoves(Symbol symbol) throws GdlFormatException
+	private static void expectArgument(GdlParser parser, String message) throws Exception
 	{
-		if (symbol instanceof SymbolAtom)
+		if (!parser.hasNextArgument())
 		{
-			return null;
-		}
-		else
-		{
-			List<GdlTerm> moves = new ArrayList<GdlTerm>();
-			SymbolList list = (SymbolList) symbol;
-
-			for (int i = 0; i < list.size(); i++)
-			{
-				moves.add(GdlFactory.createTerm(list.get(i)));
-			}
-
-			return moves;
+			throw new IllegalArgumentException(message);
 		}
 	}
 
-	private Set<GdlTerm> parseSees(Symbol symbol) throws GdlFormatException
+	private static void expectNoMoreArguments(GdlParser parser, String message) throws Exception
 	{
-		if (symbol instanceof SymbolAtom)
+		if (parser.hasNextArgument())
 		{
-			return null;
+			throw new IllegalArgumentException(message);
 		}
-		else
-		{
-			Set<GdlTerm> sees = new HashSet<GdlTerm>();
-			SymbolList list = (SymbolList) symbol;
+	}
 
-			for (int i = 0; i < list.size(); i++)
-			{
-				sees.add(GdlFactory.createTerm(list.get(i)));
-			}
+	private static String nextAtom(GdlParser parser, String message) throws Exception
+	{
+		expectArgument(parser, message);
+		return parser.nextAtom();
+	}
 
-			return sees;
-		}
+	/* Moves and sees are lists of terms, or an atom such as nil when there are none. */
+	private static List<GdlTerm> nextTermList(GdlParser parser, String message) throws Exception
+	{
+		expectArgument(parser, message);
+		return parser.nextTermList();
 	}
-}
\ No newline at end of file
+}
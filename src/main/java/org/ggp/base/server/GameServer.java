@@ -1,8 +1,6 @@
 package org.ggp.base.server;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,8 +16,10 @@ import org.ggp.base.server.event.ServerMatchUpdatedEvent;
 import org.ggp.base.server.event.ServerNewGameStateEvent;
 import org.ggp.base.server.event.ServerNewMatchEvent;
 import org.ggp.base.server.event.ServerNewMovesEvent;
+import org.ggp.base.server.event.ServerRequestLatencyEvent;
 import org.ggp.base.server.event.ServerTimeEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
+import org.ggp.base.server.request.LatencyHistogram;
 import org.ggp.base.server.threads.AbortRequestThread;
 import org.ggp.base.server.threads.PlayRequestThread;
 import org.ggp.base.server.threads.PreviewRequestThread;
@@ -27,6 +27,7 @@ import org.ggp.base.server.threads.RandomPlayRequestThread;
 import org.ggp.base.server.threads.StartRequestThread;
 import org.ggp.base.server.threads.StopRequestThread;
 import org.ggp.base.util.match.Match;
+import org.ggp.base.util.match.MatchJournal;
 import org.ggp.base.util.match.MatchPublisher;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
@@ -54,8 +55,11 @@ public class GameServer extends Thread implements Subject
     protected List<Move> previousMoves;
 
     private Map<Role,String> mostRecentErrors;
+    private final Map<Role,LatencyHistogram> requestLatencies;
 
     private String saveToFilename;
+    private MatchJournal journal;
+    private final Object journalLock = new Object();
     private String spectatorServerURL;
     private String spectatorServerKey;
     protected boolean forceUsingEntireClock;
@@ -78,6 +82,7 @@ public class GameServer extends Thread implements Subject
         previousMoves = null;
 
         mostRecentErrors = new HashMap<Role,String>();
+        requestLatencies = new HashMap<Role,LatencyHistogram>();
 
         match.appendState(currentState.getContents());
 
@@ -137,6 +142,32 @@ public class GameServer extends Thread implements Subject
         }
     }
 
+    /**
+     * Records how long a player took to answer a request, and tells the
+     * observers along with the latencies of all of that player's requests
+     * in this match so far.
+     */
+    public void recordRequestLatency(Role role, long latency) {
+        LatencyHistogram snapshot;
+        synchronized (requestLatencies) {
+            LatencyHistogram histogram = requestLatencies.get(role);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                requestLatencies.put(role, histogram);
+            }
+            histogram.add(latency);
+            snapshot = histogram.copy();
+        }
+        notifyObservers(new ServerRequestLatencyEvent(role, latency, snapshot));
+    }
+
+    public LatencyHistogram getRequestLatencies(Role role) {
+        synchronized (requestLatencies) {
+            LatencyHistogram histogram = requestLatencies.get(role);
+            return (histogram == null) ? new LatencyHistogram() : histogram.copy();
+        }
+    }
+
     // Should be called after each move, to collect all of the errors
     // caused by players and write them into the match description.
     protected void appendErrorsToMatchDescription() {
@@ -220,18 +251,27 @@ public class GameServer extends Thread implements Subject
     		return;
     	}
 
-    	try {
-			File file = new File(saveToFilename);
-			if (!file.exists()) {
-				file.createNewFile();
-			}
-			FileWriter fw = new FileWriter(file);
-			BufferedWriter bw = new BufferedWriter(fw);
-			bw.write(match.toJSON().toString());
-			bw.close();
-			fw.close();
-    	} catch (IOException ie) {
-    		ie.printStackTrace();
+    	// While the match is running, only the new parts of it are appended
+    	// to a journal; the whole match is only written out once it is over.
+    	// Aborts come from another thread, hence the lock.
+    	synchronized (journalLock) {
+	    	try {
+				File file = new File(saveToFilename);
+				if (match.isCompleted() || match.isAborted()) {
+					if (journal != null) {
+						journal.close();
+						journal = null;
+					}
+					MatchJournal.compact(match, file);
+				} else {
+					if (journal == null) {
+						journal = new MatchJournal(match, file);
+					}
+					journal.sync();
+				}
+	    	} catch (IOException ie) {
+	    		ie.printStackTrace();
+	    	}
     	}
     }
 
@@ -270,7 +310,7 @@ public class GameServer extends Thread implements Subject
             }
         }
         for (PlayRequestThread thread : threads) {
-            thread.start();
+            thread.dispatch();
         }
 
         if (forceUsingEntireClock) {
@@ -279,7 +319,7 @@ public class GameServer extends Thread implements Subject
 
         List<Move> moves = new ArrayList<Move>();
         for (PlayRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
             moves.add(thread.getMove());
         }
 
@@ -294,13 +334,13 @@ public class GameServer extends Thread implements Subject
         	}
         }
         for (PreviewRequestThread thread : threads) {
-            thread.start();
+            thread.dispatch();
         }
         if (forceUsingEntireClock) {
             Thread.sleep(match.getStartClock() * 1000);
         }
         for (PreviewRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
         }
     }
 
@@ -312,13 +352,13 @@ public class GameServer extends Thread implements Subject
         	}
         }
         for (StartRequestThread thread : threads) {
-            thread.start();
+            thread.dispatch();
         }
         if (forceUsingEntireClock) {
             Thread.sleep(match.getStartClock() * 1000);
         }
         for (StartRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
         }
     }
 
@@ -330,10 +370,10 @@ public class GameServer extends Thread implements Subject
         	}
         }
         for (StopRequestThread thread : threads) {
-            thread.start();
+            thread.dispatch();
         }
         for (StopRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
         }
     }
 
@@ -345,10 +385,10 @@ public class GameServer extends Thread implements Subject
         	}
         }
         for (AbortRequestThread thread : threads) {
-            thread.start();
+            thread.dispatch();
         }
         for (AbortRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
         }
         interrupt();
     }
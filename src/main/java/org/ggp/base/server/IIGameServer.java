@@ -67,9 +67,9 @@ public class IIGameServer extends GameServer implements Subject {
                 iimatch.appendState(currentState.getContents());
                 appendErrorsToMatchDescription();
 
+                List<SeesState> seesStates = iistateMachine.getSeesStates(currentState);
                 for (int i = 0; i < hosts.size(); i++) {
-                	SeesState seesState = iistateMachine.getSeesState(currentState, stateMachine.getRoles().get(i));
-                	currentSees.set(i, seesState.getSees());
+                	currentSees.set(i, seesStates.get(i).getSees());
                 }
 
                 if (iimatch.isAborted()) {
@@ -102,10 +102,10 @@ public class IIGameServer extends GameServer implements Subject {
         	}
         }
         for (IIStopRequestThread thread : threads) {
-            thread.start();
+            thread.dispatch();
         }
         for (IIStopRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
         }
     }
 
@@ -120,7 +120,7 @@ public class IIGameServer extends GameServer implements Subject {
             }
         }
 		for (SeesRequestThread thread : threads) {
-			thread.start();
+			thread.dispatch();
 		}
 
 		if (forceUsingEntireClock) {
@@ -129,7 +129,7 @@ public class IIGameServer extends GameServer implements Subject {
 
 		List<Move> moves = new ArrayList<Move>();
         for (SeesRequestThread thread : threads) {
-            thread.join();
+            thread.finish();
             moves.add(thread.getMove());
         }
 
@@ -0,0 +1,42 @@
+package org.ggp.base.server.event;
+
+import java.io.Serializable;
+
+import org.ggp.base.server.request.LatencyHistogram;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.statemachine.Role;
+
+
+@SuppressWarnings("serial")
+public final class ServerRequestLatencyEvent extends Event implements Serializable
+{
+
+	private final Role role;
+	private final long latency;
+	private final LatencyHistogram histogram;
+
+	public ServerRequestLatencyEvent(Role role, long latency, LatencyHistogram histogram)
+	{
+		this.role = role;
+		this.latency = latency;
+		this.histogram = histogram;
+	}
+
+	public Role getRole()
+	{
+		return role;
+	}
+
+	/** The latency of this request, in milliseconds. */
+	public long getLatency()
+	{
+		return latency;
+	}
+
+	/** A snapshot of the latencies of every request to this role in the match so far. */
+	public LatencyHistogram getHistogram()
+	{
+		return histogram;
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.ggp.base.server.request;
+
+import java.io.Serializable;
+
+
+/**
+ * LatencyHistogram counts request latencies in buckets whose bounds double,
+ * so that it stays small no matter how many requests it has seen while still
+ * telling a 5 ms response from a 50 ms one. Bucket 0 holds latencies under
+ * 1 ms, and bucket i holds latencies from 2^(i-1) ms up to 2^i ms; the last
+ * bucket also holds everything longer.
+ *
+ * Histograms are safe to update from several threads. Use {@link #copy()} to
+ * take a snapshot that will not change.
+ */
+@SuppressWarnings("serial")
+public final class LatencyHistogram implements Serializable
+{
+	private static final int BUCKETS = 24;
+
+	private final long[] counts = new long[BUCKETS];
+	private long total;
+	private long max;
+
+	public synchronized void add(long latency)
+	{
+		counts[getBucket(latency)]++;
+		total += latency;
+		max = Math.max(max, latency);
+	}
+
+	public synchronized LatencyHistogram copy()
+	{
+		LatencyHistogram copy = new LatencyHistogram();
+		System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+		copy.total = total;
+		copy.max = max;
+		return copy;
+	}
+
+	public synchronized long getCount()
+	{
+		long count = 0;
+		for (long c : counts) {
+			count += c;
+		}
+		return count;
+	}
+
+	public synchronized double getMean()
+	{
+		long count = getCount();
+		return (count == 0) ? 0 : (double) total / count;
+	}
+
+	public synchronized long getMax()
+	{
+		return max;
+	}
+
+	public int getBucketCount()
+	{
+		return BUCKETS;
+	}
+
+	public synchronized long getCount(int bucket)
+	{
+		return counts[bucket];
+	}
+
+	/** Returns the exclusive upper bound of the given bucket, in milliseconds. */
+	public static long getUpperBound(int bucket)
+	{
+		return 1L << bucket;
+	}
+
+	/**
+	 * Returns an upper bound on the given percentile (between 0 and 100) of
+	 * the latencies seen so far: the upper bound of the bucket it falls in,
+	 * or the maximum latency if that is smaller.
+	 */
+	public synchronized long getPercentile(double percentile)
+	{
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(getUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	private static int getBucket(long latency)
+	{
+		if (latency < 1) {
+			return 0;
+		}
+		int bucket = 64 - Long.numberOfLeadingZeros(latency);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "n=" + getCount() + " mean=" + Math.round(getMean()) + "ms p50<=" + getPercentile(50) + "ms p99<=" + getPercentile(99) + "ms max=" + max + "ms";
+	}
+}
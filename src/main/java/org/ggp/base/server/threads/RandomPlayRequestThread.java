@@ -23,6 +23,18 @@ public final class RandomPlayRequestThread extends PlayRequestThread
 		return move;
 	}
 
+	@Override
+	public void dispatch()
+	{
+		;
+	}
+
+	@Override
+	public void finish()
+	{
+		;
+	}
+
 	@Override
 	public void run()
 	{
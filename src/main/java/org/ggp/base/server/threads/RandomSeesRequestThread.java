@@ -23,6 +23,18 @@ public final class RandomSeesRequestThread extends SeesRequestThread
 		return move;
 	}
 
+	@Override
+	public void dispatch()
+	{
+		;
+	}
+
+	@Override
+	public void finish()
+	{
+		;
+	}
+
 	@Override
 	public void run()
 	{
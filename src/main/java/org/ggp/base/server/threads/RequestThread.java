@@ -1,13 +1,12 @@
 package org.ggp.base.server.threads;
 
-import java.io.IOException;
 import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
 
 import org.ggp.base.server.GameServer;
 import org.ggp.base.server.event.ServerConnectionErrorEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
-import org.ggp.base.util.http.HttpRequest;
+import org.ggp.base.util.http.AsyncHttpClient;
 import org.ggp.base.util.statemachine.Role;
 
 
@@ -20,6 +19,11 @@ import org.ggp.base.util.statemachine.Role;
  * that the concrete RequestThread subclasses can focus on request-specific
  * business logic.
  *
+ * The game server does not start these as threads: it calls {@link #dispatch()}
+ * on every request for a turn, which hands them to the shared
+ * {@link AsyncHttpClient}, and then {@link #finish()} on each to wait for and
+ * handle its response. Running one as a thread does both in turn.
+ *
  * @author schreib
  */
 public abstract class RequestThread extends Thread
@@ -32,6 +36,8 @@ public abstract class RequestThread extends Thread
 	private final Role role;
 	private final String request;
 
+	private AsyncHttpClient.Response pending;
+
 	public RequestThread(GameServer gameServer, Role role, String host, int port, String playerName, int timeout, String request)
 	{
 		this.gameServer = gameServer;
@@ -45,18 +51,42 @@ public abstract class RequestThread extends Thread
 
 	protected abstract void handleResponse(String response);
 
+	/**
+	 * Sends the request without waiting for the response.
+	 */
+	public void dispatch()
+	{
+		pending = AsyncHttpClient.getShared().issueRequest(host, port, playerName, request, timeout);
+	}
+
+	/**
+	 * Waits for the response to a dispatched request and handles it, reporting
+	 * timeouts, connection errors and the request's latency to the game server.
+	 */
+	public void finish() throws InterruptedException
+	{
+		try {
+			String response = pending.get();
+			gameServer.recordRequestLatency(role, pending.getLatency());
+			handleResponse(response);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SocketTimeoutException) {
+				gameServer.recordRequestLatency(role, pending.getLatency());
+				gameServer.notifyObservers(new ServerTimeoutEvent(role));
+			} else {
+				gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
+			}
+		}
+	}
+
 	@Override
 	public void run()
 	{
+		dispatch();
 		try {
-			String response = HttpRequest.issueRequest(host, port, playerName, request, timeout);
-			handleResponse(response);
-		} catch (SocketTimeoutException e) {
-			gameServer.notifyObservers(new ServerTimeoutEvent(role));
-		} catch (UnknownHostException e) {
-			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
-		} catch (IOException e) {
-			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
+			finish();
+		} catch (InterruptedException e) {
+			pending.cancel(true);
 		}
 	}
 }
\ No newline at end of file
@@ -1,16 +1,12 @@
 package org.ggp.base.util.game;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.GdlParser;
 import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlPool;
-import org.ggp.base.util.symbol.factory.HRFSymbolFactory;
-import org.ggp.base.util.symbol.factory.SymbolFactory;
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
-import org.ggp.base.util.symbol.grammar.SymbolList;
 
 import external.JSON.JSONObject;
 
@@ -144,26 +140,7 @@ public final class Game {
      */
     public List<Gdl> getRules() {
     	try {
-	        List<Gdl> rules = new ArrayList<Gdl>();
-	        SymbolList list = null;
-	        int i = 0;
-	        switch (GdlPool.format) {
-		        case HRF:
-		        	list = (SymbolList) HRFSymbolFactory.create(theRulesheet);
-		        	++i;
-		        	break;
-		        case KIF:
-		        	list = (SymbolList) SymbolFactory.create(theRulesheet);
-		        	break;
-		        default:
-		        	throw new SymbolFormatException("Data Format is not defined.");
-		    }
-
-	        for (; i < list.size(); i++)
-	        {
-	            rules.add(GdlFactory.create(list.get(i)));
-	        }
-	        return rules;
+    		return new GdlParser(theRulesheet, GdlPool.format).nextRulesheet();
     	} catch (GdlFormatException e) {
     		e.printStackTrace();
     		return null;
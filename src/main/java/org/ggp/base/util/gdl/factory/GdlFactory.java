@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.DataFormat;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlDistinct;
@@ -18,7 +19,6 @@ import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
-import org.ggp.base.util.symbol.factory.SymbolFactory;
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 import org.ggp.base.util.symbol.grammar.Symbol;
 import org.ggp.base.util.symbol.grammar.SymbolAtom;
@@ -30,7 +30,7 @@ public final class GdlFactory
 
 	public static Gdl create(String string) throws GdlFormatException, SymbolFormatException
 	{
-		return create(SymbolFactory.create(string));
+		return new GdlParser(string, DataFormat.KIF).nextGdl();
 	}
 
 	public static Gdl create(Symbol symbol) throws GdlFormatException
@@ -50,9 +50,9 @@ public final class GdlFactory
 	public static List<Gdl> createList(String string) throws GdlFormatException, SymbolFormatException
 	{
 		List<Gdl> terms = new ArrayList<Gdl>();
-		List<Symbol> listOfSymbols = SymbolFactory.createList(string);
-		for (int i = 0; i < listOfSymbols.size(); i++) {
-			terms.add(create(listOfSymbols.get(i)));
+		GdlParser parser = new GdlParser(string, DataFormat.KIF);
+		while (parser.hasNext()) {
+			terms.add(parser.nextGdl());
 		}
 		return terms;
 	}
@@ -185,7 +185,7 @@ public final class GdlFactory
 
 	public static GdlTerm createTerm(String string) throws SymbolFormatException
 	{
-		return createTerm(SymbolFactory.create(string));
+		return new GdlParser(string, DataFormat.KIF).nextTerm();
 	}
 
 	public static GdlTerm createTerm(Symbol symbol)
@@ -212,9 +212,9 @@ public final class GdlFactory
 	public static List<GdlTerm> createTermList(String string) throws SymbolFormatException
 	{
 		List<GdlTerm> terms = new ArrayList<GdlTerm>();
-		List<Symbol> listOfSymbols = SymbolFactory.createList(string);
-		for (int i = 0; i < listOfSymbols.size(); i++) {
-			terms.add(createTerm(listOfSymbols.get(i)));
+		GdlParser parser = new GdlParser(string, DataFormat.KIF);
+		while (parser.hasNext()) {
+			terms.add(parser.nextTerm());
 		}
 		return terms;
 	}
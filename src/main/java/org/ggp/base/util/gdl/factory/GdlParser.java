@@ -0,0 +1,830 @@
+package org.ggp.base.util.gdl.factory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.DataFormat;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+/**
+ * GdlParser reads GDL from text straight into the {@link GdlPool}, in a
+ * single pass. Unlike {@link SymbolFactory} followed by {@link GdlFactory},
+ * it never builds a list of tokens or a tree of symbols: tokens are read one
+ * at a time into a buffer that is reused for every token, and each one is
+ * turned into GDL as soon as it has been read.
+ * <p>
+ * The parser reads either KIF, as in
+ * <tt>( &lt;= ( legal ?w noop ) ( role ?w ) )</tt>, or HRF, as in
+ * <tt>legal(W, noop) :- role(W)</tt>, depending on the {@link DataFormat}
+ * it is given. In HRF, rule bodies are joined by <tt>&amp;</tt>, disjunctions
+ * by <tt>|</tt> and negations start with <tt>~</tt>; a disjunction in a body
+ * with other literals has to be in parentheses, since GDL has no way to say
+ * that the disjunction of two conjunctions holds. <tt>[a, b]</tt> is the
+ * list <tt>cons(a, cons(b, nil))</tt>. In both formats, a term that starts
+ * with <tt>?</tt> or an upper case letter is a variable.
+ * <p>
+ * Besides GDL, the parser can read the compound expressions that game
+ * messages are made of; see {@link #beginCompound()}.
+ */
+public final class GdlParser
+{
+	private static final int EOF = 0;
+	private static final int ATOM = 1;
+	private static final int OPEN = 2;
+	private static final int CLOSE = 3;
+	// The rest only appear in HRF.
+	private static final int COMMA = 4;
+	private static final int OPEN_BRACKET = 5;
+	private static final int CLOSE_BRACKET = 6;
+	private static final int NOT = 7;
+	private static final int AND = 8;
+	private static final int OR = 9;
+	private static final int IF = 10;
+
+	private static final int NO_TOKEN = -1;
+	private static final int NO_CHAR = -2;
+	// Ctrl-Z, which ends HRF messages.
+	private static final int END_OF_FILE = 26;
+
+	private final DataFormat format;
+	private final CharSequence chars;
+	private final Reader reader;
+	private final char[] readBuffer;
+	private int readPosition;
+	private int readLength;
+	private int offset;
+	private int pushedBack = NO_CHAR;
+
+	// The current token; its text, for atoms, is the first tokenLength chars of token.
+	private int type = NO_TOKEN;
+	private char[] token = new char[64];
+	private int tokenLength;
+	private int tokenOffset;
+
+	// Recently read atoms, so that an atom that is read again isn't copied again.
+	private final String[] atoms = new String[512];
+
+	// Terms and literals whose function, relation, rule or disjunction is still being read.
+	private final List<GdlTerm> terms = new ArrayList<GdlTerm>();
+	private final List<GdlLiteral> literals = new ArrayList<GdlLiteral>();
+
+	// For each compound being read, whether it has arguments and, for HRF, whether its first one has been read.
+	private boolean[] compoundHasArguments = new boolean[8];
+	private boolean[] compoundStarted = new boolean[8];
+	private int compoundDepth;
+
+	// When not null, the text of every token that is read is appended to it.
+	private StringBuilder capture;
+
+	public GdlParser(CharSequence input, DataFormat format)
+	{
+		this.format = format;
+		this.chars = input;
+		this.reader = null;
+		this.readBuffer = null;
+	}
+
+	public GdlParser(Reader input, DataFormat format)
+	{
+		this.format = format;
+		this.chars = null;
+		this.reader = input;
+		this.readBuffer = new char[4096];
+	}
+
+	/**
+	 * Returns whether there is anything left to read.
+	 */
+	public boolean hasNext() throws SymbolFormatException
+	{
+		return peek() != EOF;
+	}
+
+	/**
+	 * Reads a rule or a sentence.
+	 */
+	public Gdl nextGdl() throws GdlFormatException, SymbolFormatException
+	{
+		return (format == DataFormat.HRF) ? readHrfGdl() : readKifGdl();
+	}
+
+	/**
+	 * Reads a rulesheet, as stored in a {@link org.ggp.base.util.game.Game}.
+	 * In KIF, that is a list of rules and sentences in parentheses. In HRF,
+	 * it is rules and sentences separated by commas, either in brackets or
+	 * making up the rest of the input.
+	 */
+	public List<Gdl> nextRulesheet() throws GdlFormatException, SymbolFormatException
+	{
+		List<Gdl> rules = new ArrayList<Gdl>();
+		if (format == DataFormat.HRF) {
+			int end = EOF;
+			if (peek() == OPEN_BRACKET) {
+				next();
+				end = CLOSE_BRACKET;
+			}
+			while (peek() != end) {
+				rules.add(readHrfGdl());
+				if (peek() == COMMA)
+					next();
+			}
+			next();
+		} else {
+			expect(OPEN);
+			while (peek() != CLOSE) {
+				rules.add(readKifGdl());
+			}
+			next();
+		}
+		return rules;
+	}
+
+	/**
+	 * Reads a term.
+	 */
+	public GdlTerm nextTerm() throws SymbolFormatException
+	{
+		return (format == DataFormat.HRF) ? readHrfTerm() : readKifTerm();
+	}
+
+	/**
+	 * Reads a list of terms, as in <tt>( a b )</tt> in KIF or <tt>[a, b]</tt>
+	 * in HRF. If there is an atom instead, such as <tt>nil</tt>, it is read
+	 * and null is returned.
+	 */
+	public List<GdlTerm> nextTermList() throws SymbolFormatException
+	{
+		if (peek() == ATOM) {
+			next();
+			return null;
+		}
+		List<GdlTerm> list = new ArrayList<GdlTerm>();
+		if (format == DataFormat.HRF) {
+			expect(OPEN_BRACKET);
+			if (peek() != CLOSE_BRACKET) {
+				list.add(readHrfTerm());
+				while (peek() == COMMA) {
+					next();
+					list.add(readHrfTerm());
+				}
+			}
+			expect(CLOSE_BRACKET);
+		} else {
+			expect(OPEN);
+			while (peek() != CLOSE) {
+				list.add(readKifTerm());
+			}
+			next();
+		}
+		return list;
+	}
+
+	/**
+	 * Reads an atom, returning its text.
+	 */
+	public String nextAtom() throws SymbolFormatException
+	{
+		expect(ATOM);
+		return atomText();
+	}
+
+	/**
+	 * Reads the next expression without parsing it, returning its text with
+	 * its tokens separated by spaces. This is for expressions that are parsed
+	 * later, like the rulesheet in a START message.
+	 */
+	public String nextExpressionText() throws SymbolFormatException
+	{
+		capture = new StringBuilder();
+		try {
+			skipExpression();
+			return capture.toString();
+		} finally {
+			capture = null;
+		}
+	}
+
+	/**
+	 * Starts reading a compound expression, such as <tt>( play m1 nil )</tt>
+	 * in KIF or <tt>play(m1, nil)</tt> in HRF, and returns its name. A plain
+	 * atom counts as a compound without arguments. Read the arguments while
+	 * {@link #hasNextArgument()} returns true, then call
+	 * {@link #endCompound()}.
+	 */
+	public String beginCompound() throws SymbolFormatException
+	{
+		String name;
+		boolean hasArguments;
+		if (format == DataFormat.HRF) {
+			name = nextAtom();
+			hasArguments = (peek() == OPEN);
+			if (hasArguments)
+				next();
+		} else {
+			hasArguments = (peek() == OPEN);
+			if (hasArguments)
+				next();
+			name = nextAtom();
+		}
+		if (compoundDepth == compoundHasArguments.length) {
+			compoundHasArguments = Arrays.copyOf(compoundHasArguments, compoundDepth * 2);
+			compoundStarted = Arrays.copyOf(compoundStarted, compoundDepth * 2);
+		}
+		compoundHasArguments[compoundDepth] = hasArguments;
+		compoundStarted[compoundDepth] = false;
+		compoundDepth++;
+		return name;
+	}
+
+	/**
+	 * Returns whether the compound being read has any arguments, without
+	 * reading anything. This can only be called before its first argument.
+	 */
+	public boolean hasArguments() throws SymbolFormatException
+	{
+		int depth = compoundDepth - 1;
+		return depth >= 0 && compoundHasArguments[depth] && peek() != CLOSE;
+	}
+
+	/**
+	 * Returns whether the compound being read has another argument.
+	 */
+	public boolean hasNextArgument() throws SymbolFormatException
+	{
+		int depth = compoundDepth - 1;
+		if (depth < 0 || !compoundHasArguments[depth])
+			return false;
+		if (format == DataFormat.HRF && compoundStarted[depth]) {
+			if (peek() != COMMA)
+				return false;
+			next();
+			return true;
+		}
+		compoundStarted[depth] = true;
+		return peek() != CLOSE;
+	}
+
+	/**
+	 * Finishes reading a compound expression, which must have no arguments
+	 * left.
+	 */
+	public void endCompound() throws SymbolFormatException
+	{
+		if (compoundDepth == 0)
+			throw syntaxError();
+		compoundDepth--;
+		if (compoundHasArguments[compoundDepth])
+			expect(CLOSE);
+	}
+
+	/* KIF */
+
+	private Gdl readKifGdl() throws GdlFormatException, SymbolFormatException
+	{
+		if (peek() != OPEN)
+			return GdlPool.getProposition(readConstant());
+		next();
+		if (peek() == ATOM && (atomIs("<=") || atomIs("rule"))) {
+			next();
+			GdlSentence head = readKifSentence();
+			int start = literals.size();
+			while (peek() != CLOSE) {
+				literals.add(readKifLiteral());
+			}
+			next();
+			return makeRule(head, start);
+		}
+		return readKifRelation();
+	}
+
+	private GdlSentence readKifSentence() throws GdlFormatException, SymbolFormatException
+	{
+		if (peek() != OPEN)
+			return GdlPool.getProposition(readConstant());
+		next();
+		return readKifRelation();
+	}
+
+	// Reads the rest of a relation, after its opening parenthesis.
+	private GdlSentence readKifRelation() throws GdlFormatException, SymbolFormatException
+	{
+		if (peek() != ATOM)
+			throw gdlError();
+		GdlConstant name = readConstant();
+		int start = terms.size();
+		while (peek() != CLOSE) {
+			terms.add(readKifTerm());
+		}
+		next();
+		return makeRelation(name, start);
+	}
+
+	private GdlLiteral readKifLiteral() throws GdlFormatException, SymbolFormatException
+	{
+		if (peek() != OPEN)
+			return GdlPool.getProposition(readConstant());
+		next();
+		if (peek() == ATOM) {
+			if (atomIsIgnoringCase("distinct")) {
+				next();
+				GdlTerm arg1 = readKifTerm();
+				GdlTerm arg2 = readKifTerm();
+				expect(CLOSE);
+				return GdlPool.getDistinct(arg1, arg2);
+			} else if (atomIsIgnoringCase("not")) {
+				next();
+				GdlLiteral body = readKifLiteral();
+				expect(CLOSE);
+				return GdlPool.getNot(body);
+			} else if (atomIsIgnoringCase("or")) {
+				next();
+				int start = literals.size();
+				while (peek() != CLOSE) {
+					literals.add(readKifLiteral());
+				}
+				next();
+				return makeOr(start);
+			}
+		}
+		return readKifRelation();
+	}
+
+	private GdlTerm readKifTerm() throws SymbolFormatException
+	{
+		if (peek() != OPEN)
+			return readAtomTerm();
+		next();
+		GdlConstant name = readConstant();
+		int start = terms.size();
+		while (peek() != CLOSE) {
+			terms.add(readKifTerm());
+		}
+		next();
+		return makeFunction(name, start);
+	}
+
+	/* HRF */
+
+	private Gdl readHrfGdl() throws GdlFormatException, SymbolFormatException
+	{
+		GdlSentence head = readHrfSentence();
+		if (peek() != IF)
+			return head;
+		next();
+		int start = literals.size();
+		literals.add(readHrfLiteral());
+		if (peek() == OR) {
+			// A disjunction without parentheses has to be the whole body.
+			while (peek() == OR) {
+				next();
+				literals.add(readHrfLiteral());
+			}
+			literals.add(makeOr(start));
+		} else {
+			while (peek() == AND) {
+				next();
+				literals.add(readHrfLiteral());
+			}
+		}
+		if (peek() == AND || peek() == OR)
+			throw gdlError();
+		return makeRule(head, start);
+	}
+
+	private GdlLiteral readHrfLiteral() throws GdlFormatException, SymbolFormatException
+	{
+		int next = peek();
+		if (next == NOT) {
+			next();
+			return GdlPool.getNot(readHrfLiteral());
+		} else if (next == OPEN) {
+			next();
+			int start = literals.size();
+			literals.add(readHrfLiteral());
+			while (peek() == OR) {
+				next();
+				literals.add(readHrfLiteral());
+			}
+			expect(CLOSE);
+			if (literals.size() - start == 1)
+				return literals.remove(start);
+			return makeOr(start);
+		} else if (next == ATOM) {
+			if (atomIsIgnoringCase("distinct")) {
+				next();
+				expect(OPEN);
+				GdlTerm arg1 = readHrfTerm();
+				expect(COMMA);
+				GdlTerm arg2 = readHrfTerm();
+				expect(CLOSE);
+				return GdlPool.getDistinct(arg1, arg2);
+			} else if (atomIsIgnoringCase("not")) {
+				next();
+				expect(OPEN);
+				GdlLiteral body = readHrfLiteral();
+				expect(CLOSE);
+				return GdlPool.getNot(body);
+			} else if (atomIsIgnoringCase("or")) {
+				next();
+				expect(OPEN);
+				int start = literals.size();
+				if (peek() != CLOSE) {
+					literals.add(readHrfLiteral());
+					while (peek() == COMMA) {
+						next();
+						literals.add(readHrfLiteral());
+					}
+				}
+				expect(CLOSE);
+				return makeOr(start);
+			}
+		}
+		return readHrfSentence();
+	}
+
+	private GdlSentence readHrfSentence() throws GdlFormatException, SymbolFormatException
+	{
+		if (peek() != ATOM)
+			throw gdlError();
+		GdlConstant name = readConstant();
+		if (peek() != OPEN)
+			return GdlPool.getProposition(name);
+		return makeRelation(name, readHrfArguments());
+	}
+
+	private GdlTerm readHrfTerm() throws SymbolFormatException
+	{
+		if (peek() == OPEN_BRACKET) {
+			next();
+			return readHrfList();
+		}
+		if (peek() != ATOM)
+			throw syntaxError();
+		if (!startsVariable(token[0])) {
+			GdlConstant name = readConstant();
+			if (peek() == OPEN)
+				return makeFunction(name, readHrfArguments());
+			return name;
+		}
+		return readAtomTerm();
+	}
+
+	// Reads the rest of a list, after its opening bracket.
+	private GdlTerm readHrfList() throws SymbolFormatException
+	{
+		if (peek() == CLOSE_BRACKET) {
+			next();
+			return GdlPool.getConstant("nil");
+		}
+		GdlTerm head = readHrfTerm();
+		GdlTerm tail;
+		if (peek() == COMMA) {
+			next();
+			tail = readHrfList();
+		} else {
+			expect(CLOSE_BRACKET);
+			tail = GdlPool.getConstant("nil");
+		}
+		return GdlPool.getFunction(GdlPool.getConstant("cons"), new GdlTerm[] { head, tail });
+	}
+
+	// Reads a parenthesized, comma separated list of terms onto the terms being read, returning where they start.
+	private int readHrfArguments() throws SymbolFormatException
+	{
+		expect(OPEN);
+		int start = terms.size();
+		if (peek() != CLOSE) {
+			terms.add(readHrfTerm());
+			while (peek() == COMMA) {
+				next();
+				terms.add(readHrfTerm());
+			}
+		}
+		expect(CLOSE);
+		return start;
+	}
+
+	/* Terms and atoms */
+
+	private GdlTerm readAtomTerm() throws SymbolFormatException
+	{
+		expect(ATOM);
+		if (startsVariable(token[0]))
+			return GdlPool.getVariable(atomText());
+		return GdlPool.getConstant(atomText());
+	}
+
+	private GdlConstant readConstant() throws SymbolFormatException
+	{
+		expect(ATOM);
+		return GdlPool.getConstant(atomText());
+	}
+
+	private static boolean startsVariable(char c)
+	{
+		return c == '?' || Character.isUpperCase(c);
+	}
+
+	/*
+	 * These build GDL from the terms or literals read since the given
+	 * position, and then remove them. The pool copies them if it needs to.
+	 */
+
+	private GdlTerm makeFunction(GdlConstant name, int start)
+	{
+		List<GdlTerm> body = terms.subList(start, terms.size());
+		GdlTerm function = GdlPool.getFunction(name, body);
+		body.clear();
+		return function;
+	}
+
+	private GdlSentence makeRelation(GdlConstant name, int start)
+	{
+		List<GdlTerm> body = terms.subList(start, terms.size());
+		GdlSentence relation = GdlPool.getRelation(name, body);
+		body.clear();
+		return relation;
+	}
+
+	private GdlLiteral makeOr(int start)
+	{
+		List<GdlLiteral> disjuncts = literals.subList(start, literals.size());
+		GdlLiteral or = GdlPool.getOr(disjuncts);
+		disjuncts.clear();
+		return or;
+	}
+
+	private Gdl makeRule(GdlSentence head, int start)
+	{
+		List<GdlLiteral> body = literals.subList(start, literals.size());
+		Gdl rule = GdlPool.getRule(head, body);
+		body.clear();
+		return rule;
+	}
+
+	private void skipExpression() throws SymbolFormatException
+	{
+		int depth = 0;
+		while (true) {
+			int next = next();
+			if (next == OPEN || next == OPEN_BRACKET) {
+				depth++;
+			} else if (next == CLOSE || next == CLOSE_BRACKET) {
+				if (--depth < 0)
+					throw syntaxError();
+			} else if (next == EOF) {
+				throw syntaxError();
+			}
+			// In HRF, an atom followed by an opening parenthesis is a compound.
+			if (depth == 0 && !(format == DataFormat.HRF && peek() == OPEN))
+				return;
+		}
+	}
+
+	/* Tokens */
+
+	private boolean atomIs(String text)
+	{
+		if (tokenLength != text.length())
+			return false;
+		for (int i = 0; i < tokenLength; i++) {
+			if (token[i] != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean atomIsIgnoringCase(String text)
+	{
+		if (tokenLength != text.length())
+			return false;
+		for (int i = 0; i < tokenLength; i++) {
+			if (Character.toLowerCase(token[i]) != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the text of the atom that was just read, reusing the string
+	 * from the last time an atom with the same text was read, if it is still
+	 * in the cache.
+	 */
+	private String atomText()
+	{
+		int hash = 0;
+		for (int i = 0; i < tokenLength; i++) {
+			hash = 31 * hash + token[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (atoms.length - 1);
+		String cached = atoms[slot];
+		if (cached != null && atomIs(cached))
+			return cached;
+		String text = new String(token, 0, tokenLength);
+		atoms[slot] = text;
+		return text;
+	}
+
+	private void expect(int expected) throws SymbolFormatException
+	{
+		if (next() != expected)
+			throw syntaxError();
+	}
+
+	private int peek() throws SymbolFormatException
+	{
+		if (type == NO_TOKEN) {
+			type = (format == DataFormat.HRF) ? scanHrf() : scanKif();
+		}
+		return type;
+	}
+
+	// Consumes the current token, leaving its text in the buffer, and returns its type.
+	private int next() throws SymbolFormatException
+	{
+		int current = peek();
+		if (capture != null) {
+			if (capture.length() > 0)
+				capture.append(' ');
+			capture.append(token, 0, tokenLength);
+		}
+		type = NO_TOKEN;
+		return current;
+	}
+
+	private int scanKif() throws SymbolFormatException
+	{
+		int c = read();
+		while (true) {
+			if (c == ';') {
+				while (c != '\n' && c != '\r' && c != -1) {
+					c = read();
+				}
+			} else if (isKifSpace(c)) {
+				c = read();
+			} else {
+				break;
+			}
+		}
+		tokenOffset = offset - 1;
+		tokenLength = 0;
+		if (c == -1)
+			return EOF;
+		append((char) c);
+		if (c == '(')
+			return OPEN;
+		if (c == ')')
+			return CLOSE;
+		while ((c = read()) != -1 && c != '(' && c != ')' && c != ';' && !isKifSpace(c)) {
+			append((char) c);
+		}
+		unread(c);
+		return ATOM;
+	}
+
+	private static boolean isKifSpace(int c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+
+	private int scanHrf() throws SymbolFormatException
+	{
+		int c = read();
+		while (true) {
+			if (c == '%') {
+				while (c != '\n' && c != '\r' && c != -1 && c != END_OF_FILE) {
+					c = read();
+				}
+			} else if (c != -1 && Character.isWhitespace(c)) {
+				c = read();
+			} else {
+				break;
+			}
+		}
+		tokenOffset = offset - 1;
+		tokenLength = 0;
+		if (c == -1)
+			return EOF;
+		if (c == END_OF_FILE) {
+			// Nothing after it is read.
+			unread(c);
+			return EOF;
+		}
+		append((char) c);
+		switch (c) {
+			case '(': return OPEN;
+			case ')': return CLOSE;
+			case ',': return COMMA;
+			case '[': return OPEN_BRACKET;
+			case ']': return CLOSE_BRACKET;
+			case '~': return NOT;
+			case '&': return AND;
+			case '|': return OR;
+			case ':':
+				c = read();
+				if (c != '-')
+					throw syntaxError();
+				append('-');
+				return IF;
+			case '"':
+				while ((c = read()) != -1) {
+					append((char) c);
+					if (c == '"')
+						return ATOM;
+				}
+				throw syntaxError();
+		}
+		if (!isHrfIdentifier(c))
+			throw syntaxError();
+		while ((c = read()) != -1 && isHrfIdentifier(c)) {
+			append((char) c);
+		}
+		unread(c);
+		return ATOM;
+	}
+
+	private static boolean isHrfIdentifier(int c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '_' || c == '*' || c == '+' || c == '-' || c == '.' || c == '/';
+	}
+
+	private void append(char c)
+	{
+		if (tokenLength == token.length)
+			token = Arrays.copyOf(token, tokenLength * 2);
+		token[tokenLength++] = c;
+	}
+
+	/* Characters */
+
+	private int read() throws SymbolFormatException
+	{
+		if (pushedBack != NO_CHAR) {
+			int c = pushedBack;
+			pushedBack = NO_CHAR;
+			if (c != -1)
+				offset++;
+			return c;
+		}
+		if (chars != null) {
+			if (offset == chars.length())
+				return -1;
+			return chars.charAt(offset++);
+		}
+		if (readPosition == readLength) {
+			try {
+				readLength = reader.read(readBuffer);
+			} catch (IOException e) {
+				SymbolFormatException wrapped = new SymbolFormatException(describePosition());
+				wrapped.initCause(e);
+				throw wrapped;
+			}
+			readPosition = 0;
+			if (readLength <= 0) {
+				readLength = 0;
+				return -1;
+			}
+		}
+		offset++;
+		return readBuffer[readPosition++];
+	}
+
+	private void unread(int c)
+	{
+		pushedBack = c;
+		if (c != -1)
+			offset--;
+	}
+
+	/* Errors */
+
+	private SymbolFormatException syntaxError()
+	{
+		return new SymbolFormatException(describePosition());
+	}
+
+	private GdlFormatException gdlError()
+	{
+		return new GdlFormatException(describePosition());
+	}
+
+	private String describePosition()
+	{
+		String where = "character " + tokenOffset;
+		if (chars != null)
+			return chars + " (at " + where + ")";
+		return "input at " + where;
+	}
+}
@@ -7,21 +7,38 @@ public final class GdlFormatException extends Exception
 {
 
 	private final Symbol source;
+	private final String sourceText;
 
 	public GdlFormatException(Symbol source)
 	{
 		this.source = source;
+		this.sourceText = null;
 	}
 
+	public GdlFormatException(String sourceText)
+	{
+		this.source = null;
+		this.sourceText = sourceText;
+	}
+
+	/**
+	 * Returns the symbol that could not be parsed, or null if the gdl was
+	 * parsed straight from text; see {@link #getSourceText()}.
+	 */
 	public Symbol getSource()
 	{
 		return source;
 	}
 
+	public String getSourceText()
+	{
+		return (source == null) ? sourceText : source.toString();
+	}
+
 	@Override
 	public String toString()
 	{
-		return "Improperly formatted gdl expression: " + source;
+		return "Improperly formatted gdl expression: " + getSourceText();
 	}
 
 }
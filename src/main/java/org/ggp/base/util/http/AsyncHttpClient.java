@@ -0,0 +1,645 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * AsyncHttpClient issues the same requests as {@link HttpRequest}, but all of
+ * them from a single selector thread rather than from a thread and a blocking
+ * socket per request. This is what lets a match host run many matches at once
+ * without spending most of its time starting threads and opening sockets.
+ *
+ * Connections are kept open and reused for later requests to the same host
+ * and port whenever the player's response says it supports keep-alive;
+ * players that close the connection after responding work as before. The
+ * number of requests in flight to any one host and port is bounded. Requests
+ * over the bound wait in line, and their clocks do not start until they are
+ * actually sent.
+ *
+ * Each request returns a {@link Response}, which is a future for the content
+ * of the player's response that also records how long the request took.
+ * Failures are reported through the future as the same exceptions that
+ * {@link HttpRequest#issueRequest} throws.
+ */
+public final class AsyncHttpClient
+{
+	public static final int DEFAULT_MAX_IN_FLIGHT_PER_HOST = 32;
+
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int MAX_IDLE_PER_HOST = 8;
+	private static final long IDLE_TIMEOUT = 30000;
+	private static final long MAX_SELECT_WAIT = 1000;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+	private static AsyncHttpClient shared;
+
+	/**
+	 * Returns the client shared by everything in this process that talks to
+	 * players, creating it on first use.
+	 */
+	public static synchronized AsyncHttpClient getShared()
+	{
+		if (shared == null) {
+			try {
+				shared = new AsyncHttpClient(DEFAULT_MAX_IN_FLIGHT_PER_HOST);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not open a selector for player requests", e);
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * The eventual response to a request. The latency is measured from the
+	 * moment the request was issued to the moment its outcome was known,
+	 * including any time spent waiting for a free slot.
+	 */
+	public static final class Response implements Future<String>
+	{
+		private final long startTime = System.currentTimeMillis();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile long endTime;
+		private volatile String content;
+		private volatile Throwable failure;
+		private volatile boolean cancelled;
+
+		private synchronized boolean complete(String content, Throwable failure, boolean cancelled) {
+			if (done.getCount() == 0) {
+				return false;
+			}
+			this.content = content;
+			this.failure = failure;
+			this.cancelled = cancelled;
+			this.endTime = System.currentTimeMillis();
+			done.countDown();
+			return true;
+		}
+
+		/**
+		 * Returns how long the request took in milliseconds, or -1 if it is
+		 * still in progress.
+		 */
+		public long getLatency() {
+			return isDone() ? endTime - startTime : -1;
+		}
+
+		/** Returns true if the request failed because the player ran out of time. */
+		public boolean isTimeout() {
+			return failure instanceof SocketTimeoutException;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return complete(null, null, true);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return isDone() && cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public String get() throws InterruptedException, ExecutionException {
+			done.await();
+			return getNow();
+		}
+
+		@Override
+		public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return getNow();
+		}
+
+		private String getNow() throws ExecutionException {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return content;
+		}
+	}
+
+	/** The requests and idle connections for one host and port. Only touched by the selector thread. */
+	private static final class Host
+	{
+		private int inFlight;
+		private final Deque<Exchange> waiting = new ArrayDeque<Exchange>();
+		private final Deque<SelectionKey> idle = new ArrayDeque<SelectionKey>();
+		private final Map<SelectionKey, Long> idleSince = new HashMap<SelectionKey, Long>();
+	}
+
+	private final int maxInFlightPerHost;
+	private final Selector selector;
+	private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+	private final Set<Exchange> active = new HashSet<Exchange>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(16384);
+	private volatile boolean closed;
+
+	public AsyncHttpClient(int maxInFlightPerHost) throws IOException
+	{
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		this.selector = Selector.open();
+		Thread thread = new Thread("AsyncHttpClient") {
+			@Override
+			public void run() {
+				runSelector();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sends a request to a player, with the same arguments as
+	 * {@link HttpRequest#issueRequest}. A negative timeout means the player
+	 * has as long as it wants to respond.
+	 */
+	public Response issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock)
+	{
+		Response response = new Response();
+		if (closed) {
+			response.complete(null, new IOException("The client has been closed."), false);
+			return response;
+		}
+		InetAddress theHost;
+		try {
+			theHost = InetAddress.getByName(targetHost);
+		} catch (UnknownHostException e) {
+			response.complete(null, e, false);
+			return response;
+		}
+		byte[] request = buildRequest(theHost.getHostName(), requestContent, forPlayerName);
+		InetSocketAddress address = new InetSocketAddress(theHost.getHostAddress(), targetPort);
+		submitted.add(new Exchange(address, request, timeoutClock, response));
+		selector.wakeup();
+		return response;
+	}
+
+	/**
+	 * Stops the selector thread, failing every request that has not finished.
+	 */
+	public void close()
+	{
+		closed = true;
+		selector.wakeup();
+	}
+
+	private static byte[] buildRequest(String hostField, String data, String playerName)
+	{
+		byte[] content = data.getBytes(UTF_8);
+		StringBuilder headers = new StringBuilder();
+		headers.append("POST / HTTP/1.0\r\n");
+		headers.append("Accept: text/delim\r\n");
+		headers.append("Host: ").append(hostField).append("\r\n");
+		headers.append("Sender: GAMESERVER\r\n");
+		headers.append("Receiver: ").append(playerName).append("\r\n");
+		headers.append("Content-Type: text/acl\r\n");
+		headers.append("Content-Length: ").append(content.length).append("\r\n");
+		headers.append("Connection: keep-alive\r\n");
+		headers.append("\r\n");
+		byte[] head = headers.toString().getBytes(UTF_8);
+		byte[] request = new byte[head.length + content.length];
+		System.arraycopy(head, 0, request, 0, head.length);
+		System.arraycopy(content, 0, request, head.length, content.length);
+		return request;
+	}
+
+	// Everything below runs on the selector thread.
+
+	private void runSelector()
+	{
+		while (!closed) {
+			try {
+				selector.select(nextWakeup());
+				Exchange exchange;
+				while ((exchange = submitted.poll()) != null) {
+					enqueue(exchange);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.attachment() == null) {
+						// An idle connection only becomes readable when the
+						// player closes it, or sends something we never asked for.
+						discardIdle(key);
+					} else {
+						((Exchange) key.attachment()).handle(key);
+					}
+				}
+				sweep(System.currentTimeMillis());
+			} catch (IOException e) {
+				GamerLogger.logStackTrace("AsyncHttpClient", e);
+			} catch (RuntimeException e) {
+				GamerLogger.logStackTrace("AsyncHttpClient", e);
+			}
+		}
+		shutdown();
+	}
+
+	private long nextWakeup()
+	{
+		long now = System.currentTimeMillis();
+		long wait = MAX_SELECT_WAIT;
+		for (Exchange exchange : active) {
+			wait = Math.min(wait, exchange.deadline - now);
+		}
+		return Math.max(1, wait);
+	}
+
+	private Host getHost(InetSocketAddress address)
+	{
+		String key = address.getAddress().getHostAddress() + ":" + address.getPort();
+		Host host = hosts.get(key);
+		if (host == null) {
+			host = new Host();
+			hosts.put(key, host);
+		}
+		return host;
+	}
+
+	private void enqueue(Exchange exchange)
+	{
+		exchange.host = getHost(exchange.address);
+		if (exchange.host.inFlight >= maxInFlightPerHost) {
+			exchange.host.waiting.add(exchange);
+		} else {
+			start(exchange);
+		}
+	}
+
+	private void start(Exchange exchange)
+	{
+		if (exchange.response.isDone()) {
+			// Cancelled while waiting in line.
+			return;
+		}
+		exchange.host.inFlight++;
+		active.add(exchange);
+		SelectionKey idleKey = exchange.host.idle.pollLast();
+		if (idleKey != null) {
+			exchange.host.idleSince.remove(idleKey);
+			exchange.reuse(idleKey);
+		} else {
+			exchange.connect();
+		}
+	}
+
+	/** Frees the exchange's slot and starts the next request waiting for its host. */
+	private void release(Exchange exchange)
+	{
+		if (!active.remove(exchange)) {
+			return;
+		}
+		Host host = exchange.host;
+		host.inFlight--;
+		while (host.inFlight < maxInFlightPerHost && !host.waiting.isEmpty()) {
+			start(host.waiting.poll());
+		}
+	}
+
+	private void keepIdle(Host host, SelectionKey key)
+	{
+		if (host.idle.size() >= MAX_IDLE_PER_HOST) {
+			closeQuietly(key);
+			return;
+		}
+		key.attach(null);
+		key.interestOps(SelectionKey.OP_READ);
+		host.idle.addLast(key);
+		host.idleSince.put(key, System.currentTimeMillis());
+	}
+
+	private void discardIdle(SelectionKey key)
+	{
+		for (Host host : hosts.values()) {
+			if (host.idle.remove(key)) {
+				host.idleSince.remove(key);
+				break;
+			}
+		}
+		closeQuietly(key);
+	}
+
+	private void sweep(long now)
+	{
+		List<Exchange> expired = new ArrayList<Exchange>();
+		for (Exchange exchange : active) {
+			if (exchange.response.isDone() || now >= exchange.deadline) {
+				expired.add(exchange);
+			}
+		}
+		for (Exchange exchange : expired) {
+			if (exchange.response.isDone()) {
+				exchange.abandon();
+			} else {
+				exchange.fail(new SocketTimeoutException(exchange.connecting ? "connect timed out" : "Read timed out"));
+			}
+		}
+		for (Host host : hosts.values()) {
+			while (!host.idle.isEmpty() && now - host.idleSince.get(host.idle.peekFirst()) > IDLE_TIMEOUT) {
+				SelectionKey key = host.idle.pollFirst();
+				host.idleSince.remove(key);
+				closeQuietly(key);
+			}
+		}
+	}
+
+	private void shutdown()
+	{
+		Exchange exchange;
+		while ((exchange = submitted.poll()) != null) {
+			exchange.response.complete(null, new IOException("The client has been closed."), false);
+		}
+		for (Host host : hosts.values()) {
+			for (Exchange waiting : host.waiting) {
+				waiting.response.complete(null, new IOException("The client has been closed."), false);
+			}
+		}
+		for (Exchange running : new ArrayList<Exchange>(active)) {
+			running.fail(new IOException("The client has been closed."));
+		}
+		for (SelectionKey key : selector.keys()) {
+			closeQuietly(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			;
+		}
+	}
+
+	private static void closeQuietly(SelectionKey key)
+	{
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			;
+		}
+	}
+
+	/** One request and its response, from connecting to reading the last byte. */
+	private final class Exchange
+	{
+		private final InetSocketAddress address;
+		private Host host;
+		private final ByteBuffer request;
+		private final int timeout;
+		private final Response response;
+
+		private SelectionKey key;
+		private boolean reused;
+		private boolean connecting;
+		private long deadline = Long.MAX_VALUE;
+		private byte[] received = new byte[1024];
+		private int receivedLength;
+		// How far the search for the end of the headers has got.
+		private int scanned;
+		private int headerLength = -1;
+		private int contentLength = -1;
+		private boolean keepAlive;
+
+		private Exchange(InetSocketAddress address, byte[] request, int timeout, Response response)
+		{
+			this.address = address;
+			this.request = ByteBuffer.wrap(request);
+			this.timeout = timeout;
+			this.response = response;
+		}
+
+		private void connect()
+		{
+			key = null;
+			reused = false;
+			connecting = true;
+			deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+			SocketChannel channel = null;
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				boolean connected = channel.connect(address);
+				key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+				if (connected) {
+					startWriting();
+				}
+			} catch (IOException e) {
+				if (key == null && channel != null) {
+					try {
+						channel.close();
+					} catch (IOException ce) {
+						;
+					}
+				}
+				fail(e);
+			}
+		}
+
+		private void reuse(SelectionKey idleKey)
+		{
+			reused = true;
+			key = idleKey;
+			key.attach(this);
+			startWriting();
+		}
+
+		private void startWriting()
+		{
+			connecting = false;
+			deadline = (timeout < 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+			request.rewind();
+			receivedLength = 0;
+			scanned = 0;
+			headerLength = -1;
+			contentLength = -1;
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+
+		private void handle(SelectionKey key)
+		{
+			SocketChannel channel = (SocketChannel) key.channel();
+			try {
+				if (key.isConnectable()) {
+					if (channel.finishConnect()) {
+						startWriting();
+					}
+				} else if (key.isWritable()) {
+					channel.write(request);
+					if (!request.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+					}
+				} else if (key.isReadable()) {
+					readBuffer.clear();
+					int count = channel.read(readBuffer);
+					if (count < 0) {
+						endOfStream();
+					} else {
+						if (receivedLength + count > received.length) {
+							received = Arrays.copyOf(received, Math.max(received.length * 2, receivedLength + count));
+						}
+						System.arraycopy(readBuffer.array(), 0, received, receivedLength, count);
+						receivedLength += count;
+						parse();
+					}
+				}
+			} catch (IOException e) {
+				if (!retry()) {
+					fail(e);
+				}
+			}
+		}
+
+		/**
+		 * A kept-alive connection may have been closed by the player since it
+		 * was last used. If so, and nothing has come back on it yet, start
+		 * over on a new connection.
+		 */
+		private boolean retry()
+		{
+			if (!reused || receivedLength > 0) {
+				return false;
+			}
+			closeQuietly(key);
+			connect();
+			return true;
+		}
+
+		private void endOfStream() throws IOException
+		{
+			if (retry()) {
+				return;
+			}
+			if (headerLength >= 0 && contentLength < 0) {
+				// Without a content length, the content runs until the
+				// connection is closed; lines are joined as in HttpReader.
+				String content = new String(received, headerLength, receivedLength - headerLength, UTF_8);
+				succeed(content.replace("\r", "").replace("\n", "").trim(), false);
+				return;
+			}
+			throw new IOException("The connection was closed before the response was complete.");
+		}
+
+		private void parse() throws IOException
+		{
+			if (headerLength < 0) {
+				int end = findEndOfHeaders();
+				if (end < 0) {
+					return;
+				}
+				headerLength = end;
+				parseHeaders(new String(received, 0, end, LATIN_1));
+			}
+			if (contentLength >= 0 && receivedLength - headerLength >= contentLength) {
+				String content = new String(received, headerLength, contentLength, UTF_8);
+				succeed(content.trim(), keepAlive && receivedLength == headerLength + contentLength);
+			}
+		}
+
+		private int findEndOfHeaders()
+		{
+			for (int i = Math.max(0, scanned - 2); i < receivedLength; i++) {
+				if (received[i] != '\n') {
+					continue;
+				}
+				if (i + 1 < receivedLength && received[i + 1] == '\n') {
+					return i + 2;
+				}
+				if (i + 2 < receivedLength && received[i + 1] == '\r' && received[i + 2] == '\n') {
+					return i + 3;
+				}
+			}
+			scanned = receivedLength;
+			return -1;
+		}
+
+		private void parseHeaders(String headers) throws IOException
+		{
+			String[] lines = headers.split("\r?\n");
+			keepAlive = lines[0].toUpperCase().startsWith("HTTP/1.1");
+			for (int i = 1; i < lines.length; i++) {
+				String line = lines[i].toLowerCase();
+				if (line.startsWith("content-length:")) {
+					try {
+						contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+					} catch (NumberFormatException e) {
+						throw new IOException("Content-Length header can't be parsed: \"" + lines[i] + "\"");
+					}
+				} else if (line.startsWith("connection:")) {
+					String value = line.substring("connection:".length());
+					if (value.contains("close")) {
+						keepAlive = false;
+					} else if (value.contains("keep-alive")) {
+						keepAlive = true;
+					}
+				}
+			}
+		}
+
+		private void succeed(String content, boolean reusable)
+		{
+			response.complete(content, null, false);
+			if (reusable && !closed) {
+				keepIdle(host, key);
+			} else {
+				closeQuietly(key);
+			}
+			release(this);
+		}
+
+		private void fail(IOException e)
+		{
+			response.complete(null, e, false);
+			abandon();
+		}
+
+		private void abandon()
+		{
+			if (key != null) {
+				closeQuietly(key);
+			}
+			release(this);
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * AsyncHttpServer is the player's side of {@link AsyncHttpClient}: it reads
+ * the requests that game servers send, as {@link HttpReader#readAsServer}
+ * does, and writes responses, as {@link HttpWriter#writeAsServer} does, but
+ * for any number of connections at once from a single selector thread.
+ * Requests are parsed as their bytes arrive, so a slow or stalled connection
+ * holds up nothing but itself. A connection that goes longer than the
+ * timeout without any progress is closed, except while its request is being
+ * handled.
+ *
+ * Each complete request is passed to the {@link Handler} on the selector
+ * thread, which it must not block for long. The handler answers through the
+ * request's {@link Exchange}, either right away or later from any thread.
+ * Connections that ask for keep-alive stay open for further requests.
+ */
+public final class AsyncHttpServer
+{
+	private static final long MAX_SELECT_WAIT = 1000;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+	public interface Handler
+	{
+		/**
+		 * Called on the selector thread with each request that has been read.
+		 */
+		void handle(Exchange exchange);
+	}
+
+	/**
+	 * A request that has been read, and is waiting for its response.
+	 */
+	public final class Exchange
+	{
+		private final Connection connection;
+		private final String target;
+		private final String content;
+		private final long receptionTime = System.currentTimeMillis();
+		private final AtomicBoolean answered = new AtomicBoolean();
+		private volatile ByteBuffer response;
+
+		private Exchange(Connection connection, String content)
+		{
+			this.connection = connection;
+			this.target = connection.target;
+			this.content = content;
+		}
+
+		/** Returns the request's target, such as "/" or "/messages?recipient=x". */
+		public String getTarget()
+		{
+			return target;
+		}
+
+		public String getContent()
+		{
+			return content;
+		}
+
+		/** Returns when the last byte of the request was read. */
+		public long getReceptionTime()
+		{
+			return receptionTime;
+		}
+
+		/**
+		 * Sends the given response. This can be called from any thread, and
+		 * only the first response or drop for an exchange has any effect.
+		 */
+		public void respond(String data)
+		{
+			if (answered.compareAndSet(false, true)) {
+				response = buildResponse(data, connection.keepAlive);
+				finished.add(this);
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Closes the connection without responding.
+		 */
+		public void drop()
+		{
+			if (answered.compareAndSet(false, true)) {
+				finished.add(this);
+				selector.wakeup();
+			}
+		}
+	}
+
+	private final ServerSocketChannel listener;
+	private final Handler handler;
+	private final int timeout;
+	private final Selector selector;
+	private final Queue<Exchange> finished = new ConcurrentLinkedQueue<Exchange>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16384);
+	private volatile boolean closed;
+
+	/**
+	 * Creates a server for the given bound channel, which is closed along
+	 * with the server. Nothing is accepted until {@link #run()} is called.
+	 */
+	public AsyncHttpServer(ServerSocketChannel listener, Handler handler, int timeout) throws IOException
+	{
+		this.listener = listener;
+		this.handler = handler;
+		this.timeout = timeout;
+		this.selector = Selector.open();
+		listener.configureBlocking(false);
+		listener.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Runs the selector loop on the calling thread until the server is closed.
+	 */
+	public void run()
+	{
+		while (!closed) {
+			try {
+				selector.select(nextWakeup());
+				Exchange exchange;
+				while ((exchange = finished.poll()) != null) {
+					exchange.connection.finish(exchange.response);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						((Connection) key.attachment()).handle();
+					}
+				}
+				sweep(System.currentTimeMillis());
+			} catch (IOException e) {
+				GamerLogger.logStackTrace("AsyncHttpServer", e);
+			} catch (RuntimeException e) {
+				GamerLogger.logStackTrace("AsyncHttpServer", e);
+			}
+		}
+		shutdown();
+	}
+
+	/**
+	 * Stops the server, closing every connection and the listening channel.
+	 */
+	public void close()
+	{
+		closed = true;
+		selector.wakeup();
+	}
+
+	private static ByteBuffer buildResponse(String data, boolean keepAlive)
+	{
+		byte[] content = data.getBytes(UTF_8);
+		StringBuilder headers = new StringBuilder();
+		headers.append("HTTP/1.0 200 OK\r\n");
+		headers.append("Content-type: text/acl\r\n");
+		headers.append("Content-length: ").append(content.length).append("\r\n");
+		headers.append("Access-Control-Allow-Origin: *\r\n");
+		headers.append("Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n");
+		headers.append("Access-Control-Allow-Headers: Content-Type\r\n");
+		headers.append("Access-Control-Allow-Age: 86400\r\n");
+		headers.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+		headers.append("\r\n");
+		byte[] head = headers.toString().getBytes(LATIN_1);
+		ByteBuffer response = ByteBuffer.allocate(head.length + content.length);
+		response.put(head).put(content).flip();
+		return response;
+	}
+
+	// Everything below runs on the selector thread.
+
+	private long nextWakeup()
+	{
+		long now = System.currentTimeMillis();
+		long wait = MAX_SELECT_WAIT;
+		for (SelectionKey key : selector.keys()) {
+			Object connection = key.attachment();
+			if (connection != null) {
+				wait = Math.min(wait, ((Connection) connection).deadline - now);
+			}
+		}
+		return Math.max(1, wait);
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel = listener.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(key));
+	}
+
+	private void sweep(long now)
+	{
+		for (SelectionKey key : selector.keys()) {
+			Connection connection = (Connection) key.attachment();
+			if (connection != null && now >= connection.deadline) {
+				closeQuietly(key);
+			}
+		}
+	}
+
+	private void shutdown()
+	{
+		for (SelectionKey key : selector.keys()) {
+			closeQuietly(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			;
+		}
+	}
+
+	private static void closeQuietly(SelectionKey key)
+	{
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			;
+		}
+	}
+
+	/** One connection from a game server, which may carry several requests in turn. */
+	private final class Connection
+	{
+		private final SelectionKey key;
+		private byte[] received = new byte[1024];
+		private int receivedLength;
+		// How far the search for the end of the headers has got.
+		private int scanned;
+		private int headerLength = -1;
+		private int contentLength = -1;
+		private String method;
+		private String target;
+		private boolean keepAlive;
+		private ByteBuffer response;
+		private boolean closeAfterResponse;
+		// While a request is being handled, there is no deadline.
+		private long deadline;
+
+		private Connection(SelectionKey key)
+		{
+			this.key = key;
+			this.deadline = System.currentTimeMillis() + timeout;
+		}
+
+		private void handle()
+		{
+			SocketChannel channel = (SocketChannel) key.channel();
+			try {
+				if (key.isReadable()) {
+					readBuffer.clear();
+					int count = channel.read(readBuffer);
+					if (count < 0) {
+						endOfStream();
+						return;
+					}
+					readBuffer.flip();
+					if (receivedLength + count > received.length) {
+						received = Arrays.copyOf(received, Math.max(received.length * 2, receivedLength + count));
+					}
+					readBuffer.get(received, receivedLength, count);
+					receivedLength += count;
+					deadline = System.currentTimeMillis() + timeout;
+					parse();
+				} else if (key.isWritable()) {
+					channel.write(response);
+					deadline = System.currentTimeMillis() + timeout;
+					if (!response.hasRemaining()) {
+						response = null;
+						if (closeAfterResponse || !keepAlive) {
+							closeQuietly(key);
+						} else {
+							key.interestOps(SelectionKey.OP_READ);
+							parse();
+						}
+					}
+				}
+			} catch (IOException e) {
+				closeQuietly(key);
+			}
+		}
+
+		private void endOfStream()
+		{
+			if (headerLength >= 0 && contentLength < 0 && method.equals("POST")) {
+				// Without a content length, the content runs until the
+				// connection is closed; lines are joined as in HttpReader.
+				String content = new String(received, headerLength, receivedLength - headerLength, UTF_8);
+				keepAlive = false;
+				dispatch(content.replace("\r", "").replace("\n", "").trim(), receivedLength);
+				return;
+			}
+			closeQuietly(key);
+		}
+
+		/** Parses whatever has been received so far, dispatching the request once it is complete. */
+		private void parse() throws IOException
+		{
+			if (headerLength < 0) {
+				int end = findEndOfHeaders();
+				if (end < 0) {
+					return;
+				}
+				headerLength = end;
+				parseHeaders(new String(received, 0, end, LATIN_1));
+			}
+			if (method.equals("GET")) {
+				String message = target.startsWith("/") ? target.substring(1) : target;
+				message = URLDecoder.decode(message, "UTF-8").replace((char) 13, ' ');
+				dispatch(message, headerLength);
+			} else if (method.equals("POST")) {
+				if (contentLength >= 0 && receivedLength - headerLength >= contentLength) {
+					dispatch(new String(received, headerLength, contentLength, UTF_8).trim(), headerLength + contentLength);
+				}
+			} else {
+				// Web browsers send OPTIONS requests to find out whether
+				// they may send the real request, which the blank response's
+				// headers answer. Anything else is also answered with a
+				// blank response, but then the connection is closed.
+				closeAfterResponse = !method.equals("OPTIONS");
+				consume(headerLength);
+				startWriting(buildResponse("", keepAlive && !closeAfterResponse));
+			}
+		}
+
+		private int findEndOfHeaders()
+		{
+			for (int i = Math.max(0, scanned - 2); i < receivedLength; i++) {
+				if (received[i] != '\n') {
+					continue;
+				}
+				if (i + 1 < receivedLength && received[i + 1] == '\n') {
+					return i + 2;
+				}
+				if (i + 2 < receivedLength && received[i + 1] == '\r' && received[i + 2] == '\n') {
+					return i + 3;
+				}
+			}
+			scanned = receivedLength;
+			return -1;
+		}
+
+		private void parseHeaders(String headers) throws IOException
+		{
+			String[] lines = headers.split("\r?\n");
+			String requestLine = lines[0];
+			int methodEnd = requestLine.indexOf(' ');
+			int targetEnd = requestLine.lastIndexOf(' ');
+			if (methodEnd < 0) {
+				throw new IOException("Unexpected request type: " + requestLine);
+			}
+			method = requestLine.substring(0, methodEnd).toUpperCase();
+			target = (targetEnd > methodEnd) ? requestLine.substring(methodEnd + 1, targetEnd) : requestLine.substring(methodEnd + 1);
+			keepAlive = requestLine.toUpperCase().endsWith("HTTP/1.1");
+			for (int i = 1; i < lines.length; i++) {
+				String line = lines[i].toLowerCase();
+				if (line.startsWith("content-length:")) {
+					try {
+						contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+					} catch (NumberFormatException e) {
+						throw new IOException("Content-Length header can't be parsed: \"" + lines[i] + "\"");
+					}
+				} else if (line.startsWith("connection:")) {
+					String value = line.substring("connection:".length());
+					if (value.contains("close")) {
+						keepAlive = false;
+					} else if (value.contains("keep-alive")) {
+						keepAlive = true;
+					}
+				}
+			}
+		}
+
+		private void dispatch(String content, int length)
+		{
+			consume(length);
+			key.interestOps(0);
+			deadline = Long.MAX_VALUE;
+			handler.handle(new Exchange(this, content));
+		}
+
+		/** Drops the given number of bytes of the request that has just been read. */
+		private void consume(int length)
+		{
+			receivedLength -= length;
+			System.arraycopy(received, length, received, 0, receivedLength);
+			scanned = 0;
+			headerLength = -1;
+			contentLength = -1;
+		}
+
+		/** Starts writing the given response, or closes the connection if there is none. */
+		private void finish(ByteBuffer response)
+		{
+			if (!key.isValid()) {
+				return;
+			}
+			if (response == null) {
+				closeQuietly(key);
+			} else {
+				startWriting(response);
+			}
+		}
+
+		private void startWriting(ByteBuffer response)
+		{
+			this.response = response;
+			deadline = System.currentTimeMillis() + timeout;
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+	}
+}
@@ -8,7 +8,9 @@ import java.util.Set;
 import org.ggp.base.util.crypto.SignableJSON;
 import org.ggp.base.util.game.Game;
 import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.GdlParser;
 import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.DataFormat;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 
@@ -34,14 +36,20 @@ public class IIMatch extends Match {
 	public IIMatch(String theJSON, Game theGame, String authToken)
 			throws JSONException, SymbolFormatException, GdlFormatException {
 		super(theJSON, theGame, authToken);
-		JSONObject theMatchObject = new JSONObject(theJSON);
+		JSONObject theMatchObject = parseMatchJSON(theJSON);
 		this.seesHistory = new ArrayList<Set<GdlTerm>>();
 		JSONArray theSees = theMatchObject.getJSONArray("sees");
         for (int i = 0; i < theSees.length(); i++) {
             Set<GdlTerm> seesTerms = new HashSet<GdlTerm>();
-            JSONArray sees = theSees.getJSONArray(i);
-            for (int j = 0; j < sees.length(); j++) {
-                seesTerms.add(GdlFactory.createTerm(sees.getString(j)));
+            Object sees = theSees.get(i);
+            if (sees instanceof JSONArray) {
+                JSONArray seesArray = (JSONArray) sees;
+                for (int j = 0; j < seesArray.length(); j++) {
+                    seesTerms.add(GdlFactory.createTerm(seesArray.getString(j)));
+                }
+            } else {
+                // As rendered by toJSON: a symbol list of the terms.
+                seesTerms.addAll(new GdlParser(sees.toString(), DataFormat.KIF).nextTermList());
             }
             seesHistory.add(seesTerms);
         }
@@ -138,6 +146,14 @@ public class IIMatch extends Match {
     	}
     }
 
+	@Override
+	void writeJournal(MatchJournal journal) throws JSONException {
+		super.writeJournal(journal);
+		for (int i = journal.getCount("sees"); i < seesHistory.size(); i++) {
+			journal.append("sees", renderSeesAsSymbolList(seesHistory.get(i)));
+		}
+	}
+
 	public Set<GdlTerm> getMostRecentSees() {
 		if (seesHistory.size() == 0)
 			return null;
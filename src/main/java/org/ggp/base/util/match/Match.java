@@ -12,10 +12,13 @@ import org.ggp.base.util.crypto.SignableJSON;
 import org.ggp.base.util.game.Game;
 import org.ggp.base.util.game.RemoteGameRepository;
 import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.GdlParser;
 import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.DataFormat;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
@@ -24,9 +27,7 @@ import org.ggp.base.util.gdl.scrambler.MappingGdlScrambler;
 import org.ggp.base.util.gdl.scrambler.NoOpGdlScrambler;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
-import org.ggp.base.util.symbol.factory.SymbolFactory;
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
-import org.ggp.base.util.symbol.grammar.SymbolList;
 
 import external.JSON.JSONArray;
 import external.JSON.JSONException;
@@ -61,7 +62,7 @@ public class Match
     private final Date startTime;
 	private final Game theGame;
 	private final List<List<GdlTerm>> moveHistory;
-	private final List<Set<GdlSentence>> stateHistory;
+	private final StateHistory stateHistory;
 	private final List<List<String>> errorHistory;
 	private final List<Date> stateTimeHistory;
 	private boolean isCompleted;
@@ -93,15 +94,18 @@ public class Match
 		this.numRoles = Role.computeRoles(theGame.getRules()).size();
 
 		this.moveHistory = new ArrayList<List<GdlTerm>>();
-		this.stateHistory = new ArrayList<Set<GdlSentence>>();
+		this.stateHistory = new StateHistory();
 		this.stateTimeHistory = new ArrayList<Date>();
 		this.errorHistory = new ArrayList<List<String>>();
 
 		this.goalValues = new ArrayList<Integer>();
 	}
 
+	/**
+	 * Loads a match from its JSON, or from a {@link MatchJournal}.
+	 */
 	public Match(String theJSON, Game theGame, String authToken) throws JSONException, SymbolFormatException, GdlFormatException {
-        JSONObject theMatchObject = new JSONObject(theJSON);
+        JSONObject theMatchObject = parseMatchJSON(theJSON);
 
         this.matchId = theMatchObject.getString("matchId");
         this.startClock = theMatchObject.getInt("startClock");
@@ -139,7 +143,7 @@ public class Match
         this.numRoles = Role.computeRoles(this.theGame.getRules()).size();
 
         this.moveHistory = new ArrayList<List<GdlTerm>>();
-        this.stateHistory = new ArrayList<Set<GdlSentence>>();
+        this.stateHistory = new StateHistory();
         this.stateTimeHistory = new ArrayList<Date>();
         this.errorHistory = new ArrayList<List<String>>();
 
@@ -155,10 +159,11 @@ public class Match
         JSONArray theStates = theMatchObject.getJSONArray("states");
         for (int i = 0; i < theStates.length(); i++) {
             Set<GdlSentence> theState = new HashSet<GdlSentence>();
-            SymbolList stateElements = (SymbolList) SymbolFactory.create(theStates.getString(i));
-            for (int j = 0; j < stateElements.size(); j++)
+            // States are rendered without the TRUE around each sentence.
+            List<GdlTerm> stateElements = new GdlParser(theStates.getString(i), DataFormat.KIF).nextTermList();
+            for (GdlTerm element : stateElements)
             {
-                theState.add((GdlSentence)GdlFactory.create("( true " + stateElements.get(j).toString() + " )"));
+                theState.add(GdlPool.getRelation(GdlPool.TRUE, new GdlTerm[] { element }));
             }
             stateHistory.add(theState);
         }
@@ -274,6 +279,30 @@ public class Match
 		this.isAborted = true;
 	}
 
+    /**
+     * Writes the parts of the match that the journal doesn't have yet.
+     * Subclasses with histories of their own should extend this.
+     */
+    void writeJournal(MatchJournal journal) throws JSONException {
+        for (int i = journal.getCount("states"); i < stateHistory.size(); i++) {
+            journal.append("states", renderStateAsSymbolList(stateHistory.get(i)));
+        }
+        for (int i = journal.getCount("stateTimes"); i < stateTimeHistory.size(); i++) {
+            journal.append("stateTimes", stateTimeHistory.get(i).getTime());
+        }
+        for (int i = journal.getCount("moves"); i < moveHistory.size(); i++) {
+            journal.append("moves", new JSONArray(renderArrayAsJSON(moveHistory.get(i), true)));
+        }
+        for (int i = journal.getCount("errors"); i < errorHistory.size(); i++) {
+            journal.append("errors", new JSONArray(renderArrayAsJSON(errorHistory.get(i), true)));
+        }
+        journal.set("isCompleted", isCompleted);
+        journal.set("isAborted", isAborted);
+        if (goalValues.size() > 0) {
+            journal.set("goalValues", new JSONArray(goalValues));
+        }
+    }
+
 	/* Complex accessors */
 
     public String toJSON() {
@@ -368,9 +397,7 @@ public class Match
     }
 
     public Set<GdlSentence> getMostRecentState() {
-        if (stateHistory.size() == 0)
-            return null;
-        return stateHistory.get(stateHistory.size()-1);
+        return stateHistory.getMostRecent();
     }
 
     public String getGameRepositoryURL() {
@@ -454,6 +481,16 @@ public class Match
 
 	/* Static methods */
 
+    /**
+     * Parses match JSON, replaying it first if it is a {@link MatchJournal}.
+     */
+    protected static final JSONObject parseMatchJSON(String theJSON) throws JSONException {
+        if (MatchJournal.isJournal(theJSON)) {
+            return MatchJournal.replay(theJSON);
+        }
+        return new JSONObject(theJSON);
+    }
+
     public static final String getRandomString(int nLength) {
         Random theGenerator = new Random();
         String theString = "";
@@ -469,24 +506,26 @@ public class Match
     /* JSON rendering methods */
 
     protected static final String renderArrayAsJSON(List<?> theList, boolean useQuotes) {
-        String s = "[";
-        for (int i = 0; i < theList.size(); i++) {
-            Object o = theList.get(i);
+        StringBuilder s = new StringBuilder("[");
+        int i = 0;
+        for (Object o : theList) {
             // AppEngine-specific, not needed yet: if (o instanceof Text) o = ((Text)o).getValue();
             if (o instanceof Date) o = ((Date)o).getTime();
 
-            if (useQuotes) s += "\"";
-            s += o.toString();
-            if (useQuotes) s += "\"";
+            if (useQuotes) s.append("\"");
+            s.append(o.toString());
+            if (useQuotes) s.append("\"");
 
-            if (i < theList.size() - 1)
-                s += ", ";
+            if (i++ < theList.size() - 1)
+                s.append(", ");
         }
-        return s + "]";
+        return s.append("]").toString();
     }
 
+    // Goes through the states in order, so that a StateHistory can rebuild
+    // each one from the one before.
     protected static final List<String> renderStateHistory(List<Set<GdlSentence>> stateHistory) {
-        List<String> renderedStates = new ArrayList<String>();
+        List<String> renderedStates = new ArrayList<String>(stateHistory.size());
         for (Set<GdlSentence> aState : stateHistory) {
             renderedStates.add(renderStateAsSymbolList(aState));
         }
@@ -511,12 +550,12 @@ public class Match
 
     private static final String renderStateAsSymbolList(Set<GdlSentence> theState) {
         // Strip out the TRUE proposition, since those are implied for states.
-        String s = "( ";
+        StringBuilder s = new StringBuilder("( ");
         for (GdlSentence sent : theState) {
             String sentString = sent.toString();
-            s += sentString.substring(6, sentString.length()-2).trim() + " ";
+            s.append(sentString.substring(6, sentString.length()-2).trim()).append(" ");
         }
-        return s + ")";
+        return s.append(")").toString();
     }
 
     /* XML Rendering methods -- these are horribly inefficient and are included only for legacy/standards compatibility */
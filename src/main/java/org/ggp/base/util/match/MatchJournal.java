@@ -0,0 +1,228 @@
+package org.ggp.base.util.match;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * MatchJournal saves a match in progress as an append-only log, so that
+ * saving it after every turn only writes what happened in that turn, instead
+ * of the whole match again.
+ * <p>
+ * The journal is a series of JSON objects, one per line. The first line is
+ * the match as it was when the journal was opened, under "matchJournal".
+ * Every other line either appends a value to one of the match's histories,
+ * as in <tt>{"append":"states","value":"( ... )"}</tt>, or sets a field of
+ * the match, as in <tt>{"set":"isCompleted","value":true}</tt>. Replaying the
+ * journal in order rebuilds the match's JSON, and the {@link Match} and
+ * {@link IIMatch} constructors accept a journal wherever they accept JSON,
+ * so a journal left behind by a crashed server can be loaded directly. A
+ * partly written last line is ignored.
+ * <p>
+ * Lines are written straight to the file's channel on every sync, so they
+ * survive the server process crashing. To survive the machine crashing as
+ * well, they have to be forced to disk, which a sync only does if at least
+ * {@link #FORCE_INTERVAL} milliseconds have passed since the last force,
+ * so a long match doesn't wait on the disk every turn. Nothing forces the
+ * journal between syncs: the lines of the latest syncs are only sure to be
+ * on disk after a later sync or {@link #close()}. Once the match is over, call
+ * {@link #compact(Match, File)} to replace the journal with the match's
+ * ordinary, signed JSON.
+ */
+public final class MatchJournal
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String HEADER = "matchJournal";
+
+    /**
+     * How long after forcing the journal to disk a sync forces it again.
+     * Syncs within this time of the last force only write to the channel.
+     */
+    public static final long FORCE_INTERVAL = 1000;
+
+    private final Match match;
+    private final FileChannel channel;
+    // How many entries of each history are in the journal so far.
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+    // The last value written for each field.
+    private final Map<String, Object> fields = new HashMap<String, Object>();
+    private final StringBuilder pending = new StringBuilder();
+    private long lastForced;
+
+    /**
+     * Starts a journal for the given match in the given file, replacing
+     * anything that was there before.
+     */
+    public MatchJournal(Match match, File file) throws IOException
+    {
+        this.match = match;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            JSONObject header = new JSONObject(match.toJSON());
+            // The signature covers the finished match, not this snapshot.
+            header.remove("matchHostPK");
+            header.remove("matchHostSignature");
+            for (String key : JSONObject.getNames(header)) {
+                Object value = header.get(key);
+                if (value instanceof JSONArray) {
+                    counts.put(key, ((JSONArray) value).length());
+                } else {
+                    fields.put(key, value);
+                }
+            }
+            JSONObject line = new JSONObject();
+            line.put(HEADER, header);
+            pending.append(line.toString()).append('\n');
+        } catch (JSONException e) {
+            channel.close();
+            throw new IOException("Could not render match " + match.getMatchId(), e);
+        }
+        write(true);
+    }
+
+    /**
+     * Appends everything that has happened in the match since the last sync.
+     */
+    public void sync() throws IOException
+    {
+        try {
+            match.writeJournal(this);
+        } catch (JSONException e) {
+            throw new IOException("Could not render match " + match.getMatchId(), e);
+        }
+        write(System.currentTimeMillis() - lastForced >= FORCE_INTERVAL);
+    }
+
+    /**
+     * Forces everything synced so far to disk, and closes the journal.
+     */
+    public void close() throws IOException
+    {
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns how many entries of the given history are in the journal.
+     */
+    int getCount(String history)
+    {
+        Integer count = counts.get(history);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Appends the next entry of the given history.
+     */
+    void append(String history, Object value) throws JSONException
+    {
+        JSONObject line = new JSONObject();
+        line.put("append", history);
+        line.put("value", value);
+        pending.append(line.toString()).append('\n');
+        counts.put(history, getCount(history) + 1);
+    }
+
+    /**
+     * Sets the given field, unless it already has the given value.
+     */
+    void set(String field, Object value) throws JSONException
+    {
+        if (fields.containsKey(field) && String.valueOf(value).equals(String.valueOf(fields.get(field))))
+            return;
+        JSONObject line = new JSONObject();
+        line.put("set", field);
+        line.put("value", value);
+        pending.append(line.toString()).append('\n');
+        fields.put(field, value);
+    }
+
+    private void write(boolean force) throws IOException
+    {
+        if (pending.length() > 0) {
+            ByteBuffer buffer = UTF8.encode(pending.toString());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            pending.setLength(0);
+        }
+        if (force) {
+            channel.force(false);
+            lastForced = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Writes the given match to the given file as ordinary match JSON. The
+     * new file replaces the old one in a single step, so the file always
+     * holds either the journal or the whole match.
+     */
+    public static void compact(Match match, File file) throws IOException
+    {
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = UTF8.encode(match.toJSON());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns whether the given text is a match journal, rather than match JSON.
+     */
+    public static boolean isJournal(String text)
+    {
+        return text.startsWith("{\"" + HEADER + "\"");
+    }
+
+    /**
+     * Replays the given journal, returning the match JSON that it describes.
+     */
+    public static JSONObject replay(String journal) throws JSONException
+    {
+        String[] lines = journal.split("\n");
+        JSONObject match = new JSONObject(lines[0]).getJSONObject(HEADER);
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].trim().isEmpty())
+                continue;
+            JSONObject line;
+            try {
+                line = new JSONObject(lines[i]);
+            } catch (JSONException e) {
+                if (i == lines.length - 1)
+                    break;
+                throw e;
+            }
+            if (line.has("append")) {
+                String history = line.getString("append");
+                if (!match.has(history)) {
+                    match.put(history, new JSONArray());
+                }
+                match.getJSONArray(history).put(line.get("value"));
+            } else {
+                match.put(line.getString("set"), line.get("value"));
+            }
+        }
+        return match;
+    }
+}
@@ -0,0 +1,177 @@
+package org.ggp.base.util.match;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * StateHistory is the list of states that a {@link Match} went through,
+ * stored compactly. Every sentence that appears in any state is given an ID
+ * the first time it is seen, and states are stored as sorted arrays of IDs:
+ * every {@link #KEYFRAME_INTERVAL}th state in full, as a keyframe, and every
+ * other state as the IDs added and removed since the state before it. Since
+ * consecutive states usually differ by a handful of sentences, a long match
+ * takes a small fraction of the memory that a set per state would.
+ * <p>
+ * States are rebuilt when they are asked for, so every call to
+ * {@link #get(int)} returns a new set, and changing it has no effect on the
+ * history. Going through the history with an iterator applies one delta per
+ * state, rather than starting from the last keyframe each time. The history
+ * can only be appended to.
+ */
+final class StateHistory extends AbstractList<Set<GdlSentence>>
+{
+    static final int KEYFRAME_INTERVAL = 32;
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+    private final Map<GdlSentence, Integer> sentenceIds = new HashMap<GdlSentence, Integer>();
+    // For a keyframe, the state's IDs; otherwise, the IDs added since the state before.
+    private final List<int[]> added = new ArrayList<int[]>();
+    // For a keyframe, null; otherwise, the IDs removed since the state before.
+    private final List<int[]> removed = new ArrayList<int[]>();
+    private int[] mostRecent = NO_IDS;
+
+    @Override
+    public boolean add(Set<GdlSentence> state)
+    {
+        int[] ids = new int[state.size()];
+        int n = 0;
+        for (GdlSentence sentence : state) {
+            Integer id = sentenceIds.get(sentence);
+            if (id == null) {
+                id = sentences.size();
+                sentences.add(sentence);
+                sentenceIds.put(sentence, id);
+            }
+            ids[n++] = id;
+        }
+        Arrays.sort(ids);
+
+        if (added.size() % KEYFRAME_INTERVAL == 0) {
+            added.add(ids);
+            removed.add(null);
+        } else {
+            added.add(difference(ids, mostRecent));
+            removed.add(difference(mostRecent, ids));
+        }
+        mostRecent = ids;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Set<GdlSentence> get(int index)
+    {
+        if (index < 0 || index >= added.size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + added.size());
+        int keyframe = index - index % KEYFRAME_INTERVAL;
+        int[] ids = added.get(keyframe);
+        for (int i = keyframe + 1; i <= index; i++) {
+            ids = applyDelta(ids, i);
+        }
+        return toSet(ids);
+    }
+
+    @Override
+    public int size()
+    {
+        return added.size();
+    }
+
+    /**
+     * Returns the most recent state, or null if there are none.
+     */
+    Set<GdlSentence> getMostRecent()
+    {
+        return added.isEmpty() ? null : toSet(mostRecent);
+    }
+
+    @Override
+    public Iterator<Set<GdlSentence>> iterator()
+    {
+        return new Iterator<Set<GdlSentence>>() {
+            private int index = 0;
+            private int[] ids = NO_IDS;
+
+            @Override
+            public boolean hasNext() {
+                return index < added.size();
+            }
+
+            @Override
+            public Set<GdlSentence> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                ids = (removed.get(index) == null) ? added.get(index) : applyDelta(ids, index);
+                index++;
+                return toSet(ids);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Applies the delta of the state at the given index to the state before it. */
+    private int[] applyDelta(int[] ids, int index)
+    {
+        int[] removedIds = removed.get(index);
+        if (removedIds == null)
+            return added.get(index);
+        return union(difference(ids, removedIds), added.get(index));
+    }
+
+    private Set<GdlSentence> toSet(int[] ids)
+    {
+        Set<GdlSentence> state = new HashSet<GdlSentence>(ids.length * 2);
+        for (int id : ids) {
+            state.add(sentences.get(id));
+        }
+        return state;
+    }
+
+    /** Returns the IDs in a but not in b, both sorted. */
+    private static int[] difference(int[] a, int[] b)
+    {
+        int[] result = new int[a.length];
+        int n = 0;
+        int j = 0;
+        for (int id : a) {
+            while (j < b.length && b[j] < id)
+                j++;
+            if (j == b.length || b[j] != id)
+                result[n++] = id;
+        }
+        if (n == 0)
+            return NO_IDS;
+        return (n == result.length) ? result : Arrays.copyOf(result, n);
+    }
+
+    /** Returns the IDs in either a or b, both sorted and disjoint. */
+    private static int[] union(int[] a, int[] b)
+    {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else {
+                result[n++] = b[j++];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,639 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.BaseIndex;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * The FlatPropNet class is a compiled, immutable form of a {@link PropNet}.
+ *
+ * Every component in the network is given a dense integer index, and the
+ * structure of the network is stored in flat int arrays: the type of each
+ * component, and the offsets of its inputs and outputs into shared adjacency
+ * arrays. Base and input propositions get their own dense indices, so that a
+ * game state can be stored as a bit vector over the base propositions and a
+ * joint move as a list of input indices.
+ *
+ * A FlatPropNet holds no truth values of its own. Callers allocate a value
+ * vector with {@link #createValues()}, write the base, input and init values
+ * into it, and then call {@link #propagate(boolean[])} to compute the rest of
+ * the network. Because the structure is never modified after construction,
+ * one FlatPropNet can safely be shared between several state machines, as
+ * long as each of them uses its own value vector.
+ *
+ * Components are propagated in a topological order of the network with the
+ * transitions cut out. Recursive rules can produce cycles in that graph; the
+ * components of each such cycle are grouped into a block which is iterated
+ * until it reaches its least fixed point. Since GDL requires negation to be
+ * stratified, the gates in a cycle are monotone and this always terminates.
+ */
+public final class FlatPropNet
+{
+    public static final int TYPE_PROPOSITION = 0;
+    public static final int TYPE_AND = 1;
+    public static final int TYPE_OR = 2;
+    public static final int TYPE_NOT = 3;
+    public static final int TYPE_TRANSITION = 4;
+    public static final int TYPE_CONSTANT = 5;
+
+    private static final GdlConstant SEES = GdlPool.getConstant("sees");
+
+    /** The type of each component, as one of the TYPE_ constants. */
+    private final int[] types;
+    /** The inputs of component i are inputs[inputOffsets[i]..inputOffsets[i+1]). */
+    private final int[] inputOffsets;
+    private final int[] inputs;
+    /** The outputs of component i are outputs[outputOffsets[i]..outputOffsets[i+1]). */
+    private final int[] outputOffsets;
+    private final int[] outputs;
+    /** The values that every freshly created value vector starts with. */
+    private final boolean[] initialValues;
+    /** Whether each component's value is set externally rather than computed. */
+    private final boolean[] sources;
+
+    /** The component index of each base proposition, by base index. */
+    private final int[] basePropositions;
+    /** The component whose value gives each base proposition's next value. */
+    private final int[] baseSources;
+    /** The sentence of each base proposition, by base index. */
+    private final BaseIndex baseIndex;
+
+    /** The component index of each input proposition, by input index. */
+    private final int[] inputPropositions;
+    private final GdlSentence[] inputSentences;
+    /** For each role, the input index of each move that role can make. */
+    private final List<Map<Move, Integer>> inputIndicesByRole;
+
+    private final List<Role> roles;
+    private final int[][] legalPropositions;
+    private final List<List<Move>> legalMoves;
+    private final int[][] goalPropositions;
+    private final int[][] goalValues;
+    /** For each role, the sees propositions of GDL-II games, and their sentences. */
+    private final int[][] seesPropositions;
+    private final List<List<GdlSentence>> seesSentences;
+
+    private final int initProposition;
+    private final int terminalProposition;
+
+    /** The propagation order of every computed component. */
+    private final int[] ordering;
+    /** Block b of the ordering is ordering[blockOffsets[b]..blockOffsets[b+1]). */
+    private final int[] blockOffsets;
+    /** Whether each block is a cycle that needs to be iterated to a fixed point. */
+    private final boolean[] cyclicBlocks;
+
+    /**
+     * Compiles the given propnet. The propnet itself is not modified, and
+     * is not referenced by the FlatPropNet once construction is complete.
+     */
+    public FlatPropNet(PropNet propNet)
+    {
+        List<Component> components = new ArrayList<Component>(propNet.getComponents());
+        Map<Component, Integer> indices = new HashMap<Component, Integer>(components.size() * 2);
+        for (int i = 0; i < components.size(); i++) {
+            indices.put(components.get(i), i);
+        }
+        int n = components.size();
+
+        // Record the types and the adjacency structure.
+        types = new int[n];
+        initialValues = new boolean[n];
+        inputOffsets = new int[n + 1];
+        outputOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            Component c = components.get(i);
+            types[i] = getType(c);
+            if (c instanceof Constant) {
+                initialValues[i] = c.getValue();
+            }
+            inputOffsets[i + 1] = inputOffsets[i] + c.getInputs().size();
+            outputOffsets[i + 1] = outputOffsets[i] + c.getOutputs().size();
+        }
+        inputs = new int[inputOffsets[n]];
+        outputs = new int[outputOffsets[n]];
+        for (int i = 0; i < n; i++) {
+            Component c = components.get(i);
+            int pos = inputOffsets[i];
+            for (Component in : c.getInputs()) {
+                inputs[pos++] = indices.get(in);
+            }
+            pos = outputOffsets[i];
+            for (Component out : c.getOutputs()) {
+                outputs[pos++] = indices.get(out);
+            }
+        }
+
+        // Index the base propositions in a stable order.
+        List<Proposition> bases = sortedByName(propNet.getBasePropositions().values());
+        basePropositions = new int[bases.size()];
+        baseSources = new int[bases.size()];
+        List<GdlSentence> baseSentences = new ArrayList<GdlSentence>(bases.size());
+        for (int i = 0; i < bases.size(); i++) {
+            Proposition p = bases.get(i);
+            basePropositions[i] = indices.get(p);
+            baseSources[i] = indices.get(p.getSingleInput());
+            baseSentences.add(p.getName());
+        }
+        baseIndex = new BaseIndex(baseSentences);
+
+        // Index the input propositions, and the moves they correspond to.
+        roles = propNet.getRoles();
+        Map<Role, Integer> roleIndices = new HashMap<Role, Integer>();
+        inputIndicesByRole = new ArrayList<Map<Move, Integer>>(roles.size());
+        for (int i = 0; i < roles.size(); i++) {
+            roleIndices.put(roles.get(i), i);
+            inputIndicesByRole.add(new HashMap<Move, Integer>());
+        }
+        List<Proposition> inputProps = sortedByName(propNet.getInputPropositions().values());
+        inputPropositions = new int[inputProps.size()];
+        inputSentences = new GdlSentence[inputProps.size()];
+        for (int i = 0; i < inputProps.size(); i++) {
+            Proposition p = inputProps.get(i);
+            inputPropositions[i] = indices.get(p);
+            inputSentences[i] = p.getName();
+            Integer roleIndex = roleIndices.get(new Role((GdlConstant) p.getName().get(0)));
+            if (roleIndex != null) {
+                inputIndicesByRole.get(roleIndex).put(new Move(p.getName().get(1)), i);
+            }
+        }
+
+        // Index the legal and goal propositions by role.
+        legalPropositions = new int[roles.size()][];
+        legalMoves = new ArrayList<List<Move>>(roles.size());
+        goalPropositions = new int[roles.size()][];
+        goalValues = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            List<Proposition> legals = sortedByName(getOrEmpty(propNet.getLegalPropositions(), roles.get(r)));
+            legalPropositions[r] = new int[legals.size()];
+            List<Move> moves = new ArrayList<Move>(legals.size());
+            for (int i = 0; i < legals.size(); i++) {
+                legalPropositions[r][i] = indices.get(legals.get(i));
+                moves.add(new Move(legals.get(i).getName().get(1)));
+            }
+            legalMoves.add(Collections.unmodifiableList(moves));
+
+            List<Proposition> goals = sortedByName(getOrEmpty(propNet.getGoalPropositions(), roles.get(r)));
+            goalPropositions[r] = new int[goals.size()];
+            goalValues[r] = new int[goals.size()];
+            for (int i = 0; i < goals.size(); i++) {
+                goalPropositions[r][i] = indices.get(goals.get(i));
+                GdlRelation relation = (GdlRelation) goals.get(i).getName();
+                goalValues[r][i] = Integer.parseInt(((GdlConstant) relation.get(1)).getValue());
+            }
+        }
+
+        // Index the sees propositions by role, for incomplete information games.
+        List<List<Proposition>> sees = new ArrayList<List<Proposition>>(roles.size());
+        for (int r = 0; r < roles.size(); r++) {
+            sees.add(new ArrayList<Proposition>());
+        }
+        for (Proposition p : propNet.getPropositions()) {
+            if (p.getName() instanceof GdlRelation && p.getName().getName() == SEES) {
+                Integer roleIndex = roleIndices.get(new Role((GdlConstant) p.getName().get(0)));
+                if (roleIndex != null) {
+                    sees.get(roleIndex).add(p);
+                }
+            }
+        }
+        seesPropositions = new int[roles.size()][];
+        seesSentences = new ArrayList<List<GdlSentence>>(roles.size());
+        for (int r = 0; r < roles.size(); r++) {
+            List<Proposition> props = sortedByName(sees.get(r));
+            seesPropositions[r] = new int[props.size()];
+            List<GdlSentence> sentences = new ArrayList<GdlSentence>(props.size());
+            for (int i = 0; i < props.size(); i++) {
+                seesPropositions[r][i] = indices.get(props.get(i));
+                sentences.add(props.get(i).getName());
+            }
+            seesSentences.add(Collections.unmodifiableList(sentences));
+        }
+
+        initProposition = indexOf(indices, propNet.getInitProposition());
+        terminalProposition = indexOf(indices, propNet.getTerminalProposition());
+
+        // Everything whose value is set from outside the network is a source.
+        sources = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            sources[i] = (types[i] == TYPE_CONSTANT);
+        }
+        for (int base : basePropositions) {
+            sources[base] = true;
+        }
+        for (int input : inputPropositions) {
+            sources[input] = true;
+        }
+        if (initProposition != -1) {
+            sources[initProposition] = true;
+        }
+
+        // Finally, compute the propagation order.
+        List<int[]> blocks = computeBlocks();
+        int orderedCount = 0;
+        for (int[] block : blocks) {
+            orderedCount += block.length;
+        }
+        ordering = new int[orderedCount];
+        blockOffsets = new int[blocks.size() + 1];
+        cyclicBlocks = new boolean[blocks.size()];
+        int pos = 0;
+        for (int b = 0; b < blocks.size(); b++) {
+            int[] block = blocks.get(b);
+            System.arraycopy(block, 0, ordering, pos, block.length);
+            pos += block.length;
+            blockOffsets[b + 1] = pos;
+            cyclicBlocks[b] = block.length > 1 || hasOutput(block[0], block[0]);
+        }
+    }
+
+    private static int getType(Component c)
+    {
+        if (c instanceof Proposition) return TYPE_PROPOSITION;
+        if (c instanceof And) return TYPE_AND;
+        if (c instanceof Or) return TYPE_OR;
+        if (c instanceof Not) return TYPE_NOT;
+        if (c instanceof Transition) return TYPE_TRANSITION;
+        if (c instanceof Constant) return TYPE_CONSTANT;
+        throw new IllegalArgumentException("Unknown component type: " + c.getClass());
+    }
+
+    private static int indexOf(Map<Component, Integer> indices, Component c)
+    {
+        if (c == null || !indices.containsKey(c))
+            return -1;
+        return indices.get(c);
+    }
+
+    private static Set<Proposition> getOrEmpty(Map<Role, Set<Proposition>> map, Role role)
+    {
+        Set<Proposition> props = map.get(role);
+        if (props == null)
+            return Collections.emptySet();
+        return props;
+    }
+
+    /**
+     * Sorts propositions by name, so that the indices assigned to them do
+     * not depend on the iteration order of the propnet's hash sets.
+     */
+    private static List<Proposition> sortedByName(Collection<Proposition> props)
+    {
+        List<Proposition> sorted = new ArrayList<Proposition>(props);
+        Collections.sort(sorted, new Comparator<Proposition>() {
+            @Override
+            public int compare(Proposition a, Proposition b) {
+                return a.getName().toString().compareTo(b.getName().toString());
+            }
+        });
+        return sorted;
+    }
+
+    private boolean hasOutput(int component, int output)
+    {
+        for (int i = outputOffsets[component]; i < outputOffsets[component + 1]; i++) {
+            if (outputs[i] == output)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Groups the computed components into strongly connected components
+     * using an iterative version of Tarjan's algorithm, and returns them in
+     * topological order. Edges into sources are ignored, which is what cuts
+     * the network at its transitions.
+     */
+    private List<int[]> computeBlocks()
+    {
+        int n = types.length;
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] sccStack = new int[n];
+        int sccTop = 0;
+        int[] callStack = new int[n];
+        int[] edgePositions = new int[n];
+        int callTop = 0;
+        int counter = 0;
+        Arrays.fill(index, -1);
+
+        List<int[]> reversedBlocks = new ArrayList<int[]>();
+        for (int root = 0; root < n; root++) {
+            if (sources[root] || index[root] != -1)
+                continue;
+
+            index[root] = lowLink[root] = counter++;
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+            callStack[callTop] = root;
+            edgePositions[callTop] = outputOffsets[root];
+            callTop++;
+
+            while (callTop > 0) {
+                int v = callStack[callTop - 1];
+                if (edgePositions[callTop - 1] < outputOffsets[v + 1]) {
+                    int w = outputs[edgePositions[callTop - 1]++];
+                    if (sources[w])
+                        continue;
+                    if (index[w] == -1) {
+                        index[w] = lowLink[w] = counter++;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        callStack[callTop] = w;
+                        edgePositions[callTop] = outputOffsets[w];
+                        callTop++;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                } else {
+                    callTop--;
+                    if (lowLink[v] == index[v]) {
+                        int size = 0;
+                        while (sccStack[sccTop - 1 - size] != v) {
+                            size++;
+                        }
+                        size++;
+                        int[] block = new int[size];
+                        for (int i = 0; i < size; i++) {
+                            block[i] = sccStack[--sccTop];
+                            onStack[block[i]] = false;
+                        }
+                        reversedBlocks.add(block);
+                    }
+                    if (callTop > 0) {
+                        int u = callStack[callTop - 1];
+                        lowLink[u] = Math.min(lowLink[u], lowLink[v]);
+                    }
+                }
+            }
+        }
+        Collections.reverse(reversedBlocks);
+        return reversedBlocks;
+    }
+
+    /**
+     * Returns a new value vector for this network, with every constant set
+     * to its value and everything else set to false.
+     */
+    public boolean[] createValues()
+    {
+        return initialValues.clone();
+    }
+
+    /**
+     * Computes the value of every non-source component, given the values of
+     * the base, input and init propositions already stored in the vector.
+     */
+    public void propagate(boolean[] values)
+    {
+        for (int b = 0; b < cyclicBlocks.length; b++) {
+            if (!cyclicBlocks[b]) {
+                int c = ordering[blockOffsets[b]];
+                values[c] = evaluate(c, values);
+            } else {
+                propagateBlock(b, values);
+            }
+        }
+    }
+
+    /**
+     * Computes the values of the components in a single block of the
+     * ordering, assuming that every earlier block is already up to date.
+     * Cyclic blocks are recomputed from scratch to their least fixed point.
+     */
+    public void propagateBlock(int block, boolean[] values)
+    {
+        int start = blockOffsets[block];
+        int end = blockOffsets[block + 1];
+        if (!cyclicBlocks[block]) {
+            int c = ordering[start];
+            values[c] = evaluate(c, values);
+            return;
+        }
+
+        for (int i = start; i < end; i++) {
+            values[ordering[i]] = false;
+        }
+        // A cycle of monotone gates reaches its fixed point after at most
+        // one pass per member; the bound only guards against malformed nets.
+        boolean changed = true;
+        for (int pass = 0; changed && pass <= end - start; pass++) {
+            changed = false;
+            for (int i = start; i < end; i++) {
+                int c = ordering[i];
+                boolean value = evaluate(c, values);
+                if (value != values[c]) {
+                    values[c] = value;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the given component as a function of the current
+     * values of its inputs.
+     */
+    public boolean evaluate(int component, boolean[] values)
+    {
+        int start = inputOffsets[component];
+        int end = inputOffsets[component + 1];
+        switch (types[component]) {
+        case TYPE_AND:
+            for (int i = start; i < end; i++) {
+                if (!values[inputs[i]])
+                    return false;
+            }
+            return true;
+        case TYPE_NOT:
+            return !values[inputs[start]];
+        case TYPE_TRANSITION:
+            return values[inputs[start]];
+        case TYPE_CONSTANT:
+            return initialValues[component];
+        default:
+            // Propositions and ors are both true if any input is true.
+            for (int i = start; i < end; i++) {
+                if (values[inputs[i]])
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /* Getter methods. The returned arrays are shared and must not be modified. */
+
+    public int getComponentCount()
+    {
+        return types.length;
+    }
+
+    public int[] getTypes()
+    {
+        return types;
+    }
+
+    public int[] getInputOffsets()
+    {
+        return inputOffsets;
+    }
+
+    public int[] getInputs()
+    {
+        return inputs;
+    }
+
+    public int[] getOutputOffsets()
+    {
+        return outputOffsets;
+    }
+
+    public int[] getOutputs()
+    {
+        return outputs;
+    }
+
+    public boolean isSource(int component)
+    {
+        return sources[component];
+    }
+
+    public int[] getOrdering()
+    {
+        return ordering;
+    }
+
+    public int[] getBlockOffsets()
+    {
+        return blockOffsets;
+    }
+
+    public boolean[] getCyclicBlocks()
+    {
+        return cyclicBlocks;
+    }
+
+    public int getBaseCount()
+    {
+        return basePropositions.length;
+    }
+
+    public int[] getBasePropositions()
+    {
+        return basePropositions;
+    }
+
+    public int[] getBaseSources()
+    {
+        return baseSources;
+    }
+
+    /**
+     * Returns the index of the base propositions' sentences, which states
+     * of this network are bit vectors over.
+     */
+    public BaseIndex getBaseIndex()
+    {
+        return baseIndex;
+    }
+
+    public int[] getInputPropositions()
+    {
+        return inputPropositions;
+    }
+
+    public GdlSentence[] getInputSentences()
+    {
+        return inputSentences;
+    }
+
+    /**
+     * Returns the input index of the given move for the role with the given
+     * index, or -1 if the move has no input proposition (which means that
+     * it has no effect on the game).
+     */
+    public int getInputIndex(int roleIndex, Move move)
+    {
+        Integer index = inputIndicesByRole.get(roleIndex).get(move);
+        return (index == null) ? -1 : index;
+    }
+
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    public int[] getLegalPropositions(int roleIndex)
+    {
+        return legalPropositions[roleIndex];
+    }
+
+    /**
+     * Returns the moves of the legal propositions for the role with the given
+     * index, in the same order as {@link #getLegalPropositions(int)}.
+     */
+    public List<Move> getLegalMoves(int roleIndex)
+    {
+        return legalMoves.get(roleIndex);
+    }
+
+    public int[] getGoalPropositions(int roleIndex)
+    {
+        return goalPropositions[roleIndex];
+    }
+
+    public int[] getGoalValues(int roleIndex)
+    {
+        return goalValues[roleIndex];
+    }
+
+    /**
+     * Returns the sees propositions of the role with the given index. These
+     * only exist in games with incomplete information.
+     */
+    public int[] getSeesPropositions(int roleIndex)
+    {
+        return seesPropositions[roleIndex];
+    }
+
+    /**
+     * Returns the sentences of the sees propositions for the role with the
+     * given index, in the same order as {@link #getSeesPropositions(int)}.
+     */
+    public List<GdlSentence> getSeesSentences(int roleIndex)
+    {
+        return seesSentences.get(roleIndex);
+    }
+
+    /** Returns the index of the init proposition, or -1 if there is none. */
+    public int getInitProposition()
+    {
+        return initProposition;
+    }
+
+    /** Returns the index of the terminal proposition, or -1 if there is none. */
+    public int getTerminalProposition()
+    {
+        return terminalProposition;
+    }
+}
@@ -1,5 +1,9 @@
 package org.ggp.base.util.propnet.architecture;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -16,6 +20,7 @@ import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
 
 /**
  * The class IIPropNet is a generalization of the existing PropNet paradigm to
@@ -47,6 +52,12 @@ public final class IIPropNet {
 	/** References to every SeesProposition, indexed by name. */
 	private final Map<GdlSentence, Proposition> seesPropositionsByName;
 
+	/** Every role's SeesPropositions in a fixed order, which is the order of the bits of its sees. */
+	private final Map<Role, List<Proposition>> seesPropositionListsByRole;
+
+	/** The position of every SeesProposition in its role's list. */
+	private final Map<Role, Map<GdlSentence, Integer>> seesIndicesByRole;
+
 	private final Set<Transition> transitions;
 
 	/** Set of all transitions not dependent on input propositions */
@@ -68,6 +79,9 @@ public final class IIPropNet {
 
 		this.seesPropositionsByRole = recordSeesPropositionsByRole();
 		this.seesPropositionsByName = recordSeesPropositionsByName();
+		this.seesPropositionListsByRole = new HashMap<Role, List<Proposition>>();
+		this.seesIndicesByRole = new HashMap<Role, Map<GdlSentence, Integer>>();
+		recordSeesIndices();
 		this.iivalues = createIIValuesMap();
 		transitions = recordTransitions();
 		nonDoesTransitions = recordNonDoesTransitions();
@@ -82,6 +96,35 @@ public final class IIPropNet {
 		return seesPropositionsByName;
 	}
 
+	/**
+	 * Returns the role's SeesPropositions, in the order of the bits returned by
+	 * {@link #getSeesBits(SeesState)}.
+	 */
+	public List<Proposition> getSeesPropositionList(Role role) {
+		List<Proposition> props = seesPropositionListsByRole.get(role);
+		return (props == null) ? Collections.<Proposition>emptyList() : props;
+	}
+
+	/**
+	 * Returns the sees as a bitset over the sees state's role's SeesPropositions,
+	 * in the order of {@link #getSeesPropositionList(Role)}. Sees that have no
+	 * proposition for that role in this propnet are ignored.
+	 */
+	public BitSet getSeesBits(SeesState seesState) {
+		BitSet bits = new BitSet(getSeesPropositionList(seesState.getRole()).size());
+		Map<GdlSentence, Integer> seesIndices = seesIndicesByRole.get(seesState.getRole());
+		if (seesIndices == null) {
+			return bits;
+		}
+		for (GdlSentence sentence : seesState.getSentences()) {
+			Integer index = seesIndices.get(sentence);
+			if (index != null) {
+				bits.set(index);
+			}
+		}
+		return bits;
+	}
+
 	public Map<Proposition, Double> getIIValues() {
 		return iivalues;
 	}
@@ -167,6 +210,24 @@ public final class IIPropNet {
 		return seesPropositions;
 	}
 
+	private void recordSeesIndices() {
+		for (Map.Entry<Role, Set<Proposition>> entry : seesPropositionsByRole.entrySet()) {
+			List<Proposition> props = new ArrayList<Proposition>(entry.getValue());
+			Collections.sort(props, new Comparator<Proposition>() {
+				@Override
+				public int compare(Proposition a, Proposition b) {
+					return a.getName().toString().compareTo(b.getName().toString());
+				}
+			});
+			Map<GdlSentence, Integer> seesIndices = new HashMap<GdlSentence, Integer>();
+			for (int i = 0; i < props.size(); i++) {
+				seesIndices.put(props.get(i).getName(), i);
+			}
+			seesIndicesByRole.put(entry.getKey(), seesIndices);
+			seesPropositionListsByRole.put(entry.getKey(), Collections.unmodifiableList(props));
+		}
+	}
+
 	private Set<Transition> recordTransitions() {
 		Set<Transition> trans = new HashSet<Transition>();
 		for (Component c : getComponents()) {
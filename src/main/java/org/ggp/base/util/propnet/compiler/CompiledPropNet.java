@@ -0,0 +1,39 @@
+package org.ggp.base.util.propnet.compiler;
+
+/**
+ * CompiledPropNet is the base class of the classes generated by the
+ * {@link PropNetCompiler}. Each of its methods computes one part of the
+ * network, in straight-line code over a value vector indexed like the
+ * {@link org.ggp.base.util.propnet.architecture.FlatPropNet} it was compiled
+ * from. The values of base, input and init propositions and of constants
+ * are set by the caller, and are never written by the generated code.
+ *
+ * The three parts are disjoint, and each may read components computed by
+ * the parts before it: legal propositions first, then goal and terminal
+ * propositions, and finally the transitions into the next state. Whenever
+ * the bases change, all three should be run in order. When only the inputs
+ * change, {@link #computeNext(boolean[])} alone is enough, since legality,
+ * goals and terminality never depend on the moves being made.
+ *
+ * Generated classes hold no state, so one instance can be shared by any
+ * number of threads, each with its own value vector.
+ */
+public abstract class CompiledPropNet
+{
+    /**
+     * Computes every component that the legal propositions depend on.
+     */
+    public abstract void computeLegals(boolean[] values);
+
+    /**
+     * Computes every remaining component that the goal and terminal
+     * propositions depend on.
+     */
+    public abstract void computeGoals(boolean[] values);
+
+    /**
+     * Computes every remaining component that the transitions depend on,
+     * including the transitions themselves.
+     */
+    public abstract void computeNext(boolean[] values);
+}
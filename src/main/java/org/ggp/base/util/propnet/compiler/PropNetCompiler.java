@@ -0,0 +1,264 @@
+package org.ggp.base.util.propnet.compiler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.propnet.architecture.FlatPropNet;
+
+/**
+ * PropNetCompiler turns a {@link FlatPropNet} into JVM bytecode. It writes
+ * Java source for a subclass of {@link CompiledPropNet}, with one assignment
+ * per component in topological order, compiles that source with Javassist,
+ * and loads the result through a class loader of its own, so the class can
+ * be unloaded along with the network once it is no longer used.
+ *
+ * The generated code evaluates gates with the non-short-circuit boolean
+ * operators, so apart from the loops around cyclic blocks it contains no
+ * branches at all. HotSpot will not JIT methods larger than 8000 bytes of
+ * bytecode, so each part of the network is split into chunks that are
+ * comfortably below that size.
+ */
+public final class PropNetCompiler
+{
+    /** An estimate of the bytecode size at which a chunk is closed. */
+    private static final int MAX_CHUNK_SIZE = 6000;
+
+    private static final AtomicInteger compiledCount = new AtomicInteger();
+
+    private final FlatPropNet propNet;
+    private final CtClass ctClass;
+    private int chunkCount;
+
+    private PropNetCompiler(FlatPropNet propNet, CtClass ctClass)
+    {
+        this.propNet = propNet;
+        this.ctClass = ctClass;
+    }
+
+    /**
+     * Generates, compiles and loads a CompiledPropNet for the given network.
+     */
+    public static CompiledPropNet compile(FlatPropNet propNet) throws CannotCompileException
+    {
+        String className = CompiledPropNet.class.getName() + "$Generated" + compiledCount.incrementAndGet();
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.insertClassPath(new ClassClassPath(CompiledPropNet.class));
+            CtClass ctClass = pool.makeClass(className);
+            ctClass.setSuperclass(pool.get(CompiledPropNet.class.getName()));
+            ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+
+            PropNetCompiler compiler = new PropNetCompiler(propNet, ctClass);
+            boolean[] computed = new boolean[propNet.getComponentCount()];
+            List<Integer> legals = new ArrayList<Integer>();
+            List<Integer> goals = new ArrayList<Integer>();
+            for (int r = 0; r < propNet.getRoles().size(); r++) {
+                for (int legal : propNet.getLegalPropositions(r))
+                    legals.add(legal);
+                for (int goal : propNet.getGoalPropositions(r))
+                    goals.add(goal);
+            }
+            if (propNet.getTerminalProposition() != -1)
+                goals.add(propNet.getTerminalProposition());
+            List<Integer> transitions = new ArrayList<Integer>();
+            for (int source : propNet.getBaseSources())
+                transitions.add(source);
+
+            compiler.addPart("computeLegals", legals, computed);
+            compiler.addPart("computeGoals", goals, computed);
+            compiler.addPart("computeNext", transitions, computed);
+
+            byte[] bytecode = ctClass.toBytecode();
+            ctClass.detach();
+            Class<?> compiledClass = new CompiledClassLoader(CompiledPropNet.class.getClassLoader()).define(className, bytecode);
+            return (CompiledPropNet) compiledClass.newInstance();
+        } catch (NotFoundException e) {
+            throw new CannotCompileException(e);
+        } catch (IOException e) {
+            throw new CannotCompileException(e);
+        } catch (InstantiationException e) {
+            throw new CannotCompileException(e);
+        } catch (IllegalAccessException e) {
+            throw new CannotCompileException(e);
+        }
+    }
+
+    /**
+     * Adds a method with the given name that computes every component the
+     * targets depend on, other than the ones already computed by earlier
+     * parts, and marks those components as computed.
+     */
+    private void addPart(String methodName, List<Integer> targets, boolean[] computed) throws CannotCompileException
+    {
+        boolean[] inPart = findPart(targets, computed);
+
+        int[] ordering = propNet.getOrdering();
+        int[] blockOffsets = propNet.getBlockOffsets();
+        boolean[] cyclicBlocks = propNet.getCyclicBlocks();
+        StringBuilder body = new StringBuilder("public void " + methodName + "(boolean[] v) {\n");
+        StringBuilder chunk = new StringBuilder();
+        int chunkSize = 0;
+        for (int b = 0; b < blockOffsets.length - 1; b++) {
+            if (!inPart[ordering[blockOffsets[b]]])
+                continue;
+            if (cyclicBlocks[b]) {
+                chunkSize += writeCyclicBlock(b, chunk);
+            } else {
+                chunkSize += writeAssignment(ordering[blockOffsets[b]], chunk);
+            }
+            if (chunkSize >= MAX_CHUNK_SIZE) {
+                body.append("  ").append(addChunk(chunk)).append("(v);\n");
+                chunk.setLength(0);
+                chunkSize = 0;
+            }
+        }
+        if (chunkSize > 0)
+            body.append("  ").append(addChunk(chunk)).append("(v);\n");
+        body.append("}");
+        ctClass.addMethod(CtNewMethod.make(body.toString(), ctClass));
+
+        for (int c = 0; c < computed.length; c++) {
+            computed[c] |= inPart[c];
+        }
+    }
+
+    /**
+     * Finds the components that the targets depend on, stopping at sources
+     * and at components that have already been computed.
+     */
+    private boolean[] findPart(List<Integer> targets, boolean[] computed)
+    {
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        boolean[] inPart = new boolean[computed.length];
+        int[] stack = new int[computed.length];
+        int stackSize = 0;
+        for (int target : targets) {
+            if (!inPart[target] && !computed[target] && !propNet.isSource(target)) {
+                inPart[target] = true;
+                stack[stackSize++] = target;
+            }
+        }
+        while (stackSize > 0) {
+            int c = stack[--stackSize];
+            for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+                int input = inputs[i];
+                if (!inPart[input] && !computed[input] && !propNet.isSource(input)) {
+                    inPart[input] = true;
+                    stack[stackSize++] = input;
+                }
+            }
+        }
+        return inPart;
+    }
+
+    private String addChunk(StringBuilder statements) throws CannotCompileException
+    {
+        String name = "chunk" + (chunkCount++);
+        String source = "private static void " + name + "(boolean[] v) {\n"
+                + "  boolean changed;\n"
+                + "  int pass;\n"
+                + statements
+                + "}";
+        ctClass.addMethod(CtNewMethod.make(source, ctClass));
+        return name;
+    }
+
+    /**
+     * Writes the assignment of a component's value, and returns an estimate
+     * of its bytecode size.
+     */
+    private int writeAssignment(int c, StringBuilder out)
+    {
+        out.append("  v[").append(c).append("] = ").append(getExpression(c)).append(";\n");
+        return getSize(c);
+    }
+
+    /**
+     * Writes a loop that iterates a cyclic block to its least fixed point, in
+     * the same way as {@link FlatPropNet#propagateBlock(int, boolean[])}.
+     */
+    private int writeCyclicBlock(int block, StringBuilder out)
+    {
+        int[] ordering = propNet.getOrdering();
+        int start = propNet.getBlockOffsets()[block];
+        int end = propNet.getBlockOffsets()[block + 1];
+        int size = 20;
+        for (int i = start; i < end; i++) {
+            out.append("  v[").append(ordering[i]).append("] = false;\n");
+        }
+        out.append("  changed = true;\n");
+        out.append("  pass = 0;\n");
+        out.append("  while (changed && pass <= ").append(end - start).append(") {\n");
+        out.append("    changed = false;\n");
+        out.append("    pass++;\n");
+        for (int i = start; i < end; i++) {
+            int c = ordering[i];
+            out.append("    if (v[").append(c).append("] != (").append(getExpression(c)).append(")) {\n");
+            out.append("      v[").append(c).append("] = !v[").append(c).append("];\n");
+            out.append("      changed = true;\n");
+            out.append("    }\n");
+            size += 2 * getSize(c) + 10;
+        }
+        out.append("  }\n");
+        return size;
+    }
+
+    private String getExpression(int c)
+    {
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        int start = inputOffsets[c];
+        int end = inputOffsets[c + 1];
+        int type = propNet.getTypes()[c];
+        if (type == FlatPropNet.TYPE_NOT)
+            return (start == end) ? "true" : "!v[" + inputs[start] + "]";
+        boolean isAnd = (type == FlatPropNet.TYPE_AND);
+        if (start == end)
+            return isAnd ? "true" : "false";
+        StringBuilder expression = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            if (i > start)
+                expression.append(isAnd ? " & " : " | ");
+            expression.append("v[").append(inputs[i]).append("]");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Estimates the bytecode size of a component's assignment: about five
+     * bytes to load or store each array element, and one per operator.
+     */
+    private int getSize(int c)
+    {
+        int[] inputOffsets = propNet.getInputOffsets();
+        return 5 + 6 * Math.max(1, inputOffsets[c + 1] - inputOffsets[c]);
+    }
+
+    /**
+     * Each compiled network gets its own class loader, so that its class can
+     * be garbage collected once the network is no longer in use.
+     */
+    private static final class CompiledClassLoader extends ClassLoader
+    {
+        public CompiledClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        public Class<?> define(String name, byte[] bytecode)
+        {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
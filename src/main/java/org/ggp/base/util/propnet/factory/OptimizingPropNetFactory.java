@@ -1,6 +1,7 @@
 package org.ggp.base.util.propnet.factory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -12,6 +13,14 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -48,6 +57,7 @@ import org.ggp.base.util.gdl.transforms.DeORer;
 import org.ggp.base.util.gdl.transforms.GdlCleaner;
 import org.ggp.base.util.gdl.transforms.Relationizer;
 import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.observer.Observer;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.And;
@@ -56,8 +66,10 @@ import org.ggp.base.util.propnet.architecture.components.Not;
 import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.event.PropNetFormAddedEvent;
 import org.ggp.base.util.statemachine.Role;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -104,6 +116,10 @@ public class OptimizingPropNetFactory {
     static final private GdlConstant BASE = GdlPool.getConstant("base");
     static final private GdlConstant INPUT = GdlPool.getConstant("input");
 	static final private GdlProposition TEMP = GdlPool.getProposition(GdlPool.getConstant("TEMP"));
+	//The forms whose components are needed after all forms have been added,
+	//either to finish the propnet or to be read by the state machine
+	static final private Set<GdlConstant> KEPT_FORM_NAMES = new HashSet<GdlConstant>(Arrays.asList(
+			LEGAL, NEXT, TRUE, DOES, GOAL, INIT, TERMINAL, BASE, INPUT));
 
 	/**
 	 * Creates a PropNet for the game with the given description.
@@ -116,6 +132,64 @@ public class OptimizingPropNetFactory {
 	}
 
 	public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+		return create(description, verbose, 1, null);
+	}
+
+	/**
+	 * Creates a PropNet for the game with the given description, adding
+	 * sentence forms that do not depend on one another on up to threadCount
+	 * threads at once. The sentences of intermediate forms, and the map
+	 * entries for their components, are kept only as long as some form that
+	 * has yet to be added depends on them.
+	 *
+	 * If an observer is given, it is sent a {@link PropNetFormAddedEvent},
+	 * on the calling thread, each time a sentence form has been added.
+	 *
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation. Any work still running on other threads is
+	 * interrupted as well, and has stopped by the time this returns.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, int threadCount, Observer observer) throws InterruptedException {
+		ExecutorService executor = null;
+		if (threadCount > 1) {
+			executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "OptimizingPropNetFactory worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		try {
+			return create(description, verbose, executor, observer);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				awaitTermination(executor);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the workers of a shut down executor to finish, so that none
+	 * is still adding to the network after create returns. Interrupts that
+	 * arrive while waiting are passed on to the caller afterwards.
+	 */
+	private static void awaitTermination(ExecutorService executor) {
+		boolean interrupted = Thread.interrupted();
+		while(!executor.isTerminated()) {
+			try {
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static PropNet create(List<Gdl> description, boolean verbose, ExecutorService executor, Observer observer) throws InterruptedException {
 		description = sanitizeDistinct(description);
 		//System.out.println("Building propnet...");
 
@@ -135,22 +209,22 @@ public class OptimizingPropNetFactory {
 
 		//We want to start with a rule graph and follow the rule graph.
 		//Start by finding general information about the game
-		SentenceDomainModel model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+		SentenceDomainModel cartesianModel = SentenceDomainModelFactory.createWithCartesianDomains(description);
 		//Restrict domains to values that could actually come up in rules.
 		//See chinesecheckers4's "count" relation for an example of why this
 		//could be useful.
-		model = SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model);
+		final SentenceDomainModel model = SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(cartesianModel);
 
 		if(verbose)
 			System.out.println("Setting constants...");
 
-		ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+		final ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
 		if(verbose)
 			System.out.println("Done setting constants");
 
 		Set<String> sentenceFormNames = SentenceForms.getNames(model.getSentenceForms());
-		boolean usingBase = sentenceFormNames.contains("base");
-		boolean usingInput = sentenceFormNames.contains("input");
+		final boolean usingBase = sentenceFormNames.contains("base");
+		final boolean usingInput = sentenceFormNames.contains("input");
 
 
 		//For now, we're going to build this to work on those with a
@@ -168,58 +242,115 @@ public class OptimizingPropNetFactory {
 			System.out.println("done");
 
 		List<Role> roles = Role.computeRoles(description);
-		Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-		Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
-		Constant trueComponent = new Constant(true);
-		Constant falseComponent = new Constant(false);
-		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
-		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
+		final Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
+		final Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+		final Constant trueComponent = new Constant(true);
+		final Constant falseComponent = new Constant(false);
+		final Map<SentenceForm, FunctionInfo> functionInfoMap = new ConcurrentHashMap<SentenceForm, FunctionInfo>();
+		final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new ConcurrentHashMap<SentenceForm, Collection<GdlSentence>>();
+		//Guards the components, the negations, and the links between components
+		final Object lock = new Object();
+		//Run each form on its own, unless there are threads to share out
+		//whole levels of the ordering over
+		List<List<SentenceForm>> batches = new ArrayList<List<SentenceForm>>();
+		if (executor == null) {
+			for (SentenceForm form : topologicalOrdering)
+				batches.add(Collections.singletonList(form));
+		} else {
+			batches = getTopologicalLevels(topologicalOrdering, dependencyGraph, usingBase, usingInput);
+		}
+		Map<SentenceForm, Integer> remainingDependents = getDependentCounts(topologicalOrdering, dependencyGraph);
+		int formsAdded = 0;
+		int peakComponentCount = 0;
+		for(List<SentenceForm> batch : batches) {
 			ConcurrencyUtils.checkForInterruption();
 
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
+			List<FormBuilder> builders = new ArrayList<FormBuilder>();
+			for (SentenceForm form : batch) {
+				if(verbose) {
+					System.out.print("Adding sentence form " + form);
+					System.out.flush();
+				}
+				if(constantChecker.isConstantForm(form)) {
+					if(verbose)
+						System.out.println(" (constant)");
+					//Only add it if it's important
+					if(form.getName().equals(LEGAL)
+							|| form.getName().equals(GOAL)
+							|| form.getName().equals(INIT)) {
+						//Add it
+						for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+							Proposition trueProp = new Proposition(trueSentence);
+							trueProp.addInput(trueComponent);
+							trueComponent.addOutput(trueProp);
+							components.put(trueSentence, trueComponent);
+						}
+					}
+
+					if(verbose)
+						System.out.println("Checking whether " + form + " is a functional constant...");
+					addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+					addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+				} else {
+					if(verbose)
+						System.out.println();
+					//TODO: Adjust "recursive forms" appropriately
+					//Add a temporary sentence form thingy? ...
+					builders.add(new FormBuilder(form));
+				}
 			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final FormBuilder builder : builders) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						addSentenceForm(builder.form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(builder.form), builder.temporaryComponents, builder.temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, builder.sentences, lock);
+						return null;
+					}
+				});
+			}
+			if (executor == null || tasks.size() == 1) {
+				for (Callable<Void> task : tasks) {
+					try {
+						task.call();
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						throw new RuntimeException(e);
 					}
 				}
+			} else {
+				for (Future<Void> future : executor.invokeAll(tasks)) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+						throw Throwables.propagate(e.getCause());
+					}
+				}
+			}
 
+			for (FormBuilder builder : builders) {
+				//TODO: Pass these over groups of multiple sentence forms
+				if(verbose && !builder.temporaryComponents.isEmpty())
+					System.out.println("Processing temporary components...");
+				processTemporaryComponents(builder.temporaryComponents, builder.temporaryNegations, components, negations, trueComponent, falseComponent);
+				completedSentenceFormValues.put(builder.form, new ArrayList<GdlSentence>(builder.sentences));
 				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+					System.out.println("  "+builder.sentences.size() + " sentences added for " + builder.form);
+			}
 
-				continue;
+			for (SentenceForm form : batch) {
+				formsAdded++;
+				releaseCompletedDependencies(form, dependencyGraph, remainingDependents, completedSentenceFormValues, components, negations);
+				int componentCount = components.size() + negations.size();
+				peakComponentCount = Math.max(peakComponentCount, componentCount);
+				if (observer != null)
+					observer.observe(new PropNetFormAddedEvent(form, formsAdded, topologicalOrdering.size(), componentCount, peakComponentCount));
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 		}
+		if(verbose)
+			System.out.println("Peak of " + peakComponentCount + " sentences held while adding sentence forms");
 		//Connect "next" to "true"
 		if(verbose)
 			System.out.println("Adding transitions...");
@@ -233,9 +364,6 @@ public class OptimizingPropNetFactory {
 		if(verbose)
 			System.out.println("Creating component set...");
 		Set<Component> componentSet = new HashSet<Component>(components.values());
-		//Try saving some memory here...
-		components = null;
-		negations = null;
 		completeComponentSet(componentSet);
 		ConcurrencyUtils.checkForInterruption();
 		if(verbose)
@@ -447,25 +575,6 @@ public class OptimizingPropNetFactory {
 	}
 
 
-	private static void addFormToCompletedValues(
-			SentenceForm form,
-			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
-			Map<GdlSentence, Component> components) throws InterruptedException {
-		//Kind of inefficient. Could do better by collecting these as we go,
-		//then adding them back into the CSFV map once the sentence forms are complete.
-		//completedSentenceFormValues.put(form, new ArrayList<GdlSentence>());
-		List<GdlSentence> sentences = new ArrayList<GdlSentence>();
-		for(GdlSentence sentence : components.keySet()) {
-			ConcurrencyUtils.checkForInterruption();
-			if(form.matches(sentence)) {
-				//The sentence has a node associated with it
-				sentences.add(sentence);
-			}
-		}
-		completedSentenceFormValues.put(form, sentences);
-	}
-
-
 	private static void addConstantsToFunctionInfo(SentenceForm form,
 			ConstantChecker constantChecker, Map<SentenceForm, FunctionInfo> functionInfoMap) throws InterruptedException {
 		functionInfoMap.put(form, FunctionInfoImpl.create(form, constantChecker));
@@ -971,6 +1080,107 @@ public class OptimizingPropNetFactory {
 		return ordering;
 	}
 
+	/**
+	 * Splits a topological ordering into levels, such that each form only
+	 * depends on forms in earlier levels (or on itself). The forms within a
+	 * level can then be added in any order, or at the same time.
+	 */
+	private static List<List<SentenceForm>> getTopologicalLevels(
+			List<SentenceForm> ordering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> levelsByForm = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> levels = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : ordering) {
+			List<SentenceForm> prerequisites = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+			//Mirror the extra constraints of the topological ordering
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT)))
+				prerequisites.add(form.withName(BASE));
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL)))
+				prerequisites.add(form.withName(INPUT));
+			int level = 0;
+			for(SentenceForm prerequisite : prerequisites) {
+				Integer prerequisiteLevel = levelsByForm.get(prerequisite);
+				if(!prerequisite.equals(form) && prerequisiteLevel != null)
+					level = Math.max(level, prerequisiteLevel + 1);
+			}
+			levelsByForm.put(form, level);
+			if(level == levels.size())
+				levels.add(new ArrayList<SentenceForm>());
+			levels.get(level).add(form);
+		}
+		return levels;
+	}
+
+	/**
+	 * Returns the number of other forms that depend on each form.
+	 */
+	private static Map<SentenceForm, Integer> getDependentCounts(
+			List<SentenceForm> forms, Multimap<SentenceForm, SentenceForm> dependencyGraph) {
+		Map<SentenceForm, Integer> counts = new HashMap<SentenceForm, Integer>();
+		for(SentenceForm form : forms)
+			counts.put(form, 0);
+		for(SentenceForm form : forms) {
+			for(SentenceForm dependency : new HashSet<SentenceForm>(dependencyGraph.get(form))) {
+				if(!dependency.equals(form) && counts.containsKey(dependency))
+					counts.put(dependency, counts.get(dependency) + 1);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Records that the given form has been added, and forgets the sentences,
+	 * components and negations of any forms (including this one) that no
+	 * form still to be added depends on. The components stay in the propnet,
+	 * since they are still linked to the components of the forms that use
+	 * them, and are found again when the component set is completed. Forms
+	 * that the propnet is read or finished through are never forgotten.
+	 */
+	private static void releaseCompletedDependencies(SentenceForm form,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph,
+			Map<SentenceForm, Integer> remainingDependents,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			Map<GdlSentence, Component> components,
+			Map<GdlSentence, Component> negations) {
+		List<SentenceForm> released = new ArrayList<SentenceForm>();
+		if(remainingDependents.get(form) == 0)
+			released.add(form);
+		for(SentenceForm dependency : new HashSet<SentenceForm>(dependencyGraph.get(form))) {
+			Integer count = remainingDependents.get(dependency);
+			if(dependency.equals(form) || count == null)
+				continue;
+			remainingDependents.put(dependency, count - 1);
+			if(count == 1)
+				released.add(dependency);
+		}
+		for(SentenceForm releasedForm : released) {
+			Collection<GdlSentence> sentences = completedSentenceFormValues.remove(releasedForm);
+			if(sentences == null)
+				continue;
+			boolean keepComponents = KEPT_FORM_NAMES.contains(releasedForm.getName());
+			for(GdlSentence sentence : sentences) {
+				negations.remove(sentence);
+				if(!keepComponents)
+					components.remove(sentence);
+			}
+		}
+	}
+
+	/**
+	 * The per-form state of a sentence form being added to the propnet.
+	 */
+	private static class FormBuilder {
+		private final SentenceForm form;
+		private final Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+		private final Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+		//The sentences of the form that were given components
+		private final Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+
+		public FormBuilder(SentenceForm form) {
+			this.form = form;
+		}
+	}
+
 	private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
 			Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations,
@@ -979,54 +1189,64 @@ public class OptimizingPropNetFactory {
 			Set<SentenceForm> recursionForms,
 			Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
 			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
-			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			Set<GdlSentence> formSentences, Object lock) throws InterruptedException {
 		//This is the meat of it (along with the entire Assignments class).
 		//We need to enumerate the possible propositions in the sentence form...
 		//We also need to hook up the sentence form to the inputs that can make it true.
 		//We also try to optimize as we go, which means possibly removing the
 		//proposition if it isn't actually possible, or replacing it with
 		//true/false if it's a constant.
+		//Anything that reads or changes the components, the negations, or
+		//the links between components must hold the lock, as other sentence
+		//forms may be being added at the same time. The sentences that end
+		//up with components are added to formSentences.
 
 		Set<GdlSentence> alwaysTrueSentences = model.getSentencesListedAsTrue(form);
 		Set<GdlRule> rules = model.getRules(form);
 
-		for(GdlSentence alwaysTrueSentence : alwaysTrueSentences) {
-			//We add the sentence as a constant
-			if(alwaysTrueSentence.getName().equals(LEGAL)
-					|| alwaysTrueSentence.getName().equals(NEXT)
-					|| alwaysTrueSentence.getName().equals(GOAL)) {
-				Proposition prop = new Proposition(alwaysTrueSentence);
-				//Attach to true
-				trueComponent.addOutput(prop);
-				prop.addInput(trueComponent);
-				//Still want the same components;
-				//we just don't want this to be anonymized
+		synchronized (lock) {
+			for(GdlSentence alwaysTrueSentence : alwaysTrueSentences) {
+				//We add the sentence as a constant
+				if(alwaysTrueSentence.getName().equals(LEGAL)
+						|| alwaysTrueSentence.getName().equals(NEXT)
+						|| alwaysTrueSentence.getName().equals(GOAL)) {
+					Proposition prop = new Proposition(alwaysTrueSentence);
+					//Attach to true
+					trueComponent.addOutput(prop);
+					prop.addInput(trueComponent);
+					//Still want the same components;
+					//we just don't want this to be anonymized
+				}
+				//Assign as true
+				components.put(alwaysTrueSentence, trueComponent);
+				negations.put(alwaysTrueSentence, falseComponent);
+				formSentences.add(alwaysTrueSentence);
+				continue;
 			}
-			//Assign as true
-			components.put(alwaysTrueSentence, trueComponent);
-			negations.put(alwaysTrueSentence, falseComponent);
-			continue;
-		}
 
-		//For does/true, make nodes based on input/base, if available
-		if(usingInput && form.getName().equals(DOES)) {
-			//Add only those propositions for which there is a corresponding INPUT
-			SentenceForm inputForm = form.withName(INPUT);
-			for (GdlSentence inputSentence : constantChecker.getTrueSentences(inputForm)) {
-				GdlSentence doesSentence = GdlPool.getRelation(DOES, inputSentence.getBody());
-				Proposition prop = new Proposition(doesSentence);
-				components.put(doesSentence, prop);
+			//For does/true, make nodes based on input/base, if available
+			if(usingInput && form.getName().equals(DOES)) {
+				//Add only those propositions for which there is a corresponding INPUT
+				SentenceForm inputForm = form.withName(INPUT);
+				for (GdlSentence inputSentence : constantChecker.getTrueSentences(inputForm)) {
+					GdlSentence doesSentence = GdlPool.getRelation(DOES, inputSentence.getBody());
+					Proposition prop = new Proposition(doesSentence);
+					components.put(doesSentence, prop);
+					formSentences.add(doesSentence);
+				}
+				return;
 			}
-			return;
-		}
-		if(usingBase && form.getName().equals(TRUE)) {
-			SentenceForm baseForm = form.withName(BASE);
-			for (GdlSentence baseSentence : constantChecker.getTrueSentences(baseForm)) {
-				GdlSentence trueSentence = GdlPool.getRelation(TRUE, baseSentence.getBody());
-				Proposition prop = new Proposition(trueSentence);
-				components.put(trueSentence, prop);
+			if(usingBase && form.getName().equals(TRUE)) {
+				SentenceForm baseForm = form.withName(BASE);
+				for (GdlSentence baseSentence : constantChecker.getTrueSentences(baseForm)) {
+					GdlSentence trueSentence = GdlPool.getRelation(TRUE, baseSentence.getBody());
+					Proposition prop = new Proposition(trueSentence);
+					components.put(trueSentence, prop);
+					formSentences.add(trueSentence);
+				}
+				return;
 			}
-			return;
 		}
 
 		Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
@@ -1048,146 +1268,160 @@ public class OptimizingPropNetFactory {
 				ConcurrencyUtils.checkForInterruption();
 
 				GdlSentence sentence = CommonTransforms.replaceVariables(rule.getHead(), assignment);
-
-				//Now we go through the conjuncts as before, but we wait to hook them up.
-				List<Component> componentsToConnect = new ArrayList<Component>(rule.arity());
+				//Substitute into the conjuncts before taking the lock
+				List<GdlSentence> transformedBody = new ArrayList<GdlSentence>(rule.arity());
 				for(GdlLiteral literal : rule.getBody()) {
 					if(literal instanceof GdlSentence) {
-						//Get the sentence post-substitutions
-						GdlSentence transformed = CommonTransforms.replaceVariables((GdlSentence) literal, assignment);
-
-						//Check for constant-ness
-						SentenceForm conjunctForm = model.getSentenceForm(transformed);
-						if(constantChecker.isConstantForm(conjunctForm)) {
-							if(!constantChecker.isTrueConstant(transformed)) {
-								List<GdlVariable> varsToChange = getVarsInConjunct(literal);
-								asnItr.changeOneInNext(varsToChange, assignment);
-								componentsToConnect.add(null);
-							}
-							continue;
-						}
-
-						Component conj = components.get(transformed);
-						//If conj is null and this is a sentence form we're still handling,
-						//hook up to a temporary sentence form
-						if(conj == null) {
-							conj = temporaryComponents.get(transformed);
-						}
-						if(conj == null && SentenceModelUtils.inSentenceFormGroup(transformed, recursionForms)) {
-							//Set up a temporary component
-							Proposition tempProp = new Proposition(transformed);
-							temporaryComponents.put(transformed, tempProp);
-							conj = tempProp;
-						}
-						//Let's say this is false; we want to backtrack and change the right variable
-						if(conj == null || isThisConstant(conj, falseComponent)) {
-							List<GdlVariable> varsInConjunct = getVarsInConjunct(literal);
-							asnItr.changeOneInNext(varsInConjunct, assignment);
-							//These last steps just speed up the process
-							//telling the factory to ignore this rule
-							componentsToConnect.add(null);
-							continue; //look at all the other restrictions we'll face
-						}
-
-						componentsToConnect.add(conj);
+						transformedBody.add(CommonTransforms.replaceVariables((GdlSentence) literal, assignment));
 					} else if(literal instanceof GdlNot) {
-						//Add a "not" if necessary
-						//Look up the negation
-						GdlSentence internal = (GdlSentence) ((GdlNot) literal).getBody();
-						GdlSentence transformed = CommonTransforms.replaceVariables(internal, assignment);
-
-						//Add constant-checking here...
-						SentenceForm conjunctForm = model.getSentenceForm(transformed);
-						if(constantChecker.isConstantForm(conjunctForm)) {
-							if(constantChecker.isTrueConstant(transformed)) {
-								List<GdlVariable> varsToChange = getVarsInConjunct(literal);
-								asnItr.changeOneInNext(varsToChange, assignment);
-								componentsToConnect.add(null);
+						transformedBody.add(CommonTransforms.replaceVariables((GdlSentence) ((GdlNot) literal).getBody(), assignment));
+					} else {
+						transformedBody.add(null);
+					}
+				}
+
+				synchronized (lock) {
+					//Now we go through the conjuncts as before, but we wait to hook them up.
+					List<Component> componentsToConnect = new ArrayList<Component>(rule.arity());
+					for(int i = 0; i < rule.arity(); i++) {
+						GdlLiteral literal = rule.get(i);
+						if(literal instanceof GdlSentence) {
+							//Get the sentence post-substitutions
+							GdlSentence transformed = transformedBody.get(i);
+
+							//Check for constant-ness
+							SentenceForm conjunctForm = model.getSentenceForm(transformed);
+							if(constantChecker.isConstantForm(conjunctForm)) {
+								if(!constantChecker.isTrueConstant(transformed)) {
+									List<GdlVariable> varsToChange = getVarsInConjunct(literal);
+									asnItr.changeOneInNext(varsToChange, assignment);
+									componentsToConnect.add(null);
+								}
+								continue;
 							}
-							continue;
-						}
 
-						Component conj = negations.get(transformed);
-						if(isThisConstant(conj, falseComponent)) {
-							//We need to change one of the variables inside
-							List<GdlVariable> varsInConjunct = getVarsInConjunct(internal);
-							asnItr.changeOneInNext(varsInConjunct, assignment);
-							//ignore this rule
-							componentsToConnect.add(null);
-							continue;
-						}
-						if(conj == null) {
-							conj = temporaryNegations.get(transformed);
-						}
-						//Check for the recursive case:
-						if(conj == null && SentenceModelUtils.inSentenceFormGroup(transformed, recursionForms)) {
-							Component positive = components.get(transformed);
-							if(positive == null) {
-								positive = temporaryComponents.get(transformed);
+							Component conj = components.get(transformed);
+							//If conj is null and this is a sentence form we're still handling,
+							//hook up to a temporary sentence form
+							if(conj == null) {
+								conj = temporaryComponents.get(transformed);
 							}
-							if(positive == null) {
-								//Make the temporary proposition
+							if(conj == null && SentenceModelUtils.inSentenceFormGroup(transformed, recursionForms)) {
+								//Set up a temporary component
 								Proposition tempProp = new Proposition(transformed);
 								temporaryComponents.put(transformed, tempProp);
-								positive = tempProp;
+								conj = tempProp;
 							}
-							//Positive is now set and in temporaryComponents
-							//Evidently, wasn't in temporaryNegations
-							//So we add the "not" gate and set it in temporaryNegations
-							Not not = new Not();
-							//Add positive as input
-							not.addInput(positive);
-							positive.addOutput(not);
-							temporaryNegations.put(transformed, not);
-							conj = not;
-						}
-						if(conj == null) {
-							Component positive = components.get(transformed);
-							//No, because then that will be attached to "negations", which could be bad
-
-							if(positive == null) {
-								//So the positive can't possibly be true (unless we have recurstion)
-								//and so this would be positive always
-								//We want to just skip this conjunct, so we continue to the next
-
-								continue; //to the next conjunct
+							//Let's say this is false; we want to backtrack and change the right variable
+							if(conj == null || isThisConstant(conj, falseComponent)) {
+								List<GdlVariable> varsInConjunct = getVarsInConjunct(literal);
+								asnItr.changeOneInNext(varsInConjunct, assignment);
+								//These last steps just speed up the process
+								//telling the factory to ignore this rule
+								componentsToConnect.add(null);
+								continue; //look at all the other restrictions we'll face
 							}
 
-							//Check if we're sharing a component with another sentence with a negation
-							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
+							componentsToConnect.add(conj);
+						} else if(literal instanceof GdlNot) {
+							//Add a "not" if necessary
+							//Look up the negation
+							GdlSentence internal = (GdlSentence) ((GdlNot) literal).getBody();
+							GdlSentence transformed = transformedBody.get(i);
+
+							//Add constant-checking here...
+							SentenceForm conjunctForm = model.getSentenceForm(transformed);
+							if(constantChecker.isConstantForm(conjunctForm)) {
+								if(constantChecker.isTrueConstant(transformed)) {
+									List<GdlVariable> varsToChange = getVarsInConjunct(literal);
+									asnItr.changeOneInNext(varsToChange, assignment);
+									componentsToConnect.add(null);
+								}
+								continue;
 							}
 
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
+							Component conj = negations.get(transformed);
+							if(isThisConstant(conj, falseComponent)) {
+								//We need to change one of the variables inside
+								List<GdlVariable> varsInConjunct = getVarsInConjunct(internal);
+								asnItr.changeOneInNext(varsInConjunct, assignment);
+								//ignore this rule
+								componentsToConnect.add(null);
+								continue;
+							}
+							if(conj == null) {
+								conj = temporaryNegations.get(transformed);
+							}
+							//Check for the recursive case:
+							if(conj == null && SentenceModelUtils.inSentenceFormGroup(transformed, recursionForms)) {
+								Component positive = components.get(transformed);
+								if(positive == null) {
+									positive = temporaryComponents.get(transformed);
+								}
+								if(positive == null) {
+									//Make the temporary proposition
+									Proposition tempProp = new Proposition(transformed);
+									temporaryComponents.put(transformed, tempProp);
+									positive = tempProp;
+								}
+								//Positive is now set and in temporaryComponents
+								//Evidently, wasn't in temporaryNegations
+								//So we add the "not" gate and set it in temporaryNegations
+								Not not = new Not();
+								//Add positive as input
+								not.addInput(positive);
+								positive.addOutput(not);
+								temporaryNegations.put(transformed, not);
+								conj = not;
+							}
+							if(conj == null) {
+								Component positive = components.get(transformed);
+								//No, because then that will be attached to "negations", which could be bad
+
+								if(positive == null) {
+									//So the positive can't possibly be true (unless we have recurstion)
+									//and so this would be positive always
+									//We want to just skip this conjunct, so we continue to the next
+
+									continue; //to the next conjunct
+								}
+
+								//Check if we're sharing a component with another sentence with a negation
+								//(i.e. look for "nots" in our outputs and use those instead)
+								Not existingNotOutput = getNotOutput(positive);
+								if(existingNotOutput != null) {
+									componentsToConnect.add(existingNotOutput);
+									negations.put(transformed, existingNotOutput);
+									continue; //to the next conjunct
+								}
+
+								Not not = new Not();
+								not.addInput(positive);
+								positive.addOutput(not);
+								negations.put(transformed, not);
+								conj = not;
+							}
+							componentsToConnect.add(conj);
+						} else if(literal instanceof GdlDistinct) {
+							//Already handled; ignore
+						} else {
+							throw new RuntimeException("Unwanted GdlLiteral type");
 						}
-						componentsToConnect.add(conj);
-					} else if(literal instanceof GdlDistinct) {
-						//Already handled; ignore
-					} else {
-						throw new RuntimeException("Unwanted GdlLiteral type");
 					}
-				}
-				if(!componentsToConnect.contains(null)) {
-					//Connect all the components
-					Proposition andComponent = new Proposition(TEMP);
-
-					andify(componentsToConnect, andComponent, trueComponent);
-					if(!isThisConstant(andComponent, falseComponent)) {
-						if(!inputsToOr.containsKey(sentence))
-							inputsToOr.put(sentence, new HashSet<Component>());
-						inputsToOr.get(sentence).add(andComponent);
-						//We'll want to make sure at least one of the non-constant
-						//components is changing
-						if(preventDuplicatesFromConstants) {
-							asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+					if(!componentsToConnect.contains(null)) {
+						//Connect all the components
+						Proposition andComponent = new Proposition(TEMP);
+
+						andify(componentsToConnect, andComponent, trueComponent);
+						if(!isThisConstant(andComponent, falseComponent)) {
+							if(!inputsToOr.containsKey(sentence))
+								inputsToOr.put(sentence, new HashSet<Component>());
+							inputsToOr.get(sentence).add(andComponent);
+							//We'll want to make sure at least one of the non-constant
+							//components is changing
+							if(preventDuplicatesFromConstants) {
+								asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+							}
 						}
 					}
 				}
@@ -1195,37 +1429,41 @@ public class OptimizingPropNetFactory {
 		}
 
 		//At the end, we hook up the conjuncts
-		for(Entry<GdlSentence, Set<Component>> entry : inputsToOr.entrySet()) {
-			ConcurrencyUtils.checkForInterruption();
+		synchronized (lock) {
+			for(Entry<GdlSentence, Set<Component>> entry : inputsToOr.entrySet()) {
+				ConcurrencyUtils.checkForInterruption();
 
-			GdlSentence sentence = entry.getKey();
-			Set<Component> inputs = entry.getValue();
-			Set<Component> realInputs = new HashSet<Component>();
-			for(Component input : inputs) {
-				if(input instanceof Constant || input.getInputs().size() == 0) {
-					realInputs.add(input);
-				} else {
-					realInputs.add(input.getSingleInput());
-					input.getSingleInput().removeOutput(input);
-					input.removeAllInputs();
+				GdlSentence sentence = entry.getKey();
+				Set<Component> inputs = entry.getValue();
+				Set<Component> realInputs = new HashSet<Component>();
+				for(Component input : inputs) {
+					if(input instanceof Constant || input.getInputs().size() == 0) {
+						realInputs.add(input);
+					} else {
+						realInputs.add(input.getSingleInput());
+						input.getSingleInput().removeOutput(input);
+						input.removeAllInputs();
+					}
 				}
-			}
-
-			Proposition prop = new Proposition(sentence);
-			orify(realInputs, prop, falseComponent);
-			components.put(sentence, prop);
-		}
-
-		//True/does sentences will have none of these rules, but
-		//still need to exist/"float"
-		//We'll do this if we haven't used base/input as a basis
-		if(form.getName().equals(TRUE)
-				|| form.getName().equals(DOES)) {
-			for(GdlSentence sentence : model.getDomain(form)) {
-				ConcurrencyUtils.checkForInterruption();
 
 				Proposition prop = new Proposition(sentence);
+				orify(realInputs, prop, falseComponent);
 				components.put(sentence, prop);
+				formSentences.add(sentence);
+			}
+
+			//True/does sentences will have none of these rules, but
+			//still need to exist/"float"
+			//We'll do this if we haven't used base/input as a basis
+			if(form.getName().equals(TRUE)
+					|| form.getName().equals(DOES)) {
+				for(GdlSentence sentence : model.getDomain(form)) {
+					ConcurrencyUtils.checkForInterruption();
+
+					Proposition prop = new Proposition(sentence);
+					components.put(sentence, prop);
+					formSentences.add(sentence);
+				}
 			}
 		}
 
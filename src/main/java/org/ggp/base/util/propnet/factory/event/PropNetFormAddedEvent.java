@@ -0,0 +1,59 @@
+package org.ggp.base.util.propnet.factory.event;
+
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.observer.Event;
+
+/**
+ * Sent by the OptimizingPropNetFactory each time it finishes adding a
+ * sentence form to the propnet it is building.
+ */
+public final class PropNetFormAddedEvent extends Event
+{
+    private final SentenceForm form;
+    private final int formsAdded;
+    private final int formCount;
+    private final int componentCount;
+    private final int peakComponentCount;
+
+    public PropNetFormAddedEvent(SentenceForm form, int formsAdded, int formCount,
+            int componentCount, int peakComponentCount)
+    {
+        this.form = form;
+        this.formsAdded = formsAdded;
+        this.formCount = formCount;
+        this.componentCount = componentCount;
+        this.peakComponentCount = peakComponentCount;
+    }
+
+    public SentenceForm getForm()
+    {
+        return form;
+    }
+
+    /** The number of sentence forms added so far, including this one. */
+    public int getFormsAdded()
+    {
+        return formsAdded;
+    }
+
+    /** The total number of sentence forms in the game. */
+    public int getFormCount()
+    {
+        return formCount;
+    }
+
+    /**
+     * The number of sentences that the factory is currently holding a
+     * component or a negation for.
+     */
+    public int getComponentCount()
+    {
+        return componentCount;
+    }
+
+    /** The largest value of {@link #getComponentCount()} so far. */
+    public int getPeakComponentCount()
+    {
+        return peakComponentCount;
+    }
+}
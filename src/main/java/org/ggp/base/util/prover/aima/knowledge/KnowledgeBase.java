@@ -1,6 +1,7 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,14 +9,27 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
 
+/**
+ * KnowledgeBase holds rules and facts indexed by the name of their head and,
+ * within that, by the first argument of their head. Fetching a sentence whose
+ * first argument is a constant (or a function, which is indexed by its name)
+ * only returns the rules that could possibly match it, along with the rules
+ * whose first argument is a variable.
+ */
 public final class KnowledgeBase
 {
 	private final Map<GdlConstant, List<GdlRule>> contents;
+	/** For each head name, the rules that can match each first-argument key. */
+	private final Map<GdlConstant, Map<GdlConstant, List<GdlRule>>> firstArgumentIndex;
+	/** For each head name, the rules whose first argument is a variable. */
+	private final Map<GdlConstant, List<GdlRule>> unindexedRules;
 
 	public KnowledgeBase(Set<? extends Gdl> description)
 	{
@@ -31,19 +45,98 @@ public final class KnowledgeBase
 			}
 			contents.get(key).add(rule);
 		}
+
+		firstArgumentIndex = new HashMap<GdlConstant, Map<GdlConstant, List<GdlRule>>>();
+		unindexedRules = new HashMap<GdlConstant, List<GdlRule>>();
+		for (Map.Entry<GdlConstant, List<GdlRule>> entry : contents.entrySet())
+		{
+			firstArgumentIndex.put(entry.getKey(), indexByFirstArgument(entry.getValue()));
+			List<GdlRule> unindexed = new ArrayList<GdlRule>();
+			for (GdlRule rule : entry.getValue())
+			{
+				if (getIndexKey(rule.getHead()) == null)
+				{
+					unindexed.add(rule);
+				}
+			}
+			unindexedRules.put(entry.getKey(), unindexed);
+		}
+	}
+
+	/**
+	 * Builds the index for the rules sharing one head name. Rules whose first
+	 * argument is a variable can match anything, so they are added to every
+	 * list, keeping the rules in their original order.
+	 */
+	private static Map<GdlConstant, List<GdlRule>> indexByFirstArgument(List<GdlRule> rules)
+	{
+		Map<GdlConstant, List<GdlRule>> index = new HashMap<GdlConstant, List<GdlRule>>();
+		for (GdlRule rule : rules)
+		{
+			GdlConstant key = getIndexKey(rule.getHead());
+			if (key != null && !index.containsKey(key))
+			{
+				index.put(key, new ArrayList<GdlRule>());
+			}
+		}
+		for (GdlRule rule : rules)
+		{
+			GdlConstant key = getIndexKey(rule.getHead());
+			for (Map.Entry<GdlConstant, List<GdlRule>> entry : index.entrySet())
+			{
+				if (key == null || key == entry.getKey())
+				{
+					entry.getValue().add(rule);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the key that a sentence is indexed under: its first argument if
+	 * that is a constant, the name of its first argument if that is a function,
+	 * or null if it has no arguments or its first argument is a variable.
+	 */
+	public static GdlConstant getIndexKey(GdlSentence sentence)
+	{
+		if (sentence.arity() == 0)
+		{
+			return null;
+		}
+		GdlTerm first = sentence.get(0);
+		if (first instanceof GdlConstant)
+		{
+			return (GdlConstant) first;
+		}
+		else if (first instanceof GdlFunction)
+		{
+			return ((GdlFunction) first).getName();
+		}
+		return null;
 	}
 
-	public synchronized List<GdlRule> fetch(GdlSentence sentence)
+	public List<GdlRule> fetch(GdlSentence sentence)
 	{
-		GdlConstant key = sentence.getName();
+		GdlConstant name = sentence.getName();
+		List<GdlRule> rules = contents.get(name);
+		if (rules == null)
+		{
+			return Collections.emptyList();
+		}
 
-		if (contents.containsKey(key))
+		GdlConstant key = getIndexKey(sentence);
+		if (key == null)
 		{
-			return contents.get(key);
+			return rules;
 		}
-		else
+
+		List<GdlRule> matches = firstArgumentIndex.get(name).get(key);
+		if (matches != null)
 		{
-			return new ArrayList<GdlRule>();
+			return matches;
 		}
+		// Only the rules with a variable first argument can match.
+		return unindexedRules.get(name);
 	}
-}
\ No newline at end of file
+}
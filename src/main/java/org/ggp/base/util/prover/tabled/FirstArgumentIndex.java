@@ -0,0 +1,51 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+
+/**
+ * FirstArgumentIndex holds the clauses or facts of a single relation, keyed
+ * by their first argument: a constant, or the name of a function. Items whose
+ * first argument is a variable, or that have no arguments, are unindexed and
+ * are returned for every key. Items keep the order they were added in.
+ */
+final class FirstArgumentIndex<T>
+{
+    private final List<T> all = new ArrayList<T>();
+    private final List<T> unindexed = new ArrayList<T>();
+    private final Map<GdlConstant, List<T>> indexed = new HashMap<GdlConstant, List<T>>();
+
+    public void add(GdlConstant key, T item)
+    {
+        all.add(item);
+        if (key == null) {
+            unindexed.add(item);
+            for (List<T> items : indexed.values()) {
+                items.add(item);
+            }
+        } else {
+            List<T> items = indexed.get(key);
+            if (items == null) {
+                items = new ArrayList<T>(unindexed);
+                indexed.put(key, items);
+            }
+            items.add(item);
+        }
+    }
+
+    /**
+     * Returns the items that could match a first argument with the given key,
+     * or every item if the key is null.
+     */
+    public List<T> fetch(GdlConstant key)
+    {
+        if (key == null)
+            return all;
+        List<T> items = indexed.get(key);
+        return (items == null) ? unindexed : items;
+    }
+}
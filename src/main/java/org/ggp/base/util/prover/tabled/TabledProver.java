@@ -0,0 +1,808 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
+import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.aima.AimaProver;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
+
+/**
+ * TabledProver answers the same queries as the {@link AimaProver}, but is
+ * built for speed:
+ *
+ * - Clauses are indexed by relation name and first argument, and compiled up
+ *   front so that their variables are numbered slots in a frame.
+ * - Variables are bound in place, in a shared binding array, and bindings are
+ *   undone by unwinding a trail, so no substitutions are ever copied.
+ * - Every call to a relation defined by rules is tabled: the answers for each
+ *   call pattern (up to variable renaming) are computed once per query and
+ *   then reused. Recursive calls read the answers found so far, and the
+ *   outermost call of each recursive component is re-run until no new
+ *   answers turn up, at which point the whole component is complete.
+ * - Tables for relations that never depend on true or does are kept across
+ *   queries, taking the place of the AimaProver's fixed-answer cache.
+ *
+ * As in the AimaProver, a relation written with no arguments, such as
+ * (open), is not the same thing as the proposition open: neither one
+ * matches the other.
+ *
+ * The description is expected to be stratified, as GDL requires. A prover
+ * can be queried from several threads at once; each query gets its own
+ * working state.
+ */
+public final class TabledProver implements Prover
+{
+    private static final int POSITIVE = 0;
+    private static final int NEGATIVE = 1;
+    private static final int DISTINCT = 2;
+    private static final int SAME = 3;
+
+    /** A variable of a clause, bound in the slot at its index in the clause's frame. */
+    private static final class Var
+    {
+        public final int index;
+
+        public Var(int index)
+        {
+            this.index = index;
+        }
+    }
+
+    /** A function that contains variables. Ground functions are kept as GdlFunctions. */
+    private static final class Func
+    {
+        public final GdlConstant name;
+        public final Object[] args;
+
+        public Func(GdlConstant name, Object[] args)
+        {
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    private static final class Literal
+    {
+        public final int kind;
+        public final GdlConstant name;
+        /** Whether the literal is a proposition rather than a relation. */
+        public final boolean proposition;
+        public final Object[] args;
+
+        public Literal(int kind, GdlConstant name, boolean proposition, Object[] args)
+        {
+            this.kind = kind;
+            this.name = name;
+            this.proposition = proposition;
+            this.args = args;
+        }
+    }
+
+    private static final class Clause
+    {
+        public final GdlConstant name;
+        /** Whether the head is a proposition rather than a relation. */
+        public final boolean proposition;
+        public final Object[] head;
+        public final Literal[] body;
+        public final int variableCount;
+
+        public Clause(GdlConstant name, boolean proposition, Object[] head, Literal[] body, int variableCount)
+        {
+            this.name = name;
+            this.proposition = proposition;
+            this.head = head;
+            this.body = body;
+            this.variableCount = variableCount;
+        }
+    }
+
+    /** The answers to one call pattern. */
+    private static final class Table
+    {
+        public final GdlSentence pattern;
+        public final boolean fixed;
+        public final List<GdlSentence> answers = new ArrayList<GdlSentence>();
+        public final Set<GdlSentence> answerSet = new HashSet<GdlSentence>();
+        public boolean complete;
+        /** The position of the table on the evaluation stack, or -1 if it is not on it. */
+        public int depth = -1;
+        /** The lowest stack position that the table's evaluation has called back into. */
+        public int link;
+        /** Whether the table's evaluation has called back into the table itself. */
+        public boolean recursive;
+
+        public Table(GdlSentence pattern, boolean fixed)
+        {
+            this.pattern = pattern;
+            this.fixed = fixed;
+        }
+    }
+
+    /** The relations defined by rules, which are tabled. */
+    private final Map<GdlConstant, FirstArgumentIndex<Clause>> clauses;
+    /** The relations defined only by ground facts, which are looked up directly. */
+    private final Map<GdlConstant, FirstArgumentIndex<GdlSentence>> facts;
+    /** The relations whose answers can depend on the context of a query. */
+    private final Set<GdlConstant> stateDependent;
+    private final ConcurrentMap<GdlSentence, Table> fixedTables = new ConcurrentHashMap<GdlSentence, Table>();
+
+    public TabledProver(List<Gdl> description)
+    {
+        List<Gdl> rules = new ArrayList<Gdl>();
+        for (Gdl gdl : description) {
+            if (gdl instanceof GdlRule) {
+                GdlRule rule = (GdlRule) gdl;
+                for (List<GdlLiteral> body : expandOrs(rule.getBody())) {
+                    rules.add(GdlPool.getRule(rule.getHead(), body));
+                }
+            } else {
+                rules.add(gdl);
+            }
+        }
+        rules = DistinctAndNotMover.run(rules);
+
+        Set<GdlConstant> derived = new HashSet<GdlConstant>();
+        for (Gdl gdl : rules) {
+            if (gdl instanceof GdlRule) {
+                GdlRule rule = (GdlRule) gdl;
+                if (!rule.getBody().isEmpty() || !rule.getHead().isGround())
+                    derived.add(rule.getHead().getName());
+            }
+        }
+
+        clauses = new HashMap<GdlConstant, FirstArgumentIndex<Clause>>();
+        facts = new HashMap<GdlConstant, FirstArgumentIndex<GdlSentence>>();
+        for (Gdl gdl : rules) {
+            GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
+            GdlSentence head = rule.getHead();
+            if (derived.contains(head.getName())) {
+                Clause clause = compileClause(rule);
+                FirstArgumentIndex<Clause> index = clauses.get(clause.name);
+                if (index == null) {
+                    index = new FirstArgumentIndex<Clause>();
+                    clauses.put(clause.name, index);
+                }
+                index.add(getCompiledKey(clause.head), clause);
+            } else {
+                FirstArgumentIndex<GdlSentence> index = facts.get(head.getName());
+                if (index == null) {
+                    index = new FirstArgumentIndex<GdlSentence>();
+                    facts.put(head.getName(), index);
+                }
+                index.add(KnowledgeBase.getIndexKey(head), head);
+            }
+        }
+
+        stateDependent = findStateDependentRelations();
+    }
+
+    /**
+     * Rewrites a rule body without disjunctions, returning one body for each
+     * way the disjunctions can be satisfied. A negated disjunction becomes a
+     * negation of each of its disjuncts.
+     */
+    private static List<List<GdlLiteral>> expandOrs(List<GdlLiteral> body)
+    {
+        List<List<GdlLiteral>> bodies = new ArrayList<List<GdlLiteral>>();
+        bodies.add(new ArrayList<GdlLiteral>());
+        for (GdlLiteral literal : body) {
+            List<GdlLiteral> alternatives = new ArrayList<GdlLiteral>();
+            List<GdlLiteral> conjuncts = new ArrayList<GdlLiteral>();
+            addExpansions(literal, alternatives, conjuncts);
+            List<List<GdlLiteral>> expanded = new ArrayList<List<GdlLiteral>>();
+            for (List<GdlLiteral> prefix : bodies) {
+                if (alternatives.isEmpty()) {
+                    List<GdlLiteral> next = new ArrayList<GdlLiteral>(prefix);
+                    next.addAll(conjuncts);
+                    expanded.add(next);
+                }
+                for (GdlLiteral alternative : alternatives) {
+                    List<GdlLiteral> next = new ArrayList<GdlLiteral>(prefix);
+                    next.add(alternative);
+                    expanded.add(next);
+                }
+            }
+            bodies = expanded;
+        }
+        return bodies;
+    }
+
+    /**
+     * Expands a single literal, either into alternatives (one of which must
+     * hold) or into conjuncts (all of which must hold).
+     */
+    private static void addExpansions(GdlLiteral literal, List<GdlLiteral> alternatives, List<GdlLiteral> conjuncts)
+    {
+        if (literal instanceof GdlOr) {
+            GdlOr or = (GdlOr) literal;
+            for (int i = 0; i < or.arity(); i++) {
+                List<GdlLiteral> innerConjuncts = new ArrayList<GdlLiteral>();
+                addExpansions(or.get(i), alternatives, innerConjuncts);
+                if (innerConjuncts.size() == 1) {
+                    alternatives.add(innerConjuncts.get(0));
+                } else if (innerConjuncts.size() > 1) {
+                    throw new IllegalArgumentException("Unsupported literal in disjunction: " + or);
+                }
+            }
+        } else if (literal instanceof GdlNot && ((GdlNot) literal).getBody() instanceof GdlOr) {
+            GdlOr or = (GdlOr) ((GdlNot) literal).getBody();
+            for (int i = 0; i < or.arity(); i++) {
+                addExpansions(GdlPool.getNot(or.get(i)), alternatives, conjuncts);
+            }
+        } else {
+            conjuncts.add(literal);
+        }
+    }
+
+    private static Clause compileClause(GdlRule rule)
+    {
+        Map<GdlVariable, Integer> variables = new HashMap<GdlVariable, Integer>();
+        Object[] head = compileArgs(rule.getHead(), variables);
+        List<Literal> body = new ArrayList<Literal>();
+        for (GdlLiteral literal : rule.getBody()) {
+            boolean negated = false;
+            while (literal instanceof GdlNot) {
+                negated = !negated;
+                literal = ((GdlNot) literal).getBody();
+            }
+            if (literal instanceof GdlSentence) {
+                GdlSentence sentence = (GdlSentence) literal;
+                body.add(new Literal(negated ? NEGATIVE : POSITIVE, sentence.getName(),
+                        sentence instanceof GdlProposition, compileArgs(sentence, variables)));
+            } else if (literal instanceof GdlDistinct) {
+                GdlDistinct distinct = (GdlDistinct) literal;
+                Object[] args = new Object[] {
+                        compileTerm(distinct.getArg1(), variables),
+                        compileTerm(distinct.getArg2(), variables) };
+                body.add(new Literal(negated ? SAME : DISTINCT, null, false, args));
+            } else {
+                throw new IllegalArgumentException("Unsupported literal " + literal + " in rule " + rule);
+            }
+        }
+        return new Clause(rule.getHead().getName(), rule.getHead() instanceof GdlProposition, head,
+                body.toArray(new Literal[body.size()]), variables.size());
+    }
+
+    private static Object[] compileArgs(GdlSentence sentence, Map<GdlVariable, Integer> variables)
+    {
+        Object[] args = new Object[sentence.arity()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compileTerm(sentence.get(i), variables);
+        }
+        return args;
+    }
+
+    private static Object compileTerm(GdlTerm term, Map<GdlVariable, Integer> variables)
+    {
+        if (term instanceof GdlVariable) {
+            Integer index = variables.get(term);
+            if (index == null) {
+                index = variables.size();
+                variables.put((GdlVariable) term, index);
+            }
+            return new Var(index);
+        } else if (term instanceof GdlFunction && !term.isGround()) {
+            GdlFunction function = (GdlFunction) term;
+            Object[] args = new Object[function.arity()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = compileTerm(function.get(i), variables);
+            }
+            return new Func(function.getName(), args);
+        }
+        return term;
+    }
+
+    /** Returns the index key of compiled arguments that are not bound to anything. */
+    private static GdlConstant getCompiledKey(Object[] args)
+    {
+        if (args.length == 0)
+            return null;
+        Object first = args[0];
+        if (first instanceof GdlConstant)
+            return (GdlConstant) first;
+        if (first instanceof GdlFunction)
+            return ((GdlFunction) first).getName();
+        if (first instanceof Func)
+            return ((Func) first).name;
+        return null;
+    }
+
+    /**
+     * Finds the relations that depend, directly or not, on true or does.
+     */
+    private Set<GdlConstant> findStateDependentRelations()
+    {
+        Set<GdlConstant> dependent = new HashSet<GdlConstant>();
+        dependent.add(GdlPool.TRUE);
+        dependent.add(GdlPool.DOES);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<GdlConstant, FirstArgumentIndex<Clause>> entry : clauses.entrySet()) {
+                if (dependent.contains(entry.getKey()))
+                    continue;
+                for (Clause clause : entry.getValue().fetch(null)) {
+                    boolean depends = false;
+                    for (Literal literal : clause.body) {
+                        if (literal.name != null && dependent.contains(literal.name))
+                            depends = true;
+                    }
+                    if (depends) {
+                        dependent.add(entry.getKey());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return dependent;
+    }
+
+    @Override
+    public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context)
+    {
+        return new Query(context).ask(query);
+    }
+
+    @Override
+    public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
+    {
+        Set<GdlSentence> answers = askAll(query, context);
+        return answers.isEmpty() ? null : answers.iterator().next();
+    }
+
+    @Override
+    public boolean prove(GdlSentence query, Set<GdlSentence> context)
+    {
+        return askOne(query, context) != null;
+    }
+
+    /**
+     * The working state of a single query: the bindings, the trail, and the
+     * tables that depend on the query's context.
+     */
+    private final class Query
+    {
+        private final Map<GdlConstant, FirstArgumentIndex<GdlSentence>> contextFacts;
+        /** Fixed tables can only be shared if the context just holds true and does sentences. */
+        private final boolean useFixedTables;
+
+        private Object[] boundTerms = new Object[64];
+        private int[] boundFrames = new int[64];
+        private int frameTop;
+        private int[] trail = new int[64];
+        private int trailSize;
+
+        /** The result of the last call to deref. */
+        private Object derefTerm;
+        private int derefFrame;
+
+        private final Map<GdlSentence, Table> tables = new HashMap<GdlSentence, Table>();
+        private final List<Table> stack = new ArrayList<Table>();
+        /** Tables that were evaluated as part of a recursive component that is not yet complete. */
+        private final List<Table> incomplete = new ArrayList<Table>();
+        private long answerCount;
+
+        public Query(Set<GdlSentence> context)
+        {
+            contextFacts = new HashMap<GdlConstant, FirstArgumentIndex<GdlSentence>>();
+            boolean onlyState = true;
+            for (GdlSentence sentence : context) {
+                GdlConstant name = sentence.getName();
+                if (name != GdlPool.TRUE && name != GdlPool.DOES)
+                    onlyState = false;
+                FirstArgumentIndex<GdlSentence> index = contextFacts.get(name);
+                if (index == null) {
+                    index = new FirstArgumentIndex<GdlSentence>();
+                    contextFacts.put(name, index);
+                }
+                index.add(KnowledgeBase.getIndexKey(sentence), sentence);
+            }
+            useFixedTables = onlyState;
+        }
+
+        public Set<GdlSentence> ask(GdlSentence query)
+        {
+            Map<GdlVariable, Integer> variables = new HashMap<GdlVariable, Integer>();
+            Object[] args = compileArgs(query, variables);
+            boolean proposition = query instanceof GdlProposition;
+            Literal goal = new Literal(POSITIVE, query.getName(), proposition, args);
+            Clause clause = new Clause(query.getName(), proposition, args, new Literal[] { goal }, variables.size());
+
+            Table results = new Table(query, false);
+            frameTop = clause.variableCount;
+            ensureCapacity(frameTop);
+            solve(clause, 0, 0, results);
+            return new LinkedHashSet<GdlSentence>(results.answers);
+        }
+
+        private void ensureCapacity(int size)
+        {
+            if (size > boundTerms.length) {
+                int capacity = Math.max(size, 2 * boundTerms.length);
+                boundTerms = Arrays.copyOf(boundTerms, capacity);
+                boundFrames = Arrays.copyOf(boundFrames, capacity);
+            }
+        }
+
+        private void bind(int slot, Object term, int frame)
+        {
+            boundTerms[slot] = term;
+            boundFrames[slot] = frame;
+            if (trailSize == trail.length)
+                trail = Arrays.copyOf(trail, 2 * trail.length);
+            trail[trailSize++] = slot;
+        }
+
+        private void undo(int mark)
+        {
+            while (trailSize > mark) {
+                boundTerms[trail[--trailSize]] = null;
+            }
+        }
+
+        private void deref(Object term, int frame)
+        {
+            while (term instanceof Var) {
+                int slot = frame + ((Var) term).index;
+                Object bound = boundTerms[slot];
+                if (bound == null)
+                    break;
+                term = bound;
+                frame = boundFrames[slot];
+            }
+            derefTerm = term;
+            derefFrame = frame;
+        }
+
+        private boolean unify(Object a, int aFrame, Object b, int bFrame)
+        {
+            deref(a, aFrame);
+            a = derefTerm;
+            aFrame = derefFrame;
+            deref(b, bFrame);
+            b = derefTerm;
+            bFrame = derefFrame;
+
+            if (a instanceof Var) {
+                int aSlot = aFrame + ((Var) a).index;
+                if (b instanceof Var) {
+                    int bSlot = bFrame + ((Var) b).index;
+                    // Point newer slots at older ones.
+                    if (aSlot > bSlot)
+                        bind(aSlot, b, bFrame);
+                    else if (bSlot > aSlot)
+                        bind(bSlot, a, aFrame);
+                } else {
+                    bind(aSlot, b, bFrame);
+                }
+                return true;
+            } else if (b instanceof Var) {
+                bind(bFrame + ((Var) b).index, a, aFrame);
+                return true;
+            } else if (a instanceof Func) {
+                if (b instanceof Func) {
+                    Func f = (Func) a;
+                    Func g = (Func) b;
+                    if (f.name != g.name || f.args.length != g.args.length)
+                        return false;
+                    for (int i = 0; i < f.args.length; i++) {
+                        if (!unify(f.args[i], aFrame, g.args[i], bFrame))
+                            return false;
+                    }
+                    return true;
+                }
+                return (b instanceof GdlFunction) && unifyFunction((Func) a, aFrame, (GdlFunction) b);
+            } else if (b instanceof Func) {
+                return (a instanceof GdlFunction) && unifyFunction((Func) b, bFrame, (GdlFunction) a);
+            }
+            // Ground terms are interned by the GdlPool.
+            return a == b;
+        }
+
+        private boolean unifyFunction(Func f, int frame, GdlFunction g)
+        {
+            if (f.name != g.getName() || f.args.length != g.arity())
+                return false;
+            for (int i = 0; i < f.args.length; i++) {
+                if (!unify(f.args[i], frame, g.get(i), 0))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean unifyWithSentence(Literal literal, int frame, GdlSentence sentence)
+        {
+            Object[] args = literal.args;
+            if (literal.proposition != (sentence instanceof GdlProposition) || args.length != sentence.arity())
+                return false;
+            for (int i = 0; i < args.length; i++) {
+                if (!unify(args[i], frame, sentence.get(i), 0))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Instantiates a term with the current bindings. Unbound variables
+         * become the variable named by the slot, or by their position in
+         * slots if that is given, so that call patterns can be compared up
+         * to variable renaming.
+         */
+        private GdlTerm resolve(Object term, int frame, List<Integer> slots)
+        {
+            deref(term, frame);
+            term = derefTerm;
+            frame = derefFrame;
+            if (term instanceof Var) {
+                int slot = frame + ((Var) term).index;
+                if (slots == null)
+                    return GdlPool.getVariable("?_" + slot);
+                int position = slots.indexOf(slot);
+                if (position == -1) {
+                    position = slots.size();
+                    slots.add(slot);
+                }
+                return GdlPool.getVariable("?_" + position);
+            } else if (term instanceof Func) {
+                Func f = (Func) term;
+                GdlTerm[] args = new GdlTerm[f.args.length];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = resolve(f.args[i], frame, slots);
+                }
+                return GdlPool.getFunction(f.name, args);
+            }
+            return (GdlTerm) term;
+        }
+
+        private GdlSentence resolve(GdlConstant name, boolean proposition, Object[] args, int frame, List<Integer> slots)
+        {
+            if (proposition)
+                return GdlPool.getProposition(name);
+            GdlTerm[] terms = new GdlTerm[args.length];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = resolve(args[i], frame, slots);
+            }
+            return GdlPool.getRelation(name, terms);
+        }
+
+        /** Returns the index key of the first argument, as currently bound. */
+        private GdlConstant getKey(Object[] args, int frame)
+        {
+            if (args.length == 0)
+                return null;
+            deref(args[0], frame);
+            Object first = derefTerm;
+            if (first instanceof GdlConstant)
+                return (GdlConstant) first;
+            if (first instanceof GdlFunction)
+                return ((GdlFunction) first).getName();
+            if (first instanceof Func)
+                return ((Func) first).name;
+            return null;
+        }
+
+        /**
+         * Solves the body of a clause from the given literal onwards, adding
+         * an answer to the table for every solution.
+         */
+        private void solve(Clause clause, int position, int frame, Table table)
+        {
+            if (position == clause.body.length) {
+                GdlSentence answer = resolve(clause.name, clause.proposition, clause.head, frame, null);
+                if (table.answerSet.add(answer)) {
+                    table.answers.add(answer);
+                    answerCount++;
+                }
+                return;
+            }
+
+            Literal literal = clause.body[position];
+            if (literal.kind == DISTINCT || literal.kind == SAME) {
+                boolean same = equal(literal.args[0], frame, literal.args[1], frame);
+                if (same == (literal.kind == SAME))
+                    solve(clause, position + 1, frame, table);
+            } else if (literal.kind == NEGATIVE) {
+                if (!hasMatch(literal, frame))
+                    solve(clause, position + 1, frame, table);
+            } else {
+                FirstArgumentIndex<GdlSentence> context = contextFacts.get(literal.name);
+                if (context != null)
+                    solveWith(context.fetch(getKey(literal.args, frame)), clause, position, frame, table);
+                List<GdlSentence> candidates = getCandidates(literal, frame);
+                if (candidates != null)
+                    solveWith(candidates, clause, position, frame, table);
+            }
+        }
+
+        private void solveWith(List<GdlSentence> candidates, Clause clause, int position, int frame, Table table)
+        {
+            Literal literal = clause.body[position];
+            // The list may grow while it is read, if it belongs to a table
+            // that is still being evaluated.
+            for (int i = 0; i < candidates.size(); i++) {
+                int mark = trailSize;
+                if (unifyWithSentence(literal, frame, candidates.get(i)))
+                    solve(clause, position + 1, frame, table);
+                undo(mark);
+            }
+        }
+
+        /**
+         * Returns the facts or answers from the description that may match
+         * the literal, or null if there are none.
+         */
+        private List<GdlSentence> getCandidates(Literal literal, int frame)
+        {
+            if (clauses.containsKey(literal.name))
+                return call(literal.name, literal.proposition, literal.args, frame).answers;
+            FirstArgumentIndex<GdlSentence> index = facts.get(literal.name);
+            return (index == null) ? null : index.fetch(getKey(literal.args, frame));
+        }
+
+        private boolean hasMatch(Literal literal, int frame)
+        {
+            List<List<GdlSentence>> sources = new ArrayList<List<GdlSentence>>(2);
+            FirstArgumentIndex<GdlSentence> context = contextFacts.get(literal.name);
+            if (context != null)
+                sources.add(context.fetch(getKey(literal.args, frame)));
+            List<GdlSentence> candidates = getCandidates(literal, frame);
+            if (candidates != null)
+                sources.add(candidates);
+            for (List<GdlSentence> source : sources) {
+                for (int i = 0; i < source.size(); i++) {
+                    int mark = trailSize;
+                    boolean matches = unifyWithSentence(literal, frame, source.get(i));
+                    undo(mark);
+                    if (matches)
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean equal(Object a, int aFrame, Object b, int bFrame)
+        {
+            deref(a, aFrame);
+            a = derefTerm;
+            aFrame = derefFrame;
+            deref(b, bFrame);
+            b = derefTerm;
+            bFrame = derefFrame;
+
+            if (a instanceof Var || b instanceof Var) {
+                return (a instanceof Var) && (b instanceof Var)
+                        && aFrame + ((Var) a).index == bFrame + ((Var) b).index;
+            } else if (a instanceof Func || b instanceof Func) {
+                // At least one side is not ground, so compare them structurally.
+                return resolve(a, aFrame, null) == resolve(b, bFrame, null);
+            }
+            return a == b;
+        }
+
+        /**
+         * Returns the table for a call to a relation defined by rules,
+         * evaluating it first if need be. The table is complete unless the
+         * call is part of a recursive component that is still being
+         * evaluated, in which case it holds the answers found so far.
+         */
+        private Table call(GdlConstant name, boolean proposition, Object[] args, int frame)
+        {
+            GdlSentence pattern = resolve(name, proposition, args, frame, new ArrayList<Integer>());
+            boolean fixed = useFixedTables && !stateDependent.contains(name);
+            if (fixed) {
+                Table table = fixedTables.get(pattern);
+                if (table != null)
+                    return table;
+            }
+
+            Table table = tables.get(pattern);
+            if (table == null) {
+                table = new Table(pattern, fixed);
+                tables.put(pattern, table);
+            }
+            if (table.complete)
+                return table;
+
+            if (table.depth >= 0) {
+                // A recursive call: read the answers found so far, and make
+                // sure the caller is evaluated again until they stop growing.
+                table.recursive = true;
+                Table caller = stack.get(stack.size() - 1);
+                caller.link = Math.min(caller.link, table.depth);
+                return table;
+            }
+
+            evaluate(table, args, frame);
+            return table;
+        }
+
+        private void evaluate(Table table, Object[] args, int frame)
+        {
+            int depth = stack.size();
+            table.depth = depth;
+            table.link = table.depth;
+            stack.add(table);
+            int incompleteMark = incomplete.size();
+
+            boolean proposition = table.pattern instanceof GdlProposition;
+            List<Clause> candidates = clauses.get(table.pattern.getName()).fetch(getKey(args, frame));
+            while (true) {
+                long answersBefore = answerCount;
+                for (Clause clause : candidates) {
+                    if (clause.proposition != proposition)
+                        continue;
+                    int mark = trailSize;
+                    int clauseFrame = frameTop;
+                    frameTop += clause.variableCount;
+                    ensureCapacity(frameTop);
+                    if (unifyWithCompiled(clause.head, clauseFrame, args, frame))
+                        solve(clause, 0, clauseFrame, table);
+                    undo(mark);
+                    frameTop = clauseFrame;
+                }
+                // Only the outermost table of a recursive component iterates;
+                // the others are re-evaluated as part of its next pass.
+                if (table.link < table.depth || !table.recursive || answerCount == answersBefore)
+                    break;
+            }
+
+            stack.remove(depth);
+            table.depth = -1;
+            if (table.link < depth) {
+                Table caller = stack.get(depth - 1);
+                caller.link = Math.min(caller.link, table.link);
+                incomplete.add(table);
+            } else {
+                complete(table);
+                List<Table> component = incomplete.subList(incompleteMark, incomplete.size());
+                for (Table member : component) {
+                    complete(member);
+                }
+                component.clear();
+            }
+        }
+
+        private boolean unifyWithCompiled(Object[] head, int headFrame, Object[] args, int frame)
+        {
+            if (head.length != args.length)
+                return false;
+            for (int i = 0; i < head.length; i++) {
+                if (!unify(head[i], headFrame, args[i], frame))
+                    return false;
+            }
+            return true;
+        }
+
+        private void complete(Table table)
+        {
+            table.complete = true;
+            if (table.fixed)
+                fixedTables.putIfAbsent(table.pattern, table);
+        }
+    }
+}
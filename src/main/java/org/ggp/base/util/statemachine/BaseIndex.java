@@ -0,0 +1,128 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A BaseIndex assigns a stable, dense index to every base sentence that can
+ * appear in the states of a game, so that states can be stored as bit vectors
+ * (see {@link BitSetMachineState}).
+ *
+ * Along with the index, every sentence gets a random 64-bit Zobrist key. The
+ * keys are derived from the text of the sentence, so two indices built for the
+ * same game (e.g. by separate state machines in separate threads) agree on
+ * them. BaseIndex objects are immutable and can be shared freely.
+ */
+public final class BaseIndex
+{
+    private final List<GdlSentence> sentences;
+    private final Map<GdlSentence, Integer> indices;
+    private final long[] zobristKeys;
+
+    public BaseIndex(List<GdlSentence> sentences)
+    {
+        this.sentences = ImmutableList.copyOf(sentences);
+        this.indices = new HashMap<GdlSentence, Integer>();
+        this.zobristKeys = new long[sentences.size()];
+        for (int i = 0; i < sentences.size(); i++) {
+            GdlSentence sentence = sentences.get(i);
+            indices.put(sentence, i);
+            zobristKeys[i] = mix(sentence.toString().hashCode() + 0x9E3779B97F4A7C15L * (i + 1));
+        }
+    }
+
+    /**
+     * The finalizer of the SplitMix64 generator, which turns consecutive or
+     * otherwise correlated seeds into well-distributed 64-bit keys.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the number of sentences in the index.
+     */
+    public int size()
+    {
+        return sentences.size();
+    }
+
+    /**
+     * Returns the number of longs needed for a bit vector over this index.
+     */
+    public int getWordCount()
+    {
+        return (sentences.size() + 63) >> 6;
+    }
+
+    /**
+     * Returns the sentence with the given index.
+     */
+    public GdlSentence getSentence(int index)
+    {
+        return sentences.get(index);
+    }
+
+    public List<GdlSentence> getSentences()
+    {
+        return sentences;
+    }
+
+    /**
+     * Returns the index of the given sentence, or -1 if it is not a base
+     * sentence of this index.
+     */
+    public int indexOf(GdlSentence sentence)
+    {
+        Integer index = indices.get(sentence);
+        return (index == null) ? -1 : index;
+    }
+
+    public long getZobristKey(int index)
+    {
+        return zobristKeys[index];
+    }
+
+    /**
+     * Creates a state in which exactly the given sentences are true. Sentences
+     * that are not in the index are ignored, since no state over this index
+     * can contain them.
+     */
+    public BitSetMachineState createState(Set<GdlSentence> contents)
+    {
+        long[] bits = new long[getWordCount()];
+        for (GdlSentence sentence : contents) {
+            int index = indexOf(sentence);
+            if (index != -1)
+                bits[index >> 6] |= 1L << index;
+        }
+        return new BitSetMachineState(this, bits);
+    }
+
+    /**
+     * Creates a state from a bit vector over this index. The state takes
+     * ownership of the array, which must not be modified afterwards.
+     */
+    public BitSetMachineState createState(long[] bits)
+    {
+        return new BitSetMachineState(this, bits);
+    }
+
+    /**
+     * Returns an empty state over this index.
+     */
+    public BitSetMachineState createEmptyState()
+    {
+        return createState(Collections.<GdlSentence>emptySet());
+    }
+}
@@ -0,0 +1,132 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A compact MachineState stored as a bit vector over a {@link BaseIndex}.
+ *
+ * Both hashes of the state are computed once, when it is created: the usual
+ * {@link #hashCode()}, which matches the hash of the equivalent sentence set
+ * so that these states stay interchangeable with plain MachineStates, and a
+ * 64-bit Zobrist hash for transposition tables that want fewer collisions.
+ * Two states over the same index are compared word by word, and the GDL
+ * sentences of a state are only built when {@link #getContents()} is called.
+ *
+ * BitSetMachineStates are immutable, and can be shared between threads.
+ */
+public final class BitSetMachineState extends MachineState
+{
+    private final BaseIndex index;
+    private final long[] bits;
+    private final int hashCode;
+    private final long zobristHash;
+
+    private volatile Set<GdlSentence> contents;
+
+    BitSetMachineState(BaseIndex index, long[] bits)
+    {
+        this.index = index;
+        this.bits = bits;
+
+        int hash = 0;
+        long zobrist = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                hash += index.getSentence(i).hashCode();
+                zobrist ^= index.getZobristKey(i);
+            }
+        }
+        this.hashCode = hash;
+        this.zobristHash = zobrist;
+    }
+
+    private BitSetMachineState(BitSetMachineState other)
+    {
+        this.index = other.index;
+        this.bits = other.bits;
+        this.hashCode = other.hashCode;
+        this.zobristHash = other.zobristHash;
+        this.contents = other.contents;
+    }
+
+    public BaseIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns whether the sentence with the given index is true in this state.
+     */
+    public boolean isTrue(int i)
+    {
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the bit vector of this state. The array is shared with the
+     * state, and must not be modified.
+     */
+    public long[] getBits()
+    {
+        return bits;
+    }
+
+    public long getZobristHash()
+    {
+        return zobristHash;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents()
+    {
+        Set<GdlSentence> result = contents;
+        if (result == null) {
+            result = new HashSet<GdlSentence>();
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    result.add(index.getSentence((w << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+            contents = result;
+        }
+        return result;
+    }
+
+    /**
+     * Since BitSetMachineStates are immutable, the clone shares this state's
+     * bit vector.
+     */
+    @Override
+    public MachineState clone()
+    {
+        return new BitSetMachineState(this);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (o instanceof BitSetMachineState) {
+            BitSetMachineState state = (BitSetMachineState) o;
+            if (state.index == index)
+                return state.zobristHash == zobristHash && Arrays.equals(state.bits, bits);
+        }
+        return super.equals(o);
+    }
+}
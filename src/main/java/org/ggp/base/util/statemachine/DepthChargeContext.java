@@ -0,0 +1,50 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A DepthChargeContext holds the reusable scratch space for a series of
+ * depth charges made through
+ * {@link StateMachine#performDepthCharge(MachineState, DepthChargeContext, int[])}.
+ * Create one per thread with {@link StateMachine#createDepthChargeContext(Random)}
+ * and pass it to every depth charge that thread makes, so that the depth
+ * charges themselves don't need to allocate anything.
+ * <p>
+ * State machines that need more scratch space than this can subclass it and
+ * override {@link StateMachine#createDepthChargeContext(Random)}. A context
+ * is only meant to be used with the machine that created it, and is not
+ * thread-safe.
+ */
+public class DepthChargeContext
+{
+    private final Random random;
+    private final List<Move> jointMove;
+
+    public DepthChargeContext(Random random, int roleCount)
+    {
+        this.random = random;
+        this.jointMove = new ArrayList<Move>(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            jointMove.add(null);
+        }
+    }
+
+    /**
+     * Returns the source of randomness for the moves made in depth charges.
+     */
+    public Random getRandom()
+    {
+        return random;
+    }
+
+    /**
+     * Returns a joint move with one slot per role, to be filled in for each
+     * step of a depth charge.
+     */
+    public List<Move> getJointMove()
+    {
+        return jointMove;
+    }
+}
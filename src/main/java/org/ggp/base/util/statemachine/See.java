@@ -30,7 +30,8 @@ public class See implements Serializable {
 	public boolean equals(Object o) {
 		if (o != null && (o instanceof See)) {
 			See s = (See) o;
-			return (s.getContents().equals(contents) && s.getRole().equals(role));
+			return (contents == null ? s.getContents() == null : contents.equals(s.getContents()))
+					&& (role == null ? s.getRole() == null : role.equals(s.getRole()));
 		}
 		return false;
 	}
@@ -46,7 +47,7 @@ public class See implements Serializable {
 	@Override
     public int hashCode()
     {
-        return contents.hashCode();
+        return 31 * (contents == null ? 0 : contents.hashCode()) + (role == null ? 0 : role.hashCode());
     }
 
     @Override
@@ -1,14 +1,26 @@
 package org.ggp.base.util.statemachine;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 
+/**
+ * The sees that a role received on one turn. A SeesState with no sees at all
+ * may hold either null or an empty set; the two are equal. The set of sees
+ * must not be changed once the SeesState has been created, as the SeesState
+ * caches its hash and an index of the sees' sentences.
+ */
 public class SeesState {
 
 	private Role role;
 	private Set<See> sees;
 
+	/** The sentences of the sees, built the first time they are looked up. */
+	private Set<GdlSentence> sentences;
+	private int hashCode;
+
 	public SeesState(Role role, Set<See> sees) {
 		this.role = role;
 		this.sees = sees;
@@ -20,6 +32,7 @@ public class SeesState {
 
 	public void setRole(Role role) {
 		this.role = role;
+		this.hashCode = 0;
 	}
 
 	public Set<See> getSees() {
@@ -27,11 +40,58 @@ public class SeesState {
 	}
 
 	public boolean containsSee(GdlSentence sent) {
-		for (See see : sees) {
-			if (see.getContents().toSentence().equals(sent)) {
-				return true;
+		return getSentences().contains(sent);
+	}
+
+	/**
+	 * Returns the sentences of the sees, for looking up many sees at once.
+	 */
+	public Set<GdlSentence> getSentences() {
+		if (sentences == null) {
+			if (sees == null || sees.isEmpty()) {
+				sentences = Collections.emptySet();
+			} else {
+				Set<GdlSentence> index = new HashSet<GdlSentence>();
+				for (See see : sees) {
+					index.add(see.getContents().toSentence());
+				}
+				sentences = index;
 			}
 		}
-		return false;
+		return sentences;
+	}
+
+	private Set<See> getSeesOrEmpty() {
+		return (sees == null) ? Collections.<See>emptySet() : sees;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SeesState)) {
+			return false;
+		}
+		SeesState other = (SeesState) o;
+		if (hashCode() != other.hashCode()) {
+			return false;
+		}
+		return (role == null ? other.role == null : role.equals(other.role))
+				&& getSeesOrEmpty().equals(other.getSeesOrEmpty());
+	}
+
+	@Override
+	public int hashCode() {
+		if (hashCode == 0) {
+			int h = 31 * (role == null ? 0 : role.hashCode()) + getSeesOrEmpty().hashCode();
+			hashCode = (h == 0) ? 1 : h;
+		}
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return role + ": " + getSeesOrEmpty();
 	}
 }
@@ -175,6 +175,10 @@ public abstract class StateMachine
     // They are implemented for convenience, using the default ways of generating
     // these objects, but they can be overridden to support machine-specific objects.
     public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+        BaseIndex baseIndex = getBaseIndex();
+        if (baseIndex != null) {
+            return baseIndex.createState(sentenceList);
+        }
         return new MachineState(sentenceList);
     }
     public Role getRoleFromConstant(GdlConstant constant) {
@@ -184,6 +188,18 @@ public abstract class StateMachine
         return new Move(term);
     }
 
+    /**
+     * Returns the index of every base sentence that can appear in the states
+     * of this game, or null if the state machine does not know them up front.
+     * When an index is available, {@link #getMachineStateFromSentenceList(Set)}
+     * produces {@link BitSetMachineState}s over it, which are much cheaper to
+     * hash and compare than plain MachineStates. Override this in machines that
+     * enumerate their base propositions, such as propnet-based machines.
+     */
+    public BaseIndex getBaseIndex() {
+        return null;
+    }
+
     // ============================================
     //          Stubs for advanced methods
     // ============================================
@@ -459,6 +475,58 @@ public abstract class StateMachine
         return state;
     }
 
+    /**
+     * Creates the scratch space for depth charges made with
+     * {@link #performDepthCharge(MachineState, DepthChargeContext, int[])},
+     * using the given source of randomness to pick moves. Each thread that
+     * makes depth charges should have its own context.
+     */
+    public DepthChargeContext createDepthChargeContext(Random random) {
+        return new DepthChargeContext(random, getRoles().size());
+    }
+
+    /**
+     * Makes random joint moves from the given state until reaching the end of
+     * the game, and writes the goal value of each role in the terminal state
+     * into theGoals, in the same order as {@link #getRoles()}.
+     * <p>
+     * Unlike {@link #performDepthCharge(MachineState, int[])}, this doesn't
+     * hand back the terminal state, and picks moves with the context's source
+     * of randomness. State machines that can play out a game without creating
+     * states and move lists along the way should override this; the default
+     * implementation works for any state machine, reusing the context's joint
+     * move at every step. State machines that hold on to the move lists given
+     * to {@link #getNextState(MachineState, List)} must override it as well.
+     *
+     * @param context a context created by this state machine's
+     * {@link #createDepthChargeContext(Random)}.
+     * @return the number of joint moves made to reach a terminal state.
+     */
+    public int performDepthCharge(MachineState state, DepthChargeContext context, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        List<Role> roles = getRoles();
+        List<Move> jointMove = context.getJointMove();
+        Random random = context.getRandom();
+        int nDepth = 0;
+        while(!isTerminal(state)) {
+            for (int i = 0; i < roles.size(); i++) {
+                List<Move> legals = getLegalMoves(state, roles.get(i));
+                jointMove.set(i, legals.get(random.nextInt(legals.size())));
+            }
+            // The caller's state must survive, so only later states can be
+            // advanced destructively.
+            if (nDepth == 0) {
+                state = getNextState(state, jointMove);
+            } else {
+                state = getNextStateDestructively(state, jointMove);
+            }
+            nDepth++;
+        }
+        for (int i = 0; i < roles.size(); i++) {
+            theGoals[i] = getGoal(state, roles.get(i));
+        }
+        return nDepth;
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         avgDepth[0] = 0;
         for (int j = 0; j < avgScores.length; j++) {
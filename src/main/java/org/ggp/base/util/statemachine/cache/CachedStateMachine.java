@@ -1,10 +1,13 @@
 package org.ggp.base.util.statemachine.cache;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.BaseIndex;
+import org.ggp.base.util.statemachine.DepthChargeContext;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -15,40 +18,89 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
 import com.google.common.collect.ImmutableList;
 
+/**
+ * CachedStateMachine wraps another state machine, and remembers the answers
+ * it gives about each state.
+ *
+ * By default, entries are kept in a {@link TtlCache}: anything not used since
+ * the previous move is dropped in {@link #doPerMoveWork()}, and nothing is
+ * dropped in between. With {@link #CachedStateMachine(StateMachine, int)},
+ * entries are instead kept in a {@link ClockCache}, which holds a bounded
+ * number of states and can be used by many search threads at once without
+ * locking on reads.
+ *
+ * The answers for each state are stored in arrays indexed by role, and next
+ * states are indexed by joint move: each joint move is numbered by the
+ * positions of its moves in the cached legal move lists. Next states are only
+ * cached once the legal moves of every role in the state have been asked for.
+ */
 public final class CachedStateMachine extends StateMachine
 {
+    /** The largest number of joint moves for which next states are cached. */
+    private static final int MAX_CACHED_JOINT_MOVES = 1 << 12;
+
     private final StateMachine backingStateMachine;
     private final TtlCache<MachineState, Entry> ttlCache;
+    private final ClockCache<MachineState, Entry> clockCache;
 
-    private final class Entry
+    /**
+     * The cached answers for one state. Every field is written at most once
+     * per slot, with a deterministic value, so threads that race to fill in
+     * the same slot do no harm beyond duplicating work.
+     */
+    private static final class Entry
     {
-        public Map<Role, Integer> goals;
-        public Map<Role, List<Move>> actions;
-        public Map<Role, List<Move>> moves;
-        public Map<List<Move>, MachineState> nexts;
-        public Boolean terminal;
+        /** The goal of each role, or -1 if not yet known. */
+        public final int[] goals;
+        public final AtomicReferenceArray<List<Move>> actions;
+        public final AtomicReferenceArray<List<Move>> moves;
+        /** The next state for each joint move index, once all moves are known. */
+        public volatile AtomicReferenceArray<MachineState> nexts;
+        /** 0 if not yet known, 1 if not terminal, 2 if terminal. */
+        public volatile int terminal;
 
-        public Entry()
+        public Entry(int roleCount)
         {
-            goals = new HashMap<Role, Integer>();
-            actions = new HashMap<Role, List<Move>>();
-            moves = new HashMap<Role, List<Move>>();
-            nexts = new HashMap<List<Move>, MachineState>();
-            terminal = null;
+            goals = new int[roleCount];
+            Arrays.fill(goals, -1);
+            actions = new AtomicReferenceArray<List<Move>>(roleCount);
+            moves = new AtomicReferenceArray<List<Move>>(roleCount);
         }
     }
 
     public CachedStateMachine(StateMachine backingStateMachine)
     {
         this.backingStateMachine = backingStateMachine;
-        ttlCache = new TtlCache<MachineState, Entry>(1);
+        this.ttlCache = new TtlCache<MachineState, Entry>(1);
+        this.clockCache = null;
+    }
+
+    /**
+     * Creates a state machine that caches up to maxEntries states at once,
+     * and is safe for concurrent use if the backing state machine is.
+     */
+    public CachedStateMachine(StateMachine backingStateMachine, int maxEntries)
+    {
+        this.backingStateMachine = backingStateMachine;
+        this.ttlCache = null;
+        this.clockCache = new ClockCache<MachineState, Entry>(maxEntries);
     }
 
     private Entry getEntry(MachineState state)
     {
+        if (clockCache != null)
+        {
+            Entry entry = clockCache.get(state);
+            if (entry == null)
+            {
+                entry = clockCache.putIfAbsent(state, new Entry(getRoles().size()));
+            }
+            return entry;
+        }
+
         if (!ttlCache.containsKey(state))
         {
-            ttlCache.put(state, new Entry());
+            ttlCache.put(state, new Entry(getRoles().size()));
         }
 
         return ttlCache.get(state);
@@ -58,76 +110,127 @@ public final class CachedStateMachine extends StateMachine
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        int roleIndex = getRoleIndices().get(role);
+        int goal = entry.goals[roleIndex];
+        if (goal == -1)
         {
-            if (!entry.goals.containsKey(role))
-            {
-                entry.goals.put(role, backingStateMachine.getGoal(state, role));
-            }
-
-            return entry.goals.get(role);
+            goal = backingStateMachine.getGoal(state, role);
+            entry.goals[roleIndex] = goal;
         }
+
+        return goal;
     }
 
     @Override
     public List<Move> findActions(Role role) throws MoveDefinitionException
     {
-    	MachineState initialState = backingStateMachine.getInitialState();
+        MachineState initialState = backingStateMachine.getInitialState();
         Entry entry = getEntry(initialState);
-        synchronized (entry)
+        int roleIndex = getRoleIndices().get(role);
+        List<Move> actions = entry.actions.get(roleIndex);
+        if (actions == null)
         {
-            if (!entry.actions.containsKey(role))
-            {
-                entry.actions.put(role, ImmutableList.copyOf(backingStateMachine.findActions(role)));
-            }
-
-            return entry.actions.get(role);
+            actions = ImmutableList.copyOf(backingStateMachine.findActions(role));
+            entry.actions.set(roleIndex, actions);
         }
+
+        return actions;
     }
 
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        int roleIndex = getRoleIndices().get(role);
+        List<Move> moves = entry.moves.get(roleIndex);
+        if (moves == null)
         {
-            if (!entry.moves.containsKey(role))
+            moves = ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role));
+            // Keep whichever list got there first, so that joint move indices
+            // always refer to the same lists.
+            if (!entry.moves.compareAndSet(roleIndex, null, moves))
             {
-                entry.moves.put(role, ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role)));
+                moves = entry.moves.get(roleIndex);
             }
-
-            return entry.moves.get(role);
         }
+
+        return moves;
     }
 
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        int index = getJointMoveIndex(entry, moves);
+        if (index == -1)
+        {
+            return backingStateMachine.getNextState(state, moves);
+        }
+
+        AtomicReferenceArray<MachineState> nexts = entry.nexts;
+        MachineState next = nexts.get(index);
+        if (next == null)
+        {
+            next = backingStateMachine.getNextState(state, moves);
+            nexts.set(index, next);
+        }
+
+        return next;
+    }
+
+    /**
+     * Returns the index of the given joint move among the joint moves of the
+     * entry's state, or -1 if it cannot be cached: because the legal moves of
+     * some role are not cached yet, because one of the moves is not among
+     * them, or because there are too many joint moves.
+     */
+    private int getJointMoveIndex(Entry entry, List<Move> moves)
+    {
+        if (moves.size() != entry.moves.length())
+            return -1;
+
+        int index = 0;
+        int jointMoveCount = 1;
+        for (int r = 0; r < moves.size(); r++)
         {
-            if (!entry.nexts.containsKey(moves))
+            List<Move> legalMoves = entry.moves.get(r);
+            if (legalMoves == null)
+                return -1;
+            int moveIndex = legalMoves.indexOf(moves.get(r));
+            if (moveIndex == -1)
+                return -1;
+            index += moveIndex * jointMoveCount;
+            jointMoveCount *= legalMoves.size();
+            if (jointMoveCount > MAX_CACHED_JOINT_MOVES)
+                return -1;
+        }
+
+        if (entry.nexts == null)
+        {
+            synchronized (entry)
             {
-                entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
+                if (entry.nexts == null)
+                {
+                    entry.nexts = new AtomicReferenceArray<MachineState>(jointMoveCount);
+                }
             }
-
-            return entry.nexts.get(moves);
         }
+
+        return index;
     }
 
     @Override
     public boolean isTerminal(MachineState state)
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        int terminal = entry.terminal;
+        if (terminal == 0)
         {
-            if (entry.terminal == null)
-            {
-                entry.terminal = backingStateMachine.isTerminal(state);
-            }
-
-            return entry.terminal;
+            terminal = backingStateMachine.isTerminal(state) ? 2 : 1;
+            entry.terminal = terminal;
         }
+
+        return terminal == 2;
     }
 
     @Override
@@ -136,14 +239,56 @@ public final class CachedStateMachine extends StateMachine
         prune();
     }
 
+    /**
+     * Drops the entries that were not used since the previous call. This has
+     * no effect on bounded caches, which evict entries as they go.
+     */
     public void prune()
     {
-        ttlCache.prune();
+        if (ttlCache != null)
+        {
+            ttlCache.prune();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their state in the cache.
+     * Lookups are only counted for bounded caches.
+     */
+    public long getCacheHits()
+    {
+        return (clockCache == null) ? 0 : clockCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of lookups that did not find their state in the
+     * cache. Lookups are only counted for bounded caches.
+     */
+    public long getCacheMisses()
+    {
+        return (clockCache == null) ? 0 : clockCache.getMissCount();
+    }
+
+    /**
+     * Returns the number of states evicted to make room for others. Only
+     * bounded caches evict states.
+     */
+    public long getCacheEvictions()
+    {
+        return (clockCache == null) ? 0 : clockCache.getEvictionCount();
     }
 
     @Override
     public void initialize(List<Gdl> description) {
         backingStateMachine.initialize(description);
+        if (clockCache != null)
+        {
+            clockCache.clear();
+        }
+        else
+        {
+            ttlCache.clear();
+        }
     }
 
     @Override
@@ -157,4 +302,24 @@ public final class CachedStateMachine extends StateMachine
         // TODO(schreib): Should this be cached as well?
         return backingStateMachine.getInitialState();
     }
-}
\ No newline at end of file
+
+    @Override
+    public BaseIndex getBaseIndex() {
+        return backingStateMachine.getBaseIndex();
+    }
+
+    /**
+     * Depth charges go straight to the backing state machine: the states they
+     * pass through are rarely seen again, and would only push useful entries
+     * out of the cache.
+     */
+    @Override
+    public DepthChargeContext createDepthChargeContext(Random random) {
+        return backingStateMachine.createDepthChargeContext(random);
+    }
+
+    @Override
+    public int performDepthCharge(MachineState state, DepthChargeContext context, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        return backingStateMachine.performDepthCharge(state, context, theGoals);
+    }
+}
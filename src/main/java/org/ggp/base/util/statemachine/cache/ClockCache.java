@@ -0,0 +1,188 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a concurrent, size-bounded cache that maps keys of type K to
+ * values of type V, evicting entries with the CLOCK algorithm (an
+ * approximation of least-recently-used).
+ *
+ * The cache is split into stripes by key hash. Each stripe keeps its entries
+ * in a ring, with a hand that sweeps around it looking for an entry to evict:
+ * entries that have been read since the hand last passed them get a second
+ * chance, and the first one that hasn't is evicted. Reads never lock; they
+ * only set the entry's reference bit. Inserts lock only their own stripe.
+ *
+ * The cache counts hits, misses and evictions, which can be read at any time
+ * while it is in use.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class ClockCache<K, V>
+{
+    private static final class Node<K, V>
+    {
+        public final K key;
+        public final V value;
+        public volatile boolean referenced;
+
+        public Node(K key, V value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final class Stripe
+    {
+        private final Node<K, V>[] ring;
+        private int hand;
+
+        public final AtomicLong hits = new AtomicLong();
+        public final AtomicLong misses = new AtomicLong();
+        public final AtomicLong evictions = new AtomicLong();
+
+        public Stripe(int capacity)
+        {
+            @SuppressWarnings("unchecked")
+            Node<K, V>[] ring = (Node<K, V>[]) new Node<?, ?>[capacity];
+            this.ring = ring;
+        }
+
+        public synchronized V putIfAbsent(K key, V value)
+        {
+            Node<K, V> node = new Node<K, V>(key, value);
+            Node<K, V> existing = contents.putIfAbsent(key, node);
+            if (existing != null)
+                return existing.value;
+
+            while (true) {
+                Node<K, V> victim = ring[hand];
+                if (victim == null)
+                    break;
+                if (!victim.referenced) {
+                    contents.remove(victim.key, victim);
+                    evictions.incrementAndGet();
+                    break;
+                }
+                victim.referenced = false;
+                hand = (hand + 1) % ring.length;
+            }
+            ring[hand] = node;
+            hand = (hand + 1) % ring.length;
+            return value;
+        }
+
+        public synchronized void clear()
+        {
+            for (int i = 0; i < ring.length; i++) {
+                if (ring[i] != null)
+                    contents.remove(ring[i].key, ring[i]);
+                ring[i] = null;
+            }
+            hand = 0;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> contents;
+    private final Stripe[] stripes;
+
+    /**
+     * Creates a cache that holds at most roughly maxEntries entries, striped
+     * for the number of available processors.
+     */
+    public ClockCache(int maxEntries)
+    {
+        this(maxEntries, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ClockCache(int maxEntries, int stripeCount)
+    {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("A cache must have room for at least one entry");
+        stripeCount = Math.max(1, Math.min(stripeCount, maxEntries));
+        this.contents = new ConcurrentHashMap<K, Node<K, V>>(maxEntries, 0.75f, stripeCount);
+        @SuppressWarnings("unchecked")
+        Stripe[] stripes = (Stripe[]) new ClockCache<?, ?>.Stripe[stripeCount];
+        this.stripes = stripes;
+        for (int i = 0; i < stripeCount; i++) {
+            // Spread the remainder so that the capacities add up to maxEntries.
+            int capacity = maxEntries / stripeCount + ((i < maxEntries % stripeCount) ? 1 : 0);
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    private Stripe getStripe(Object key)
+    {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return stripes[(h & 0x7FFFFFFF) % stripes.length];
+    }
+
+    /**
+     * Returns the value for the given key, or null if it is not cached.
+     */
+    public V get(K key)
+    {
+        Node<K, V> node = contents.get(key);
+        Stripe stripe = getStripe(key);
+        if (node == null) {
+            stripe.misses.incrementAndGet();
+            return null;
+        }
+        stripe.hits.incrementAndGet();
+        // Avoid dirtying the cache line when the bit is already set.
+        if (!node.referenced)
+            node.referenced = true;
+        return node.value;
+    }
+
+    /**
+     * Adds the given value for the given key, evicting another entry if the
+     * key's stripe is full. If the key is already cached, the cached value is
+     * left alone. Either way, returns the value now cached for the key.
+     */
+    public V putIfAbsent(K key, V value)
+    {
+        return getStripe(key).putIfAbsent(key, value);
+    }
+
+    public int size()
+    {
+        return contents.size();
+    }
+
+    public void clear()
+    {
+        for (Stripe stripe : stripes)
+            stripe.clear();
+    }
+
+    public long getHitCount()
+    {
+        long total = 0;
+        for (Stripe stripe : stripes)
+            total += stripe.hits.get();
+        return total;
+    }
+
+    public long getMissCount()
+    {
+        long total = 0;
+        for (Stripe stripe : stripes)
+            total += stripe.misses.get();
+        return total;
+    }
+
+    public long getEvictionCount()
+    {
+        long total = 0;
+        for (Stripe stripe : stripes)
+            total += stripe.evictions.get();
+        return total;
+    }
+}
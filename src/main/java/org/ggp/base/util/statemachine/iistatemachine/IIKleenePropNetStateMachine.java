@@ -0,0 +1,693 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.FlatPropNet;
+import org.ggp.base.util.propnet.architecture.IIPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.See;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine for incomplete information games that evaluates
+ * the network in Kleene's three-valued logic, where each component is true,
+ * false or unknown. It answers the same queries as the
+ * {@link IISamplePropNetStateMachine}, but works on a {@link FlatPropNet}:
+ * every component has a dense index, and the truth values of the whole
+ * network are held in two bit vectors, one saying which components are
+ * known and the other which of those are true. A single sweep over the
+ * network's topological order computes everything that follows from what
+ * is known.
+ *
+ * The machine keeps a belief about the current state of the game. Each new
+ * SeesState advances the belief by one turn: the base propositions of the
+ * next state are computed from the current belief and this player's own
+ * move (the other players' moves being unknown), and the sees of the new
+ * turn are then propagated backwards through the network to learn more
+ * about the state. {@link #beginTurn} advances the belief for each new
+ * turn; questions about a sees state and move equal to the current turn's
+ * are answered from the belief as it is, and those about any other sees
+ * state and move advance it first, or start over from the initial state
+ * when there is no move. {@link #resetBelief} starts over explicitly.
+ * Advancing the same belief by the same move and sees again, as happens
+ * when the same observations recur, is answered from a cache.
+ */
+public class IIKleenePropNetStateMachine extends IIStateMachine {
+
+	private StateMachine normalStateMachine;
+	private IIPropNet iipropNet;
+	private FlatPropNet propNet;
+	private List<Role> roles;
+	private Map<Role, Integer> roleIndices;
+
+	private int[] types;
+	private int[] inputOffsets;
+	private int[] inputs;
+	private int[] ordering;
+	private int[] blockOffsets;
+	private boolean[] cyclicBlocks;
+	private boolean[] constantValues;
+
+	/** The belief about the current state: which components are known, and which of those are true. */
+	private long[] known;
+	private long[] value;
+	/** The components whose values were deduced from this turn's sees. */
+	private long[] forcedKnown;
+	private long[] forcedValue;
+	/** The sees state and move of the turn that the belief is for. */
+	private SeesState lastSeesState;
+	private Move lastMove;
+
+	/** The position of each of a role's sees sentences in its sees bits. */
+	private List<Map<GdlSentence, Integer>> seesIndices;
+	/**
+	 * Beliefs reached by advancing earlier beliefs by one turn, so that the
+	 * same belief, move and sees never have to be propagated twice.
+	 */
+	private Map<BeliefKey, long[][]> beliefCache;
+	private static final int MAX_CACHED_BELIEFS = 1024;
+
+	/**
+	 * A belief together with a move and sees that advance it, all packed into
+	 * a single array, with its hash computed once.
+	 */
+	private static final class BeliefKey {
+		private final long[] contents;
+		private final int hashCode;
+
+		private BeliefKey(long[] contents) {
+			this.contents = contents;
+			this.hashCode = Arrays.hashCode(contents);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof BeliefKey) && hashCode == ((BeliefKey) o).hashCode
+					&& Arrays.equals(contents, ((BeliefKey) o).contents);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	@Override
+	public void initialize(StateMachine stateMachine, List<Gdl> description) throws InterruptedException {
+		normalStateMachine = stateMachine;
+		PropNet originalPropNet = OptimizingPropNetFactory.create(description);
+		iipropNet = new IIPropNet(originalPropNet);
+		propNet = new FlatPropNet(originalPropNet);
+		roles = propNet.getRoles();
+		roleIndices = new HashMap<Role, Integer>();
+		for (int i = 0; i < roles.size(); i++) {
+			roleIndices.put(roles.get(i), i);
+		}
+
+		types = propNet.getTypes();
+		inputOffsets = propNet.getInputOffsets();
+		inputs = propNet.getInputs();
+		ordering = propNet.getOrdering();
+		blockOffsets = propNet.getBlockOffsets();
+		cyclicBlocks = propNet.getCyclicBlocks();
+		constantValues = propNet.createValues();
+
+		int words = (propNet.getComponentCount() + 63) / 64;
+		known = new long[words];
+		value = new long[words];
+		forcedKnown = new long[words];
+		forcedValue = new long[words];
+		seesIndices = new ArrayList<Map<GdlSentence, Integer>>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			Map<GdlSentence, Integer> indices = new HashMap<GdlSentence, Integer>();
+			List<GdlSentence> sentences = propNet.getSeesSentences(r);
+			for (int i = 0; i < sentences.size(); i++) {
+				indices.put(sentences.get(i), i);
+			}
+			seesIndices.add(indices);
+		}
+		beliefCache = new LinkedHashMap<BeliefKey, long[][]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BeliefKey, long[][]> eldest) {
+				return size() > MAX_CACHED_BELIEFS;
+			}
+		};
+		setBelief(getInitialState());
+	}
+
+	@Override
+	public IIPropNet getIIPropNet() {
+		return iipropNet;
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		return normalStateMachine.getGoal(state, role);
+	}
+
+	/**
+	 * Returns the goal value of each role that is known in the belief for
+	 * the given sees, or -1 for roles whose goal is unknown. If the sees
+	 * state is not the current turn's, it is taken to follow the current
+	 * turn with this player's own move unknown, as happens when the game
+	 * ends. The belief itself is left as it was.
+	 */
+	@Override
+	public List<Integer> getGoals(SeesState seesState) throws GoalDefinitionException {
+		if (seesState.equals(lastSeesState)) {
+			return readGoals();
+		}
+		long[][] saved = {known.clone(), value.clone(), forcedKnown.clone(), forcedValue.clone()};
+		advanceTurn(roleIndices.get(seesState.getRole()), null, seesState);
+		List<Integer> goals = readGoals();
+		System.arraycopy(saved[0], 0, known, 0, known.length);
+		System.arraycopy(saved[1], 0, value, 0, value.length);
+		System.arraycopy(saved[2], 0, forcedKnown, 0, forcedKnown.length);
+		System.arraycopy(saved[3], 0, forcedValue, 0, forcedValue.length);
+		return goals;
+	}
+
+	private List<Integer> readGoals() {
+		List<Integer> goals = new ArrayList<Integer>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			int[] goalProps = propNet.getGoalPropositions(r);
+			int goal = -1;
+			for (int i = 0; i < goalProps.length; i++) {
+				if (isTrue(value, goalProps[i])) {
+					goal = (goal == -1) ? propNet.getGoalValues(r)[i] : -1;
+					if (goal == -1)
+						break;
+				}
+			}
+			goals.add(goal);
+		}
+		return goals;
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		return normalStateMachine.isTerminal(state);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return roles;
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		return normalStateMachine.getInitialState();
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		return normalStateMachine.getNextState(state, moves);
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		return normalStateMachine.getLegalMoves(state, role);
+	}
+
+	@Override
+	public List<Move> getLegalMoves(SeesState seesState, Move move) throws MoveDefinitionException {
+		advance(seesState, move);
+		return getMoves(seesState.getRole(), true);
+	}
+
+	@Override
+	public List<Move> getLegalMoves(SeesState seesState) throws MoveDefinitionException {
+		return getLegalMoves(seesState, null);
+	}
+
+	@Override
+	public List<Move> refineLegalMoves(SeesState seesState, Move move, Role role) {
+		advance(seesState, move);
+		return getMoves(role, false);
+	}
+
+	@Override
+	public List<Move> refineLegalMoves(SeesState seesState, Role role) {
+		return refineLegalMoves(seesState, null, role);
+	}
+
+	@Override
+	public SeesState getSeesState(MachineState state, Role role) {
+		int roleIndex = roleIndices.get(role);
+		if (propNet.getSeesPropositions(roleIndex).length == 0) {
+			return new SeesState(role, null);
+		}
+		return readSees(evaluateState(state), role, roleIndex);
+	}
+
+	@Override
+	public List<SeesState> getSeesStates(MachineState state) {
+		long[] stateValue = evaluateState(state);
+		List<SeesState> seesStates = new ArrayList<SeesState>(roles.size());
+		for (int i = 0; i < roles.size(); i++) {
+			seesStates.add(readSees(stateValue, roles.get(i), i));
+		}
+		return seesStates;
+	}
+
+	/**
+	 * Evaluates the state on its own, with no moves, without disturbing the
+	 * belief, and returns the values of the components.
+	 */
+	private long[] evaluateState(MachineState state) {
+		long[] stateKnown = new long[known.length];
+		long[] stateValue = new long[value.length];
+		loadState(state, stateKnown, stateValue);
+		for (int input : propNet.getInputPropositions()) {
+			set(stateKnown, stateValue, input, false);
+		}
+		sweep(stateKnown, stateValue, null, null);
+		return stateValue;
+	}
+
+	private SeesState readSees(long[] stateValue, Role role, int roleIndex) {
+		int[] seesProps = propNet.getSeesPropositions(roleIndex);
+		Set<See> sees = new HashSet<See>();
+		List<GdlSentence> sentences = propNet.getSeesSentences(roleIndex);
+		for (int i = 0; i < seesProps.length; i++) {
+			if (isTrue(stateValue, seesProps[i])) {
+				sees.add(new See(role, sentences.get(i).toTerm()));
+			}
+		}
+		return new SeesState(role, sees);
+	}
+
+	/**
+	 * Returns the moves of the role that are known to be legal, or that are
+	 * not known to be illegal.
+	 */
+	private List<Move> getMoves(Role role, boolean onlyKnown) {
+		int roleIndex = roleIndices.get(role);
+		int[] legalProps = propNet.getLegalPropositions(roleIndex);
+		List<Move> legalMoves = propNet.getLegalMoves(roleIndex);
+		List<Move> moves = new ArrayList<Move>();
+		for (int i = 0; i < legalProps.length; i++) {
+			int legal = legalProps[i];
+			boolean possible = onlyKnown ? isTrue(value, legal) : !isFalse(known, value, legal);
+			if (possible) {
+				moves.add(legalMoves.get(i));
+			}
+		}
+		return moves;
+	}
+
+	/**
+	 * Starts over from the initial state, with nothing seen.
+	 */
+	public void resetBelief() {
+		setBelief(getInitialState());
+	}
+
+	/**
+	 * Advances the belief to the new turn, even if its sees state and move
+	 * are equal to the previous turn's.
+	 */
+	@Override
+	public void beginTurn(SeesState seesState, Move move) {
+		advanceBelief(seesState, move);
+	}
+
+	/**
+	 * Makes the given state, with nothing known about the moves, the belief.
+	 */
+	private void setBelief(MachineState state) {
+		Arrays.fill(forcedKnown, 0);
+		Arrays.fill(forcedValue, 0);
+		loadState(state, known, value);
+		sweep(known, value, null, null);
+		lastSeesState = null;
+		lastMove = null;
+	}
+
+	/**
+	 * Advances the belief to the turn of the given sees state, unless the
+	 * belief is already for that sees state and move.
+	 */
+	private void advance(SeesState seesState, Move move) {
+		boolean sameSees = (seesState == null) ? lastSeesState == null : seesState.equals(lastSeesState);
+		boolean sameMove = (move == null) ? lastMove == null : move.equals(lastMove);
+		if (!sameSees || !sameMove) {
+			advanceBelief(seesState, move);
+		}
+	}
+
+	/**
+	 * Advances the belief to the turn that the given sees state was seen in,
+	 * given the role's own move on the previous turn. A missing move means
+	 * that the sees state is for the first turn of the game.
+	 */
+	private void advanceBelief(SeesState seesState, Move move) {
+		if (move == null || seesState == null) {
+			setBelief(getInitialState());
+			if (seesState != null) {
+				int roleIndex = roleIndices.get(seesState.getRole());
+				applySees(roleIndex, getSeesBits(roleIndex, seesState));
+			}
+		} else {
+			advanceTurn(roleIndices.get(seesState.getRole()), move, seesState);
+		}
+		lastSeesState = seesState;
+		lastMove = move;
+	}
+
+	/**
+	 * Moves the belief on to the next turn and applies that turn's sees,
+	 * reusing the result from the cache if this belief has been advanced by
+	 * the same move and sees before.
+	 */
+	private void advanceTurn(int roleIndex, Move move, SeesState seesState) {
+		long[] seen = getSeesBits(roleIndex, seesState);
+		int words = known.length;
+		long[] contents = new long[4 * words + seen.length + 2];
+		System.arraycopy(known, 0, contents, 0, words);
+		System.arraycopy(value, 0, contents, words, words);
+		System.arraycopy(forcedKnown, 0, contents, 2 * words, words);
+		System.arraycopy(forcedValue, 0, contents, 3 * words, words);
+		System.arraycopy(seen, 0, contents, 4 * words, seen.length);
+		contents[contents.length - 2] = roleIndex;
+		contents[contents.length - 1] = (move == null) ? -2 : propNet.getInputIndex(roleIndex, move);
+		BeliefKey key = new BeliefKey(contents);
+
+		long[][] cached = beliefCache.get(key);
+		if (cached == null) {
+			step(roleIndex, move);
+			applySees(roleIndex, seen);
+			beliefCache.put(key, new long[][] {known.clone(), value.clone(), forcedKnown.clone(), forcedValue.clone()});
+		} else {
+			System.arraycopy(cached[0], 0, known, 0, words);
+			System.arraycopy(cached[1], 0, value, 0, words);
+			System.arraycopy(cached[2], 0, forcedKnown, 0, words);
+			System.arraycopy(cached[3], 0, forcedValue, 0, words);
+		}
+	}
+
+	/**
+	 * Returns the sees as bits over the role's sees propositions.
+	 */
+	private long[] getSeesBits(int roleIndex, SeesState seesState) {
+		long[] bits = new long[(propNet.getSeesPropositions(roleIndex).length + 63) / 64];
+		Map<GdlSentence, Integer> indices = seesIndices.get(roleIndex);
+		for (GdlSentence sentence : seesState.getSentences()) {
+			Integer index = indices.get(sentence);
+			if (index != null) {
+				bits[index >>> 6] |= 1L << index;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Moves the belief on to the next turn, given the role's own move on the
+	 * current turn, if it is known, with the other roles' moves unknown.
+	 */
+	private void step(int roleIndex, Move move) {
+		// Sweep the current turn again with the role's own move filled in, and
+		// read off what is known about each base proposition's next value.
+		for (int input : propNet.getInputPropositions()) {
+			clear(known, value, input);
+		}
+		if (move != null) {
+			for (Move legalMove : propNet.getLegalMoves(roleIndex)) {
+				int inputIndex = propNet.getInputIndex(roleIndex, legalMove);
+				if (inputIndex != -1) {
+					set(known, value, propNet.getInputPropositions()[inputIndex], legalMove.equals(move));
+				}
+			}
+		}
+		sweep(known, value, forcedKnown, forcedValue);
+		int[] bases = propNet.getBasePropositions();
+		int[] baseSources = propNet.getBaseSources();
+		long[] nextKnown = new long[known.length];
+		long[] nextValue = new long[value.length];
+		for (int i = 0; i < bases.length; i++) {
+			int source = baseSources[i];
+			if (isTrue(known, source)) {
+				set(nextKnown, nextValue, bases[i], isTrue(value, source));
+			}
+		}
+
+		// Start the new turn from those base propositions alone.
+		System.arraycopy(nextKnown, 0, known, 0, known.length);
+		System.arraycopy(nextValue, 0, value, 0, value.length);
+		Arrays.fill(forcedKnown, 0);
+		Arrays.fill(forcedValue, 0);
+		loadSources(known, value);
+		sweep(known, value, null, null);
+	}
+
+	/**
+	 * Forces the role's sees propositions to what was seen, and propagates
+	 * that through the network until nothing more follows.
+	 */
+	private void applySees(int roleIndex, long[] seen) {
+		int[] seesProps = propNet.getSeesPropositions(roleIndex);
+		boolean changed = false;
+		for (int i = 0; i < seesProps.length; i++) {
+			changed |= force(seesProps[i], isTrue(seen, i));
+		}
+		while (changed) {
+			sweep(known, value, forcedKnown, forcedValue);
+			changed = propagateForced();
+		}
+	}
+
+	/**
+	 * Makes one backwards pass over the network, deducing the values of the
+	 * inputs of each component whose value has been forced. Returns whether
+	 * anything new was forced.
+	 */
+	private boolean propagateForced() {
+		boolean changed = false;
+		for (int i = ordering.length - 1; i >= 0; i--) {
+			int c = ordering[i];
+			if (!isTrue(forcedKnown, c))
+				continue;
+			boolean v = isTrue(forcedValue, c);
+			int start = inputOffsets[c];
+			int end = inputOffsets[c + 1];
+			switch (types[c]) {
+			case FlatPropNet.TYPE_NOT:
+				changed |= force(inputs[start], !v);
+				break;
+			case FlatPropNet.TYPE_AND:
+				changed |= forceInputs(start, end, v, true);
+				break;
+			case FlatPropNet.TYPE_OR:
+			case FlatPropNet.TYPE_PROPOSITION:
+				changed |= forceInputs(start, end, v, false);
+				break;
+			default:
+				break;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Deduces the inputs of an and (or of an or, if isAnd is false) from its
+	 * forced value: every input, if the value is the one that all the inputs
+	 * must share, and otherwise the one input that is not yet known to have
+	 * the other value, if there is only one.
+	 */
+	private boolean forceInputs(int start, int end, boolean v, boolean isAnd) {
+		if (v == isAnd) {
+			boolean changed = false;
+			for (int i = start; i < end; i++) {
+				changed |= force(inputs[i], v);
+			}
+			return changed;
+		}
+		int candidate = -1;
+		for (int i = start; i < end; i++) {
+			int in = inputs[i];
+			if (isTrue(known, in) && isTrue(value, in) == isAnd)
+				continue;
+			if (candidate != -1)
+				return false;
+			candidate = in;
+		}
+		return candidate != -1 && force(candidate, v);
+	}
+
+	/** Forces the value of a component, returning whether it was not already forced. */
+	private boolean force(int c, boolean v) {
+		if (isTrue(forcedKnown, c) || types[c] == FlatPropNet.TYPE_CONSTANT)
+			return false;
+		set(forcedKnown, forcedValue, c, v);
+		return true;
+	}
+
+	/**
+	 * Loads a fully known state into the vectors, with the moves unknown.
+	 */
+	private void loadState(MachineState state, long[] known, long[] value) {
+		Arrays.fill(known, 0);
+		Arrays.fill(value, 0);
+		Set<GdlSentence> contents = state.getContents();
+		int[] bases = propNet.getBasePropositions();
+		for (int i = 0; i < bases.length; i++) {
+			set(known, value, bases[i], contents.contains(propNet.getBaseIndex().getSentence(i)));
+		}
+		loadSources(known, value);
+	}
+
+	/** Sets the constants, and the init proposition to false. */
+	private void loadSources(long[] known, long[] value) {
+		for (int c = 0; c < constantValues.length; c++) {
+			if (types[c] == FlatPropNet.TYPE_CONSTANT) {
+				set(known, value, c, constantValues[c]);
+			}
+		}
+		int init = propNet.getInitProposition();
+		if (init != -1) {
+			set(known, value, init, false);
+		}
+	}
+
+	/**
+	 * Computes the three-valued value of every non-source component from
+	 * the sources in the vectors. Forced values, if given, override both the
+	 * sources and the computed values.
+	 */
+	private void sweep(long[] known, long[] value, long[] forcedKnown, long[] forcedValue) {
+		if (forcedKnown != null) {
+			for (int w = 0; w < known.length; w++) {
+				known[w] |= forcedKnown[w];
+				value[w] = (value[w] & ~forcedKnown[w]) | forcedValue[w];
+			}
+		}
+		for (int b = 0; b < cyclicBlocks.length; b++) {
+			int start = blockOffsets[b];
+			int end = blockOffsets[b + 1];
+			if (!cyclicBlocks[b]) {
+				evaluate(ordering[start], known, value, forcedKnown, forcedValue);
+				continue;
+			}
+			// A cycle has both its certainly-true and its possibly-true
+			// components grow from nothing to their least fixed point, so it
+			// starts out known to be false.
+			for (int i = start; i < end; i++) {
+				set(known, value, ordering[i], false);
+			}
+			boolean changed = true;
+			for (int pass = 0; changed && pass <= 2 * (end - start); pass++) {
+				changed = false;
+				for (int i = start; i < end; i++) {
+					changed |= evaluate(ordering[i], known, value, forcedKnown, forcedValue);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the value of a component from its inputs, and returns whether
+	 * it changed. A component is certainly true if it is known and true, and
+	 * possibly true unless it is known and false.
+	 */
+	private boolean evaluate(int c, long[] known, long[] value, long[] forcedKnown, long[] forcedValue) {
+		int word = c >>> 6;
+		long bit = 1L << c;
+		boolean certainlyTrue;
+		boolean possiblyTrue;
+		if (forcedKnown != null && (forcedKnown[word] & bit) != 0) {
+			certainlyTrue = possiblyTrue = (forcedValue[word] & bit) != 0;
+		} else {
+			int start = inputOffsets[c];
+			int end = inputOffsets[c + 1];
+			switch (types[c]) {
+			case FlatPropNet.TYPE_AND:
+				certainlyTrue = true;
+				possiblyTrue = true;
+				for (int i = start; i < end && possiblyTrue; i++) {
+					int in = inputs[i];
+					long inBit = 1L << in;
+					boolean inKnown = (known[in >>> 6] & inBit) != 0;
+					boolean inValue = (value[in >>> 6] & inBit) != 0;
+					certainlyTrue &= inValue;
+					possiblyTrue &= inValue || !inKnown;
+				}
+				certainlyTrue &= possiblyTrue;
+				break;
+			case FlatPropNet.TYPE_NOT: {
+				int in = inputs[start];
+				long inBit = 1L << in;
+				boolean inKnown = (known[in >>> 6] & inBit) != 0;
+				boolean inValue = (value[in >>> 6] & inBit) != 0;
+				certainlyTrue = inKnown && !inValue;
+				possiblyTrue = !inValue;
+				break;
+			}
+			case FlatPropNet.TYPE_CONSTANT:
+				certainlyTrue = possiblyTrue = constantValues[c];
+				break;
+			default:
+				// Propositions, ors and transitions are all true if any input is.
+				certainlyTrue = false;
+				possiblyTrue = false;
+				for (int i = start; i < end && !certainlyTrue; i++) {
+					int in = inputs[i];
+					long inBit = 1L << in;
+					boolean inKnown = (known[in >>> 6] & inBit) != 0;
+					boolean inValue = (value[in >>> 6] & inBit) != 0;
+					certainlyTrue |= inValue;
+					possiblyTrue |= inValue || !inKnown;
+				}
+				possiblyTrue |= certainlyTrue;
+				break;
+			}
+		}
+		long oldKnown = known[word] & bit;
+		long oldValue = value[word] & bit;
+		long newKnown = (certainlyTrue || !possiblyTrue) ? bit : 0;
+		long newValue = certainlyTrue ? bit : 0;
+		known[word] = (known[word] & ~bit) | newKnown;
+		value[word] = (value[word] & ~bit) | newValue;
+		return oldKnown != newKnown || oldValue != newValue;
+	}
+
+	private static boolean isTrue(long[] bits, int c) {
+		return (bits[c >>> 6] & (1L << c)) != 0;
+	}
+
+	private static boolean isFalse(long[] known, long[] value, int c) {
+		return isTrue(known, c) && !isTrue(value, c);
+	}
+
+	private static void set(long[] known, long[] value, int c, boolean v) {
+		known[c >>> 6] |= 1L << c;
+		if (v) {
+			value[c >>> 6] |= 1L << c;
+		} else {
+			value[c >>> 6] &= ~(1L << c);
+		}
+	}
+
+	private static void clear(long[] known, long[] value, int c) {
+		known[c >>> 6] &= ~(1L << c);
+		value[c >>> 6] &= ~(1L << c);
+	}
+}
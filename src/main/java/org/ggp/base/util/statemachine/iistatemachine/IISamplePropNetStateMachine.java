@@ -1,8 +1,12 @@
 package org.ggp.base.util.statemachine.iistatemachine;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,17 +50,76 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 	private List<Role> roles;
 	private List<Proposition> ordering;
 	private StateMachine normalStateMachine;
-	private List<Proposition> seesPropagationProps;
 	private Map<Proposition, Double> knownProps;
 	private Set<Proposition> trueProps;
 
+	/** The components each role's queries look at, worked out once up front. */
+	private Map<Role, RoleIndex> roleIndices;
+	private Set<Proposition> inputPropositions;
+	/** Every proposition whose ii-value has been set to something other than unknown since it was last reset. */
+	private Set<Proposition> dirtyProps;
+	private double[] knownValues;
+	/** The sees of every role in recently queried states, least recently used first. */
+	private Map<MachineState, List<Set<See>>> seesCache;
+	private static final int MAX_CACHED_SEES = 1024;
+
+	/**
+	 * The transitions whose values are carried over to the next turn when
+	 * a role queries the propnet, along with the role's legal propositions
+	 * and their moves.
+	 */
+	private static final class RoleIndex {
+		private final Proposition[] knownBases;
+		private final Component[] knownSources;
+		private final Proposition[] legals;
+		private final Move[] legalMoves;
+
+		private RoleIndex(List<Transition> transitions, Set<Proposition> legalProps) {
+			knownBases = new Proposition[transitions.size()];
+			knownSources = new Component[transitions.size()];
+			for (int i = 0; i < transitions.size(); i++) {
+				Transition t = transitions.get(i);
+				if (t.getOutputs().size() > 1) System.out.println("NABIIPNSM: Transition found with more than one base proposition.");
+				knownBases[i] = (Proposition) t.getSingleOutput();
+				knownSources[i] = t.getSingleInput();
+			}
+			legals = legalProps.toArray(new Proposition[legalProps.size()]);
+			legalMoves = new Move[legals.length];
+			for (int i = 0; i < legals.length; i++) {
+				legalMoves[i] = getMoveFromProposition(legals[i]);
+			}
+		}
+	}
+
 	@Override
 	public void initialize(StateMachine stateMachine, List<Gdl> description) throws InterruptedException {
 		normalStateMachine = stateMachine;
 		PropNet originalPropNet = OptimizingPropNetFactory.create(description);
 		iipropNet = new IIPropNet(originalPropNet);
 		roles = iipropNet.getRoles();
-		seesPropagationProps = new ArrayList<Proposition>();
+		knownProps = new HashMap<Proposition, Double>();
+		trueProps = new HashSet<Proposition>();
+		inputPropositions = new HashSet<Proposition>(iipropNet.getInputPropositions().values());
+		dirtyProps = new HashSet<Proposition>(iipropNet.getPropositions());
+
+		roleIndices = new HashMap<Role, RoleIndex>();
+		int maxKnown = 0;
+		for (Role role : roles) {
+			List<Transition> transitions = new ArrayList<Transition>(iipropNet.getNonDoesTransitions());
+			transitions.addAll(iipropNet.getDoesTransitions().get(role));
+			RoleIndex index = new RoleIndex(transitions, iipropNet.getLegalPropositions().get(role));
+			roleIndices.put(role, index);
+			maxKnown = Math.max(maxKnown, index.knownBases.length);
+		}
+		knownValues = new double[maxKnown];
+		seesCache = new LinkedHashMap<MachineState, List<Set<See>>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<MachineState, List<Set<See>>> eldest) {
+				return size() > MAX_CACHED_SEES;
+			}
+		};
 	}
 
 	@Override
@@ -118,52 +181,65 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 	public List<Move> getLegalMoves(SeesState seesState, Move move) throws MoveDefinitionException {
 
 		setPropNetState(seesState, move);
-		List<Move> moves = new ArrayList<Move>();
-
-		for (Proposition prop : iipropNet.getLegalPropositions().get(seesState.getRole())) {
-			if (propMark(prop) == 1) {
-				Move m = new Move(prop.getName().getBody().get(1));
-				moves.add(m);
-			}
-		}
-		return moves;
+		return getKnownLegalMoves(seesState.getRole());
 	}
 
 	@Override
 	public List<Move> getLegalMoves(SeesState seesState) throws MoveDefinitionException {
 
 		setPropNetState(seesState);
-		List<Move> moves = new ArrayList<Move>();
-		for (Proposition prop : iipropNet.getLegalPropositions().get(seesState.getRole())) {
-			if (propMark(prop) == 1) {
-				Move m = new Move(prop.getName().getBody().get(1));
-				moves.add(m);
-			}
-		}
-		return moves;
+		return getKnownLegalMoves(seesState.getRole());
 	}
 
-	// could be done more efficiently by specifying whether the propnet needs to be reset.
-	// As it is now, the propnet is reset every time legal moves are queried.
+	// The propnet is reset every time legal moves are queried, so asking about
+	// several roles is best done with refineLegalMovesForAllRoles.
 	@Override
 	public List<Move> refineLegalMoves(SeesState seesState, Move move, Role role) {
 		setPropNetState(seesState, move);
+		return getPossibleLegalMoves(role);
+	}
+
+	@Override
+	public List<Move> refineLegalMoves(SeesState seesState, Role role) {
+		setPropNetState(seesState);
+		return getPossibleLegalMoves(role);
+	}
+
+	/**
+	 * Refines the legal moves of every role after a single reset and
+	 * propagation of the sees state.
+	 */
+	@Override
+	public List<List<Move>> refineLegalMovesForAllRoles(SeesState seesState, Move move) {
+		if (move == null) {
+			setPropNetState(seesState);
+		} else {
+			setPropNetState(seesState, move);
+		}
+		List<List<Move>> moves = new ArrayList<List<Move>>(roles.size());
+		for (Role role : roles) {
+			moves.add(getPossibleLegalMoves(role));
+		}
+		return moves;
+	}
+
+	private List<Move> getKnownLegalMoves(Role role) {
+		RoleIndex index = roleIndices.get(role);
 		List<Move> moves = new ArrayList<Move>();
-		for (Proposition prop : iipropNet.getLegalPropositions().get(role)) {
-			if (!(propMark(prop) == 0)) {
-				moves.add(getMoveFromProposition(prop));
+		for (int i = 0; i < index.legals.length; i++) {
+			if (propMark(index.legals[i]) == 1) {
+				moves.add(index.legalMoves[i]);
 			}
 		}
 		return moves;
 	}
 
-	@Override
-	public List<Move> refineLegalMoves(SeesState seesState, Role role) {
-		setPropNetState(seesState);
+	private List<Move> getPossibleLegalMoves(Role role) {
+		RoleIndex index = roleIndices.get(role);
 		List<Move> moves = new ArrayList<Move>();
-		for (Proposition prop : iipropNet.getLegalPropositions().get(role)) {
-			if (!(propMark(prop) == 0)) {
-				moves.add(getMoveFromProposition(prop));
+		for (int i = 0; i < index.legals.length; i++) {
+			if (!(propMark(index.legals[i]) == 0)) {
+				moves.add(index.legalMoves[i]);
 			}
 		}
 		return moves;
@@ -193,19 +269,49 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 
 	@Override
 	public SeesState getSeesState(MachineState state, Role role) {
+		return new SeesState(role, getSees(state).get(roles.indexOf(role)));
+	}
+
+	@Override
+	public List<SeesState> getSeesStates(MachineState state) {
+		List<Set<See>> sees = getSees(state);
+		List<SeesState> seesStates = new ArrayList<SeesState>(roles.size());
+		for (int i = 0; i < roles.size(); i++) {
+			seesStates.add(new SeesState(roles.get(i), sees.get(i)));
+		}
+		return seesStates;
+	}
 
+	// Works out the sees of every role in one pass over the propnet, sharing the
+	// values of components that feed the sees of several roles, and remembers
+	// them for the state. Callers get a new SeesState each time, since some
+	// machines tell turns apart by SeesState identity. The bases are marked
+	// even when the sees are cached, as later refining queries start from the
+	// last state marked.
+	private List<Set<See>> getSees(MachineState state) {
 		setPropNetState(state);
-		Set<See> sees = new HashSet<See>();
-		if (iipropNet.getSeesPropositionsByRole().get(role) == null) {
-			return new SeesState(role, null);
-		}
-		for (Proposition prop : iipropNet.getSeesPropositionsByRole().get(role)) {
-			if (normalStatePropMark(prop)) {
-				See see = new See(role, prop.getName().toTerm());
-				sees.add(see);
+		List<Set<See>> sees = seesCache.get(state);
+		if (sees != null) {
+			return sees;
+		}
+		Map<Component, Boolean> values = new HashMap<Component, Boolean>();
+		sees = new ArrayList<Set<See>>(roles.size());
+		for (Role role : roles) {
+			Set<Proposition> seesProps = iipropNet.getSeesPropositionsByRole().get(role);
+			if (seesProps == null) {
+				sees.add(null);
+				continue;
+			}
+			Set<See> roleSees = new HashSet<See>();
+			for (Proposition prop : seesProps) {
+				if (normalStatePropMark(prop, values)) {
+					roleSees.add(new See(role, prop.getName().toTerm()));
+				}
 			}
+			sees.add(Collections.unmodifiableSet(roleSees));
 		}
-		return new SeesState(role, sees);
+		seesCache.put(state, sees);
+		return sees;
 	}
 
 	private void setPropNetState(SeesState seesState) {
@@ -226,35 +332,39 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		markBases(state.getContents());
 	}
 
+	// Only the propositions set since the last reset need to go back to unknown,
+	// so this costs time in proportion to what the previous query touched rather
+	// than to the size of the propnet.
 	private void resetPropNet(Role role) {
-
-		iipropNet.setIIValue(iipropNet.getInitProposition(), 0);
-		knownProps = new HashMap<Proposition, Double>();
-		trueProps = new HashSet<Proposition>();
-		for (Transition t : iipropNet.getNonDoesTransitions()) { // get iivalues of base propositions connected to transition
-			double iivalue = propMark(t.getSingleInput());
-			if (t.getOutputs().size() > 1) System.out.println("NABIIPNSM: Transition found with more than one base proposition.");
-			knownProps.put((Proposition)t.getSingleOutput(), iivalue);
-		}
-		for (Transition t : iipropNet.getDoesTransitions().get(role)) {
-			double iivalue = propMark(t.getSingleInput());
-			knownProps.put((Proposition)t.getSingleOutput(), iivalue);
-		}
-		for (Proposition p : knownProps.keySet()) { // set iivalues of these base props
-			iipropNet.setIIValue(p, knownProps.get(p));
-			if (knownProps.get(p) == 1) {
-				trueProps.add(p);
-			}
+		RoleIndex index = roleIndices.get(role);
+		knownProps.clear();
+		trueProps.clear();
+		for (int i = 0; i < index.knownBases.length; i++) { // get iivalues of base propositions connected to transition
+			knownValues[i] = propMark(index.knownSources[i]);
 		}
 
-		for (Proposition p : iipropNet.getPropositions()) { // set all other propositions to unknown
-			if (!knownProps.containsKey(p) && !iipropNet.getInputPropositions().values().contains(p)) {
+		for (Iterator<Proposition> it = dirtyProps.iterator(); it.hasNext(); ) { // set all other propositions to unknown
+			Proposition p = it.next();
+			if (!inputPropositions.contains(p)) {
 				iipropNet.setIIValue(p, 0.5);
+				it.remove();
 			}
 		}
-
+		for (int i = 0; i < index.knownBases.length; i++) { // set iivalues of these base props
+			Proposition p = index.knownBases[i];
+			setIIValue(p, knownValues[i]);
+			knownProps.put(p, knownValues[i]);
+			if (knownValues[i] == 1) {
+				trueProps.add(p);
+			}
+		}
+		setIIValue(iipropNet.getInitProposition(), 0);
 	}
 
+	/**
+	 * Returns the ii-values that the last query carried over from the previous
+	 * turn. The map is reused, and changes with every query.
+	 */
 	public Map<Proposition, Double> getKnownProps() {
 		return knownProps;
 	}
@@ -263,28 +373,30 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		return trueProps;
 	}
 
+	private void setIIValue(Proposition prop, double value) {
+		iipropNet.setIIValue(prop, value);
+		if (value != 0.5) {
+			dirtyProps.add(prop);
+		}
+	}
+
 	private void markAction(Move move, Role role) {
 		if (move != null){
 			for (Proposition legal : iipropNet.getLegalPropositions().get(role)) {
 				if (legal.getName().get(1).equals(move.getContents())) {
-					iipropNet.setIIValue(iipropNet.getLegalInputMap().get(legal), 1);
+					setIIValue(iipropNet.getLegalInputMap().get(legal), 1);
 				} else {
-					iipropNet.setIIValue(iipropNet.getLegalInputMap().get(legal), 0);
+					setIIValue(iipropNet.getLegalInputMap().get(legal), 0);
 				}
 			}
 		}
 	}
 
 	private void markSees(SeesState seesState) {
-		Role role = seesState.getRole();
-		if (iipropNet.getSeesPropositionsByRole().get(role) != null) {
-			for (Proposition prop : iipropNet.getSeesPropositionsByRole().get(seesState.getRole())) {
-				if (seesState.containsSee(prop.getName())) {
-					iipropNet.setIIValue(prop, 1);
-				} else {
-					iipropNet.setIIValue(prop, 0);
-				}
-			}
+		List<Proposition> seesProps = iipropNet.getSeesPropositionList(seesState.getRole());
+		BitSet seen = iipropNet.getSeesBits(seesState);
+		for (int i = 0; i < seesProps.size(); i++) {
+			setIIValue(seesProps.get(i), seen.get(i) ? 1 : 0);
 		}
 	}
 
@@ -292,7 +404,6 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		List<Proposition> trueSees = new ArrayList<Proposition>();
 		List<Proposition> falseSees = new ArrayList<Proposition>();
 		for (Proposition prop : iipropNet.getSeesPropositionsByName().values()) {
-			seesPropagationProps.add(prop);
 			if (prop.getValue()) trueSees.add(prop);
 			else falseSees.add(prop);
 		}
@@ -317,9 +428,7 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		else iivalue = 0;
 		if (c instanceof Proposition) {
 			Proposition prop = (Proposition) c;
-			iipropNet.setIIValue(prop, iivalue);
-
-			if (!seesPropagationProps.contains(prop)) seesPropagationProps.add(prop);
+			setIIValue(prop, iivalue);
 
 			if (prop.getInputs().size() > 1 || ((prop.getInputs().size() == 1) && !(prop.getSingleInput() instanceof Transition))) {
 				for (Component comp : prop.getInputs()) propagateSeesHelper(comp, value);
@@ -337,28 +446,22 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 
 	}
 
-	// Clears propnet by setting the II value of every single component to unknown. In theory we only need to clear
-	// the values from propositions that were affected by the downward sees propagation, so this could potentially
-	// be done more efficiently by keeping track of these propositions during propagation.
+	// Clears propnet by setting the II value of every component that has been set since the
+	// last reset back to unknown.
 	private void clearPropNet() {
-		if (seesPropagationProps == null) {
-			for(Proposition prop : iipropNet.getPropositions()) {
-				iipropNet.setIIValue(prop, 0.5);
-			}
-		} else {
-			for (Proposition prop : seesPropagationProps) {
-				iipropNet.setIIValue(prop, 0.5);
-			}
+		for (Proposition prop : dirtyProps) {
+			iipropNet.setIIValue(prop, 0.5);
 		}
-		iipropNet.setIIValue(iipropNet.getInitProposition(), 0);
+		dirtyProps.clear();
+		setIIValue(iipropNet.getInitProposition(), 0);
 	}
 
 	private void markBases(Set<GdlSentence> sentences){
 		for (GdlSentence sent: iipropNet.getBasePropositions().keySet()){
 			if (sentences.contains(sent)) {
-				iipropNet.setIIValue(iipropNet.getBasePropositions().get(sent),1);
+				setIIValue(iipropNet.getBasePropositions().get(sent),1);
 			} else {
-				iipropNet.setIIValue(iipropNet.getBasePropositions().get(sent), 0);
+				setIIValue(iipropNet.getBasePropositions().get(sent), 0);
 			}
 		}
 	}
@@ -412,12 +515,24 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		return 0;
 	}
 
-	private boolean normalStatePropMark(Component c){
+	// Evaluates a component in the state that was last marked, remembering the value
+	// of every gate so that components shared between sees are evaluated only once.
+	private boolean normalStatePropMark(Component c, Map<Component, Boolean> values){
+		Boolean known = values.get(c);
+		if (known != null) {
+			return known;
+		}
+		boolean value = normalStatePropMarkUncached(c, values);
+		values.put(c, value);
+		return value;
+	}
+
+	private boolean normalStatePropMarkUncached(Component c, Map<Component, Boolean> values){
 		if (c instanceof Proposition){
 
 			// view proposition
 			if (!(c.getSingleInput() instanceof Transition)){
-				return normalStatePropMark(c.getSingleInput());
+				return normalStatePropMark(c.getSingleInput(), values);
 			}
 			// base or input proposition
 			else{
@@ -426,13 +541,13 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		}
 		else if (c instanceof And){
 			for (Component c2:c.getInputs()){
-				if (!normalStatePropMark(c2)) return false;
+				if (!normalStatePropMark(c2, values)) return false;
 			}
 			return true;
 		}
 		else if (c instanceof Or){
 			for (Component c2:c.getInputs()){
-				if (normalStatePropMark(c2)) return true;
+				if (normalStatePropMark(c2, values)) return true;
 			}
 			return false;
 		}
@@ -440,10 +555,10 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 			return c.getValue();
 		}
 		else if (c instanceof Not){
-			return !normalStatePropMark(c.getSingleInput());
+			return !normalStatePropMark(c.getSingleInput(), values);
 		}
 		else if (c instanceof Transition){
-			return normalStatePropMark(c.getSingleInput());
+			return normalStatePropMark(c.getSingleInput(), values);
 		}
 
 		System.out.println("NotABotIIPropNetStateMachine found unknown Component during normalStatePropMark");
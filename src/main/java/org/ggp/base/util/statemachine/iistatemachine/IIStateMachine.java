@@ -1,5 +1,6 @@
 package org.ggp.base.util.statemachine.iistatemachine;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -100,6 +101,33 @@ public abstract class IIStateMachine {
 
 	public abstract List<Move> refineLegalMoves(SeesState seesState, Role role);
 
+	/**
+	 * Tells the state machine that a new turn has begun, with the given sees and
+	 * the SeesState role's own last move, or null on the first turn. State machines
+	 * that track what is known from turn to turn move on to the new turn here; the
+	 * default does nothing.
+	 */
+	public void beginTurn(SeesState seesState, Move move) {
+	}
+
+	/**
+	 * Refines the legal moves of every role at once, returning one list per role in the
+	 * same order as {@link #getRoles()}. The move is the SeesState role's own last move,
+	 * or null on the first turn. This default asks about each role in turn; implementations
+	 * that can answer for all roles from a single propagation should override it.
+	 */
+	public List<List<Move>> refineLegalMovesForAllRoles(SeesState seesState, Move move) {
+		List<List<Move>> moves = new ArrayList<List<Move>>();
+		for (Role role : getRoles()) {
+			if (move == null) {
+				moves.add(refineLegalMoves(seesState, role));
+			} else {
+				moves.add(refineLegalMoves(seesState, move, role));
+			}
+		}
+		return moves;
+	}
+
 	/**
 	 * Returns the next state of the game given the current state and a joint move
 	 * list containing one move per role.
@@ -113,6 +141,20 @@ public abstract class IIStateMachine {
 
 	public abstract SeesState getSeesState(MachineState state, Role role);
 
+	/**
+	 * Returns the sees of every role in the given state, one per role in the same
+	 * order as {@link #getRoles()}. This default asks about each role in turn;
+	 * implementations that can evaluate the sees of all roles at once should
+	 * override it.
+	 */
+	public List<SeesState> getSeesStates(MachineState state) {
+		List<SeesState> seesStates = new ArrayList<SeesState>();
+		for (Role role : getRoles()) {
+			seesStates.add(getSeesState(state, role));
+		}
+		return seesStates;
+	}
+
 	// This really shouldn't need to be done in IIStateMachine since it technically doesn't need to be done with a propnet
 	public abstract IIPropNet getIIPropNet();
 
@@ -0,0 +1,909 @@
+package org.ggp.base.util.statemachine.implementation.forward;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceDomainModels;
+import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.forward.TupleRelation.TupleIndex;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * ForwardChainingStateMachine computes the full model of each state bottom-up,
+ * and answers every query about the state from that model. It needs none of
+ * the grounding that a propnet does, so it can handle games whose propnets are
+ * too large to build, while being far faster than a top-down prover.
+ *
+ * When the machine is initialized, the sentences that are true in every state
+ * are found once, with the {@link GdlChainingReasoner} (through the
+ * {@link ConstantCheckerFactory}). The remaining sentence forms are split into
+ * strata, and each rule is compiled into a join plan: its literals are ordered
+ * so that each one binds as many variables as possible from the ones before,
+ * and each positive literal is looked up through a hash index on its bound
+ * positions. Sentences are stored as tuples of symbol IDs, in one
+ * {@link TupleRelation} per sentence form.
+ *
+ * Recursive strata are evaluated semi-naively: after one full pass, each rule
+ * is only joined against the tuples that were new in the previous round.
+ *
+ * The forms that depend on does are kept apart from the rest, so that the
+ * legal moves, goals and terminality of a state are all read from a single
+ * evaluation, and computing a next state only evaluates the forms that
+ * depend on the moves.
+ */
+public class ForwardChainingStateMachine extends StateMachine
+{
+    private static final int POSITIVE = 0;
+    private static final int NEGATIVE = 1;
+    private static final int DISTINCT = 2;
+
+    /** How a positive literal treats each position of the tuples it reads. */
+    private static final int CHECK_CONSTANT = 0;
+    private static final int CHECK_VARIABLE = 1;
+    private static final int BIND_VARIABLE = 2;
+
+    /** One literal of a join plan. */
+    private static final class Step
+    {
+        public final int kind;
+        public final TupleRelation relation;
+        /** For each position: a CHECK or BIND action, and its constant or variable. */
+        public final int[] actions;
+        public final int[] arguments;
+        /** For positive literals with bound positions, the index to look them up in. */
+        public final TupleIndex index;
+        /** The constant or variable that gives the value of each indexed position. */
+        public final int[] indexActions;
+        public final int[] indexArguments;
+        /** Scratch space for the key being looked up, or the tuple being checked. */
+        public final int[] buffer;
+
+        public Step(int kind, TupleRelation relation, int[] actions, int[] arguments,
+                TupleIndex index, int[] indexActions, int[] indexArguments)
+        {
+            this.kind = kind;
+            this.relation = relation;
+            this.actions = actions;
+            this.arguments = arguments;
+            this.index = index;
+            this.indexActions = indexActions;
+            this.indexArguments = indexArguments;
+            this.buffer = new int[(kind == POSITIVE) ? ((indexActions == null) ? 0 : indexActions.length) : arguments.length];
+        }
+    }
+
+    /** A rule compiled into an ordered sequence of steps. */
+    private static final class RulePlan
+    {
+        public final Step[] steps;
+        public final int variableCount;
+        public final TupleRelation head;
+        /** Constants (non-negative) or variables (-1 - index) making up the head. */
+        public final int[] headTerms;
+        /** The step that only reads the previous round's tuples, or -1. */
+        public final int deltaStep;
+
+        public RulePlan(Step[] steps, int variableCount, TupleRelation head, int[] headTerms, int deltaStep)
+        {
+            this.steps = steps;
+            this.variableCount = variableCount;
+            this.head = head;
+            this.headTerms = headTerms;
+            this.deltaStep = deltaStep;
+        }
+    }
+
+    private static final class Stratum
+    {
+        public final List<TupleRelation> relations = new ArrayList<TupleRelation>();
+        /** Plans that join every literal against all of its tuples. */
+        public final List<RulePlan> fullPlans = new ArrayList<RulePlan>();
+        /** Plans for recursive rules, each restricting one recursive literal to the last round. */
+        public final List<RulePlan> deltaPlans = new ArrayList<RulePlan>();
+    }
+
+    /** The relation and tuple that a state or move sentence is loaded as. */
+    private static final class LoadedSentence
+    {
+        public final TupleRelation relation;
+        public final int[] tuple;
+
+        public LoadedSentence(TupleRelation relation, int[] tuple)
+        {
+            this.relation = relation;
+            this.tuple = tuple;
+        }
+    }
+
+    /** Turns the tuples of one sentence form back into sentences, remembering the results. */
+    private final class Decoder
+    {
+        private final SentenceForm form;
+        private final TupleRelation known;
+        private final List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+        private final int[] tuple;
+
+        public Decoder(SentenceForm form)
+        {
+            this.form = form;
+            this.known = new TupleRelation(form.getTupleSize());
+            this.tuple = new int[form.getTupleSize()];
+        }
+
+        public GdlSentence decode(TupleRelation relation, int id)
+        {
+            for (int i = 0; i < tuple.length; i++) {
+                tuple[i] = relation.get(id, i);
+            }
+            int knownId = known.add(tuple, 0);
+            if (knownId == sentences.size()) {
+                List<GdlConstant> constants = new ArrayList<GdlConstant>(tuple.length);
+                for (int symbol : tuple) {
+                    constants.add(symbols.get(symbol));
+                }
+                sentences.add(form.getSentenceFromTuple(constants));
+            }
+            return sentences.get(knownId);
+        }
+    }
+
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+
+    private final Map<GdlConstant, Integer> symbolIds = new HashMap<GdlConstant, Integer>();
+    private final List<GdlConstant> symbols = new ArrayList<GdlConstant>();
+
+    private Map<SentenceForm, TupleRelation> relations;
+    /** The relations recomputed for each state, including the true relations. */
+    private List<TupleRelation> stateRelations;
+    /** The relations recomputed for each joint move, including the does relations. */
+    private List<TupleRelation> moveRelations;
+    private List<Stratum> stateStrata;
+    private List<Stratum> moveStrata;
+
+    private List<SentenceForm> trueForms;
+    private List<SentenceForm> doesForms;
+    private Map<SentenceForm, Decoder> legalForms;
+    private Map<SentenceForm, Decoder> inputForms;
+    private Map<SentenceForm, Decoder> nextForms;
+    private Map<SentenceForm, Decoder> initForms;
+    private List<SentenceForm> goalForms;
+    private List<SentenceForm> terminalForms;
+
+    private final Map<GdlSentence, LoadedSentence> loadedSentences = new HashMap<GdlSentence, LoadedSentence>();
+    private final Map<GdlSentence, GdlSentence> trueSentencesByNext = new HashMap<GdlSentence, GdlSentence>();
+
+    /** The state whose model is currently loaded, or null. */
+    private MachineState loadedState;
+
+    private int[] values = new int[16];
+    private int[] pending = new int[64];
+    private int pendingSize;
+
+    /**
+     * Initialize must be called before using the StateMachine
+     */
+    public ForwardChainingStateMachine()
+    {
+
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try {
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+
+            SentenceDomainModel model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+            setUp(model, constantChecker);
+            initialState = computeInitialState();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void setUp(SentenceDomainModel model, ConstantChecker constantChecker)
+    {
+        symbolIds.clear();
+        symbols.clear();
+        loadedSentences.clear();
+        trueSentencesByNext.clear();
+        loadedState = null;
+
+        relations = new HashMap<SentenceForm, TupleRelation>();
+        for (SentenceForm form : model.getSentenceForms()) {
+            relations.put(form, new TupleRelation(form.getTupleSize()));
+        }
+        for (SentenceForm form : constantChecker.getConstantSentenceForms()) {
+            TupleRelation relation = getRelation(form);
+            for (GdlSentence sentence : constantChecker.getTrueSentences(form)) {
+                relation.add(toTuple(GdlUtils.getTupleFromSentence(sentence), null), 0);
+            }
+        }
+
+        SetMultimap<SentenceForm, SentenceForm> dependencyGraph = HashMultimap.create(model.getDependencyGraph());
+        Set<SentenceForm> moveForms = DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(), dependencyGraph,
+                new Predicate<SentenceForm>() {
+            @Override
+            public boolean apply(SentenceForm form) {
+                return form.getName() == GdlPool.DOES;
+            }
+        });
+
+        trueForms = new ArrayList<SentenceForm>();
+        doesForms = new ArrayList<SentenceForm>();
+        legalForms = new HashMap<SentenceForm, Decoder>();
+        inputForms = new HashMap<SentenceForm, Decoder>();
+        nextForms = new HashMap<SentenceForm, Decoder>();
+        initForms = new HashMap<SentenceForm, Decoder>();
+        goalForms = new ArrayList<SentenceForm>();
+        terminalForms = new ArrayList<SentenceForm>();
+        stateRelations = new ArrayList<TupleRelation>();
+        moveRelations = new ArrayList<TupleRelation>();
+        for (SentenceForm form : model.getSentenceForms()) {
+            GdlConstant name = form.getName();
+            if (name == GdlPool.TRUE) {
+                trueForms.add(form);
+            } else if (name == GdlPool.DOES) {
+                doesForms.add(form);
+            } else if (name == GdlPool.LEGAL) {
+                legalForms.put(form, new Decoder(form));
+            } else if (name == GdlPool.INPUT) {
+                inputForms.put(form, new Decoder(form));
+            } else if (name == GdlPool.NEXT) {
+                nextForms.put(form, new Decoder(form));
+            } else if (name == GdlPool.INIT) {
+                initForms.put(form, new Decoder(form));
+            } else if (name == GdlPool.GOAL) {
+                goalForms.add(form);
+            } else if (name == GdlPool.TERMINAL) {
+                terminalForms.add(form);
+            }
+            if (!constantChecker.isConstantForm(form)) {
+                if (moveForms.contains(form)) {
+                    moveRelations.add(getRelation(form));
+                } else {
+                    stateRelations.add(getRelation(form));
+                }
+            }
+        }
+
+        stateStrata = new ArrayList<Stratum>();
+        moveStrata = new ArrayList<Stratum>();
+        for (Set<SentenceForm> forms : DependencyGraphs.toposortSafe(model.getSentenceForms(), dependencyGraph)) {
+            Stratum stratum = new Stratum();
+            for (SentenceForm form : forms) {
+                if (!constantChecker.isConstantForm(form) && !model.getRules(form).isEmpty())
+                    stratum.relations.add(getRelation(form));
+            }
+            if (stratum.relations.isEmpty())
+                continue;
+            for (SentenceForm form : forms) {
+                if (constantChecker.isConstantForm(form))
+                    continue;
+                for (GdlRule rule : model.getRules(form)) {
+                    compileRule(rule, model, stratum);
+                }
+            }
+            // A stratum depends on does if any of its forms does.
+            if (moveForms.contains(forms.iterator().next())) {
+                moveStrata.add(stratum);
+            } else {
+                stateStrata.add(stratum);
+            }
+        }
+    }
+
+    private TupleRelation getRelation(SentenceForm form)
+    {
+        TupleRelation relation = relations.get(form);
+        if (relation == null) {
+            relation = new TupleRelation(form.getTupleSize());
+            relations.put(form, relation);
+        }
+        return relation;
+    }
+
+    private int getSymbolId(GdlConstant constant)
+    {
+        Integer id = symbolIds.get(constant);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(constant);
+            symbolIds.put(constant, id);
+        }
+        return id;
+    }
+
+    /**
+     * Converts a flattened tuple into symbol IDs for constants, and into
+     * -1 - index for variables, numbering new variables as they are found.
+     */
+    private int[] toTuple(List<GdlTerm> terms, Map<GdlVariable, Integer> variables)
+    {
+        int[] tuple = new int[terms.size()];
+        for (int i = 0; i < tuple.length; i++) {
+            GdlTerm term = terms.get(i);
+            if (term instanceof GdlConstant) {
+                tuple[i] = getSymbolId((GdlConstant) term);
+            } else if (term instanceof GdlVariable) {
+                Integer index = variables.get(term);
+                if (index == null) {
+                    index = variables.size();
+                    variables.put((GdlVariable) term, index);
+                }
+                tuple[i] = -1 - index;
+            } else {
+                throw new IllegalArgumentException("Unexpected term " + term + " in a flattened sentence");
+            }
+        }
+        return tuple;
+    }
+
+    /**
+     * Compiles the rule into the stratum's plans: one full plan, plus one
+     * delta plan for each literal that reads a form from the same stratum.
+     */
+    private void compileRule(GdlRule rule, SentenceDomainModel model, Stratum stratum)
+    {
+        List<GdlLiteral> body = rule.getBody();
+        List<Integer> recursiveLiterals = new ArrayList<Integer>();
+        for (int i = 0; i < body.size(); i++) {
+            if (body.get(i) instanceof GdlSentence) {
+                TupleRelation relation = getRelation(model.getSentenceForm((GdlSentence) body.get(i)));
+                if (stratum.relations.contains(relation))
+                    recursiveLiterals.add(i);
+            }
+        }
+        stratum.fullPlans.add(compilePlan(rule, model, -1));
+        for (int literal : recursiveLiterals) {
+            stratum.deltaPlans.add(compilePlan(rule, model, literal));
+        }
+    }
+
+    /**
+     * Orders the literals of a rule and compiles them into steps. If a delta
+     * literal is given, it comes first and only reads the last round's tuples.
+     */
+    private RulePlan compilePlan(GdlRule rule, SentenceDomainModel model, int deltaLiteral)
+    {
+        Map<GdlVariable, Integer> variables = new HashMap<GdlVariable, Integer>();
+        List<GdlLiteral> remaining = new ArrayList<GdlLiteral>(rule.getBody());
+        Set<GdlVariable> bound = new HashSet<GdlVariable>();
+        List<Step> steps = new ArrayList<Step>();
+
+        if (deltaLiteral != -1) {
+            GdlSentence sentence = (GdlSentence) rule.getBody().get(deltaLiteral);
+            remaining.remove(deltaLiteral);
+            steps.add(compilePositive(sentence, model, bound, variables));
+            addFilters(remaining, bound, model, variables, steps);
+        } else {
+            addFilters(remaining, bound, model, variables, steps);
+        }
+        while (!remaining.isEmpty()) {
+            // Pick the positive literal that leaves the fewest variables unbound.
+            GdlSentence best = null;
+            int bestUnbound = Integer.MAX_VALUE;
+            for (GdlLiteral literal : remaining) {
+                if (literal instanceof GdlSentence) {
+                    Set<GdlVariable> unbound = new HashSet<GdlVariable>(GdlUtils.getVariables(literal));
+                    unbound.removeAll(bound);
+                    if (unbound.size() < bestUnbound) {
+                        best = (GdlSentence) literal;
+                        bestUnbound = unbound.size();
+                    }
+                }
+            }
+            if (best == null)
+                break;
+            remaining.remove(best);
+            steps.add(compilePositive(best, model, bound, variables));
+            addFilters(remaining, bound, model, variables, steps);
+        }
+
+        // Variables that no positive literal binds, such as role variables in
+        // the head, range over their whole domain.
+        List<GdlVariable> unbound = new ArrayList<GdlVariable>();
+        for (GdlVariable variable : GdlUtils.getVariables(rule)) {
+            if (!bound.contains(variable) && !unbound.contains(variable))
+                unbound.add(variable);
+        }
+        if (!unbound.isEmpty()) {
+            Map<GdlVariable, Set<GdlConstant>> domains = SentenceDomainModels.getVarDomains(rule, model, VarDomainOpts.INCLUDE_HEAD);
+            for (GdlVariable variable : unbound) {
+                steps.add(compileDomain(variable, domains.get(variable), bound, variables));
+            }
+            addFilters(remaining, bound, model, variables, steps);
+        }
+        if (!remaining.isEmpty())
+            throw new IllegalArgumentException("Could not order the literals of rule " + rule);
+
+        GdlSentence head = rule.getHead();
+        int[] headTerms = toTuple(GdlUtils.getTupleFromSentence(head), variables);
+        return new RulePlan(steps.toArray(new Step[steps.size()]), variables.size(),
+                getRelation(model.getSentenceForm(head)), headTerms, (deltaLiteral == -1) ? -1 : 0);
+    }
+
+    /**
+     * Compiles a step that binds the variable to each value in its domain in
+     * turn, by reading a relation holding just those values.
+     */
+    private Step compileDomain(GdlVariable variable, Set<GdlConstant> domain, Set<GdlVariable> bound,
+            Map<GdlVariable, Integer> variables)
+    {
+        TupleRelation values = new TupleRelation(1);
+        if (domain != null) {
+            for (GdlConstant constant : domain) {
+                values.add(new int[] { getSymbolId(constant) }, 0);
+            }
+        }
+        int index = toTuple(Collections.<GdlTerm>singletonList(variable), variables)[0];
+        bound.add(variable);
+        return new Step(POSITIVE, values, new int[] { BIND_VARIABLE }, new int[] { -1 - index }, null, null, null);
+    }
+
+    /**
+     * Moves the negations and distincts whose variables are all bound from
+     * the remaining literals to the steps.
+     */
+    private void addFilters(List<GdlLiteral> remaining, Set<GdlVariable> bound, SentenceDomainModel model,
+            Map<GdlVariable, Integer> variables, List<Step> steps)
+    {
+        for (int i = 0; i < remaining.size(); i++) {
+            GdlLiteral literal = remaining.get(i);
+            if (literal instanceof GdlSentence || !bound.containsAll(GdlUtils.getVariables(literal)))
+                continue;
+            remaining.remove(i--);
+            if (literal instanceof GdlNot) {
+                GdlSentence sentence = (GdlSentence) ((GdlNot) literal).getBody();
+                int[] tuple = toTuple(GdlUtils.getTupleFromSentence(sentence), variables);
+                steps.add(new Step(NEGATIVE, getRelation(model.getSentenceForm(sentence)), null, tuple, null, null, null));
+            } else if (literal instanceof GdlDistinct) {
+                GdlDistinct distinct = (GdlDistinct) literal;
+                List<GdlTerm> left = new ArrayList<GdlTerm>();
+                List<GdlTerm> right = new ArrayList<GdlTerm>();
+                if (!flatten(distinct.getArg1(), left, distinct.getArg2(), right))
+                    continue; // Terms of different shapes are always distinct.
+                int[] leftTuple = toTuple(left, variables);
+                int[] rightTuple = toTuple(right, variables);
+                steps.add(new Step(DISTINCT, null, leftTuple, rightTuple, null, null, null));
+            } else {
+                throw new IllegalArgumentException("Unexpected literal " + literal);
+            }
+        }
+    }
+
+    /**
+     * Flattens two terms side by side, returning false if their function
+     * structures differ (in which case they can never be equal).
+     */
+    private static boolean flatten(GdlTerm a, List<GdlTerm> left, GdlTerm b, List<GdlTerm> right)
+    {
+        if (a instanceof GdlFunction || b instanceof GdlFunction) {
+            if (!(a instanceof GdlFunction) || !(b instanceof GdlFunction))
+                return false;
+            GdlFunction f = (GdlFunction) a;
+            GdlFunction g = (GdlFunction) b;
+            if (f.getName() != g.getName() || f.arity() != g.arity())
+                return false;
+            for (int i = 0; i < f.arity(); i++) {
+                if (!flatten(f.get(i), left, g.get(i), right))
+                    return false;
+            }
+            return true;
+        }
+        left.add(a);
+        right.add(b);
+        return true;
+    }
+
+    private Step compilePositive(GdlSentence sentence, SentenceDomainModel model, Set<GdlVariable> bound,
+            Map<GdlVariable, Integer> variables)
+    {
+        TupleRelation relation = getRelation(model.getSentenceForm(sentence));
+        List<GdlTerm> terms = GdlUtils.getTupleFromSentence(sentence);
+        int[] tuple = toTuple(terms, variables);
+        int[] actions = new int[tuple.length];
+        int[] arguments = new int[tuple.length];
+        List<Integer> indexPositions = new ArrayList<Integer>();
+        Set<GdlVariable> boundHere = new HashSet<GdlVariable>();
+        for (int i = 0; i < tuple.length; i++) {
+            if (tuple[i] >= 0) {
+                actions[i] = CHECK_CONSTANT;
+                arguments[i] = tuple[i];
+                indexPositions.add(i);
+            } else {
+                GdlVariable variable = (GdlVariable) terms.get(i);
+                arguments[i] = -1 - tuple[i];
+                if (bound.contains(variable)) {
+                    actions[i] = CHECK_VARIABLE;
+                    indexPositions.add(i);
+                } else if (boundHere.contains(variable)) {
+                    actions[i] = CHECK_VARIABLE;
+                } else {
+                    actions[i] = BIND_VARIABLE;
+                    boundHere.add(variable);
+                }
+            }
+        }
+        bound.addAll(boundHere);
+
+        if (indexPositions.isEmpty())
+            return new Step(POSITIVE, relation, actions, arguments, null, null, null);
+        int[] positions = new int[indexPositions.size()];
+        int[] indexActions = new int[positions.length];
+        int[] indexArguments = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = indexPositions.get(i);
+            indexActions[i] = actions[positions[i]];
+            indexArguments[i] = arguments[positions[i]];
+        }
+        return new Step(POSITIVE, relation, actions, arguments, relation.getIndex(positions), indexActions, indexArguments);
+    }
+
+    private MachineState computeInitialState()
+    {
+        loadState(new MachineState(Collections.<GdlSentence>emptySet()));
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (Map.Entry<SentenceForm, Decoder> entry : initForms.entrySet()) {
+            TupleRelation relation = relations.get(entry.getKey());
+            for (int id = 0; id < relation.size(); id++) {
+                GdlSentence init = entry.getValue().decode(relation, id);
+                contents.add(GdlPool.getRelation(GdlPool.TRUE, new GdlTerm[] { init.get(0) }));
+            }
+        }
+        loadedState = null;
+        return new MachineState(contents);
+    }
+
+    /**
+     * Makes the loaded model that of the given state, without any moves.
+     */
+    private void loadState(MachineState state)
+    {
+        if (state == loadedState || (loadedState != null && state.equals(loadedState))) {
+            return;
+        }
+        for (TupleRelation relation : stateRelations) {
+            relation.clear();
+        }
+        for (TupleRelation relation : moveRelations) {
+            relation.clear();
+        }
+        for (GdlSentence sentence : state.getContents()) {
+            LoadedSentence loaded = getLoadedSentence(sentence, trueForms);
+            if (loaded != null)
+                loaded.relation.add(loaded.tuple, 0);
+        }
+        for (Stratum stratum : stateStrata) {
+            evaluate(stratum);
+        }
+        loadedState = state;
+    }
+
+    private void loadMoves(List<Move> moves)
+    {
+        for (TupleRelation relation : moveRelations) {
+            relation.clear();
+        }
+        for (int r = 0; r < roles.size(); r++) {
+            GdlSentence does = GdlPool.getRelation(GdlPool.DOES, new GdlTerm[] { roles.get(r).getName(), moves.get(r).getContents() });
+            LoadedSentence loaded = getLoadedSentence(does, doesForms);
+            if (loaded != null)
+                loaded.relation.add(loaded.tuple, 0);
+        }
+        for (Stratum stratum : moveStrata) {
+            evaluate(stratum);
+        }
+    }
+
+    /**
+     * Returns the relation and tuple for a true or does sentence, or null if
+     * no rule ever reads it.
+     */
+    private LoadedSentence getLoadedSentence(GdlSentence sentence, List<SentenceForm> forms)
+    {
+        if (loadedSentences.containsKey(sentence))
+            return loadedSentences.get(sentence);
+        LoadedSentence loaded = null;
+        for (SentenceForm form : forms) {
+            if (form.matches(sentence)) {
+                List<GdlTerm> terms = GdlUtils.getTupleFromSentence(sentence);
+                loaded = new LoadedSentence(relations.get(form), toTuple(terms, null));
+                break;
+            }
+        }
+        loadedSentences.put(sentence, loaded);
+        return loaded;
+    }
+
+    private void evaluate(Stratum stratum)
+    {
+        for (RulePlan plan : stratum.fullPlans) {
+            run(plan);
+        }
+        if (stratum.deltaPlans.isEmpty())
+            return;
+
+        for (TupleRelation relation : stratum.relations) {
+            relation.deltaFrom = 0;
+            relation.deltaTo = relation.size();
+        }
+        boolean changed = true;
+        while (changed) {
+            for (RulePlan plan : stratum.deltaPlans) {
+                run(plan);
+            }
+            changed = false;
+            for (TupleRelation relation : stratum.relations) {
+                relation.deltaFrom = relation.deltaTo;
+                relation.deltaTo = relation.size();
+                if (relation.deltaFrom != relation.deltaTo)
+                    changed = true;
+            }
+        }
+    }
+
+    /**
+     * Runs a plan, adding its results to its head relation once the join
+     * is finished, so that no relation changes while it is being read.
+     */
+    private void run(RulePlan plan)
+    {
+        if (values.length < plan.variableCount)
+            values = new int[2 * plan.variableCount];
+        pendingSize = 0;
+        join(plan, 0);
+        TupleRelation head = plan.head;
+        int arity = head.getArity();
+        if (arity == 0) {
+            if (pendingSize > 0)
+                head.add(pending, 0);
+            return;
+        }
+        for (int offset = 0; offset < pendingSize; offset += arity) {
+            head.add(pending, offset);
+        }
+    }
+
+    private void join(RulePlan plan, int s)
+    {
+        if (s == plan.steps.length) {
+            int[] headTerms = plan.headTerms;
+            if (headTerms.length == 0) {
+                pendingSize = 1;
+                return;
+            }
+            if (pendingSize + headTerms.length > pending.length)
+                pending = Arrays.copyOf(pending, 2 * (pendingSize + headTerms.length));
+            for (int i = 0; i < headTerms.length; i++) {
+                int term = headTerms[i];
+                pending[pendingSize++] = (term >= 0) ? term : values[-1 - term];
+            }
+            return;
+        }
+
+        Step step = plan.steps[s];
+        TupleRelation relation = step.relation;
+        if (step.kind == POSITIVE) {
+            if (s == plan.deltaStep) {
+                int end = relation.deltaTo;
+                for (int id = relation.deltaFrom; id < end; id++) {
+                    if (matches(step, id))
+                        join(plan, s + 1);
+                }
+            } else if (step.index != null) {
+                TupleIndex index = step.index;
+                int[] key = step.buffer;
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = (step.indexActions[i] == CHECK_CONSTANT) ? step.indexArguments[i] : values[step.indexArguments[i]];
+                }
+                for (int id = index.first(index.hashKey(key)); id != -1; id = index.next(id)) {
+                    if (matches(step, id))
+                        join(plan, s + 1);
+                }
+            } else {
+                int end = relation.size();
+                for (int id = 0; id < end; id++) {
+                    if (matches(step, id))
+                        join(plan, s + 1);
+                }
+            }
+        } else if (step.kind == NEGATIVE) {
+            int[] terms = step.arguments;
+            int[] tuple = step.buffer;
+            for (int i = 0; i < terms.length; i++) {
+                tuple[i] = (terms[i] >= 0) ? terms[i] : values[-1 - terms[i]];
+            }
+            if (!relation.contains(tuple, 0))
+                join(plan, s + 1);
+        } else {
+            int[] left = step.actions;
+            int[] right = step.arguments;
+            for (int i = 0; i < left.length; i++) {
+                int a = (left[i] >= 0) ? left[i] : values[-1 - left[i]];
+                int b = (right[i] >= 0) ? right[i] : values[-1 - right[i]];
+                if (a != b) {
+                    join(plan, s + 1);
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean matches(Step step, int id)
+    {
+        TupleRelation relation = step.relation;
+        int[] actions = step.actions;
+        int[] arguments = step.arguments;
+        for (int i = 0; i < actions.length; i++) {
+            int value = relation.get(id, i);
+            switch (actions[i]) {
+            case CHECK_CONSTANT:
+                if (value != arguments[i])
+                    return false;
+                break;
+            case CHECK_VARIABLE:
+                if (value != values[arguments[i]])
+                    return false;
+                break;
+            default:
+                values[arguments[i]] = value;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        loadState(state);
+        int roleId = getSymbolId(role.getName());
+        int goal = -1;
+        for (SentenceForm form : goalForms) {
+            TupleRelation relation = relations.get(form);
+            for (int id = 0; id < relation.size(); id++) {
+                if (relation.get(id, 0) != roleId)
+                    continue;
+                if (goal != -1)
+                    throw new GoalDefinitionException(state, role);
+                try {
+                    goal = Integer.parseInt(symbols.get(relation.get(id, 1)).getValue());
+                } catch (NumberFormatException e) {
+                    throw new GoalDefinitionException(state, role);
+                }
+            }
+        }
+        if (goal == -1)
+            throw new GoalDefinitionException(state, role);
+        return goal;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        loadState(state);
+        for (SentenceForm form : terminalForms) {
+            if (relations.get(form).size() > 0)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        loadState(initialState);
+        List<Move> moves = getMoves(inputForms, role);
+        if (moves.isEmpty())
+            throw new MoveDefinitionException(initialState, role);
+        return moves;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        loadState(state);
+        List<Move> moves = getMoves(legalForms, role);
+        if (moves.isEmpty())
+            throw new MoveDefinitionException(state, role);
+        return moves;
+    }
+
+    private List<Move> getMoves(Map<SentenceForm, Decoder> forms, Role role)
+    {
+        int roleId = getSymbolId(role.getName());
+        List<Move> moves = new ArrayList<Move>();
+        for (Map.Entry<SentenceForm, Decoder> entry : forms.entrySet()) {
+            TupleRelation relation = relations.get(entry.getKey());
+            for (int id = 0; id < relation.size(); id++) {
+                if (relation.get(id, 0) == roleId)
+                    moves.add(new Move(entry.getValue().decode(relation, id).get(1)));
+            }
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        if (moves.size() != roles.size())
+            throw new TransitionDefinitionException(state, moves);
+        loadState(state);
+        loadMoves(moves);
+
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (Map.Entry<SentenceForm, Decoder> entry : nextForms.entrySet()) {
+            TupleRelation relation = relations.get(entry.getKey());
+            for (int id = 0; id < relation.size(); id++) {
+                contents.add(toTrueSentence(entry.getValue().decode(relation, id)));
+            }
+        }
+        return new MachineState(contents);
+    }
+
+    private GdlSentence toTrueSentence(GdlSentence next)
+    {
+        GdlSentence sentence = trueSentencesByNext.get(next);
+        if (sentence == null) {
+            sentence = GdlPool.getRelation(GdlPool.TRUE, new GdlTerm[] { next.get(0) });
+            trueSentencesByNext.put(next, sentence);
+        }
+        return sentence;
+    }
+}
@@ -0,0 +1,263 @@
+package org.ggp.base.util.statemachine.implementation.forward;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TupleRelation is a set of fixed-length tuples of symbol IDs, the
+ * extension of one sentence form. Tuples are stored back to back in a single
+ * array, numbered in the order they were added, and deduplicated through an
+ * open-addressing hash table.
+ *
+ * Because tuples are only ever appended, a range of tuple IDs identifies the
+ * tuples added during one round of semi-naive evaluation; the current round's
+ * range is kept in {@link #deltaFrom} and {@link #deltaTo}.
+ *
+ * Indices on subsets of the positions can be requested up front, and are
+ * kept up to date as tuples are added. Tuples must not be added while the
+ * relation or its indices are being iterated over.
+ */
+final class TupleRelation
+{
+    private final int arity;
+    private int[] data;
+    private int size;
+    /** Open-addressing table of tuple IDs plus one, with zero marking an empty slot. */
+    private int[] table;
+    private final List<TupleIndex> indices = new ArrayList<TupleIndex>();
+
+    /** The tuples added in the previous round of semi-naive evaluation. */
+    public int deltaFrom;
+    public int deltaTo;
+
+    public TupleRelation(int arity)
+    {
+        this.arity = arity;
+        this.data = new int[8 * arity];
+        this.table = new int[16];
+    }
+
+    public int getArity()
+    {
+        return arity;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int get(int id, int position)
+    {
+        return data[id * arity + position];
+    }
+
+    /**
+     * Returns an index on the given positions, creating it if need be.
+     */
+    public TupleIndex getIndex(int[] positions)
+    {
+        for (TupleIndex index : indices) {
+            if (Arrays.equals(index.positions, positions))
+                return index;
+        }
+        TupleIndex index = new TupleIndex(positions);
+        indices.add(index);
+        index.rebuild();
+        return index;
+    }
+
+    /**
+     * Adds the tuple stored at the given offset of the array, and returns its
+     * ID. If the tuple was already present, the ID it already had is returned
+     * and the size of the relation does not change.
+     */
+    public int add(int[] tuple, int offset)
+    {
+        int existing = indexOf(tuple, offset);
+        if (existing != -1)
+            return existing;
+
+        int id = size++;
+        if (size * arity > data.length)
+            data = Arrays.copyOf(data, 2 * Math.max(data.length, arity));
+        System.arraycopy(tuple, offset, data, id * arity, arity);
+        if (2 * size > table.length) {
+            rehash(2 * table.length);
+        } else {
+            insertIntoTable(id);
+        }
+        for (TupleIndex index : indices) {
+            index.add(id);
+        }
+        return id;
+    }
+
+    public boolean contains(int[] tuple, int offset)
+    {
+        return indexOf(tuple, offset) != -1;
+    }
+
+    /**
+     * Returns the ID of the tuple stored at the given offset of the array, or
+     * -1 if it is not in the relation.
+     */
+    public int indexOf(int[] tuple, int offset)
+    {
+        int mask = table.length - 1;
+        int slot = hash(tuple, offset) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (equalsAt(id, tuple, offset))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void clear()
+    {
+        size = 0;
+        deltaFrom = 0;
+        deltaTo = 0;
+        Arrays.fill(table, 0);
+        for (TupleIndex index : indices) {
+            index.clear();
+        }
+    }
+
+    private boolean equalsAt(int id, int[] tuple, int offset)
+    {
+        int base = id * arity;
+        for (int i = 0; i < arity; i++) {
+            if (data[base + i] != tuple[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private int hash(int[] tuple, int offset)
+    {
+        int h = 1;
+        for (int i = 0; i < arity; i++) {
+            h = 31 * h + tuple[offset + i];
+        }
+        return mix(h);
+    }
+
+    private void insertIntoTable(int id)
+    {
+        int mask = table.length - 1;
+        int slot = hash(data, id * arity) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    private void rehash(int capacity)
+    {
+        table = new int[capacity];
+        for (int id = 0; id < size; id++) {
+            insertIntoTable(id);
+        }
+    }
+
+    static int mix(int h)
+    {
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /**
+     * An index of the relation's tuples by their values at some positions.
+     * Each bucket is a chain of tuple IDs, which may include tuples with
+     * other values that happen to hash to the same bucket, so callers must
+     * still compare the values.
+     */
+    final class TupleIndex
+    {
+        private final int[] positions;
+        private int[] heads = new int[16];
+        private int[] next = new int[16];
+
+        private TupleIndex(int[] positions)
+        {
+            this.positions = positions;
+        }
+
+        /**
+         * Hashes the given key values, which correspond to the indexed
+         * positions in order.
+         */
+        public int hashKey(int[] key)
+        {
+            int h = 1;
+            for (int i = 0; i < key.length; i++) {
+                h = 31 * h + key[i];
+            }
+            return mix(h);
+        }
+
+        /** Returns the first tuple ID in the bucket for the hash, or -1. */
+        public int first(int hash)
+        {
+            return heads[hash & (heads.length - 1)];
+        }
+
+        /** Returns the tuple ID after the given one in its bucket, or -1. */
+        public int next(int id)
+        {
+            return next[id];
+        }
+
+        private int hashTuple(int id)
+        {
+            int h = 1;
+            int base = id * arity;
+            for (int i = 0; i < positions.length; i++) {
+                h = 31 * h + data[base + positions[i]];
+            }
+            return mix(h);
+        }
+
+        private void add(int id)
+        {
+            if (id >= next.length)
+                next = Arrays.copyOf(next, Math.max(2 * next.length, id + 1));
+            if (2 * size > heads.length) {
+                heads = new int[2 * heads.length];
+                rebuild();
+            } else {
+                link(id);
+            }
+        }
+
+        private void link(int id)
+        {
+            int bucket = hashTuple(id) & (heads.length - 1);
+            next[id] = heads[bucket];
+            heads[bucket] = id;
+        }
+
+        private void rebuild()
+        {
+            while (2 * size > heads.length)
+                heads = new int[2 * heads.length];
+            if (next.length < size)
+                next = Arrays.copyOf(next, size);
+            Arrays.fill(heads, -1);
+            for (int id = 0; id < size; id++) {
+                link(id);
+            }
+        }
+
+        private void clear()
+        {
+            Arrays.fill(heads, -1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.List;
+
+import javassist.CannotCompileException;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.FlatPropNet;
+import org.ggp.base.util.propnet.compiler.CompiledPropNet;
+import org.ggp.base.util.propnet.compiler.PropNetCompiler;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+
+/**
+ * CompiledPropNetStateMachine is a {@link FlatPropNetStateMachine} whose
+ * network is evaluated by bytecode generated for this particular game by
+ * the {@link PropNetCompiler}, rather than by interpreting the component
+ * arrays.
+ *
+ * The generated code is split into the legal, goal/terminal and next-state
+ * parts of the network (see {@link CompiledPropNet}). The first two are only
+ * run when a base proposition has changed, so answering several queries about
+ * the same state, or making a move from a state whose legal moves were just
+ * computed, only runs the part of the network that is actually needed.
+ */
+public class CompiledPropNetStateMachine extends FlatPropNetStateMachine
+{
+    private CompiledPropNet compiledPropNet;
+    /** Whether each component is an input proposition. */
+    private boolean[] inputs;
+    /** Whether a source other than an input has changed since the legal and goal parts were last run. */
+    private boolean stateChanged;
+
+    public CompiledPropNetStateMachine()
+    {
+
+    }
+
+    /**
+     * Creates a state machine over an already-compiled network, so that
+     * several machines for the same game (one per thread, say) can share the
+     * generated class. The machine is ready for use immediately.
+     */
+    public CompiledPropNetStateMachine(FlatPropNet propNet, CompiledPropNet compiledPropNet)
+    {
+        this.compiledPropNet = compiledPropNet;
+        setUp(propNet);
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try {
+            FlatPropNet propNet = new FlatPropNet(OptimizingPropNetFactory.create(description, false, Runtime.getRuntime().availableProcessors(), null));
+            compiledPropNet = PropNetCompiler.compile(propNet);
+            setUp(propNet);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (CannotCompileException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the generated code that this machine runs on.
+     */
+    public CompiledPropNet getCompiledPropNet()
+    {
+        return compiledPropNet;
+    }
+
+    @Override
+    protected void resetValues()
+    {
+        super.resetValues();
+        FlatPropNet propNet = getPropNet();
+        inputs = new boolean[propNet.getComponentCount()];
+        for (int input : propNet.getInputPropositions()) {
+            inputs[input] = true;
+        }
+        stateChanged = true;
+    }
+
+    @Override
+    protected void setSourceValue(int component, boolean value)
+    {
+        if (values[component] == value)
+            return;
+        values[component] = value;
+        // Legality, goals and terminality never depend on the moves made.
+        if (!inputs[component])
+            stateChanged = true;
+    }
+
+    @Override
+    protected void propagate()
+    {
+        propagateState();
+        compiledPropNet.computeNext(values);
+    }
+
+    @Override
+    protected void propagateState()
+    {
+        if (stateChanged) {
+            compiledPropNet.computeLegals(values);
+            compiledPropNet.computeGoals(values);
+            stateChanged = false;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+
+import org.ggp.base.util.propnet.architecture.FlatPropNet;
+
+/**
+ * DifferentialPropNetStateMachine is a {@link FlatPropNetStateMachine} that
+ * propagates changes through the network instead of re-evaluating it.
+ *
+ * Every gate keeps a count of how many of its inputs are currently true, so
+ * its value can be updated in constant time when one input flips. When a base
+ * or input proposition changes, only the gates downstream of it are visited,
+ * and only as far as their values actually change. Consecutive states in a
+ * playout usually differ in a handful of base propositions, so this touches
+ * a small fraction of the network compared to a full pass over the ordering
+ * (see {@link SamplePropNetStateMachine#getOrdering()}).
+ *
+ * Changed gates are processed in the same block order that the full pass
+ * uses, so a gate is only updated once all of its inputs are final. Blocks
+ * that form cycles (from recursive rules) are recomputed from scratch when
+ * any of their inputs change, since counters alone cannot tell a cycle that
+ * supports itself from one that is supported from outside.
+ */
+public class DifferentialPropNetStateMachine extends FlatPropNetStateMachine
+{
+    /** The number of true inputs of each component. */
+    private int[] trueInputCounts;
+    /** The block of the ordering that each component is in, or -1 for sources. */
+    private int[] blockOfComponent;
+    /** One bit per block that has had an input change since the last propagate. */
+    private long[] dirtyBlocks;
+    /** A lower bound on the first non-zero word of dirtyBlocks. */
+    private int firstDirtyWord;
+    /** Scratch space for the old values of a cyclic block's members. */
+    private boolean[] oldCycleValues;
+
+    public DifferentialPropNetStateMachine()
+    {
+
+    }
+
+    public DifferentialPropNetStateMachine(FlatPropNet propNet)
+    {
+        super(propNet);
+    }
+
+    @Override
+    protected void resetValues()
+    {
+        super.resetValues();
+        FlatPropNet propNet = getPropNet();
+        int[] ordering = propNet.getOrdering();
+        int[] blockOffsets = propNet.getBlockOffsets();
+        int blockCount = blockOffsets.length - 1;
+
+        blockOfComponent = new int[propNet.getComponentCount()];
+        Arrays.fill(blockOfComponent, -1);
+        int largestBlock = 0;
+        for (int b = 0; b < blockCount; b++) {
+            for (int i = blockOffsets[b]; i < blockOffsets[b + 1]; i++) {
+                blockOfComponent[ordering[i]] = b;
+            }
+            largestBlock = Math.max(largestBlock, blockOffsets[b + 1] - blockOffsets[b]);
+        }
+        dirtyBlocks = new long[(blockCount + 63) >> 6];
+        firstDirtyWord = dirtyBlocks.length;
+        oldCycleValues = new boolean[largestBlock];
+
+        // Start from a fully consistent network, and count from there.
+        propNet.propagate(values);
+        int[] inputOffsets = propNet.getInputOffsets();
+        int[] inputs = propNet.getInputs();
+        trueInputCounts = new int[propNet.getComponentCount()];
+        for (int c = 0; c < trueInputCounts.length; c++) {
+            for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+                if (values[inputs[i]])
+                    trueInputCounts[c]++;
+            }
+        }
+    }
+
+    @Override
+    protected void setSourceValue(int component, boolean value)
+    {
+        if (values[component] == value)
+            return;
+        values[component] = value;
+        notifyOutputs(component, value, -1);
+    }
+
+    @Override
+    protected void propagate()
+    {
+        for (int w = firstDirtyWord; w < dirtyBlocks.length; w++) {
+            // Updating a block can only dirty later blocks, which this loop
+            // will still reach, possibly in this same word.
+            while (dirtyBlocks[w] != 0) {
+                long word = dirtyBlocks[w];
+                dirtyBlocks[w] = word & (word - 1);
+                updateBlock((w << 6) + Long.numberOfTrailingZeros(word));
+            }
+        }
+        firstDirtyWord = dirtyBlocks.length;
+    }
+
+    private void updateBlock(int block)
+    {
+        FlatPropNet propNet = getPropNet();
+        if (!propNet.getCyclicBlocks()[block]) {
+            int c = propNet.getOrdering()[propNet.getBlockOffsets()[block]];
+            boolean value = getValueFromCount(c);
+            if (value != values[c]) {
+                values[c] = value;
+                notifyOutputs(c, value, -1);
+            }
+            return;
+        }
+
+        int[] ordering = propNet.getOrdering();
+        int start = propNet.getBlockOffsets()[block];
+        int end = propNet.getBlockOffsets()[block + 1];
+        for (int i = start; i < end; i++) {
+            oldCycleValues[i - start] = values[ordering[i]];
+        }
+        propNet.propagateBlock(block, values);
+        for (int i = start; i < end; i++) {
+            int c = ordering[i];
+            if (values[c] != oldCycleValues[i - start])
+                notifyOutputs(c, values[c], block);
+        }
+    }
+
+    /**
+     * Tells each output of the given component that one of its inputs has
+     * changed to the given value, and marks the outputs' blocks as dirty.
+     * Outputs in the skipped block are counted but not marked.
+     */
+    private void notifyOutputs(int component, boolean value, int skippedBlock)
+    {
+        FlatPropNet propNet = getPropNet();
+        int[] outputOffsets = propNet.getOutputOffsets();
+        int[] outputs = propNet.getOutputs();
+        int delta = value ? 1 : -1;
+        for (int i = outputOffsets[component]; i < outputOffsets[component + 1]; i++) {
+            int output = outputs[i];
+            int block = blockOfComponent[output];
+            // Sources (the bases behind each transition) keep their own values.
+            if (block == -1)
+                continue;
+            trueInputCounts[output] += delta;
+            if (block != skippedBlock) {
+                int word = block >> 6;
+                dirtyBlocks[word] |= 1L << block;
+                if (word < firstDirtyWord)
+                    firstDirtyWord = word;
+            }
+        }
+    }
+
+    private boolean getValueFromCount(int component)
+    {
+        FlatPropNet propNet = getPropNet();
+        int count = trueInputCounts[component];
+        switch (propNet.getTypes()[component]) {
+        case FlatPropNet.TYPE_AND:
+            int[] inputOffsets = propNet.getInputOffsets();
+            return count == inputOffsets[component + 1] - inputOffsets[component];
+        case FlatPropNet.TYPE_NOT:
+            return count == 0;
+        default:
+            // Propositions, ors and transitions are true if any input is.
+            return count > 0;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.FlatPropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.BaseIndex;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * FlatPropNetStateMachine is a complete propnet-based state machine. It
+ * builds a {@link org.ggp.base.util.propnet.architecture.PropNet} with the
+ * {@link OptimizingPropNetFactory}, on as many threads as there are cores,
+ * compiles it into a {@link FlatPropNet}, and then answers every query by
+ * writing a state into a flat vector of component values and propagating it
+ * through the network in topological order.
+ *
+ * States are represented by {@link BitSetMachineState}s over the network's
+ * {@link BaseIndex}. The machine remembers which state and
+ * joint move are currently loaded into the network, so a sequence of queries
+ * about the same state (legal moves for each role, terminality, goals) only
+ * propagates the network once.
+ *
+ * Like most state machines, this class is not thread-safe: the value vector
+ * is shared by every query. Threads that want to use the same game should
+ * each have their own machine; {@link #FlatPropNetStateMachine(FlatPropNet)}
+ * makes that cheap by sharing the compiled network.
+ */
+public class FlatPropNetStateMachine extends StateMachine
+{
+    private FlatPropNet propNet;
+    private List<Role> roles;
+    private MachineState initialState;
+
+    /** The current value of every component, indexed like the propnet. */
+    protected boolean[] values;
+
+    /** The bases currently loaded into the value vector, or null. */
+    private long[] loadedBits;
+    /** The input indices currently set in the value vector. */
+    private int[] loadedInputs;
+    private int loadedInputCount;
+
+    /** For each role, the input index of each of its legal propositions, or -1. */
+    private int[][] legalInputs;
+
+    public FlatPropNetStateMachine()
+    {
+
+    }
+
+    /**
+     * Creates a state machine over an already-compiled network. The machine
+     * is ready for use immediately; {@link #initialize(List)} does not need
+     * to be called.
+     */
+    public FlatPropNetStateMachine(FlatPropNet propNet)
+    {
+        setUp(propNet);
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try {
+            setUp(new FlatPropNet(OptimizingPropNetFactory.create(description, false, Runtime.getRuntime().availableProcessors(), null)));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Prepares the machine to run on the given network. This is called by
+     * {@link #initialize(List)} and by {@link #FlatPropNetStateMachine(FlatPropNet)};
+     * subclasses that need to set up their own state before the network is
+     * first propagated can call it themselves.
+     */
+    protected void setUp(FlatPropNet propNet)
+    {
+        this.propNet = propNet;
+        this.roles = propNet.getRoles();
+        this.loadedBits = null;
+        this.loadedInputs = new int[roles.size()];
+        this.loadedInputCount = 0;
+        this.legalInputs = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            List<Move> moves = propNet.getLegalMoves(r);
+            legalInputs[r] = new int[moves.size()];
+            for (int i = 0; i < moves.size(); i++) {
+                legalInputs[r][i] = propNet.getInputIndex(r, moves.get(i));
+            }
+        }
+        resetValues();
+        this.initialState = computeInitialState();
+    }
+
+    /**
+     * Sets up a fresh value vector for the network. Subclasses that keep
+     * additional per-component bookkeeping should set it up here too.
+     * <p>
+     * This is called during construction, so overrides must not depend on
+     * field initializers in the subclass.
+     */
+    protected void resetValues()
+    {
+        values = propNet.createValues();
+    }
+
+    /**
+     * Returns the compiled network that this machine runs on.
+     */
+    public FlatPropNet getPropNet()
+    {
+        return propNet;
+    }
+
+    private MachineState computeInitialState()
+    {
+        int init = propNet.getInitProposition();
+        writeBases(new long[getWordCount()]);
+        clearInputs();
+        if (init != -1)
+            setSourceValue(init, true);
+        propagate();
+        long[] bits = readNextBits();
+        if (init != -1)
+            setSourceValue(init, false);
+        loadedBits = null;
+        return propNet.getBaseIndex().createState(bits);
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        loadState(state);
+        int terminal = propNet.getTerminalProposition();
+        return terminal != -1 && values[terminal];
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        loadState(state);
+        int goal = readGoal(getRoleIndices().get(role));
+        if (goal == -1)
+            throw new GoalDefinitionException(state, role);
+        return goal;
+    }
+
+    /**
+     * Reads the goal value of the given role from the value vector, or
+     * returns -1 if the role does not have exactly one goal value.
+     */
+    private int readGoal(int roleIndex)
+    {
+        int[] goals = propNet.getGoalPropositions(roleIndex);
+        int[] goalValues = propNet.getGoalValues(roleIndex);
+        int goal = -1;
+        for (int i = 0; i < goals.length; i++) {
+            if (values[goals[i]]) {
+                if (goal != -1)
+                    return -1;
+                goal = goalValues[i];
+            }
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        List<Move> actions = propNet.getLegalMoves(getRoleIndices().get(role));
+        if (actions.isEmpty())
+            throw new MoveDefinitionException(initialState, role);
+        return actions;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        loadState(state);
+        int roleIndex = getRoleIndices().get(role);
+        int[] legals = propNet.getLegalPropositions(roleIndex);
+        List<Move> moves = propNet.getLegalMoves(roleIndex);
+        List<Move> legalMoves = new ArrayList<Move>();
+        for (int i = 0; i < legals.length; i++) {
+            if (values[legals[i]])
+                legalMoves.add(moves.get(i));
+        }
+        if (legalMoves.isEmpty())
+            throw new MoveDefinitionException(state, role);
+        return legalMoves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        if (moves.size() != roles.size())
+            throw new TransitionDefinitionException(state, moves);
+
+        long[] bits = toBitSetState(state).getBits();
+        writeBases(bits);
+        clearInputs();
+        for (int r = 0; r < moves.size(); r++) {
+            int input = propNet.getInputIndex(r, moves.get(r));
+            if (input != -1) {
+                setSourceValue(propNet.getInputPropositions()[input], true);
+                loadedInputs[loadedInputCount++] = input;
+            }
+        }
+        propagate();
+        loadedBits = bits;
+        return propNet.getBaseIndex().createState(readNextBits());
+    }
+
+    /**
+     * Plays the depth charge entirely inside the value vector: each step
+     * picks a random true legal proposition per role, sets its input, and
+     * copies the transitions' values straight back into the bases. No states
+     * or moves are created, except to report an error. A game without a
+     * terminal proposition can never be played out, so its depth charges
+     * fail with a GoalDefinitionException straight away.
+     */
+    @Override
+    public int performDepthCharge(MachineState state, DepthChargeContext context, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        Random random = context.getRandom();
+        int[] bases = propNet.getBasePropositions();
+        int[] sources = propNet.getBaseSources();
+        int[] inputs = propNet.getInputPropositions();
+        int terminal = propNet.getTerminalProposition();
+        if (terminal == -1)
+            throw new GoalDefinitionException(state, roles.get(0));
+
+        loadState(state);
+        // The value vector will no longer match any state that was loaded.
+        loadedBits = null;
+        int nDepth = 0;
+        while (!values[terminal]) {
+            clearInputs();
+            for (int r = 0; r < roles.size(); r++) {
+                int input = chooseRandomInput(r, random);
+                if (input != -1) {
+                    setSourceValue(inputs[input], true);
+                    loadedInputs[loadedInputCount++] = input;
+                }
+            }
+            propagate();
+            // Transitions only change during propagation, so the bases can
+            // be overwritten in place.
+            for (int i = 0; i < bases.length; i++) {
+                setSourceValue(bases[i], values[sources[i]]);
+            }
+            propagateState();
+            nDepth++;
+        }
+        for (int r = 0; r < roles.size(); r++) {
+            theGoals[r] = readGoal(r);
+            if (theGoals[r] == -1)
+                throw new GoalDefinitionException(readCurrentState(), roles.get(r));
+        }
+        return nDepth;
+    }
+
+    /**
+     * Returns the input index of a random legal move for the given role in
+     * the currently loaded state, or -1 if that move has no input proposition.
+     */
+    private int chooseRandomInput(int roleIndex, Random random) throws MoveDefinitionException
+    {
+        int[] legals = propNet.getLegalPropositions(roleIndex);
+        int count = 0;
+        for (int i = 0; i < legals.length; i++) {
+            if (values[legals[i]])
+                count++;
+        }
+        if (count == 0)
+            throw new MoveDefinitionException(readCurrentState(), roles.get(roleIndex));
+        int choice = random.nextInt(count);
+        for (int i = 0; ; i++) {
+            if (values[legals[i]] && choice-- == 0)
+                return legalInputs[roleIndex][i];
+        }
+    }
+
+    /**
+     * Builds a state from the bases in the value vector.
+     */
+    private MachineState readCurrentState()
+    {
+        int[] bases = propNet.getBasePropositions();
+        long[] bits = new long[getWordCount()];
+        for (int i = 0; i < bases.length; i++) {
+            if (values[bases[i]])
+                bits[i >> 6] |= 1L << i;
+        }
+        return propNet.getBaseIndex().createState(bits);
+    }
+
+    @Override
+    public BaseIndex getBaseIndex()
+    {
+        return propNet.getBaseIndex();
+    }
+
+    /**
+     * Converts a state produced by some other machine (or by the sentence
+     * list of a match) into this machine's representation.
+     */
+    private BitSetMachineState toBitSetState(MachineState state)
+    {
+        BaseIndex baseIndex = propNet.getBaseIndex();
+        if (state instanceof BitSetMachineState) {
+            BitSetMachineState bitSetState = (BitSetMachineState) state;
+            if (bitSetState.getIndex() == baseIndex)
+                return bitSetState;
+        }
+        return baseIndex.createState(state.getContents());
+    }
+
+    /**
+     * Makes sure the given state's bases are loaded into the value vector.
+     * Whichever inputs happen to be set are left alone, since legality,
+     * terminality and goals never depend on the moves being made.
+     */
+    private void loadState(MachineState state)
+    {
+        long[] bits = toBitSetState(state).getBits();
+        if (bits == loadedBits)
+            return;
+        if (loadedBits != null && Arrays.equals(bits, loadedBits)) {
+            loadedBits = bits;
+            return;
+        }
+        writeBases(bits);
+        propagateState();
+        loadedBits = bits;
+    }
+
+    /**
+     * Sets the value of a base, input or init proposition. The new value
+     * only needs to be visible in the rest of the network after the next
+     * call to {@link #propagate()}.
+     */
+    protected void setSourceValue(int component, boolean value)
+    {
+        values[component] = value;
+    }
+
+    /**
+     * Brings every computed component up to date with the current values
+     * of the sources.
+     */
+    protected void propagate()
+    {
+        propNet.propagate(values);
+    }
+
+    /**
+     * Brings the legal, goal and terminal propositions up to date with the
+     * current values of the sources. The transitions may be left stale, but
+     * must be brought up to date by the next call to {@link #propagate()}.
+     * By default this simply calls {@link #propagate()}.
+     */
+    protected void propagateState()
+    {
+        propagate();
+    }
+
+    private void writeBases(long[] bits)
+    {
+        int[] bases = propNet.getBasePropositions();
+        for (int i = 0; i < bases.length; i++) {
+            setSourceValue(bases[i], (bits[i >> 6] & (1L << i)) != 0);
+        }
+    }
+
+    private void clearInputs()
+    {
+        int[] inputs = propNet.getInputPropositions();
+        for (int i = 0; i < loadedInputCount; i++) {
+            setSourceValue(inputs[loadedInputs[i]], false);
+        }
+        loadedInputCount = 0;
+    }
+
+    private long[] readNextBits()
+    {
+        int[] sources = propNet.getBaseSources();
+        long[] bits = new long[getWordCount()];
+        for (int i = 0; i < sources.length; i++) {
+            if (values[sources[i]])
+                bits[i >> 6] |= 1L << i;
+        }
+        return bits;
+    }
+
+    private int getWordCount()
+    {
+        return propNet.getBaseIndex().getWordCount();
+    }
+}
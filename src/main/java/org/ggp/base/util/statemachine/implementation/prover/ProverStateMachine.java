@@ -11,6 +11,7 @@ import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.prover.Prover;
 import org.ggp.base.util.prover.aima.AimaProver;
+import org.ggp.base.util.prover.tabled.TabledProver;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -24,8 +25,14 @@ import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultP
 import com.google.common.collect.ImmutableList;
 
 
+/**
+ * ProverStateMachine answers queries about a game by running a theorem prover
+ * over its rules. By default it uses the {@link TabledProver}; the older
+ * {@link AimaProver} can still be chosen through the constructor.
+ */
 public class ProverStateMachine extends StateMachine
 {
+    private final boolean tabled;
     private MachineState initialState;
     private Prover prover;
     private ImmutableList<Role> roles;
@@ -35,13 +42,24 @@ public class ProverStateMachine extends StateMachine
      */
     public ProverStateMachine()
     {
+        this(true);
+    }
 
+    /**
+     * Initialize must be called before using the StateMachine
+     *
+     * @param tabled whether to use the {@link TabledProver} rather than the
+     *        {@link AimaProver}
+     */
+    public ProverStateMachine(boolean tabled)
+    {
+        this.tabled = tabled;
     }
 
     @Override
     public void initialize(List<Gdl> description)
     {
-        prover = new AimaProver(description);
+        prover = tabled ? new TabledProver(description) : new AimaProver(description);
         roles = ImmutableList.copyOf(Role.computeRoles(description));
         initialState = computeInitialState();
     }
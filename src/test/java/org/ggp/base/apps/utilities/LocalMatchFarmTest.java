@@ -0,0 +1,104 @@
+package org.ggp.base.apps.utilities;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.IISampleRandomGamer;
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.player.gamer.statemachine.sample.SampleLegalGamer;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocalMatchFarmTest extends Assert {
+    private static Game loadGame(String name) {
+        return Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(new File("games/games/" + name + "/" + name + ".kif"))));
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        Game game = loadGame("ticTacToe");
+        List<Class<? extends Gamer>> gamers = new ArrayList<Class<? extends Gamer>>();
+        gamers.add(RandomGamer.class);
+        gamers.add(SampleLegalGamer.class);
+        StringWriter output = new StringWriter();
+
+        LocalMatchFarm.AggregateData data = new LocalMatchFarm(game, "ticTacToe", gamers, 5, 2, output).run(8, 4);
+        assertEquals(0, data.failedMatches);
+
+        String[] lines = output.toString().trim().split("\n");
+        assertEquals(8, lines.length);
+        for (String line : lines) {
+            Match match = new Match(line, game, null);
+            assertTrue(match.isCompleted());
+            assertEquals(2, match.getGoalValues().size());
+            assertEquals(match.getMoveHistory().size() + 1, match.getStateHistory().size());
+        }
+        assertEquals(8, data.completedMatches);
+        assertEquals("", data.errors.toString());
+        // Both gamers should have played both roles.
+        assertTrue(data.averageScoreByRole.toString().contains("RandomGamer as xplayer"));
+        assertTrue(data.averageScoreByRole.toString().contains("RandomGamer as oplayer"));
+        assertTrue(data.averageScoreByRole.toString().contains("SampleLegalGamer as xplayer"));
+        assertTrue(data.averageScoreByRole.toString().contains("SampleLegalGamer as oplayer"));
+    }
+
+    /** Waits in the metagame until every role of the match has started. */
+    public static final class RendezvousGamer extends SampleGamer {
+        private static final CountDownLatch started = new CountDownLatch(2);
+        private static final AtomicInteger metBoth = new AtomicInteger();
+
+        @Override
+        public void stateMachineMetaGame(long timeout) {
+            started.countDown();
+            try {
+                if (started.await(3, TimeUnit.SECONDS))
+                    metBoth.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public Move stateMachineSelectMove(long timeout) throws MoveDefinitionException {
+            return getStateMachine().getLegalMoves(getCurrentState(), getRole()).get(0);
+        }
+    }
+
+    @Test
+    public void testRolesAreSentRequestsAtOnce() throws Exception {
+        Game game = loadGame("ticTacToe");
+        List<Class<? extends Gamer>> gamers = new ArrayList<Class<? extends Gamer>>();
+        gamers.add(RendezvousGamer.class);
+
+        LocalMatchFarm.AggregateData data = new LocalMatchFarm(game, "ticTacToe", gamers, 5, 2, null).run(1, 1);
+        assertEquals(1, data.completedMatches);
+        // Sent one after the other, the first gamer would give up waiting.
+        assertEquals(2, RendezvousGamer.metBoth.get());
+    }
+
+    @Test
+    public void testIncompleteInformation() throws Exception {
+        Game game = loadGame("mastermind");
+        List<Class<? extends Gamer>> gamers = new ArrayList<Class<? extends Gamer>>();
+        gamers.add(IISampleRandomGamer.class);
+        StringWriter output = new StringWriter();
+
+        LocalMatchFarm.AggregateData data = new LocalMatchFarm(game, "mastermind", gamers, 5, 2, output).run(2, 2);
+        assertEquals(0, data.failedMatches);
+        assertEquals(2, output.toString().trim().split("\n").length);
+        assertEquals(2, data.completedMatches);
+        assertEquals("", data.errors.toString());
+    }
+}
@@ -0,0 +1,166 @@
+package org.ggp.base.player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.util.gdl.grammar.DataFormat;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.http.AsyncHttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PollingGamePlayerTest extends Assert {
+
+    /**
+     * A stand-in for the game manager, which holds polls open until it has
+     * a message for the player, unless it is told not to.
+     */
+    private static final class LocalManager extends Thread {
+        private final ServerSocketChannel listener;
+        private final AsyncHttpServer server;
+        private final boolean longPoll;
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final Queue<String> messages = new LinkedList<String>();
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<String>();
+        private final AtomicInteger polls = new AtomicInteger();
+        private AsyncHttpServer.Exchange waiting;
+
+        LocalManager(boolean longPoll) throws IOException {
+            this.longPoll = longPoll;
+            listener = ServerSocketChannel.open();
+            listener.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            server = new AsyncHttpServer(listener, new AsyncHttpServer.Handler() {
+                @Override
+                public void handle(AsyncHttpServer.Exchange exchange) {
+                    if (exchange.getTarget().startsWith("/messages")) {
+                        poll(exchange);
+                    } else {
+                        replies.add(exchange.getContent());
+                        exchange.respond("");
+                    }
+                }
+            }, 60000);
+            setDaemon(true);
+            start();
+        }
+
+        String getUrl(String path) {
+            return "http://127.0.0.1:" + listener.socket().getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            server.run();
+        }
+
+        private synchronized void poll(final AsyncHttpServer.Exchange exchange) {
+            polls.incrementAndGet();
+            if (!messages.isEmpty()) {
+                exchange.respond(messages.poll());
+                return;
+            }
+            String target = exchange.getTarget();
+            int wait = Integer.parseInt(target.substring(target.indexOf("wait=") + "wait=".length()));
+            if (!longPoll || wait == 0) {
+                exchange.respond("");
+                return;
+            }
+            waiting = exchange;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire(exchange);
+                }
+            }, wait, TimeUnit.SECONDS);
+        }
+
+        private synchronized void expire(AsyncHttpServer.Exchange exchange) {
+            if (waiting == exchange) {
+                waiting = null;
+                exchange.respond("");
+            }
+        }
+
+        synchronized void send(String message) {
+            if (waiting != null) {
+                waiting.respond(message);
+                waiting = null;
+            } else {
+                messages.add(message);
+            }
+        }
+
+        /** Waits until the player has polled the given number of times, not counting its flush. */
+        void awaitPolls(int count) throws InterruptedException {
+            while (polls.get() < count + 1) {
+                Thread.sleep(10);
+            }
+        }
+
+        void shutdown() {
+            timer.shutdownNow();
+            server.close();
+        }
+    }
+
+    @After
+    public void restoreFormat() {
+        GdlPool.format = DataFormat.KIF;
+    }
+
+    @Test
+    public void testLongPollAnswersWithoutDelay() throws Exception {
+        LocalManager manager = new LocalManager(true);
+        PollingGamePlayer player = new PollingGamePlayer(manager.getUrl("/messages"), manager.getUrl("/replies"), new RandomGamer());
+        player.setDaemon(true);
+        player.start();
+        try {
+            manager.awaitPolls(1);
+            for (int i = 0; i < 5; i++) {
+                long sentAt = System.currentTimeMillis();
+                manager.send("message(" + i + ", manager, info)");
+                String reply = manager.replies.poll(5, TimeUnit.SECONDS);
+                assertNotNull(reply);
+                assertTrue(reply.contains("available"));
+                assertTrue(System.currentTimeMillis() - sentAt < PollingGamePlayer.POLL_INTERVAL / 2);
+            }
+            // Idle polls are held open rather than repeated.
+            int polls = manager.polls.get();
+            Thread.sleep(PollingGamePlayer.POLL_INTERVAL);
+            assertTrue(manager.polls.get() <= polls + 1);
+        } finally {
+            player.shutdown();
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testFallsBackToPollingAtIntervals() throws Exception {
+        LocalManager manager = new LocalManager(false);
+        PollingGamePlayer player = new PollingGamePlayer(manager.getUrl("/messages"), manager.getUrl("/replies"), new RandomGamer());
+        player.setDaemon(true);
+        player.start();
+        try {
+            manager.awaitPolls(1);
+            manager.send("message(1, manager, info)");
+            assertNotNull(manager.replies.poll(5, TimeUnit.SECONDS));
+            int polls = manager.polls.get();
+            Thread.sleep(2 * PollingGamePlayer.POLL_INTERVAL);
+            assertTrue(manager.polls.get() <= polls + 3);
+        } finally {
+            player.shutdown();
+            manager.shutdown();
+        }
+    }
+}
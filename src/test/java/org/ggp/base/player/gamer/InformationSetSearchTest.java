@@ -0,0 +1,101 @@
+package org.ggp.base.player.gamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIKleenePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InformationSetSearchTest extends Assert {
+
+    private static final ParticleFilter.ReplicaFactory FACTORY = new ParticleFilter.ReplicaFactory() {
+        @Override
+        public IIStateMachine createReplica(List<Gdl> description) throws Exception {
+            return createMachine(description);
+        }
+    };
+
+    private static IIStateMachine createMachine(List<Gdl> description) throws Exception {
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(description);
+        IIStateMachine machine = new IIKleenePropNetStateMachine();
+        machine.initialize(prover, description);
+        return machine;
+    }
+
+    private static List<Gdl> loadGame(String name) throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/" + name + "/" + name + ".kif"));
+        return Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+    }
+
+    /** Plays the first turn of mastermind, where random sets the colours. */
+    private static MachineState setColors(IIStateMachine machine, Random random) throws Exception {
+        MachineState state = machine.getInitialState();
+        List<Move> jointMove = new ArrayList<Move>();
+        for (Role role : machine.getRoles()) {
+            List<Move> legal = machine.getLegalMoves(state, role);
+            jointMove.add(legal.get(random.nextInt(legal.size())));
+        }
+        return machine.getNextState(state, jointMove);
+    }
+
+    @Test
+    public void testFindsTheColorsWhenTheyAreKnown() throws Exception {
+        List<Gdl> desc = loadGame("mastermind");
+        IIStateMachine machine = createMachine(desc);
+        Role random = machine.getRoles().get(0);
+        Role robot = machine.getRoles().get(1);
+
+        InformationSetSearch search = new InformationSetSearch(machine, robot, FACTORY, desc, 2);
+        try {
+            MachineState state = setColors(machine, new Random(5));
+            List<Move> legal = machine.getLegalMoves(state, robot);
+            Move move = search.search(Collections.singletonList(state), legal, System.currentTimeMillis() + 2000);
+            assertTrue(search.getIterations() > 0);
+
+            // The guess must end the game with a win.
+            List<Move> jointMove = new ArrayList<Move>();
+            jointMove.add(machine.getLegalMoves(state, random).get(0));
+            jointMove.add(move);
+            MachineState next = machine.getNextState(state, jointMove);
+            assertTrue(machine.isTerminal(next));
+            assertEquals(100, machine.getGoal(next, robot));
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    @Test
+    public void testReturnsALegalMove() throws Exception {
+        List<Gdl> desc = loadGame("mastermind2x3");
+        IIStateMachine machine = createMachine(desc);
+        Role robot = machine.getRoles().get(1);
+
+        InformationSetSearch search = new InformationSetSearch(machine, robot, FACTORY, desc, 2);
+        try {
+            Random random = new Random(7);
+            List<MachineState> determinizations = new ArrayList<MachineState>();
+            for (int i = 0; i < 10; i++) {
+                determinizations.add(setColors(machine, random));
+            }
+            List<Move> legal = machine.getLegalMoves(determinizations.get(0), robot);
+            Move move = search.search(determinizations, legal, System.currentTimeMillis() + 500);
+            assertTrue(legal.contains(move));
+        } finally {
+            search.shutdown();
+        }
+    }
+}
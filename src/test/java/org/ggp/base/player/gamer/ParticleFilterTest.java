@@ -0,0 +1,72 @@
+package org.ggp.base.player.gamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIKleenePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IIStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParticleFilterTest extends Assert {
+
+    private static IIStateMachine createMachine(List<Gdl> description) throws Exception {
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(description);
+        IIStateMachine machine = new IIKleenePropNetStateMachine();
+        machine.initialize(prover, description);
+        return machine;
+    }
+
+    @Test
+    public void testParticlesMatchTheSees() throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/mastermind2x3/mastermind2x3.kif"));
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        IIStateMachine machine = createMachine(desc);
+        Role robot = machine.getRoles().get(1);
+
+        Random random = new Random(3);
+        for (int match = 0; match < 5; match++) {
+            ParticleFilter filter = new ParticleFilter(machine, robot, 50, new ParticleFilter.ReplicaFactory() {
+                @Override
+                public IIStateMachine createReplica(List<Gdl> description) throws Exception {
+                    return createMachine(description);
+                }
+            }, desc, 2);
+            try {
+                MachineState state = machine.getInitialState();
+                while (!machine.isTerminal(state)) {
+                    List<Move> jointMove = new ArrayList<Move>();
+                    for (Role role : machine.getRoles()) {
+                        List<Move> legal = machine.getLegalMoves(state, role);
+                        jointMove.add(legal.get(random.nextInt(legal.size())));
+                    }
+                    state = machine.getNextState(state, jointMove);
+                    // Each turn gets a new sees state, as in IIGamer.
+                    SeesState sees = new SeesState(robot, machine.getSeesState(state, robot).getSees());
+                    filter.update(jointMove.get(1), sees, System.currentTimeMillis() + 10000);
+
+                    assertTrue(filter.size() > 0);
+                    assertTrue(filter.size() <= 50);
+                    for (MachineState particle : filter.sampleConsistentStates(10)) {
+                        assertEquals(sees.getSees(), machine.getSeesState(particle, robot).getSees());
+                        assertEquals(machine.getLegalMoves(state, robot), machine.getLegalMoves(particle, robot));
+                    }
+                }
+            } finally {
+                filter.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.List;
+
+import org.ggp.base.player.gamer.statemachine.DepthChargeService.MoveStatistics;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.FlatPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DepthChargeServiceTest extends Assert {
+
+    @Test
+    public void testEvaluatesEveryMove() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        final FlatPropNetStateMachine prototype = new FlatPropNetStateMachine();
+        prototype.initialize(desc);
+        DepthChargeService service = new DepthChargeService(new DepthChargeService.ReplicaFactory() {
+            @Override
+            public StateMachine createReplica(List<Gdl> description) {
+                return new DifferentialPropNetStateMachine(prototype.getPropNet());
+            }
+        }, desc, 3);
+        try {
+            assertEquals(3, service.getThreadCount());
+
+            // States and roles from a different state machine are accepted.
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            MachineState state = prover.getInitialState();
+            Role xRole = prover.getRoles().get(0);
+            List<Move> moves = prover.getLegalMoves(state, xRole);
+
+            MoveStatistics statistics = service.evaluateMoves(state, xRole, moves, System.currentTimeMillis() + 500);
+            assertEquals(moves, statistics.getMoves());
+            for (int i = 0; i < moves.size(); i++) {
+                assertTrue(statistics.getAttempts(i) > 0);
+                assertTrue(statistics.getAverageScore(i) >= 0 && statistics.getAverageScore(i) <= 100);
+            }
+            assertTrue(moves.contains(statistics.getBestMove()));
+        } finally {
+            service.shutdown();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.FlatPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MonteCarloTreeSearchTest extends Assert {
+
+    private static MonteCarloTreeSearch createSearch(List<Gdl> desc, int maxNodes) throws Exception {
+        final FlatPropNetStateMachine prototype = new FlatPropNetStateMachine();
+        prototype.initialize(desc);
+        return new MonteCarloTreeSearch(new DepthChargeService.ReplicaFactory() {
+            @Override
+            public StateMachine createReplica(List<Gdl> description) {
+                return new DifferentialPropNetStateMachine(prototype.getPropNet());
+            }
+        }, desc, maxNodes, 3);
+    }
+
+    private static Move move(String move) throws Exception {
+        return new Move(GdlFactory.createTerm(move));
+    }
+
+    @Test
+    public void testFindsWinningMove() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        MonteCarloTreeSearch search = createSearch(desc, 100000);
+        try {
+            // States and roles from a different state machine are accepted.
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            Role xRole = prover.getRoles().get(0);
+            MachineState state = prover.getInitialState();
+            search.updateRoot(state);
+            state = prover.getNextState(state, Arrays.asList(move("( mark 1 1 )"), move("noop")));
+            state = prover.getNextState(state, Arrays.asList(move("noop"), move("( mark 2 1 )")));
+            state = prover.getNextState(state, Arrays.asList(move("( mark 1 2 )"), move("noop")));
+            state = prover.getNextState(state, Arrays.asList(move("noop"), move("( mark 2 2 )")));
+            search.updateRoot(state);
+
+            assertEquals(move("( mark 1 3 )"), search.search(xRole, System.currentTimeMillis() + 1000));
+            assertTrue(search.getIterations() > 0);
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeepsTreeWithinLimit() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        MonteCarloTreeSearch search = createSearch(desc, 200);
+        try {
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            Role xRole = prover.getRoles().get(0);
+            MachineState state = prover.getInitialState();
+            search.updateRoot(state);
+            Move selection = search.search(xRole, System.currentTimeMillis() + 500);
+            assertEquals(200, search.getNodeCount());
+
+            // Rerooting keeps the subtree below the new root, pruned to
+            // three quarters of the limit.
+            state = prover.getNextState(state, Arrays.asList(selection, move("noop")));
+            search.updateRoot(state);
+            assertTrue(search.getNodeCount() > 1);
+            assertTrue(search.getNodeCount() <= 150);
+
+            search.search(prover.getRoles().get(1), System.currentTimeMillis() + 500);
+            assertTrue(search.getNodeCount() <= 200);
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrunesOnlyWhatIsNeeded() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        MonteCarloTreeSearch search = createSearch(desc, 200);
+        try {
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            MachineState state = prover.getInitialState();
+            search.updateRoot(state);
+            search.search(prover.getRoles().get(0), System.currentTimeMillis() + 500);
+            assertEquals(200, search.getNodeCount());
+
+            // Keeping the same root, the tree is pruned by visits alone, to
+            // three quarters of the limit and not much further.
+            search.updateRoot(state);
+            assertTrue(search.getNodeCount() <= 150);
+            assertTrue(search.getNodeCount() > 100);
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    @Test
+    public void testSearchesWhenMoveIsForced() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        MonteCarloTreeSearch search = createSearch(desc, 100000);
+        try {
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            Role oRole = prover.getRoles().get(1);
+            search.updateRoot(prover.getInitialState());
+
+            // The o player can only play noop, but the tree still grows.
+            assertEquals(move("noop"), search.search(oRole, System.currentTimeMillis() + 500));
+            assertTrue(search.getIterations() > 0);
+            assertTrue(search.getNodeCount() > 1);
+        } finally {
+            search.shutdown();
+        }
+    }
+}
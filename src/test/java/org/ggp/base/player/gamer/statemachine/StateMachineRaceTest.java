@@ -0,0 +1,52 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.FlatPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateMachineRaceTest extends Assert {
+
+    private static void awaitFinish(StateMachineRace race) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + 30000;
+        while (!race.isFinished() && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(10);
+        }
+        assertTrue(race.isFinished());
+    }
+
+    @Test
+    public void testFasterMachineWins() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        FlatPropNetStateMachine challenger = new FlatPropNetStateMachine();
+        StateMachineRace race = new StateMachineRace(new ProverStateMachine(), challenger, desc, 200);
+        assertFalse(race.isFinished());
+        race.start();
+        awaitFinish(race);
+        assertSame(challenger, race.getWinner());
+    }
+
+    @Test
+    public void testInconsistentMachineLoses() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        // Forgets all but one of the legal moves.
+        ProverStateMachine challenger = new ProverStateMachine() {
+            @Override
+            public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+                return super.getLegalMoves(state, role).subList(0, 1);
+            }
+        };
+        StateMachineRace race = new StateMachineRace(new ProverStateMachine(), challenger, desc, 200);
+        race.start();
+        awaitFinish(race);
+        assertNull(race.getWinner());
+    }
+}
@@ -0,0 +1,22 @@
+package org.ggp.base.player.request.factory;
+
+import org.ggp.base.util.gdl.grammar.DataFormat;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestFactoryTest extends Assert {
+
+    @Test
+    public void testHrfEndOfFileOnly() throws Exception {
+        DataFormat format = GdlPool.format;
+        GdlPool.format = DataFormat.HRF;
+        try {
+            // A message that is just Ctrl-Z asks for nothing.
+            assertNull(new RequestFactory().create(null, "\u001a"));
+            assertNull(new RequestFactory().create(null, "  \u001a"));
+        } finally {
+            GdlPool.format = format;
+        }
+    }
+}
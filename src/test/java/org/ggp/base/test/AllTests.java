@@ -1,19 +1,43 @@
 package org.ggp.base.test;
 
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
+import org.ggp.base.apps.utilities.LocalMatchFarmTest;
+import org.ggp.base.player.PollingGamePlayerTest;
+import org.ggp.base.player.gamer.InformationSetSearchTest;
+import org.ggp.base.player.gamer.ParticleFilterTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
+import org.ggp.base.player.gamer.statemachine.DepthChargeServiceTest;
+import org.ggp.base.player.gamer.statemachine.MonteCarloTreeSearchTest;
+import org.ggp.base.player.gamer.statemachine.StateMachineRaceTest;
 import org.ggp.base.player.gamer.python.PythonGamerTest;
+import org.ggp.base.player.request.factory.RequestFactoryTest;
 import org.ggp.base.util.crypto.BaseCryptographyTest;
 import org.ggp.base.util.crypto.CanonicalJSONTest;
 import org.ggp.base.util.crypto.SignableJSONTest;
 import org.ggp.base.util.game.GameParsingTest;
+import org.ggp.base.util.gdl.factory.GdlParserTest;
 import org.ggp.base.util.gdl.model.DependencyGraphsTest;
 import org.ggp.base.util.gdl.model.SimpleSentenceFormTest;
 import org.ggp.base.util.gdl.scrambler.GdlRendererTest;
 import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
+import org.ggp.base.util.http.AsyncHttpClientTest;
+import org.ggp.base.util.http.AsyncHttpServerTest;
 import org.ggp.base.util.http.HttpTest;
+import org.ggp.base.util.match.MatchJournalTest;
+import org.ggp.base.util.match.StateHistoryTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactoryTest;
+import org.ggp.base.util.prover.tabled.TabledProverTest;
+import org.ggp.base.util.statemachine.BitSetMachineStateTest;
+import org.ggp.base.util.statemachine.SeesStateTest;
+import org.ggp.base.util.statemachine.cache.CachedStateMachineTest;
+import org.ggp.base.util.statemachine.iistatemachine.IIKleenePropNetStateMachineTest;
+import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.forward.ForwardChainingStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.FlatPropNetStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
@@ -21,22 +45,46 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+	AsyncHttpClientTest.class,
+	AsyncHttpServerTest.class,
 	BaseCryptographyTest.class,
+	BitSetMachineStateTest.class,
+	CachedStateMachineTest.class,
 	CanonicalJSONTest.class,
 	ClojureGamerTest.class,
+	CompiledPropNetStateMachineTest.class,
 	DependencyGraphsTest.class,
+	DepthChargeServiceTest.class,
+	DifferentialPropNetStateMachineTest.class,
+	FlatPropNetStateMachineTest.class,
+	ForwardChainingStateMachineTest.class,
 	GameParsingTest.class,
 	GdlCleanerTest.class,
+	GdlParserTest.class,
 	GdlRendererTest.class,
 	GdlScramblerTest.class,
 	HttpTest.class,
+	IIKleenePropNetStateMachineTest.class,
+	IISamplePropNetStateMachineTest.class,
 	InfoResponseTest.class,
+	InformationSetSearchTest.class,
+	LocalMatchFarmTest.class,
+	MatchJournalTest.class,
+	MonteCarloTreeSearchTest.class,
 	NoTabsInRulesheetsTest.class,
+	OptimizingPropNetFactoryTest.class,
+	ParticleFilterTest.class,
+	PollingGamePlayerTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
+	RequestFactoryTest.class,
+	SeesStateTest.class,
 	SignableJSONTest.class,
 	SimpleSentenceFormTest.class,
+	StateHistoryTest.class,
+	StateMachineRaceTest.class,
 	StaticValidationTest.class,
+	TabledProverTest.class,
 	TiltyardRequestFarmTest.class,
                      })
 public class AllTests {
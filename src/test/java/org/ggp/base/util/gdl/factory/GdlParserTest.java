@@ -0,0 +1,133 @@
+package org.ggp.base.util.gdl.factory;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.DataFormat;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.SymbolList;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdlParserTest extends Assert {
+
+    @Test
+    public void testMatchesSymbolFactory() throws Exception {
+        GameRepository repository = new TestGameRepository();
+        for (String key : repository.getGameKeys()) {
+            String rulesheet = repository.getGame(key).getRulesheet();
+            List<Gdl> expected = new ArrayList<Gdl>();
+            SymbolList symbols = (SymbolList) SymbolFactory.create(rulesheet);
+            for (int i = 0; i < symbols.size(); i++) {
+                expected.add(GdlFactory.create(symbols.get(i)));
+            }
+            assertEquals(key, expected, new GdlParser(rulesheet, DataFormat.KIF).nextRulesheet());
+            assertEquals(key, expected, new GdlParser(new StringReader(rulesheet), DataFormat.KIF).nextRulesheet());
+        }
+    }
+
+    @Test
+    public void testKif() throws Exception {
+        assertEquals(GdlFactory.create(SymbolFactory.create("( <= ( p ?x ) ( NOT ( q ?x ) ) ( Distinct ?x a ) ( or r ( s X ) ) )")),
+                GdlFactory.create("(<= (p ?x)\n\t(NOT (q ?x)) ; comment\n\t(Distinct ?x a) (or r (s X)))"));
+        assertEquals(Arrays.asList(GdlFactory.createTerm("( f a )"), GdlFactory.createTerm("?b")),
+                GdlFactory.createTermList("(f a) ?b"));
+        assertEquals(null, new GdlParser("nil", DataFormat.KIF).nextTermList());
+    }
+
+    @Test
+    public void testHrf() throws Exception {
+        assertEquals(GdlFactory.create("( <= ( legal W ( mark X Y ) ) ( true ( cell X Y b ) ) ( not open ) ( distinct X Y ) )"),
+                new GdlParser("legal(W, mark(X, Y)) :- true(cell(X, Y, b)) & ~open & distinct(X, Y)", DataFormat.HRF).nextGdl());
+        assertEquals(GdlFactory.create("( <= p ( or q ( not r ) ) s )"),
+                new GdlParser("p :- (q | ~r) & s", DataFormat.HRF).nextGdl());
+        assertEquals(GdlFactory.create("( <= p ( or q r ) )"),
+                new GdlParser("p :- q | r", DataFormat.HRF).nextGdl());
+        assertEquals(GdlFactory.createTerm("( cons a ( cons ( f B ) nil ) )"),
+                new GdlParser("[a, f(B)]", DataFormat.HRF).nextTerm());
+
+        List<Gdl> rules = new GdlParser("[role(white), role(black), % comment\n terminal :- ~open]", DataFormat.HRF).nextRulesheet();
+        assertEquals(GdlFactory.createList("( role white ) ( role black ) ( <= terminal ( not open ) )"), rules);
+        assertEquals(rules, new GdlParser(new StringReader("role(white)\nrole(black)\nterminal :- ~open\n"), DataFormat.HRF).nextRulesheet());
+    }
+
+    @Test(expected = GdlFormatException.class)
+    public void testHrfDisjunctionOfConjunctions() throws Exception {
+        new GdlParser("p :- q & r | s", DataFormat.HRF).nextGdl();
+    }
+
+    @Test
+    public void testHrfEndOfFile() throws Exception {
+        // HRF messages may end with Ctrl-Z, which is not whitespace.
+        assertFalse(new GdlParser("\u001a", DataFormat.HRF).hasNext());
+        assertFalse(new GdlParser(" % comment\u001a", DataFormat.HRF).hasNext());
+        GdlParser parser = new GdlParser("f(a)\u001a g(b)", DataFormat.HRF);
+        assertEquals(GdlFactory.createTerm("( f a )"), parser.nextTerm());
+        assertFalse(parser.hasNext());
+        assertFalse(parser.hasNext());
+    }
+
+    @Test
+    public void testCompounds() throws Exception {
+        GdlParser parser = new GdlParser("message(1, manager, start(m1, white, [role(white), p :- q], 10, 5))", DataFormat.HRF);
+        assertEquals("message", parser.beginCompound());
+        assertTrue(parser.hasNextArgument());
+        assertEquals("1", parser.nextAtom());
+        assertTrue(parser.hasNextArgument());
+        assertEquals("manager", parser.nextAtom());
+        assertTrue(parser.hasNextArgument());
+        assertEquals("start", parser.beginCompound());
+        assertTrue(parser.hasArguments());
+        assertTrue(parser.hasNextArgument());
+        assertEquals("m1", parser.nextAtom());
+        assertTrue(parser.hasNextArgument());
+        assertEquals(GdlFactory.createTerm("white"), parser.nextTerm());
+        assertTrue(parser.hasNextArgument());
+        String rulesheet = parser.nextExpressionText();
+        assertTrue(parser.hasNextArgument());
+        assertEquals("10", parser.nextAtom());
+        assertTrue(parser.hasNextArgument());
+        assertEquals("5", parser.nextAtom());
+        assertFalse(parser.hasNextArgument());
+        parser.endCompound();
+        assertFalse(parser.hasNextArgument());
+        parser.endCompound();
+        assertFalse(parser.hasNext());
+
+        assertEquals(GdlFactory.createList("( role white ) ( <= p q )"),
+                new GdlParser(rulesheet, DataFormat.HRF).nextRulesheet());
+
+        parser = new GdlParser("( play m1 ( ( mark 1 2 ) noop ) )", DataFormat.KIF);
+        assertEquals("play", parser.beginCompound());
+        assertTrue(parser.hasNextArgument());
+        assertEquals("m1", parser.nextAtom());
+        assertTrue(parser.hasNextArgument());
+        List<GdlTerm> moves = parser.nextTermList();
+        assertEquals(Arrays.asList(GdlFactory.createTerm("( mark 1 2 )"), GdlFactory.createTerm("noop")), moves);
+        assertFalse(parser.hasNextArgument());
+        parser.endCompound();
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        String[] malformed = { "( f a", "( ( f ) a )", ")", "" };
+        for (String term : malformed) {
+            try {
+                GdlFactory.createTerm(term);
+                fail("Parsed " + term);
+            } catch (SymbolFormatException e) {
+                // Expected.
+            }
+        }
+        assertNull(Game.createEphemeralGame("( ( p ) ").getRules());
+    }
+}
@@ -0,0 +1,172 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncHttpClientTest extends Assert {
+
+    /**
+     * Answers every request by echoing it back, after the given delay,
+     * closing or keeping each connection.
+     */
+    private static final class EchoServer extends Thread {
+        private final ServerSocket listener;
+        private final boolean keepAlive;
+        private final long delay;
+        private final AtomicInteger connections = new AtomicInteger();
+        // The number of requests read but not yet answered, and its peak.
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        EchoServer(boolean keepAlive) throws IOException {
+            this(keepAlive, 0);
+        }
+
+        EchoServer(boolean keepAlive, long delay) throws IOException {
+            this.listener = new ServerSocket(0);
+            this.keepAlive = keepAlive;
+            this.delay = delay;
+            setDaemon(true);
+            start();
+        }
+
+        int getPort() {
+            return listener.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket connection = listener.accept();
+                    connections.incrementAndGet();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            serve(connection);
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                ;
+            }
+        }
+
+        private void serve(Socket connection) {
+            try {
+                do {
+                    String in = HttpReader.readAsServer(connection);
+                    int n = inFlight.incrementAndGet();
+                    while (true) {
+                        int max = maxInFlight.get();
+                        if (n <= max || maxInFlight.compareAndSet(max, n))
+                            break;
+                    }
+                    Thread.sleep(delay);
+                    // Counted down before answering, since the client may
+                    // start its next request as soon as the answer arrives.
+                    inFlight.decrementAndGet();
+                    if (keepAlive) {
+                        PrintWriter pw = new PrintWriter(connection.getOutputStream());
+                        pw.print("HTTP/1.0 200 OK\r\n");
+                        pw.print("Content-length: " + in.length() + "\r\n");
+                        pw.print("Connection: keep-alive\r\n");
+                        pw.print("\r\n");
+                        pw.print(in);
+                        pw.flush();
+                    } else {
+                        HttpWriter.writeAsServer(connection, in);
+                    }
+                } while (keepAlive);
+                connection.close();
+            } catch (IOException e) {
+                ;
+            } catch (InterruptedException e) {
+                ;
+            }
+        }
+
+        void shutdown() throws IOException {
+            listener.close();
+        }
+    }
+
+    @Test
+    public void testEchoWithoutKeepAlive() throws Exception {
+        EchoServer server = new EchoServer(false);
+        AsyncHttpClient client = new AsyncHttpClient(AsyncHttpClient.DEFAULT_MAX_IN_FLIGHT_PER_HOST);
+        try {
+            for (int i = 0; i < 3; i++) {
+                AsyncHttpClient.Response response = client.issueRequest("127.0.0.1", server.getPort(), "SamplePlayer", "( play match " + i + " nil )", 5000);
+                assertEquals("( play match " + i + " nil )", response.get());
+                assertTrue(response.getLatency() >= 0);
+            }
+            assertEquals(3, server.connections.get());
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeepAliveReusesTheConnection() throws Exception {
+        EchoServer server = new EchoServer(true);
+        AsyncHttpClient client = new AsyncHttpClient(AsyncHttpClient.DEFAULT_MAX_IN_FLIGHT_PER_HOST);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals("request " + i, client.issueRequest("127.0.0.1", server.getPort(), "", "request " + i, 5000).get());
+            }
+            assertEquals(1, server.connections.get());
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testManyRequestsWithABoundOnThoseInFlight() throws Exception {
+        EchoServer server = new EchoServer(false, 20);
+        AsyncHttpClient client = new AsyncHttpClient(2);
+        try {
+            AsyncHttpClient.Response[] responses = new AsyncHttpClient.Response[20];
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = client.issueRequest("127.0.0.1", server.getPort(), "", "request " + i, 5000);
+            }
+            for (int i = 0; i < responses.length; i++) {
+                assertEquals("request " + i, responses[i].get());
+            }
+            assertEquals(2, server.maxInFlight.get());
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ServerSocket silent = new ServerSocket(0);
+        AsyncHttpClient client = new AsyncHttpClient(AsyncHttpClient.DEFAULT_MAX_IN_FLIGHT_PER_HOST);
+        try {
+            AsyncHttpClient.Response response = client.issueRequest("127.0.0.1", silent.getLocalPort(), "", "( ping )", 200);
+            try {
+                response.get();
+                fail("The request should have timed out.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+            assertTrue(response.isTimeout());
+            assertTrue(response.getLatency() >= 200);
+        } finally {
+            client.close();
+            silent.close();
+        }
+    }
+}
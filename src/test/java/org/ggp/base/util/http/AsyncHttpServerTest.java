@@ -0,0 +1,143 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncHttpServerTest extends Assert {
+
+    /** Echoes every request, holding back those that start with "slow" until released. */
+    private static final class EchoServer extends Thread {
+        private final ServerSocketChannel listener;
+        private final AsyncHttpServer server;
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        EchoServer(int timeout) throws IOException {
+            listener = ServerSocketChannel.open();
+            listener.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            server = new AsyncHttpServer(listener, new AsyncHttpServer.Handler() {
+                @Override
+                public void handle(final AsyncHttpServer.Exchange exchange) {
+                    if (!exchange.getContent().startsWith("slow")) {
+                        exchange.respond(exchange.getContent());
+                        return;
+                    }
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                ;
+                            }
+                            exchange.respond(exchange.getContent());
+                        }
+                    }.start();
+                }
+            }, timeout);
+            setDaemon(true);
+            start();
+        }
+
+        int getPort() {
+            return listener.socket().getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            server.run();
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        StringBuilder s = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            s.append((char) c);
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        EchoServer server = new EchoServer(5000);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals("( play match " + i + " nil )", HttpRequest.issueRequest("127.0.0.1", server.getPort(), "", "( play match " + i + " nil )", 5000));
+            }
+        } finally {
+            server.server.close();
+        }
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        EchoServer server = new EchoServer(5000);
+        AsyncHttpClient client = new AsyncHttpClient(1);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals("request " + i, client.issueRequest("127.0.0.1", server.getPort(), "", "request " + i, 5000).get());
+            }
+        } finally {
+            client.close();
+            server.server.close();
+        }
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        EchoServer server = new EchoServer(5000);
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /(%20info%20) HTTP/1.0\r\n\r\n".getBytes("UTF-8"));
+            out.flush();
+            String response = readFully(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.0 200 OK\r\n"));
+            assertTrue(response.endsWith("\r\n\r\n( info )"));
+        } finally {
+            socket.close();
+            server.server.close();
+        }
+    }
+
+    @Test
+    public void testSlowRequestDoesNotHoldUpOthers() throws Exception {
+        EchoServer server = new EchoServer(5000);
+        AsyncHttpClient client = new AsyncHttpClient(AsyncHttpClient.DEFAULT_MAX_IN_FLIGHT_PER_HOST);
+        try {
+            AsyncHttpClient.Response slow = client.issueRequest("127.0.0.1", server.getPort(), "", "slow ( play )", 5000);
+            assertEquals("( info )", client.issueRequest("127.0.0.1", server.getPort(), "", "( info )", 5000).get());
+            assertFalse(slow.isDone());
+            server.release.countDown();
+            assertEquals("slow ( play )", slow.get());
+        } finally {
+            client.close();
+            server.server.close();
+        }
+    }
+
+    @Test
+    public void testStalledConnectionTimesOut() throws Exception {
+        EchoServer server = new EchoServer(200);
+        Socket stalled = new Socket("127.0.0.1", server.getPort());
+        try {
+            OutputStream out = stalled.getOutputStream();
+            out.write("POST / HTTP/1.0\r\nContent-length: 100\r\n\r\n( play".getBytes("UTF-8"));
+            out.flush();
+            assertEquals("( info )", HttpRequest.issueRequest("127.0.0.1", server.getPort(), "", "( info )", 5000));
+            stalled.setSoTimeout(5000);
+            assertEquals("", readFully(stalled.getInputStream()));
+        } finally {
+            stalled.close();
+            server.server.close();
+        }
+    }
+}
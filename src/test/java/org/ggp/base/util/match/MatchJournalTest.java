@@ -0,0 +1,95 @@
+package org.ggp.base.util.match;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MatchJournalTest extends Assert {
+
+    private static void assertSameHistory(Match expected, Match actual) {
+        assertEquals(expected.getMatchId(), actual.getMatchId());
+        assertEquals(expected.getStateHistory(), actual.getStateHistory());
+        assertEquals(expected.getMoveHistory(), actual.getMoveHistory());
+        assertEquals(expected.getErrorHistory(), actual.getErrorHistory());
+        assertEquals(expected.getStateTimeHistory(), actual.getStateTimeHistory());
+        assertEquals(expected.isCompleted(), actual.isCompleted());
+        assertEquals(expected.getGoalValues(), actual.getGoalValues());
+    }
+
+    @Test
+    public void testReplayAndCompaction() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        StateMachine machine = new ProverStateMachine();
+        machine.initialize(game.getRules());
+        Match match = new Match("journal-test", -1, 10, 5, game, "");
+        MachineState state = machine.getInitialState();
+        match.appendState(state.getContents());
+
+        File file = File.createTempFile("match", ".json");
+        file.deleteOnExit();
+        MatchJournal journal = new MatchJournal(match, file);
+        while (!machine.isTerminal(state)) {
+            List<Move> moves = machine.getRandomJointMove(state);
+            state = machine.getNextState(state, moves);
+            match.appendMoves2(moves);
+            match.appendState(state.getContents());
+            match.appendErrors(Arrays.asList("", "TO"));
+            journal.sync();
+
+            // Each sync leaves a journal that replays to the match so far.
+            String text = FileUtils.readFileAsString(file);
+            assertTrue(MatchJournal.isJournal(text));
+            assertSameHistory(match, new Match(text, game, null));
+        }
+        match.markCompleted(machine.getGoals(state));
+        journal.sync();
+
+        // A line that was only partly written when the server went down is ignored.
+        FileWriter writer = new FileWriter(file, true);
+        writer.write("{\"append\":\"states\",\"val");
+        writer.close();
+        Match recovered = new Match(FileUtils.readFileAsString(file), game, null);
+        assertSameHistory(match, recovered);
+        assertTrue(recovered.isCompleted());
+        journal.close();
+
+        MatchJournal.compact(match, file);
+        String text = FileUtils.readFileAsString(file);
+        assertFalse(MatchJournal.isJournal(text));
+        assertEquals(match.toJSON(), text);
+        assertSameHistory(match, new Match(text, game, null));
+    }
+
+    @Test
+    public void testIncompleteInformationMatch() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        IIMatch match = new IIMatch("journal-test", -1, 10, 5, game, "");
+        File file = File.createTempFile("match", ".json");
+        file.deleteOnExit();
+        MatchJournal journal = new MatchJournal(match, file);
+
+        GdlTerm see = GdlFactory.createTerm("( saw something )");
+        match.appendSees(new HashSet<GdlTerm>(Collections.singleton(see)));
+        match.appendSees(new HashSet<GdlTerm>());
+        journal.sync();
+        journal.close();
+
+        IIMatch recovered = new IIMatch(FileUtils.readFileAsString(file), game, null);
+        assertEquals(match.getSeesHistory(), recovered.getSeesHistory());
+    }
+}
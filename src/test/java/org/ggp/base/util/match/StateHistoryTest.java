@@ -0,0 +1,69 @@
+package org.ggp.base.util.match;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateHistoryTest extends Assert {
+
+    private static GdlSentence sentence(int i) throws Exception {
+        return (GdlSentence) GdlFactory.create("( true ( f " + i + " ) )");
+    }
+
+    @Test
+    public void testRebuildsEveryState() throws Exception {
+        // States that change a few sentences at a time, as in most games,
+        // over several keyframes.
+        Random random = new Random(42);
+        List<Set<GdlSentence>> expected = new ArrayList<Set<GdlSentence>>();
+        StateHistory history = new StateHistory();
+        assertNull(history.getMostRecent());
+        Set<GdlSentence> state = new HashSet<GdlSentence>();
+        for (int i = 0; i < 10; i++) {
+            state.add(sentence(i));
+        }
+        for (int t = 0; t < 3 * StateHistory.KEYFRAME_INTERVAL + 5; t++) {
+            for (int k = 0; k < 3; k++) {
+                GdlSentence s = sentence(random.nextInt(20));
+                if (!state.remove(s)) {
+                    state.add(s);
+                }
+            }
+            expected.add(new HashSet<GdlSentence>(state));
+            history.add(state);
+            assertEquals(state, history.getMostRecent());
+        }
+
+        assertEquals(expected.size(), history.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), history.get(i));
+        }
+        Iterator<Set<GdlSentence>> it = history.iterator();
+        for (Set<GdlSentence> s : expected) {
+            assertEquals(s, it.next());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(expected, history);
+    }
+
+    @Test
+    public void testStatesAreCopies() throws Exception {
+        StateHistory history = new StateHistory();
+        Set<GdlSentence> state = new HashSet<GdlSentence>();
+        state.add(sentence(1));
+        history.add(state);
+
+        state.add(sentence(2));
+        history.get(0).add(sentence(3));
+        assertEquals(1, history.get(0).size());
+        assertTrue(history.get(0).contains(sentence(1)));
+    }
+}
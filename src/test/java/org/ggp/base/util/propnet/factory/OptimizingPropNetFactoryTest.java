@@ -0,0 +1,81 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.propnet.architecture.FlatPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.event.PropNetFormAddedEvent;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.FlatPropNetStateMachine;
+import org.ggp.base.util.statemachine.verifier.ProverConsistency;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OptimizingPropNetFactoryTest extends Assert {
+
+    @Test
+    public void testParallelBuildIsConsistentWithProver() throws Exception {
+        ProverConsistency.assertConsistentWithProver(new ProverConsistency.SubjectFactory() {
+            @Override
+            public StateMachine create(String game, List<Gdl> description) throws Exception {
+                final List<PropNetFormAddedEvent> events = new ArrayList<PropNetFormAddedEvent>();
+                PropNet propNet = OptimizingPropNetFactory.create(description, false, 4, new Observer() {
+                    @Override
+                    public void observe(Event event) {
+                        events.add((PropNetFormAddedEvent) event);
+                    }
+                });
+
+                PropNetFormAddedEvent last = events.get(events.size() - 1);
+                assertEquals(game, events.size(), last.getFormCount());
+                assertEquals(game, last.getFormCount(), last.getFormsAdded());
+                for (PropNetFormAddedEvent event : events) {
+                    assertTrue(game, event.getComponentCount() <= last.getPeakComponentCount());
+                }
+                return new FlatPropNetStateMachine(new FlatPropNet(propNet));
+            }
+        });
+    }
+
+    @Test
+    public void testParallelBuildCanBeInterrupted() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        final Thread builder = Thread.currentThread();
+        final AtomicBoolean interrupting = new AtomicBoolean();
+        try {
+            // Interrupt the build from another thread once it is under way,
+            // while later forms are being added on the workers.
+            OptimizingPropNetFactory.create(desc, false, 4, new Observer() {
+                @Override
+                public void observe(Event event) {
+                    if (interrupting.compareAndSet(false, true)) {
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                builder.interrupt();
+                            }
+                        }).start();
+                    }
+                }
+            });
+            fail("Expected the build to be interrupted");
+        } catch (InterruptedException e) {
+            // Expected.
+        } finally {
+            Thread.interrupted();
+        }
+        // The pool has terminated, so its threads are at most finishing up.
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("OptimizingPropNetFactory worker")) {
+                thread.join(1000);
+                assertFalse(thread.isAlive());
+            }
+        }
+    }
+}
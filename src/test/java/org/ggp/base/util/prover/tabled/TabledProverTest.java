@@ -0,0 +1,146 @@
+package org.ggp.base.util.prover.tabled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TabledProverTest extends Assert {
+
+    @Test
+    public void testConsistencyWithAimaProver() throws Exception {
+        TestGameRepository repository = new TestGameRepository();
+        for (String game : repository.getGameKeys()) {
+            List<Gdl> desc = repository.getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine(false);
+            reference.initialize(desc);
+            StateMachine subject = new ProverStateMachine(true);
+            subject.initialize(desc);
+            assertTrue(game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+            assertSamePlayouts(game, reference, subject, 10);
+        }
+    }
+
+    @Test
+    public void testZeroArityRelations() throws Exception {
+        // In test_case_3a, (open2) is defined with parentheses but used
+        // without them, so like the AimaProver the tabled prover must not
+        // prove the proposition open2.
+        List<Gdl> desc = new TestGameRepository().getGame("test_case_3a").getRules();
+        StateMachine aima = new ProverStateMachine(false);
+        aima.initialize(desc);
+        StateMachine tabled = new ProverStateMachine(true);
+        tabled.initialize(desc);
+        MachineState state = aima.getInitialState();
+        Role role = aima.getRoles().get(0);
+        assertEquals("[( move correct_failure )]", aima.getLegalMoves(state, role).toString());
+        assertEquals("[( move correct_failure )]", tabled.getLegalMoves(state, role).toString());
+
+        TabledProver prover = new TabledProver(desc);
+        Set<GdlSentence> context = Collections.singleton((GdlSentence) GdlFactory.create("(true (cell 1 1 b))"));
+        assertTrue(prover.prove((GdlSentence) GdlFactory.create("(open2)"), context));
+        assertFalse(prover.prove((GdlSentence) GdlFactory.create("open2"), context));
+        assertTrue(prover.prove((GdlSentence) GdlFactory.create("open1"), context));
+        assertFalse(prover.prove((GdlSentence) GdlFactory.create("(open1)"), context));
+    }
+
+    // The verifier only compares move counts, so also check that both
+    // provers give the same states, moves and goals along random playouts.
+    private static void assertSamePlayouts(String game, StateMachine reference, StateMachine subject, int playouts) throws Exception {
+        Random random = new Random(game.hashCode());
+        for (int i = 0; i < playouts; i++) {
+            MachineState state = reference.getInitialState();
+            assertEquals(game, state, subject.getInitialState());
+            for (int depth = 0; depth < 200 && !reference.isTerminal(state); depth++) {
+                assertFalse(game, subject.isTerminal(state));
+                List<Move> jointMove = new ArrayList<Move>();
+                for (Role role : reference.getRoles()) {
+                    List<Move> moves = reference.getLegalMoves(state, role);
+                    assertEquals(game, new HashSet<Move>(moves), new HashSet<Move>(subject.getLegalMoves(state, role)));
+                    jointMove.add(moves.get(random.nextInt(moves.size())));
+                }
+                MachineState next = reference.getNextState(state, jointMove);
+                assertEquals(game, next, subject.getNextState(state, jointMove));
+                state = next;
+            }
+            assertEquals(game, reference.isTerminal(state), subject.isTerminal(state));
+            if (reference.isTerminal(state)) {
+                for (Role role : reference.getRoles()) {
+                    assertEquals(game, goalOrNull(reference, state, role), goalOrNull(subject, state, role));
+                }
+            }
+        }
+    }
+
+    // Some test games leave goals undefined on purpose.
+    private static Integer goalOrNull(StateMachine machine, MachineState state, Role role) {
+        try {
+            return machine.getGoal(state, role);
+        } catch (GoalDefinitionException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testLeftAndRightRecursion() throws Exception {
+        // Both forms of transitive closure, over a graph with a cycle.
+        List<Gdl> desc = GdlFactory.createList(
+                "(edge a b) (edge b c) (edge c a) (edge c d) " +
+                "(<= (left ?x ?y) (edge ?x ?y)) " +
+                "(<= (left ?x ?z) (left ?x ?y) (edge ?y ?z)) " +
+                "(<= (right ?x ?y) (edge ?x ?y)) " +
+                "(<= (right ?x ?z) (edge ?x ?y) (right ?y ?z)) " +
+                "(<= (sink ?x) (right a ?x) (not (left ?x a)))");
+        TabledProver prover = new TabledProver(desc);
+        assertAnswers(prover, "(left a ?x)", "(left a a)", "(left a b)", "(left a c)", "(left a d)");
+        assertAnswers(prover, "(left ?x d)", "(left a d)", "(left b d)", "(left c d)");
+        assertAnswers(prover, "(right ?x c)", "(right a c)", "(right b c)", "(right c c)");
+        assertAnswers(prover, "(sink ?x)", "(sink d)");
+        assertAnswers(prover, "(left d ?x)");
+    }
+
+    private static void assertAnswers(TabledProver prover, String query, String... expected) throws Exception {
+        Set<Gdl> expectedAnswers = new HashSet<Gdl>();
+        for (String answer : expected) {
+            expectedAnswers.add(GdlFactory.create(answer));
+        }
+        Set<GdlSentence> answers = prover.askAll((GdlSentence) GdlFactory.create(query), Collections.<GdlSentence>emptySet());
+        assertEquals(query, expectedAnswers, answers);
+    }
+
+    @Test
+    public void testContextIsNotCachedAcrossQueries() throws Exception {
+        List<Gdl> desc = GdlFactory.createList(
+                "(succ 1 2) (succ 2 3) " +
+                "(<= (after ?x ?z) (succ ?x ?z)) " +
+                "(<= (after ?x ?z) (succ ?x ?y) (after ?y ?z)) " +
+                "(<= (reached ?y) (true (at ?x)) (after ?x ?y))");
+        TabledProver prover = new TabledProver(desc);
+        GdlSentence query = (GdlSentence) GdlFactory.create("(reached ?y)");
+
+        Set<GdlSentence> context = new HashSet<GdlSentence>();
+        context.add((GdlSentence) GdlFactory.create("(true (at 1))"));
+        assertEquals(2, prover.askAll(query, context).size());
+
+        context.clear();
+        context.add((GdlSentence) GdlFactory.create("(true (at 2))"));
+        assertEquals(Collections.singleton(GdlFactory.create("(reached 3)")), prover.askAll(query, context));
+        assertFalse(prover.prove(query, Collections.<GdlSentence>emptySet()));
+    }
+}
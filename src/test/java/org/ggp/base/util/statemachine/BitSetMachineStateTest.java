@@ -0,0 +1,66 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BitSetMachineStateTest extends Assert {
+
+    private static GdlSentence sentence(String text) throws Exception {
+        return (GdlSentence) GdlFactory.create(text);
+    }
+
+    private static Set<GdlSentence> setOf(GdlSentence... sentences) {
+        return new HashSet<GdlSentence>(Arrays.asList(sentences));
+    }
+
+    @Test
+    public void testInterchangeableWithMachineState() throws Exception {
+        GdlSentence a = sentence("( true ( cell 1 1 x ) )");
+        GdlSentence b = sentence("( true ( cell 1 2 o ) )");
+        GdlSentence c = sentence("( true ( control xplayer ) )");
+        BaseIndex index = new BaseIndex(Arrays.asList(a, b, c));
+
+        BitSetMachineState state = index.createState(setOf(a, c));
+        MachineState plain = new MachineState(setOf(a, c));
+        assertTrue(state.isTrue(0));
+        assertFalse(state.isTrue(1));
+        assertEquals(plain, state);
+        assertEquals(state, plain);
+        assertEquals(plain.hashCode(), state.hashCode());
+        assertEquals(setOf(a, c), state.getContents());
+        assertEquals(state, state.clone());
+        assertFalse(state.equals(index.createState(setOf(a, b))));
+    }
+
+    @Test
+    public void testZobristHashIsStable() throws Exception {
+        List<GdlSentence> sentences = Arrays.asList(
+                sentence("( true ( step 1 ) )"),
+                sentence("( true ( step 2 ) )"),
+                sentence("( true ( step 3 ) )"));
+        BaseIndex first = new BaseIndex(sentences);
+        BaseIndex second = new BaseIndex(sentences);
+
+        BitSetMachineState state = first.createState(setOf(sentences.get(0), sentences.get(2)));
+        BitSetMachineState other = second.createState(setOf(sentences.get(0), sentences.get(2)));
+        assertEquals(state.getZobristHash(), other.getZobristHash());
+        assertEquals(state, other);
+        assertEquals(first.getZobristKey(0) ^ first.getZobristKey(2), state.getZobristHash());
+        assertEquals(0L, first.createEmptyState().getZobristHash());
+    }
+
+    @Test
+    public void testUnknownSentencesAreIgnored() throws Exception {
+        GdlSentence a = sentence("( true ( cell 1 1 x ) )");
+        BaseIndex index = new BaseIndex(Arrays.asList(a));
+        assertEquals(-1, index.indexOf(sentence("( true ( cell 3 3 b ) )")));
+        assertEquals(setOf(a), index.createState(setOf(a, sentence("( true ( cell 3 3 b ) )"))).getContents());
+    }
+}
@@ -0,0 +1,74 @@
+package org.ggp.base.util.statemachine;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.IIPropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SeesStateTest extends Assert {
+
+    private static final Role ROBOT = new Role(GdlPool.getConstant("robot"));
+    private static final Role RANDOM = new Role(GdlPool.getConstant("random"));
+
+    private static Set<See> sees(Role role, String... terms) throws Exception {
+        Set<See> sees = new HashSet<See>();
+        for (String term : terms) {
+            sees.add(new See(role, GdlFactory.createTerm(term)));
+        }
+        return sees;
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        SeesState a = new SeesState(ROBOT, sees(ROBOT, "(sees robot blank)", "(sees robot oneblack)"));
+        SeesState b = new SeesState(ROBOT, sees(ROBOT, "(sees robot oneblack)", "(sees robot blank)"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(new SeesState(ROBOT, sees(ROBOT, "(sees robot blank)"))));
+        assertFalse(a.equals(new SeesState(RANDOM, sees(ROBOT, "(sees robot blank)", "(sees robot oneblack)"))));
+
+        // Seeing nothing is the same whether it is given as null or as no sees.
+        assertEquals(new SeesState(ROBOT, null), new SeesState(ROBOT, new HashSet<See>()));
+        assertEquals(new SeesState(ROBOT, null).hashCode(), new SeesState(ROBOT, new HashSet<See>()).hashCode());
+
+        // A see of the same thing by another role is a different see.
+        assertFalse(new See(ROBOT, GdlFactory.createTerm("blank")).equals(new See(RANDOM, GdlFactory.createTerm("blank"))));
+    }
+
+    @Test
+    public void testContainsSee() throws Exception {
+        SeesState seesState = new SeesState(ROBOT, sees(ROBOT, "(sees robot blank)"));
+        assertTrue(seesState.containsSee((GdlSentence) GdlFactory.create("(sees robot blank)")));
+        assertFalse(seesState.containsSee((GdlSentence) GdlFactory.create("(sees robot twoblack)")));
+        assertFalse(new SeesState(ROBOT, null).containsSee((GdlSentence) GdlFactory.create("(sees robot blank)")));
+    }
+
+    @Test
+    public void testSeesBits() throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/mastermind/mastermind.kif"));
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        IIPropNet propNet = new IIPropNet(OptimizingPropNetFactory.create(desc));
+
+        List<Proposition> seesProps = propNet.getSeesPropositionList(ROBOT);
+        assertEquals(propNet.getSeesPropositionsByRole().get(ROBOT).size(), seesProps.size());
+        assertTrue(propNet.getSeesPropositionList(RANDOM).isEmpty());
+
+        SeesState seesState = new SeesState(ROBOT, sees(ROBOT, "(sees robot blank)", "(sees robot nonsense)"));
+        BitSet bits = propNet.getSeesBits(seesState);
+        assertEquals(1, bits.cardinality());
+        assertEquals(GdlFactory.create("(sees robot blank)"), seesProps.get(bits.nextSetBit(0)).getName());
+    }
+}
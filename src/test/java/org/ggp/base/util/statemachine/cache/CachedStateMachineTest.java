@@ -0,0 +1,68 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CachedStateMachineTest extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(desc);
+        for (StateMachine subject : new StateMachine[] {
+                new CachedStateMachine(new ProverStateMachine()),
+                new CachedStateMachine(new ProverStateMachine(), 16)}) {
+            subject.initialize(desc);
+            assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+
+    @Test
+    public void testBoundedCacheCountsAndEvicts() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        CachedStateMachine sm = new CachedStateMachine(new ProverStateMachine(), 4);
+        sm.initialize(desc);
+
+        MachineState state = sm.getInitialState();
+        sm.isTerminal(state);
+        assertEquals(1, sm.getCacheMisses());
+        sm.isTerminal(state);
+        assertEquals(1, sm.getCacheHits());
+
+        // Each next state is cached under its joint move once the legal
+        // moves are known.
+        List<MachineState> nexts = sm.getNextStates(state);
+        assertEquals(9, nexts.size());
+        assertSame(nexts.get(0), sm.getNextState(state, sm.getLegalJointMoves(state).get(0)));
+
+        for (MachineState next : nexts) {
+            sm.isTerminal(next);
+        }
+        assertTrue(sm.getCacheEvictions() >= 6);
+    }
+
+    @Test
+    public void testClockCacheGivesSecondChances() {
+        ClockCache<Integer, String> cache = new ClockCache<Integer, String>(2, 1);
+        assertEquals("one", cache.putIfAbsent(1, "one"));
+        assertEquals("two", cache.putIfAbsent(2, "two"));
+        assertEquals("one", cache.putIfAbsent(1, "uno"));
+        assertEquals("one", cache.get(1));
+        // Entry 1 was read, so entry 2 is evicted in its place.
+        cache.putIfAbsent(3, "three");
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals("three", cache.get(3));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,134 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.See;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IIKleenePropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testBeliefIsSoundOnMastermind() throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/mastermind/mastermind.kif"));
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        IIKleenePropNetStateMachine machine = new IIKleenePropNetStateMachine();
+        machine.initialize(prover, desc);
+        Role robot = machine.getRoles().get(1);
+
+        Random random = new Random(42);
+        for (int match = 0; match < 50; match++) {
+            MachineState state = prover.getInitialState();
+            Move lastMove = null;
+            while (!prover.isTerminal(state)) {
+                // Each turn gets a new sees state, as in IIGamer.
+                SeesState sees = new SeesState(robot, machine.getSeesState(state, robot).getSees());
+                machine.beginTurn(sees, lastMove);
+                List<Move> known = (lastMove == null) ? machine.getLegalMoves(sees) : machine.getLegalMoves(sees, lastMove);
+                assertEquals(new HashSet<Move>(prover.getLegalMoves(state, robot)), new HashSet<Move>(known));
+                for (Role role : machine.getRoles()) {
+                    List<Move> possible = (lastMove == null) ? machine.refineLegalMoves(sees, role) : machine.refineLegalMoves(sees, lastMove, role);
+                    assertTrue(possible.containsAll(prover.getLegalMoves(state, role)));
+                }
+
+                List<Move> moves = new ArrayList<Move>();
+                for (Role role : machine.getRoles()) {
+                    List<Move> legal = prover.getLegalMoves(state, role);
+                    moves.add(legal.get(random.nextInt(legal.size())));
+                }
+                lastMove = moves.get(1);
+                state = prover.getNextState(state, moves);
+            }
+            SeesState sees = new SeesState(robot, machine.getSeesState(state, robot).getSees());
+            assertEquals(prover.getGoal(state, robot), (int) machine.getGoals(sees).get(1));
+        }
+    }
+
+    @Test
+    public void testSeesArePropagatedBackwards() throws Exception {
+        // The robot can only tell which secret was chosen from whether it
+        // sees "hot", and which door it may open depends on the secret.
+        List<Gdl> desc = GdlFactory.createList(
+                "(role random) (role robot) (init (control random)) " +
+                "(secretval a) (secretval b) " +
+                "(<= (legal random (choose ?x)) (true (control random)) (secretval ?x)) " +
+                "(<= (legal random noop) (true (control robot))) " +
+                "(<= (legal robot noop) (true (control random))) " +
+                "(<= (legal robot (open a)) (true (control robot)) (true (secret a))) " +
+                "(<= (legal robot (open b)) (true (control robot)) (not (true (secret a)))) " +
+                "(<= (next (secret ?x)) (does random (choose ?x))) " +
+                "(<= (next (control robot)) (true (control random))) " +
+                "(<= (next done) (true (control robot))) " +
+                "(<= (sees robot hot) (true (secret a))) " +
+                "(<= terminal (true done)) " +
+                "(goal random 0) (goal robot 100)");
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        IIKleenePropNetStateMachine machine = new IIKleenePropNetStateMachine();
+        machine.initialize(prover, desc);
+        Role robot = machine.getRoles().get(1);
+        Move noop = new Move(GdlFactory.createTerm("noop"));
+
+        SeesState hot = new SeesState(robot, Collections.singleton(new See(robot, GdlFactory.createTerm("(sees robot hot)"))));
+        assertEquals(Arrays.asList(new Move(GdlFactory.createTerm("(open a)"))), machine.getLegalMoves(hot, noop));
+
+        machine.resetBelief();
+        SeesState cold = new SeesState(robot, Collections.<See>emptySet());
+        assertEquals(Arrays.asList(new Move(GdlFactory.createTerm("(open b)"))), machine.getLegalMoves(cold, noop));
+    }
+
+    @Test
+    public void testEqualSeesStatesAreTheSameTurn() throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/mastermind/mastermind.kif"));
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        IIKleenePropNetStateMachine machine = new IIKleenePropNetStateMachine();
+        machine.initialize(prover, desc);
+        Role robot = machine.getRoles().get(1);
+
+        Random random = new Random(7);
+        MachineState state = prover.getInitialState();
+        Move lastMove = null;
+        while (!prover.isTerminal(state)) {
+            Set<See> seen = machine.getSeesState(state, robot).getSees();
+            machine.beginTurn(new SeesState(robot, seen), lastMove);
+            List<Move> expected = prover.getLegalMoves(state, robot);
+            // Equal sees states built afresh are about the same turn, and
+            // asking for the goals doesn't move the belief on.
+            for (int i = 0; i < 2; i++) {
+                SeesState sees = new SeesState(robot, new HashSet<See>(seen));
+                List<Move> known = (lastMove == null) ? machine.getLegalMoves(sees) : machine.getLegalMoves(sees, lastMove);
+                assertEquals(new HashSet<Move>(expected), new HashSet<Move>(known));
+                machine.getGoals(new SeesState(robot, Collections.<See>emptySet()));
+            }
+
+            List<Move> moves = new ArrayList<Move>();
+            for (Role role : machine.getRoles()) {
+                List<Move> legal = prover.getLegalMoves(state, role);
+                moves.add(legal.get(random.nextInt(legal.size())));
+            }
+            lastMove = moves.get(1);
+            state = prover.getNextState(state, moves);
+        }
+    }
+}
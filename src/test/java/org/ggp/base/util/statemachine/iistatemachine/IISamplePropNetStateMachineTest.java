@@ -0,0 +1,162 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IISamplePropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testRefineLegalMovesForAllRoles() throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/mastermind2x3/mastermind2x3.kif"));
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        IISamplePropNetStateMachine batch = new IISamplePropNetStateMachine();
+        batch.initialize(prover, desc);
+        IISamplePropNetStateMachine single = new IISamplePropNetStateMachine();
+        single.initialize(prover, desc);
+        List<Role> roles = batch.getRoles();
+        Role robot = roles.get(1);
+
+        Random random = new Random(7);
+        for (int match = 0; match < 20; match++) {
+            MachineState state = prover.getInitialState();
+            Move lastMove = null;
+            while (!prover.isTerminal(state)) {
+                SeesState sees = batch.getSeesState(state, robot);
+                List<List<Move>> allMoves = batch.refineLegalMovesForAllRoles(sees, lastMove);
+                assertEquals(roles.size(), allMoves.size());
+                for (int i = 0; i < roles.size(); i++) {
+                    // Each query resets the propnet from the same state, so one
+                    // role at a time gives the same answer as all at once.
+                    single.getSeesState(state, robot);
+                    List<Move> moves = (lastMove == null) ? single.refineLegalMoves(sees, roles.get(i)) : single.refineLegalMoves(sees, lastMove, roles.get(i));
+                    assertEquals(new HashSet<Move>(moves), new HashSet<Move>(allMoves.get(i)));
+                }
+
+                List<Move> jointMove = new ArrayList<Move>();
+                for (Role role : roles) {
+                    List<Move> legal = prover.getLegalMoves(state, role);
+                    jointMove.add(legal.get(random.nextInt(legal.size())));
+                }
+                lastMove = jointMove.get(1);
+                state = prover.getNextState(state, jointMove);
+            }
+        }
+    }
+
+    @Test
+    public void testSeesStatesForAllRoles() throws Exception {
+        String rules = FileUtils.readFileAsString(new File("games/games/mastermind2x3/mastermind2x3.kif"));
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        IISamplePropNetStateMachine sample = new IISamplePropNetStateMachine();
+        sample.initialize(prover, desc);
+        IIKleenePropNetStateMachine kleene = new IIKleenePropNetStateMachine();
+        kleene.initialize(prover, desc);
+        List<Role> roles = sample.getRoles();
+
+        Random random = new Random(11);
+        for (int match = 0; match < 20; match++) {
+            MachineState state = prover.getInitialState();
+            while (!prover.isTerminal(state)) {
+                List<Move> jointMove = new ArrayList<Move>();
+                for (Role role : roles) {
+                    List<Move> legal = prover.getLegalMoves(state, role);
+                    jointMove.add(legal.get(random.nextInt(legal.size())));
+                }
+                state = prover.getNextState(state, jointMove);
+
+                List<SeesState> sampleSees = sample.getSeesStates(state);
+                List<SeesState> kleeneSees = kleene.getSeesStates(state);
+                assertEquals(roles.size(), sampleSees.size());
+                for (int i = 0; i < roles.size(); i++) {
+                    assertEquals(roles.get(i), sampleSees.get(i).getRole());
+                    assertEquals(kleene.getSeesState(state, roles.get(i)), sampleSees.get(i));
+                    assertEquals(kleeneSees.get(i), sampleSees.get(i));
+                    // A cached answer is equal, but never the same object.
+                    SeesState again = sample.getSeesState(state, roles.get(i));
+                    assertEquals(sampleSees.get(i), again);
+                    assertNotSame(sampleSees.get(i), again);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesTheKleeneMachine() throws Exception {
+        for (String game : new String[] {"mastermind", "mastermind2x3"}) {
+            String rules = FileUtils.readFileAsString(new File("games/games/" + game + "/" + game + ".kif"));
+            List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            IISamplePropNetStateMachine sample = new IISamplePropNetStateMachine();
+            sample.initialize(prover, desc);
+            IIKleenePropNetStateMachine kleene = new IIKleenePropNetStateMachine();
+            kleene.initialize(prover, desc);
+            List<Role> roles = sample.getRoles();
+            assertEquals(kleene.getRoles(), roles);
+            Role robot = roles.get(1);
+
+            Random random = new Random(13);
+            for (int match = 0; match < 20; match++) {
+                kleene.resetBelief();
+                MachineState state = prover.getInitialState();
+                Move lastMove = null;
+                while (!prover.isTerminal(state)) {
+                    SeesState sees = sample.getSeesState(state, robot);
+                    assertEquals(kleene.getSeesState(state, robot), sees);
+                    // Each turn gets a new sees state, as in IIGamer.
+                    SeesState turn = new SeesState(robot, sees.getSees());
+                    kleene.beginTurn(turn, lastMove);
+
+                    List<Move> jointMove = new ArrayList<Move>();
+                    for (Role role : roles) {
+                        List<Move> legal = prover.getLegalMoves(state, role);
+                        jointMove.add(legal.get(random.nextInt(legal.size())));
+                    }
+                    MachineState next = prover.getNextState(state, jointMove);
+
+                    List<Move> known = (lastMove == null) ? sample.getLegalMoves(sees) : sample.getLegalMoves(sees, lastMove);
+                    sample.getSeesState(state, robot);
+                    List<List<Move>> allMoves = sample.refineLegalMovesForAllRoles(sees, lastMove);
+                    if (lastMove == null) {
+                        // Without a move, the sample machine answers about the
+                        // turn after the state marked last, which the Kleene
+                        // machine never does, so check it against the prover.
+                        assertEquals(new HashSet<Move>(prover.getLegalMoves(next, robot)), new HashSet<Move>(known));
+                        for (int i = 0; i < roles.size(); i++) {
+                            assertEquals(new HashSet<Move>(prover.getLegalMoves(next, roles.get(i))), new HashSet<Move>(allMoves.get(i)));
+                        }
+                    } else {
+                        assertEquals(new HashSet<Move>(kleene.getLegalMoves(turn, lastMove)), new HashSet<Move>(known));
+                        List<List<Move>> kleeneMoves = kleene.refineLegalMovesForAllRoles(turn, lastMove);
+                        for (int i = 0; i < roles.size(); i++) {
+                            assertEquals(new HashSet<Move>(kleeneMoves.get(i)), new HashSet<Move>(allMoves.get(i)));
+                        }
+                    }
+
+                    lastMove = jointMove.get(1);
+                    state = next;
+                }
+                assertEquals(kleene.getSeesState(state, robot), sample.getSeesState(state, robot));
+            }
+        }
+    }
+}
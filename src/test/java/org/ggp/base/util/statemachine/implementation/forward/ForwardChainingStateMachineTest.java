@@ -0,0 +1,63 @@
+package org.ggp.base.util.statemachine.implementation.forward;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.verifier.ProverConsistency;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForwardChainingStateMachineTest extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        ProverConsistency.SubjectFactory factory = new ProverConsistency.SubjectFactory() {
+            @Override
+            public StateMachine create(String game, List<Gdl> description) {
+                StateMachine subject = new ForwardChainingStateMachine();
+                subject.initialize(description);
+                return subject;
+            }
+        };
+        ProverConsistency.assertConsistentWithProver(factory);
+        ProverConsistency.assertConsistentWithProver(factory, new String[] {"test_clean_not_distinct"});
+    }
+
+    @Test
+    public void testRecursionThroughState() throws Exception {
+        // The game ends once the marker can reach the end of a chain of
+        // links, which needs the transitive closure of a state-dependent
+        // relation.
+        List<Gdl> desc = GdlFactory.createList(
+                "(role robot) " +
+                "(init (link a b)) (init (link c d)) " +
+                "(<= (legal robot (join ?x ?y)) (true (link ?x ?z)) (true (link ?w ?y)) (distinct ?x ?w)) " +
+                "(<= (legal robot noop) (true (link ?x ?y))) " +
+                "(<= (next (link ?x ?y)) (true (link ?x ?y))) " +
+                "(<= (next (link ?z ?w)) (does robot (join ?x ?y)) (true (link ?x ?z)) (true (link ?w ?y))) " +
+                "(<= (reaches ?x ?y) (true (link ?x ?y))) " +
+                "(<= (reaches ?x ?z) (reaches ?x ?y) (true (link ?y ?z))) " +
+                "(<= terminal (reaches a d)) " +
+                "(<= (goal robot 100) (reaches a d)) " +
+                "(<= (goal robot 0) (not (reaches a d)))");
+        StateMachine machine = new ForwardChainingStateMachine();
+        machine.initialize(desc);
+        Role robot = machine.getRoles().get(0);
+
+        MachineState state = machine.getInitialState();
+        assertFalse(machine.isTerminal(state));
+        assertEquals(0, machine.getGoal(state, robot));
+        Move join = Move.create("( join a d )");
+        assertTrue(machine.getLegalMoves(state, robot).contains(join));
+
+        state = machine.getNextState(state, Collections.singletonList(join));
+        assertTrue(machine.isTerminal(state));
+        assertEquals(100, machine.getGoal(state, robot));
+    }
+}
@@ -0,0 +1,47 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.verifier.ProverConsistency;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        ProverConsistency.assertConsistentWithProver(new ProverConsistency.SubjectFactory() {
+            @Override
+            public StateMachine create(String game, List<Gdl> description) {
+                StateMachine subject = new CompiledPropNetStateMachine();
+                subject.initialize(description);
+                return subject;
+            }
+        });
+    }
+
+    @Test
+    public void testDepthChargesMatchFullPropagation() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        CompiledPropNetStateMachine compiled = new CompiledPropNetStateMachine();
+        compiled.initialize(desc);
+        // Replicas share both the network and the generated class.
+        StateMachine replica = new CompiledPropNetStateMachine(compiled.getPropNet(), compiled.getCompiledPropNet());
+        StateMachine full = new FlatPropNetStateMachine(compiled.getPropNet());
+
+        DepthChargeContext replicaContext = replica.createDepthChargeContext(new Random(3));
+        DepthChargeContext fullContext = full.createDepthChargeContext(new Random(3));
+        int[] replicaGoals = new int[2];
+        int[] fullGoals = new int[2];
+        for (int i = 0; i < 50; i++) {
+            int depth = full.performDepthCharge(full.getInitialState(), fullContext, fullGoals);
+            assertEquals(depth, replica.performDepthCharge(replica.getInitialState(), replicaContext, replicaGoals));
+            assertArrayEquals(fullGoals, replicaGoals);
+        }
+    }
+}
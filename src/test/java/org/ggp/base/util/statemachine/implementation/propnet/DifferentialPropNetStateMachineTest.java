@@ -0,0 +1,72 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.verifier.ProverConsistency;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DifferentialPropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        ProverConsistency.assertConsistentWithProver(new ProverConsistency.SubjectFactory() {
+            @Override
+            public StateMachine create(String game, List<Gdl> description) {
+                StateMachine subject = new DifferentialPropNetStateMachine();
+                subject.initialize(description);
+                return subject;
+            }
+        });
+    }
+
+    @Test
+    public void testMatchesFullPropagation() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        FlatPropNetStateMachine full = new FlatPropNetStateMachine();
+        full.initialize(desc);
+        // Share the compiled network, as per-thread replicas would.
+        StateMachine differential = new DifferentialPropNetStateMachine(full.getPropNet());
+
+        for (int i = 0; i < 50; i++) {
+            MachineState state = full.getInitialState();
+            assertEquals(state, differential.getInitialState());
+            while (!full.isTerminal(state)) {
+                assertFalse(differential.isTerminal(state));
+                List<Move> jointMove = full.getRandomJointMove(state);
+                assertEquals(full.getLegalJointMoves(state), differential.getLegalJointMoves(state));
+                MachineState next = full.getNextState(state, jointMove);
+                assertEquals(next, differential.getNextState(state, jointMove));
+                state = next;
+            }
+            assertTrue(differential.isTerminal(state));
+            assertEquals(full.getGoals(state), differential.getGoals(state));
+        }
+    }
+
+    @Test
+    public void testDepthChargesMatchFullPropagation() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        FlatPropNetStateMachine full = new FlatPropNetStateMachine();
+        full.initialize(desc);
+        StateMachine differential = new DifferentialPropNetStateMachine(full.getPropNet());
+
+        // With the same network and seed, both machines make the same moves.
+        DepthChargeContext fullContext = full.createDepthChargeContext(new Random(7));
+        DepthChargeContext differentialContext = differential.createDepthChargeContext(new Random(7));
+        int[] fullGoals = new int[2];
+        int[] differentialGoals = new int[2];
+        for (int i = 0; i < 50; i++) {
+            int depth = full.performDepthCharge(full.getInitialState(), fullContext, fullGoals);
+            assertEquals(depth, differential.performDepthCharge(differential.getInitialState(), differentialContext, differentialGoals));
+            assertArrayEquals(fullGoals, differentialGoals);
+        }
+    }
+}
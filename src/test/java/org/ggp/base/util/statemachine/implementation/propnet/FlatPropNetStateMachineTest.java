@@ -0,0 +1,107 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.statemachine.DepthChargeContext;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.ProverConsistency;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlatPropNetStateMachineTest extends Assert {
+
+    protected final FlatPropNetStateMachine sm = new FlatPropNetStateMachine();
+
+    @Test
+    public void testPropNetOnTicTacToe() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        MachineState state = sm.getInitialState();
+        assertFalse(sm.isTerminal(state));
+        Role xRole = Role.create("xplayer");
+        Role oRole = Role.create("oplayer");
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+
+        assertEquals(9, sm.getLegalJointMoves(state).size());
+        assertEquals(9, sm.getLegalMoves(state, xRole).size());
+        assertEquals(1, sm.getLegalMoves(state, oRole).size());
+        Move noop = new Move(GdlPool.getConstant("noop"));
+        assertEquals(noop, sm.getLegalMoves(state, oRole).get(0));
+
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 1 1 )"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, Move.create("( mark 1 3 )")));
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 3 1 )"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, Move.create("( mark 2 2 )")));
+        assertFalse(sm.isTerminal(state));
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 2 1 )"), noop));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Arrays.asList(100, 0), sm.getGoals(state));
+    }
+
+    @Test
+    public void testStatesMatchProverContents() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(desc);
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+
+        MachineState state = sm.getInitialState();
+        assertEquals(prover.getInitialState(), state);
+        assertEquals(prover.getInitialState().hashCode(), state.hashCode());
+        assertEquals(state, sm.getMachineStateFromSentenceList(prover.getInitialState().getContents()));
+    }
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        ProverConsistency.assertConsistentWithProver(new ProverConsistency.SubjectFactory() {
+            @Override
+            public StateMachine create(String game, List<Gdl> description) {
+                StateMachine subject = new FlatPropNetStateMachine();
+                subject.initialize(description);
+                return subject;
+            }
+        });
+    }
+
+    @Test(expected = GoalDefinitionException.class)
+    public void testDepthChargeWithoutTerminal() throws Exception {
+        // Every state has a legal move and none is terminal.
+        sm.initialize(GdlFactory.createList(
+                "(role player) (init (step 1)) (legal player go) " +
+                "(<= (next (step 1)) (true (step 1))) (goal player 100)"));
+        assertFalse(sm.isTerminal(sm.getInitialState()));
+        sm.performDepthCharge(sm.getInitialState(), sm.createDepthChargeContext(new Random(1)), new int[1]);
+    }
+
+    @Test
+    public void testDepthChargesReachTerminalStates() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(desc);
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+
+        // The prover goes through the default implementation.
+        for (StateMachine machine : Arrays.asList(sm, prover)) {
+            DepthChargeContext context = machine.createDepthChargeContext(new Random(1));
+            int[] goals = new int[2];
+            for (int i = 0; i < 20; i++) {
+                int depth = machine.performDepthCharge(machine.getInitialState(), context, goals);
+                assertTrue(depth >= 5 && depth <= 9);
+                assertEquals(100, goals[0] + goals[1]);
+            }
+        }
+        // Depth charges must not disturb later queries.
+        assertEquals(9, sm.getLegalMoves(sm.getInitialState(), Role.create("xplayer")).size());
+    }
+}
@@ -0,0 +1,43 @@
+package org.ggp.base.util.statemachine.verifier;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+
+/**
+ * Checks state machines against a ProverStateMachine on test games, using
+ * the {@link StateMachineVerifier}. The reference runs on the AimaProver,
+ * the long-established prover, rather than the newer TabledProver.
+ */
+public final class ProverConsistency {
+
+    /** The test games that state machines are checked on by default. */
+    public static final String[] GAMES = {"ticTacToe", "connectFour", "test_case_3a", "test_case_5c"};
+
+    public interface SubjectFactory {
+        /** Returns the initialized state machine to check on the given game. */
+        StateMachine create(String game, List<Gdl> description) throws Exception;
+    }
+
+    private ProverConsistency() {
+    }
+
+    public static void assertConsistentWithProver(SubjectFactory factory) throws Exception {
+        assertConsistentWithProver(factory, GAMES);
+    }
+
+    public static void assertConsistentWithProver(SubjectFactory factory, String[] games) throws Exception {
+        TestGameRepository repository = new TestGameRepository();
+        for (String game : games) {
+            List<Gdl> desc = repository.getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine(false);
+            reference.initialize(desc);
+            StateMachine subject = factory.create(game, desc);
+            Assert.assertTrue(game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+}